@@ -18,7 +18,9 @@ package org.apache.nutch.api.resources;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
@@ -60,6 +62,21 @@ public class ProxyResource extends AbstractResource {
     return ProxyPool.getConfiguredProxyList();
   }
 
+  /**
+   * The score, latency, success rate and request counts of every proxy of the
+   * pool of this JVM, empty if the pool is not used
+   * */
+  @GET
+  @Path("/metrics")
+  public List<Map<String, Object>> metrics() {
+    ProxyPool proxyPool = ProxyPool.getSharedInstance();
+    if (proxyPool == null) {
+      return Collections.emptyList();
+    }
+
+    return proxyPool.getMetrics();
+  }
+
   @PUT
   @Path("/echo")
   @Consumes("text/html; charset='UTF-8'")
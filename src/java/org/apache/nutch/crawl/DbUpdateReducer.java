@@ -210,9 +210,10 @@ public class DbUpdateReducer extends NutchReducer<UrlWithScore, NutchWritable, S
       if (status == CrawlStatus.STATUS_NOTMODIFIED) {
         modified = FetchSchedule.STATUS_NOTMODIFIED;
       }
+      // the signatures of a not modified page are the ones of an earlier fetch
       ByteBuffer prevSig = page.getPrevSignature();
       ByteBuffer signature = page.getSignature();
-      if (prevSig != null && signature != null) {
+      if (modified == FetchSchedule.STATUS_UNKNOWN && prevSig != null && signature != null) {
         if (SignatureComparator.compare(prevSig, signature) != 0) {
           modified = FetchSchedule.STATUS_MODIFIED;
         } else {
@@ -25,8 +25,7 @@ import org.apache.nutch.crawl.filters.CrawlFilters;
 import org.apache.nutch.mapreduce.NutchMapper;
 import org.apache.nutch.mapreduce.NutchUtil;
 import org.apache.nutch.metadata.Nutch;
-import org.apache.nutch.net.URLFilterException;
-import org.apache.nutch.net.URLFilters;
+import org.apache.nutch.net.URLFilterCache;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.scoring.ScoringFilterException;
 import org.apache.nutch.scoring.ScoringFilters;
@@ -42,11 +41,16 @@ public class GeneratorMapper extends NutchMapper<String, WebPage, SelectorEntry,
   public static final Logger LOG = LoggerFactory.getLogger(GeneratorMapper.class);
 
   private static enum Counter {
-    rows, rowsAfterFinished, rowsInjected, rowsBeforeStart, rowsNotInRange, pagesAlreadyGenerated, 
+    rows, rowsAfterFinished, rowsInjected, rowsDeferred, rowsBeforeStart, rowsNotInRange, pagesAlreadyGenerated, 
     pagesTooFarAway, rowsNormalisedToNull, rowsFiltered, pagesFetchLater
   };
 
-  private URLFilters filters;
+  /**
+   * Pages deferred by the fetcher come right after the injected ones
+   * */
+  public static final float DEFERRED_SCORE = Float.MAX_VALUE / 2;
+
+  private URLFilterCache urlFilterCache;
   private URLNormalizers normalizers;
   private CrawlFilters crawlFilters;
   private boolean filter;
@@ -66,12 +70,11 @@ public class GeneratorMapper extends NutchMapper<String, WebPage, SelectorEntry,
     getCounter().register(Counter.class);
 
     filter = conf.getBoolean(Nutch.GENERATOR_FILTER, true);
-    if (filter) {
-      filters = new URLFilters(conf);
-    }
-
     normalise = conf.getBoolean(Nutch.GENERATOR_NORMALISE, true);
-    if (normalise) {
+    if (filter) {
+      // normalizes as well
+      urlFilterCache = URLFilterCache.get(conf);
+    } else if (normalise) {
       normalizers = new URLNormalizers(conf, URLNormalizers.SCOPE_GENERATE_HOST_COUNT);
     }
 
@@ -112,6 +115,16 @@ public class GeneratorMapper extends NutchMapper<String, WebPage, SelectorEntry,
       return;
     }
 
+    // Page is generated but deferred by the fetcher, it was due in the last batch
+    if (Mark.DEFERRED_MARK.hasMark(page) && !Mark.GENERATE_MARK.hasMark(page)) {
+      entry.set(url, DEFERRED_SCORE);
+      context.write(entry, page);
+
+      getCounter().increase(Counter.rowsDeferred);
+
+      return;
+    }
+
     if (Mark.GENERATE_MARK.hasMark(page)) {
       // LOG.debug("Skipping {}; already generated", url);
       getCounter().increase(Counter.pagesAlreadyGenerated);
@@ -189,24 +202,46 @@ public class GeneratorMapper extends NutchMapper<String, WebPage, SelectorEntry,
     String url = TableUtil.unreverseUrl(reversedUrl);
 
     // If filtering is on don't generate URLs that don't pass URLFilters
-    try {
-      if (normalise) {
-        url = normalizers.normalize(url, URLNormalizers.SCOPE_GENERATE_HOST_COUNT);
+    if (filter) {
+      URLFilterCache.Entry entry = urlFilterCache.getEntry(url,
+          normalise ? URLNormalizers.SCOPE_GENERATE_HOST_COUNT : null);
+      switch (entry.getStatus()) {
+      case ACCEPTED:
+        return true;
+      case NORMALIZED_TO_NULL:
+        getCounter().increase(Counter.rowsNormalisedToNull);
+        return false;
+      case FILTERED:
+        return false;
+      default:
+        LOG.warn("Filter failed, url: {} \n {}", url, entry.getStatus());
+        return false;
       }
+    }
 
-      if (url == null) {
-        getCounter().increase(Counter.rowsNormalisedToNull);
+    if (normalise) {
+      try {
+        url = normalizers.normalize(url, URLNormalizers.SCOPE_GENERATE_HOST_COUNT);
+      } catch (MalformedURLException e) {
+        LOG.warn("Filter failed, url: {} \n {}", url, e.getMessage());
         return false;
       }
 
-      if (filter && filters.filter(url) == null) {
+      if (url == null) {
+        getCounter().increase(Counter.rowsNormalisedToNull);
         return false;
       }
-    } catch (URLFilterException | MalformedURLException e) {
-      LOG.warn("Filter failed, url: {} \n {}", url, e.getMessage());
-      return false;
     }
 
     return true;
   }
+
+  @Override
+  protected void cleanup(Context context) {
+    if (urlFilterCache != null) {
+      urlFilterCache.reportStats(context);
+    }
+
+    super.cleanup(context);
+  }
 }
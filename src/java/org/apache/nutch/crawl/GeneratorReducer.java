@@ -95,6 +95,7 @@ public class GeneratorReducer extends NutchReducer<SelectorEntry, WebPage, Strin
       }
 
       Mark.INJECT_MARK.removeMarkIfExist(page);
+      Mark.DEFERRED_MARK.removeMarkIfExist(page);
       Mark.GENERATE_MARK.putMark(page, batchId);
       page.setBatchId(batchId);
 
@@ -0,0 +1,438 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetcher;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.Validate;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Reducer.Context;
+import org.apache.nutch.fetcher.data.FetchItem;
+import org.apache.nutch.net.DnsCache;
+import org.apache.nutch.net.protocols.ConditionalGet;
+import org.apache.nutch.protocol.Protocol;
+import org.apache.nutch.protocol.ProtocolFactory;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.protocol.ProtocolStatusUtils;
+import org.apache.nutch.util.MimeUtil;
+import org.slf4j.Logger;
+
+/**
+ * An event loop which drives many non-blocking HTTP fetches over one
+ * {@link Selector}. Fetch items are taken from the fetch queues just like
+ * {@link FetchThread} does, so the politeness of each queue is kept, and the
+ * results are handed back through {@link FetchManager#finishFetchItem(String, long, ProtocolOutput)}
+ * on a few completion threads, so only the socket I/O runs on the event loop.
+ *
+ * Only plain http is handled on the event loop, other urls (https, ftp, file ...)
+ * and the urls whose robots rules are not loaded yet are fetched by the protocol
+ * plugins on a small blocking pool.
+ */
+public class AsyncFetchThread extends Thread {
+
+  public static final Logger LOG = FetcherJob.LOG;
+
+  private static AtomicInteger asyncFetchThreadSequence = new AtomicInteger(0);
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Select at most this long while requests are in flight, so new fetch items are admitted soon
+   * */
+  private static final long SELECT_TIMEOUT = 100;
+
+  /**
+   * Wait at most this long for a fetch item if nothing is in flight
+   * */
+  private static final long MAX_IDLE_WAIT = 1000;
+
+  /**
+   * Wait at most this long for the completions in progress when the thread exits
+   * */
+  private static final long COMPLETION_WAIT = 60 * 1000;
+
+  private final QueueFeederThread queueFeederThread;
+  private final FetchManager fetchManager;
+  private final ProtocolFactory protocolFactory;
+  private final MimeUtil mimeTypes;
+  private final DnsCache dnsCache;
+
+  private final int maxInFlight;
+  private final int timeout;
+  private final int maxContent;
+  private final String userAgent;
+  private final String accept;
+  private final String proxyHost;
+  private final int proxyPort;
+  private final boolean conditionalGet;
+
+  private final Set<AsyncHttpExchange> inFlight = new HashSet<AsyncHttpExchange>();
+  private final ExecutorService blockingExecutor;
+  private final AtomicInteger blockingInFlight = new AtomicInteger(0);
+  private final ExecutorService completionExecutor;
+  private final AtomicInteger completing = new AtomicInteger(0);
+  private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+  private Selector selector;
+  private long lastTimeoutCheck = System.currentTimeMillis();
+
+  @SuppressWarnings("rawtypes")
+  public AsyncFetchThread(QueueFeederThread queueFeederThread, FetchManager fetchManager, Context context) {
+    Configuration conf = context.getConfiguration();
+
+    this.queueFeederThread = queueFeederThread;
+    this.fetchManager = fetchManager;
+
+    this.setDaemon(true);
+    this.setName("AsyncFetcherThread-" + asyncFetchThreadSequence.incrementAndGet());
+
+    this.protocolFactory = new ProtocolFactory(conf);
+    this.mimeTypes = new MimeUtil(conf);
+    this.dnsCache = DnsCache.getInstance(conf);
+
+    this.maxInFlight = conf.getInt("fetcher.async.max.inflight", 500);
+    this.timeout = conf.getInt("http.timeout", 10000);
+    this.maxContent = conf.getInt("http.content.limit", 64 * 1024);
+    this.accept = conf.get("http.accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+    this.proxyHost = conf.get("http.proxy.host");
+    this.proxyPort = conf.getInt("http.proxy.port", 8080);
+    this.conditionalGet = conf.getBoolean(ConditionalGet.ENABLED_KEY, true);
+
+    String agentName = conf.get("http.agent.name", "");
+    String agentVersion = conf.get("http.agent.version");
+    this.userAgent = agentVersion == null ? agentName : agentName + "/" + agentVersion;
+
+    final String threadName = getName();
+    this.blockingExecutor = Executors.newFixedThreadPool(conf.getInt("fetcher.async.blocking.threads", 5),
+        new ThreadFactory() {
+          private int sequence = 0;
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, threadName + "-blocking-" + (++sequence));
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    this.completionExecutor = Executors.newFixedThreadPool(conf.getInt("fetcher.async.completion.threads", 2),
+        new ThreadFactory() {
+          private int sequence = 0;
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, threadName + "-completion-" + (++sequence));
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+
+  public int getInFlightCount() {
+    // the completions count, so a slow output holds back the new requests
+    return inFlight.size() + blockingInFlight.get() + completing.get();
+  }
+
+  @Override
+  public void run() {
+    fetchManager.activeFetcherThreads.incrementAndGet();
+
+    try {
+      selector = Selector.open();
+
+      while (true) {
+        admitFetchItems();
+
+        if (getInFlightCount() == 0) {
+          if (isMissionComplete()) {
+            break;
+          }
+
+          // nothing to drive, block until a fetch item is eligible
+          FetchItem item = fetchManager.consumeFetchItem(MAX_IDLE_WAIT);
+          if (item != null) {
+            dispatch(item);
+          }
+          continue;
+        }
+
+        selector.select(getSelectTimeout());
+        processSelectedKeys();
+        checkTimeouts();
+      }
+    } catch (final Throwable e) {
+      LOG.error("async fetcher throwable caught", e);
+    } finally {
+      for (AsyncHttpExchange exchange : inFlight.toArray(new AsyncHttpExchange[0])) {
+        fail(exchange, "Fetcher thread exit");
+      }
+
+      blockingExecutor.shutdown();
+      completionExecutor.shutdown();
+      try {
+        completionExecutor.awaitTermination(COMPLETION_WAIT, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (selector != null) {
+        try {
+          selector.close();
+        } catch (IOException ignored) {}
+      }
+
+      fetchManager.activeFetcherThreads.decrementAndGet();
+      LOG.info("-finishing thread " + getName() + ", activeFetcherThreads=" + fetchManager.activeFetcherThreads);
+    }
+  }
+
+  private void admitFetchItems() {
+    int capacity = maxInFlight - getInFlightCount();
+    if (capacity <= 0) {
+      return;
+    }
+
+    List<FetchItem> items = fetchManager.consumeFetchItems(capacity);
+    for (FetchItem item : items) {
+      dispatch(item);
+    }
+  }
+
+  /**
+   * Wake up no later than the next queue is allowed to fetch
+   * */
+  private long getSelectTimeout() {
+    if (getInFlightCount() >= maxInFlight) {
+      return SELECT_TIMEOUT;
+    }
+
+    long untilReady = fetchManager.getFetchItemQueues().getNextReadyTime() - System.currentTimeMillis();
+    return Math.max(1, Math.min(untilReady, SELECT_TIMEOUT));
+  }
+
+  /**
+   * The robots rules of http items are checked by the fetch manager when the
+   * items are consumed, if the rules are not cached yet, the item goes to the
+   * blocking pool, where the protocol loads the rules before the fetch
+   * */
+  private void dispatch(FetchItem item) {
+    if ("http".equals(item.getU().getProtocol()) && fetchManager.isRobotRulesReady(item)) {
+      start(item);
+    } else {
+      startBlocking(item);
+    }
+  }
+
+  private void start(FetchItem item) {
+    AsyncHttpExchange exchange = new AsyncHttpExchange(item, maxContent);
+    URL u = item.getU();
+
+    boolean useProxy = proxyHost != null && !proxyHost.isEmpty();
+    String sockHost = useProxy ? proxyHost : u.getHost();
+    int sockPort = useProxy ? proxyPort : (u.getPort() == -1 ? 80 : u.getPort());
+
+    try {
+      InetSocketAddress address;
+      try {
+        // usually resolved in advance by the queue feeder
+        address = dnsCache.createSocketAddress(sockHost, sockPort);
+      } catch (UnknownHostException e) {
+        finish(exchange, new ProtocolOutput(null,
+            ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.EXCEPTION, "Unknown host : " + sockHost)));
+        return;
+      }
+
+      exchange.buildRequest(userAgent, accept, useProxy, conditionalGet);
+
+      SocketChannel channel = SocketChannel.open();
+      exchange.setChannel(channel);
+      channel.configureBlocking(false);
+
+      boolean connected = channel.connect(address);
+      if (connected) {
+        exchange.onConnected();
+      }
+      exchange.setKey(channel.register(selector, connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, exchange));
+      inFlight.add(exchange);
+    }
+    catch (IOException e) {
+      fail(exchange, e.toString());
+    }
+  }
+
+  private void startBlocking(final FetchItem item) {
+    blockingInFlight.incrementAndGet();
+
+    blockingExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          ProtocolOutput output;
+          try {
+            Protocol protocol = protocolFactory.getProtocol(item.getUrl());
+            if (!fetchManager.checkRobotRules(item, protocol)) {
+              return;
+            }
+            output = protocol.getProtocolOutput(item.getUrl(), item.getPage());
+          } catch (Throwable e) {
+            output = new ProtocolOutput(null, ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.EXCEPTION, e.toString()));
+          }
+
+          fetchManager.finishFetchItem(item.getQueueID(), item.getItemID(), output);
+        } finally {
+          blockingInFlight.decrementAndGet();
+        }
+      }
+    });
+  }
+
+  private void processSelectedKeys() {
+    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+    while (it.hasNext()) {
+      SelectionKey key = it.next();
+      it.remove();
+
+      AsyncHttpExchange exchange = (AsyncHttpExchange) key.attachment();
+      if (!key.isValid()) {
+        continue;
+      }
+
+      try {
+        SocketChannel channel = exchange.getChannel();
+
+        if (key.isConnectable() && channel.finishConnect()) {
+          exchange.onConnected();
+          key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        if (key.isValid() && key.isWritable()) {
+          channel.write(exchange.getRequest());
+          if (!exchange.getRequest().hasRemaining()) {
+            key.interestOps(SelectionKey.OP_READ);
+          }
+        }
+
+        if (key.isValid() && key.isReadable()) {
+          readBuffer.clear();
+          int n = channel.read(readBuffer);
+          boolean completed;
+          if (n < 0) {
+            completed = exchange.onEof();
+          } else {
+            readBuffer.flip();
+            completed = exchange.onData(readBuffer);
+          }
+
+          if (completed) {
+            // the output is built on a completion thread
+            finish(exchange, null);
+          }
+        }
+      } catch (Throwable e) {
+        fail(exchange, e.toString());
+      }
+    }
+  }
+
+  private void checkTimeouts() {
+    long now = System.currentTimeMillis();
+    if (now - lastTimeoutCheck < 1000) {
+      return;
+    }
+    lastTimeoutCheck = now;
+
+    for (AsyncHttpExchange exchange : inFlight.toArray(new AsyncHttpExchange[0])) {
+      if (now - exchange.getLastActivityTime() > timeout) {
+        fail(exchange, "Read timed out after " + timeout + "ms : " + exchange.getUrl());
+      }
+    }
+  }
+
+  private void fail(AsyncHttpExchange exchange, String message) {
+    LOG.debug("Failed to fetch {}, {}", exchange.getUrl(), message);
+    finish(exchange, new ProtocolOutput(null, ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.EXCEPTION, message)));
+  }
+
+  /**
+   * Only the socket is closed on the event loop. The output is built and handed
+   * to the fetch manager, which writes and maybe parses the page, on a
+   * completion thread, so a slow page does not hold up the other exchanges.
+   *
+   * @param output the output, null to build it from the response
+   * */
+  private void finish(final AsyncHttpExchange exchange, final ProtocolOutput output) {
+    inFlight.remove(exchange);
+
+    if (exchange.getKey() != null) {
+      exchange.getKey().cancel();
+    }
+    if (exchange.getChannel() != null) {
+      try {
+        exchange.getChannel().close();
+      } catch (IOException ignored) {}
+    }
+
+    completing.incrementAndGet();
+    completionExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          ProtocolOutput result = output;
+          if (result == null) {
+            try {
+              result = exchange.toProtocolOutput(mimeTypes);
+            } catch (Throwable e) {
+              result = new ProtocolOutput(null,
+                  ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.EXCEPTION, e.toString()));
+            }
+          }
+
+          FetchItem item = exchange.getItem();
+          fetchManager.finishFetchItem(item.getQueueID(), item.getItemID(), result);
+        } finally {
+          completing.decrementAndGet();
+        }
+      }
+    });
+  }
+
+  private boolean isFeederAlive() {
+    Validate.notNull(queueFeederThread);
+
+    return queueFeederThread.isAlive();
+  }
+
+  private boolean isMissionComplete() {
+    return !isFeederAlive()
+        && fetchManager.getReadyItemCount() == 0
+        && fetchManager.getPendingItemCount() == 0;
+  }
+}
@@ -0,0 +1,477 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetcher;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.nutch.fetcher.data.FetchItem;
+import org.apache.nutch.metadata.HttpHeaders;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.apache.nutch.net.protocols.ConditionalGet;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.protocol.ProtocolStatusUtils;
+import org.apache.nutch.util.ContentDecoder;
+import org.apache.nutch.util.MimeUtil;
+
+/**
+ * One HTTP/1.0 exchange driven by {@link AsyncFetchThread}. The response is
+ * parsed incrementally as bytes arrive from the selector, and the body is cut
+ * at http.content.limit while reading.
+ */
+class AsyncHttpExchange {
+
+  private static final byte[] EMPTY_CONTENT = new byte[0];
+
+  private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+  private final FetchItem item;
+  private final URL url;
+  private final int maxContent;
+  private final long startTime = System.currentTimeMillis();
+  private long lastActivityTime = startTime;
+  private long connectTime = -1;
+  private long firstByteTime = -1;
+
+  private SocketChannel channel;
+  private SelectionKey key;
+  private ByteBuffer request;
+
+  // raw bytes, status line and headers first, then the body
+  private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+  private int length = 0;
+  private int headerScanPos = 0;
+
+  private boolean headerParsed = false;
+  private int code = -1;
+  private final Metadata headers = new SpellCheckedMetadata();
+  private long contentLength = -1;
+
+  // chunked transfer coding
+  private boolean chunked = false;
+  private byte[] body = EMPTY_CONTENT;
+  private int bodyLength = 0;
+  private int cursor = 0;
+  private long chunkRemaining = 0;
+  private boolean expectChunkEnd = false;
+  private boolean lastChunkSeen = false;
+
+  private boolean completed = false;
+
+  AsyncHttpExchange(FetchItem item, int maxContent) {
+    this.item = item;
+    this.url = item.getU();
+    this.maxContent = maxContent;
+  }
+
+  public FetchItem getItem() {
+    return item;
+  }
+
+  public URL getUrl() {
+    return url;
+  }
+
+  public long getStartTime() {
+    return startTime;
+  }
+
+  public long getLastActivityTime() {
+    return lastActivityTime;
+  }
+
+  public SocketChannel getChannel() {
+    return channel;
+  }
+
+  public void setChannel(SocketChannel channel) {
+    this.channel = channel;
+  }
+
+  public SelectionKey getKey() {
+    return key;
+  }
+
+  public void setKey(SelectionKey key) {
+    this.key = key;
+  }
+
+  public ByteBuffer getRequest() {
+    return request;
+  }
+
+  public boolean isCompleted() {
+    return completed;
+  }
+
+  /**
+   * The connection is established
+   * */
+  public void onConnected() {
+    lastActivityTime = System.currentTimeMillis();
+    connectTime = lastActivityTime - startTime;
+  }
+
+  /**
+   * Build the request, it's the same request as protocol-http sends
+   * */
+  public void buildRequest(String userAgent, String accept, boolean useProxy, boolean conditionalGet) {
+    String host = url.getHost();
+    String portString = url.getPort() == -1 ? "" : ":" + url.getPort();
+    String path = "".equals(url.getFile()) ? "/" : url.getFile();
+
+    StringBuilder sb = new StringBuilder("GET ");
+    if (useProxy) {
+      sb.append(url.getProtocol()).append("://").append(host).append(portString).append(path);
+    } else {
+      sb.append(path);
+    }
+    sb.append(" HTTP/1.0\r\n");
+    sb.append("Host: ").append(host).append(portString).append("\r\n");
+    sb.append("Accept-Encoding: ").append(ContentDecoder.getAcceptEncoding()).append("\r\n");
+    sb.append("Accept: ").append(accept).append("\r\n");
+    if (userAgent != null && !userAgent.isEmpty()) {
+      sb.append("User-Agent: ").append(userAgent).append("\r\n");
+    }
+    if (conditionalGet) {
+      for (String[] header : ConditionalGet.getHeaders(item.getPage())) {
+        sb.append(header[0]).append(": ").append(header[1]).append("\r\n");
+      }
+    }
+    sb.append("Connection: close\r\n");
+    sb.append("\r\n");
+
+    request = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  /**
+   * Feed bytes read from the channel
+   *
+   * @return true if the response is complete
+   * */
+  public boolean onData(ByteBuffer data) throws IOException {
+    lastActivityTime = System.currentTimeMillis();
+    if (firstByteTime < 0) {
+      firstByteTime = lastActivityTime - startTime;
+    }
+
+    int n = data.remaining();
+    ensureCapacity(length + n);
+    data.get(buffer, length, n);
+    length += n;
+
+    if (!headerParsed && !parseHeader()) {
+      return false;
+    }
+
+    completed = chunked ? decodeChunks() : isIdentityBodyComplete();
+    return completed;
+  }
+
+  /**
+   * The server closed the connection
+   *
+   * @return true if the response is usable
+   * */
+  public boolean onEof() throws IOException {
+    if (!headerParsed) {
+      throw new IOException("Connection closed before response headers");
+    }
+
+    completed = true;
+    return true;
+  }
+
+  public ProtocolOutput toProtocolOutput(MimeUtil mimeTypes) throws IOException {
+    byte[] content = getBody();
+
+    String contentEncoding = headers.get(HttpHeaders.CONTENT_ENCODING);
+    if (ContentDecoder.isEncoded(contentEncoding)) {
+      content = ContentDecoder.decode(content, contentEncoding, maxContent);
+    }
+
+    ConditionalGet.storeHeaders(item.getPage(), code, headers);
+
+    // timing and the status code go to the content metadata only
+    headers.set(HttpHeaders.Q_CONNECT_TIME, String.valueOf(connectTime));
+    headers.set(HttpHeaders.Q_FIRST_BYTE_TIME, String.valueOf(firstByteTime));
+    headers.set(HttpHeaders.Q_STATUS_CODE, String.valueOf(code));
+
+    Content c = new Content(url.toString(), url.toString(), content,
+        headers.get(HttpHeaders.CONTENT_TYPE), headers, mimeTypes);
+
+    return new ProtocolOutput(c, makeStatus());
+  }
+
+  /**
+   * Map the HTTP status code to a protocol status, the same way HttpBase does
+   * */
+  private org.apache.nutch.storage.ProtocolStatus makeStatus() throws MalformedURLException {
+    if (code == 200) {
+      return ProtocolStatusUtils.STATUS_SUCCESS;
+    } else if (code >= 300 && code < 400) {
+      String location = headers.get(HttpHeaders.LOCATION);
+      URL u = new URL(url, location == null ? "" : location);
+
+      switch (code) {
+      case 302:
+      case 303:
+      case 307:
+        return ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.TEMP_MOVED, u);
+      case 304:
+        return ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.NOTMODIFIED, u);
+      default:
+        return ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.MOVED, u);
+      }
+    } else if (code == 400) {
+      return ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.GONE, url);
+    } else if (code == 401) {
+      return ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.ACCESS_DENIED, "Authentication required: " + url);
+    } else if (code == 404) {
+      return ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.NOTFOUND, url);
+    } else if (code == 410) {
+      return ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.GONE, "Http: " + code + " url=" + url);
+    }
+
+    return ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.EXCEPTION, "Http code=" + code + ", url=" + url);
+  }
+
+  private byte[] getBody() {
+    if (chunked) {
+      return Arrays.copyOf(body, bodyLength);
+    }
+
+    int size = length;
+    if (contentLength >= 0 && contentLength < size) {
+      size = (int) contentLength;
+    }
+    if (maxContent >= 0 && maxContent < size) {
+      size = maxContent;
+    }
+
+    return Arrays.copyOf(buffer, size);
+  }
+
+  private boolean isIdentityBodyComplete() {
+    // no body at all
+    if (code / 100 == 1 || code == 204 || code == 304) {
+      return true;
+    }
+
+    long limit = contentLength >= 0 ? contentLength : Long.MAX_VALUE;
+    if (maxContent >= 0 && maxContent < limit) {
+      limit = maxContent;
+    }
+
+    return length >= limit;
+  }
+
+  /**
+   * Parse status line and headers once they are all arrived, the rest bytes
+   * are kept at the beginning of the buffer as the body
+   *
+   * @return true if headers are parsed
+   * */
+  private boolean parseHeader() throws IOException {
+    while (!headerParsed) {
+      int end = -1;
+      int bodyStart = -1;
+      for (int i = Math.max(0, headerScanPos - 3); i < length; ++i) {
+        if (buffer[i] != '\n') continue;
+
+        if (i + 1 < length && buffer[i + 1] == '\n') {
+          end = i; bodyStart = i + 2; break;
+        }
+        if (i + 2 < length && buffer[i + 1] == '\r' && buffer[i + 2] == '\n') {
+          end = i; bodyStart = i + 3; break;
+        }
+      }
+
+      if (end < 0) {
+        headerScanPos = length;
+        return false;
+      }
+
+      String[] lines = new String(buffer, 0, end, StandardCharsets.ISO_8859_1).split("\r?\n");
+      code = parseStatusLine(lines[0]);
+
+      String last = null;
+      for (int i = 1; i < lines.length; ++i) {
+        String line = lines[i];
+        if (line.isEmpty()) continue;
+
+        // continued header line
+        if ((line.charAt(0) == ' ' || line.charAt(0) == '\t') && last != null) {
+          headers.set(last, headers.get(last) + " " + line.trim());
+          continue;
+        }
+
+        int colon = line.indexOf(':');
+        if (colon <= 0) continue;
+
+        last = line.substring(0, colon).trim();
+        headers.set(last, line.substring(colon + 1).trim());
+      }
+
+      discard(bodyStart);
+      headerScanPos = 0;
+
+      if (code == 100) {
+        // 100 Continue, the real status line follows
+        code = -1;
+        continue;
+      }
+
+      headerParsed = true;
+    }
+
+    String transferEncoding = headers.get(HttpHeaders.TRANSFER_ENCODING);
+    chunked = transferEncoding != null && "chunked".equalsIgnoreCase(transferEncoding.trim());
+
+    String contentLengthString = headers.get(HttpHeaders.CONTENT_LENGTH);
+    if (contentLengthString != null && !contentLengthString.trim().isEmpty()) {
+      try {
+        contentLength = Long.parseLong(contentLengthString.trim());
+      } catch (NumberFormatException e) {
+        throw new IOException("bad content length: " + contentLengthString);
+      }
+    }
+
+    return true;
+  }
+
+  private int parseStatusLine(String line) throws IOException {
+    int codeStart = line.indexOf(' ');
+    int codeEnd = line.indexOf(' ', codeStart + 1);
+    if (codeEnd == -1) {
+      codeEnd = line.length();
+    }
+
+    try {
+      return Integer.parseInt(line.substring(codeStart + 1, codeEnd).trim());
+    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+      throw new IOException("bad status line '" + line + "'", e);
+    }
+  }
+
+  /**
+   * Decode chunked body as much as possible
+   *
+   * @return true if the last chunk is seen or the content limit is hit
+   * */
+  private boolean decodeChunks() throws IOException {
+    while (true) {
+      if (chunkRemaining > 0) {
+        int n = (int) Math.min(chunkRemaining, length - cursor);
+        if (n == 0) {
+          compact();
+          return false;
+        }
+
+        appendBody(cursor, n);
+        cursor += n;
+        chunkRemaining -= n;
+        expectChunkEnd = chunkRemaining == 0;
+
+        if (maxContent >= 0 && bodyLength >= maxContent) {
+          bodyLength = maxContent;
+          return true;
+        }
+
+        continue;
+      }
+
+      int lineEnd = -1;
+      for (int i = cursor; i < length; ++i) {
+        if (buffer[i] == '\n') {
+          lineEnd = i;
+          break;
+        }
+      }
+      if (lineEnd < 0) {
+        compact();
+        return false;
+      }
+
+      String line = new String(buffer, cursor, lineEnd - cursor, StandardCharsets.ISO_8859_1).trim();
+      cursor = lineEnd + 1;
+
+      if (expectChunkEnd) {
+        expectChunkEnd = false;
+        continue;
+      }
+
+      if (lastChunkSeen) {
+        // trailers end with an empty line
+        if (line.isEmpty()) return true;
+        continue;
+      }
+
+      int pos = line.indexOf(';');
+      String chunkLenStr = (pos < 0 ? line : line.substring(0, pos)).trim();
+      if (chunkLenStr.isEmpty()) {
+        continue;
+      }
+
+      try {
+        chunkRemaining = Long.parseLong(chunkLenStr, 16);
+      } catch (NumberFormatException e) {
+        throw new IOException("bad chunk length: " + line);
+      }
+
+      if (chunkRemaining == 0) {
+        lastChunkSeen = true;
+      }
+    }
+  }
+
+  private void appendBody(int offset, int n) {
+    if (body.length < bodyLength + n) {
+      body = Arrays.copyOf(body, Math.max(bodyLength + n, Math.max(INITIAL_BUFFER_SIZE, body.length * 2)));
+    }
+    System.arraycopy(buffer, offset, body, bodyLength, n);
+    bodyLength += n;
+  }
+
+  /**
+   * Drop the decoded chunk bytes
+   * */
+  private void compact() {
+    discard(cursor);
+    cursor = 0;
+  }
+
+  private void discard(int n) {
+    System.arraycopy(buffer, n, buffer, 0, length - n);
+    length -= n;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (buffer.length < capacity) {
+      buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+    }
+  }
+}
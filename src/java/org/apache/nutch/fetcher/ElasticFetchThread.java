@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetcher;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.Validate;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Reducer.Context;
+import org.apache.nutch.fetcher.data.FetchItem;
+import org.apache.nutch.protocol.Protocol;
+import org.apache.nutch.protocol.ProtocolFactory;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.util.RuntimeUtil;
+import org.slf4j.Logger;
+
+/**
+ * Dispatches every fetch item to its own lightweight thread, see {@link FetchTaskExecutor}.
+ * The protocol plugins run their blocking fetches unchanged, but the number of
+ * concurrent fetches is not bound to a fixed number of fetcher threads.
+ *
+ * A fetch item is admitted only if its queue has a free slot (fetcher.threads.per.queue)
+ * and the crawl delay is passed, the total number of fetches in flight is bounded
+ * by fetcher.elastic.max.concurrency and the pending limit of the governor.
+ */
+public class ElasticFetchThread extends Thread {
+
+  public static final Logger LOG = FetcherJob.LOG;
+
+  private static AtomicInteger elasticFetchThreadSequence = new AtomicInteger(0);
+
+  /**
+   * Wait at most this long for a fetch item before checking if the mission is complete
+   * */
+  private static final long MAX_IDLE_WAIT = 1000;
+
+  /**
+   * Wait at most this long for the running fetches when the thread exits
+   * */
+  private static final long MAX_SHUTDOWN_WAIT = 60 * 1000;
+
+  private final QueueFeederThread queueFeederThread;
+  private final FetchManager fetchManager;
+  private final ProtocolFactory protocolFactory;
+  private final FetchTaskExecutor executor;
+
+  @SuppressWarnings("rawtypes")
+  public ElasticFetchThread(QueueFeederThread queueFeederThread, FetchManager fetchManager, Context context) {
+    Configuration conf = context.getConfiguration();
+
+    this.queueFeederThread = queueFeederThread;
+    this.fetchManager = fetchManager;
+
+    this.setDaemon(true);
+    this.setName("ElasticFetcherThread-" + elasticFetchThreadSequence.incrementAndGet());
+
+    this.protocolFactory = new ProtocolFactory(conf);
+    this.executor = new FetchTaskExecutor(getName(),
+        conf.getInt("fetcher.elastic.max.concurrency", 2000),
+        1024 * conf.getLong("fetcher.elastic.thread.stack.kb", FetchTaskExecutor.DEFAULT_STACK_SIZE / 1024));
+  }
+
+  public FetchTaskExecutor getExecutor() {
+    return executor;
+  }
+
+  @Override
+  public void run() {
+    fetchManager.activeFetcherThreads.incrementAndGet();
+
+    try {
+      while (true) {
+        executor.acquire();
+
+        FetchItem item = fetchManager.consumeFetchItem(MAX_IDLE_WAIT);
+        if (item == null) {
+          executor.release();
+
+          if (isMissionComplete()) {
+            break;
+          }
+          continue;
+        }
+
+        executor.executeAcquired(new FetchTask(item));
+      }
+    } catch (final Throwable e) {
+      LOG.error("elastic fetcher throwable caught", e);
+    } finally {
+      try {
+        if (!executor.shutdown(MAX_SHUTDOWN_WAIT)) {
+          LOG.warn(executor.getInFlightCount() + " fetches are still running");
+        }
+      } catch (InterruptedException ignored) {}
+
+      fetchManager.activeFetcherThreads.decrementAndGet();
+      LOG.info("-finishing thread " + getName() + ", peak in flight " + executor.getPeakInFlightCount()
+          + ", activeFetcherThreads=" + fetchManager.activeFetcherThreads);
+    }
+  }
+
+  private boolean isFeederAlive() {
+    Validate.notNull(queueFeederThread);
+
+    return queueFeederThread.isAlive();
+  }
+
+  private boolean isMissionComplete() {
+    return !isFeederAlive()
+        && fetchManager.getReadyItemCount() == 0
+        && fetchManager.getPendingItemCount() == 0;
+  }
+
+  private class FetchTask implements Runnable {
+    private final FetchItem item;
+
+    FetchTask(FetchItem item) {
+      this.item = item;
+    }
+
+    @Override
+    public void run() {
+      try {
+        LOG.debug("fetch {}", item.getUrl());
+
+        Protocol protocol = protocolFactory.getProtocol(item.getUrl());
+        if (!fetchManager.checkRobotRules(item, protocol)) {
+          return;
+        }
+
+        long allocatedBytes = RuntimeUtil.getCurrentThreadAllocatedBytes();
+        final ProtocolOutput output = protocol.getProtocolOutput(item.getUrl(), item.getPage());
+        if (allocatedBytes >= 0) {
+          fetchManager.updateAllocatedBytes(RuntimeUtil.getCurrentThreadAllocatedBytes() - allocatedBytes);
+        }
+
+        fetchManager.finishFetchItem(item.getQueueID(), item.getItemID(), output);
+      } catch (final Throwable e) {
+        LOG.error("Failed to fetch " + item.getUrl() + ", " + e.toString());
+        fetchManager.finishFetchItem(item);
+      }
+    }
+  }
+}
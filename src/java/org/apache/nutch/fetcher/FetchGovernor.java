@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetcher;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.mapreduce.NutchUtil;
+import org.slf4j.Logger;
+
+/**
+ * Controls how fast fetch tasks are scheduled.
+ *
+ * The bandwidth is limited by a token bucket, every fetched byte takes a token
+ * and the tokens are refilled at the configured bandwidth. The number of pending
+ * fetch items is adjusted by AIMD : it grows while the fetcher wants more and the
+ * latency is fine, and it is cut down once the latency of a window grows too much
+ * above the best latency seen, which means the link or the hosts are overloaded.
+ *
+ * The window statistics are collected by {@link #adjust()}, which is called
+ * every time the fetcher reports its status.
+ */
+public class FetchGovernor {
+
+  public static final Logger LOG = FetcherJob.LOG;
+
+  /**
+   * Bandwidth in bytes per second, no limit if less than or equal to 0
+   * */
+  private final long bandwidth;
+  /**
+   * The bucket holds at most one second of bandwidth
+   * */
+  private final long bucketSize;
+  private long tokens;
+  private long lastRefillTime;
+
+  private final int minPendingLimit;
+  private final int maxPendingLimit;
+  private final int increaseStep;
+  private final float decreaseFactor;
+  private final float latencyTolerance;
+  private volatile int pendingLimit;
+  private boolean slowStart = true;
+
+  // window statistics
+  private final AtomicLong windowBytes = new AtomicLong(0);
+  private final AtomicLong windowLatency = new AtomicLong(0);
+  private final AtomicInteger windowTasks = new AtomicInteger(0);
+  private final AtomicInteger windowPendingLimitHits = new AtomicInteger(0);
+  private final AtomicInteger windowBandwidthHits = new AtomicInteger(0);
+  private long windowStartTime = System.currentTimeMillis();
+
+  private long baseLatency = Long.MAX_VALUE;
+  private long bytesPerSecond = 0;
+  private long averageLatency = 0;
+  private final AtomicInteger bandwidthThrottles = new AtomicInteger(0);
+
+  public FetchGovernor(Configuration conf, int maxPendingLimit) {
+    long bandwidthM = conf.getLong("fetcher.net.bandwidth.m", -1);
+    this.bandwidth = bandwidthM > 0 ? bandwidthM * 1024 * 1024 : -1;
+    this.bucketSize = bandwidth;
+    this.tokens = bucketSize;
+    this.lastRefillTime = System.currentTimeMillis();
+
+    this.maxPendingLimit = Math.max(1, maxPendingLimit);
+    this.minPendingLimit = Math.min(this.maxPendingLimit, Math.max(1, conf.getInt("fetcher.governor.min.pending", 5)));
+    int initialPendingLimit = conf.getInt("fetcher.governor.initial.pending", 30);
+    this.pendingLimit = Math.max(minPendingLimit, Math.min(this.maxPendingLimit, initialPendingLimit));
+    this.increaseStep = Math.max(1, conf.getInt("fetcher.governor.increase.step", 5));
+    this.decreaseFactor = conf.getFloat("fetcher.governor.decrease.factor", 0.75f);
+    this.latencyTolerance = conf.getFloat("fetcher.governor.latency.tolerance", 2.0f);
+
+    LOG.info(NutchUtil.printArgMap(
+        "bandwidth", bandwidth,
+        "minPendingLimit", minPendingLimit,
+        "maxPendingLimit", this.maxPendingLimit,
+        "pendingLimit", pendingLimit,
+        "increaseStep", increaseStep,
+        "decreaseFactor", decreaseFactor,
+        "latencyTolerance", latencyTolerance
+    ));
+  }
+
+  public long getBandwidth() {
+    return bandwidth;
+  }
+
+  public int getPendingLimit() {
+    return pendingLimit;
+  }
+
+  public long getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+
+  public long getAverageLatency() {
+    return averageLatency;
+  }
+
+  public int getBandwidthThrottles() {
+    return bandwidthThrottles.get();
+  }
+
+  /**
+   * @return true if another fetch item can be pending
+   * */
+  public boolean acceptPending(int pendingItems) {
+    if (pendingItems < pendingLimit) {
+      return true;
+    }
+
+    windowPendingLimitHits.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * @return how long to wait until the bandwidth is available again, in milliseconds, 0 if it's available now
+   * */
+  public synchronized long getBandwidthDelay() {
+    if (bandwidth <= 0) {
+      return 0;
+    }
+
+    refill();
+    if (tokens > 0) {
+      return 0;
+    }
+
+    windowBandwidthHits.incrementAndGet();
+    bandwidthThrottles.incrementAndGet();
+    return Math.max(1, -tokens * 1000 / bandwidth);
+  }
+
+  /**
+   * A fetch item is finished
+   *
+   * @param bytes the fetched bytes
+   * @param latency the time from the fetch item is scheduled to it's finished, in milliseconds
+   * */
+  public void finish(long bytes, long latency) {
+    windowBytes.addAndGet(bytes);
+    windowLatency.addAndGet(latency);
+    windowTasks.incrementAndGet();
+
+    if (bandwidth > 0) {
+      synchronized (this) {
+        refill();
+        // the bucket may run into debt, the next tasks wait until it's paid back
+        tokens -= bytes;
+      }
+    }
+  }
+
+  /**
+   * Close the current window, update the statistics and adjust the pending limit
+   * */
+  public synchronized void adjust() {
+    long now = System.currentTimeMillis();
+    long elapsed = Math.max(1, now - windowStartTime);
+    windowStartTime = now;
+
+    long bytes = windowBytes.getAndSet(0);
+    long latency = windowLatency.getAndSet(0);
+    int tasks = windowTasks.getAndSet(0);
+    int pendingLimitHits = windowPendingLimitHits.getAndSet(0);
+    int bandwidthHits = windowBandwidthHits.getAndSet(0);
+
+    bytesPerSecond = bytes * 1000 / elapsed;
+    if (tasks == 0) {
+      // nothing to learn
+      return;
+    }
+
+    averageLatency = latency / tasks;
+    // let the base latency follow slowly if the latency keeps higher
+    baseLatency = baseLatency == Long.MAX_VALUE ? averageLatency : Math.min(averageLatency, baseLatency + baseLatency / 10);
+
+    int oldPendingLimit = pendingLimit;
+    if (averageLatency > latencyTolerance * baseLatency) {
+      // overloaded, multiplicative decrease
+      pendingLimit = Math.max(minPendingLimit, (int)(pendingLimit * decreaseFactor));
+      slowStart = false;
+    }
+    else if (pendingLimitHits > 0 && bandwidthHits == 0) {
+      // the limit is reached while the link is not saturated, additive increase
+      int step = slowStart ? pendingLimit : increaseStep;
+      pendingLimit = Math.min(maxPendingLimit, pendingLimit + step);
+    }
+    else if (bandwidthHits > 0) {
+      // the link is saturated, more pending items do not help
+      slowStart = false;
+    }
+
+    if (pendingLimit != oldPendingLimit) {
+      LOG.info("Pending limit " + oldPendingLimit + " -> " + pendingLimit + ", " + bytesPerSecond / 1024
+          + " kb/s, latency " + averageLatency + "ms, base latency " + baseLatency + "ms");
+    }
+  }
+
+  private void refill() {
+    long now = System.currentTimeMillis();
+    long elapsed = now - lastRefillTime;
+    if (elapsed <= 0) {
+      return;
+    }
+
+    tokens = Math.min(bucketSize, tokens + elapsed * bandwidth / 1000);
+    lastRefillTime = now;
+  }
+}
@@ -1,37 +1,48 @@
 package org.apache.nutch.fetcher;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.ByteBuffer;
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.avro.util.Utf8;
+import org.apache.commons.lang.math.NumberUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.mapreduce.Reducer.Context;
 import org.apache.nutch.crawl.CrawlStatus;
 import org.apache.nutch.fetcher.data.FetchItem;
 import org.apache.nutch.fetcher.data.FetchItemQueues;
+import org.apache.nutch.fetcher.data.FetchQueueStats;
 import org.apache.nutch.fetcher.data.FetchResult;
 import org.apache.nutch.mapreduce.NutchCounter;
+import org.apache.nutch.metadata.HttpHeaders;
 import org.apache.nutch.mapreduce.NutchUtil;
-import org.apache.nutch.net.URLFilterException;
-import org.apache.nutch.net.URLFilters;
+import org.apache.nutch.net.DnsCache;
+import org.apache.nutch.net.HttpConnectionPool;
+import org.apache.nutch.net.URLFilterCache;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.parse.ParseUtil;
 import org.apache.nutch.parse.ParserJob;
 import org.apache.nutch.parse.ParserMapper;
 import org.apache.nutch.protocol.Content;
+import org.apache.nutch.protocol.Protocol;
 import org.apache.nutch.protocol.ProtocolOutput;
 import org.apache.nutch.protocol.ProtocolStatusCodes;
 import org.apache.nutch.protocol.ProtocolStatusUtils;
+import org.apache.nutch.protocol.RobotRulesCache;
 import org.apache.nutch.storage.Mark;
 import org.apache.nutch.storage.ProtocolStatus;
 import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.tools.arc.WarcWriter;
+import org.apache.nutch.util.BufferPool;
 import org.apache.nutch.util.TableUtil;
 import org.apache.nutch.util.TimingUtil;
 import org.apache.nutch.util.URLUtil;
@@ -39,6 +50,8 @@ import org.slf4j.Logger;
 
 import com.google.common.collect.Lists;
 
+import crawlercommons.robots.BaseRobotRules;
+
 /**
  * TODO : check thread safe
  * */
@@ -48,33 +61,60 @@ public class FetchManager extends Configured {
 
   public static enum Counter {
     pages, bytes, errors, finishedTasks, expiredQueues, unexpectedErrors, readyFetchItems, pendingFetchItems,
-    waitingFetcherThreads, activeFetcherThreads
+    waitingFetcherThreads, activeFetcherThreads,
+    fetcherIdleSeconds, feederIdleSeconds, savedIdleSeconds, emptyWakeups,
+    pendingLimit, kbytesPerSecond, averageLatency, bandwidthThrottles,
+    allocatedMBytes, allocatedBytesPerPage, bufferPoolHits, bufferPoolMisses,
+    tailCuts, deferredItems,
+    dnsCacheHits, dnsCacheMisses, dnsFailures, dnsPrefetches,
+    httpConnections, httpConnectionsReused, httpConnectionReuseRate, handshakeMillisSaved,
+    robotsCacheHits, robotsCacheMisses, robotsAverageLoadMillis, robotsHostDbLoads, robotsDenied,
+    notModified
   };
 
+  /**
+   * Fetcher threads used to sleep this long if there is nothing to do, used
+   * to report the idle time saved by waiting for signals
+   * */
+  private static final long POLL_INTERVAL = 1000;
+
+  private static final byte[] EMPTY_CONTENT = new byte[0];
+
+  public static final String QUEUE_STATS_COUNTER_GROUP = "FetchQueueStats";
+
   private Integer jobID;
 
   @SuppressWarnings("rawtypes")
   private final Context context;
 
   private FetchItemQueues fetchItemQueues;// all fetch items are contained in several queues
-  private List<FetchResult> fetchResultQueue = Collections.synchronizedList(new LinkedList<FetchResult>());
+  private BlockingQueue<FetchResult> fetchResultQueue = new LinkedBlockingQueue<FetchResult>();
+
+  /**
+   * If there are too many pending items, slows down the task scheduling,
+   * the real limit is adjusted by the governor
+   * */
+  private final int maxPendingItems;
 
   /**
-   * Hardware bandwidth in Mbytes, if exceed the limit, slows down the task scheduling.
-   * TODO : automatically adjust
+   * Limits the bandwidth and the pending items
    * */
-  private final int bandwidth;
+  private final FetchGovernor governor;
 
   // handle redirect
-  private URLFilters urlFilters;
-  private URLNormalizers normalizers;
+  private final URLFilterCache urlFilterCache;
   private String reprUrl; // choosed representative url
   private boolean ignoreExternalLinks;
 
+  // an item is given back to its queue this many times if the protocol would block, then it fails
+  private final int maxWouldBlocks;
+
   // parser setting
   private final boolean storingContent;
   private boolean parse;
   private ParseUtil parseUtil;
+  private ParseStage parseStage;
+  private WarcWriter warcWriter;
   private boolean skipTruncated;
 
   // statistics
@@ -82,7 +122,14 @@ public class FetchManager extends Configured {
   private final AtomicInteger pages = new AtomicInteger(0);  // total pages fetched
   private final AtomicInteger errors = new AtomicInteger(0); // total pages errored
 
-  private float avePageLength = 0;
+  // idle statistics, in milliseconds
+  private final AtomicLong fetcherIdleTime = new AtomicLong(0);
+  private final AtomicLong savedIdleTime = new AtomicLong(0);
+  private final AtomicInteger emptyWakeups = new AtomicInteger(0);
+
+  // heap allocation statistics of the protocol plugins
+  private final AtomicLong allocatedBytes = new AtomicLong(0);
+  private final AtomicInteger allocationSamples = new AtomicInteger(0);
 
   // TODO : make them to be private
   final AtomicInteger activeFetcherThreads = new AtomicInteger(0);
@@ -92,10 +139,26 @@ public class FetchManager extends Configured {
   private final AtomicLong lastTaskStartTime = new AtomicLong(startTime);
   private final AtomicLong lastTaskFinishTime = new AtomicLong(startTime);
 
+  /**
+   * The fetch deadline, -1 if there is no deadline
+   * */
   private long timeLimitMillis = -1;
 
+  // tail cutting, see checkTailCut
+  private final boolean tailCut;
+  private final float tailCutRatio;
+  private final int tailCutWindows;
+  private final long tailCutHorizon;
+  private float peakPagesPerSec = 0;
+  private int lowThroughputWindows = 0;
+
   private NutchCounter counter;
 
+  private final DnsCache dnsCache;
+  private final HttpConnectionPool connectionPool;
+  private final RobotRulesCache robotRulesCache;
+  private final boolean checkRobots;
+
   @SuppressWarnings("rawtypes")
   public FetchManager(int jobID, NutchCounter counter, Context context) {
     Configuration conf = context.getConfiguration();
@@ -105,14 +168,39 @@ public class FetchManager extends Configured {
     this.context = context;
     this.counter = counter;
 
-    this.bandwidth = 1024 * 1024 * conf.getInt("fetcher.net.bandwidth.m", Integer.MAX_VALUE);
-
-    this.urlFilters = new URLFilters(conf);
-    this.normalizers = new URLNormalizers(conf, URLNormalizers.SCOPE_FETCHER);
+    int defaultMaxPendingItems = 300;
+    if (FetchMode.ASYNC.equals(conf.get("fetcher.fetch.mode", "native"))) {
+      // every async fetcher thread holds many pending items
+      defaultMaxPendingItems = conf.getInt("fetcher.async.threads", 2) * conf.getInt("fetcher.async.max.inflight", 500);
+    }
+    else if (FetchMode.ELASTIC.equals(conf.get("fetcher.fetch.mode", "native"))) {
+      // every pending item runs on its own thread
+      defaultMaxPendingItems = conf.getInt("fetcher.elastic.max.concurrency", 2000);
+    }
+    int configuredMaxPendingItems = conf.getInt("fetcher.pending.items.max", -1);
+    this.maxPendingItems = configuredMaxPendingItems > 0 ? configuredMaxPendingItems : defaultMaxPendingItems;
+    this.governor = new FetchGovernor(conf, maxPendingItems);
+
+    // configure the shared caches and connection pool before they are used by the queues and protocols
+    this.dnsCache = DnsCache.getInstance(conf);
+    this.connectionPool = HttpConnectionPool.getInstance(conf);
+    this.robotRulesCache = RobotRulesCache.getInstance(conf);
+    // the crowdsourcing clients check the robots rules themselves
+    this.checkRobots = conf.getBoolean("fetcher.robots.check", true)
+        && !FetchMode.CROWDSOURCING.equals(conf.get("fetcher.fetch.mode", "native"));
+
+    this.urlFilterCache = URLFilterCache.get(conf);
     this.ignoreExternalLinks = conf.getBoolean("db.ignore.external.links", false);
+    this.maxWouldBlocks = conf.getInt("fetcher.max.would.block", 5);
 
     this.storingContent = conf.getBoolean("fetcher.store.content", true);
-    this.timeLimitMillis = 1000 * 60 * conf.getLong("fetcher.timeLimitMillis.mins", -1);
+    long timeLimitMins = conf.getLong("fetcher.timelimit.mins", -1);
+    this.timeLimitMillis = timeLimitMins > 0 ? startTime + 1000 * 60 * timeLimitMins : -1;
+
+    this.tailCut = conf.getBoolean("fetcher.tailcut", false);
+    this.tailCutRatio = conf.getFloat("fetcher.tailcut.throughput.ratio", 0.2f);
+    this.tailCutWindows = conf.getInt("fetcher.tailcut.windows", 3);
+    this.tailCutHorizon = 1000 * conf.getLong("fetcher.tailcut.horizon.secs", 60);
 
     this.parse = conf.getBoolean(FetcherJob.PARSE_KEY, false);
     if (parse) {
@@ -128,8 +216,14 @@ public class FetchManager extends Configured {
 
     LOG.info(NutchUtil.printArgMap(
         "jobID", jobID,
-        "bandwidth", bandwidth,
+        "bandwidth", governor.getBandwidth(),
+        "maxPendingItems", maxPendingItems,
         "timeLimitMillis", timeLimitMillis,
+        "tailCut", tailCut,
+        "tailCutRatio", tailCutRatio,
+        "tailCutWindows", tailCutWindows,
+        "tailCutHorizon", tailCutHorizon,
+        "checkRobots", checkRobots,
         "storingContent", storingContent,
         "ignoreExternalLinks", ignoreExternalLinks
     ));
@@ -139,8 +233,12 @@ public class FetchManager extends Configured {
     return jobID;
   }
 
-  public int getBandwidth() {
-    return this.bandwidth;
+  public long getBandwidth() {
+    return governor.getBandwidth();
+  }
+
+  public FetchGovernor getGovernor() {
+    return governor;
   }
 
   public int getQueueCount() {
@@ -175,14 +273,31 @@ public class FetchManager extends Configured {
     }
   }
 
+  public ParseUtil getParseUtil() {
+    return parseUtil;
+  }
+
+  /**
+   * Parse and write the fetched pages on the parse stage instead of the fetch
+   * threads, the stage is closed by the caller
+   * */
+  public void setParseStage(ParseStage parseStage) {
+    this.parseStage = parseStage;
+  }
+
+  /**
+   * Write the fetched pages to a WARC file too, the writer is closed by the caller
+   * */
+  public void setWarcWriter(WarcWriter warcWriter) {
+    this.warcWriter = warcWriter;
+  }
+
   public int clearFetchItemQueues() {
     return fetchItemQueues.clearQueues();
   }
 
   /**
-   * TODO : check the real meaning of timeLimitMillis
-   * 
-   * It seems to be "fetch deadline"
+   * Drop all ready items once the fetch deadline is passed
    * */
   public int checkTimelimit() {
     if (timeLimitMillis > 0 && System.currentTimeMillis() >= timeLimitMillis) {
@@ -209,18 +324,15 @@ public class FetchManager extends Configured {
       return fetchItems;
     }
 
-    // bandwidth exhausted, slows down scheduling
-    if (getPendingItemCount() * avePageLength * 8 > 30 * this.getBandwidth()) {
+    if (isBandwidthExhausted() || isTooManyPendingItems()) {
       return fetchItems;
     }
 
-    // TODO : avoid hard coding
-    if (getPendingItemCount() > 30) {
-      return fetchItems;
-    }
+    // do not exceed the pending limit in one batch
+    number = Math.min(number, governor.getPendingLimit() - getPendingItemCount());
 
     while (number-- > 0) {
-      FetchItem fetchItem = fetchItemQueues.consumeFetchItem();
+      FetchItem fetchItem = admit(fetchItemQueues.consumeFetchItem());
       if (fetchItem != null) fetchItems.add(fetchItem);
     }
 
@@ -236,18 +348,80 @@ public class FetchManager extends Configured {
     return fetchItems.isEmpty() ? null : fetchItems.iterator().next();
   }
 
+  /**
+   * Consume a fetch item, wait at most maxWaitMillis if there is nothing to fetch.
+   * The waiting thread is woken up as soon as an item is eligible to fetch,
+   * or a pending item is finished if the scheduling is slowed down
+   *
+   * @return the fetch item, or null if nothing is available after the wait
+   * */
+  public FetchItem consumeFetchItem(long maxWaitMillis) throws InterruptedException {
+    FetchItem fetchItem = consumeFetchItem();
+    if (fetchItem != null) {
+      return fetchItem;
+    }
+
+    final long startWait = System.currentTimeMillis();
+    final long deadline = startWait + maxWaitMillis;
+    waitingFetcherThreads.incrementAndGet();
+
+    try {
+      long remaining;
+      while (fetchItem == null && (remaining = deadline - System.currentTimeMillis()) > 0) {
+        long bandwidthDelay = governor.getBandwidthDelay();
+        if (bandwidthDelay > 0) {
+          // the tokens are refilled by time
+          Thread.sleep(Math.min(bandwidthDelay, remaining));
+        }
+        else if (isTooManyPendingItems()) {
+          fetchItemQueues.awaitPendingCapacity(governor.getPendingLimit(), remaining);
+        }
+        else {
+          fetchItem = admit(fetchItemQueues.consumeFetchItem(remaining));
+        }
+      }
+    }
+    finally {
+      waitingFetcherThreads.decrementAndGet();
+      updateIdleStatus(startWait, fetchItem != null);
+    }
+
+    if (fetchItem != null) {
+      lastTaskStartTime.set(System.currentTimeMillis());
+    }
+
+    return fetchItem;
+  }
+
   public void produceFetchResut(FetchResult result) {
     fetchResultQueue.add(result);
   }
 
   public FetchResult consumeFetchResut() {
+    return fetchResultQueue.poll();
+  }
+
+  /**
+   * Consume a fetch result, wait at most maxWaitMillis until a fetch client reports one
+   * */
+  public FetchResult consumeFetchResut(long maxWaitMillis) throws InterruptedException {
+    FetchResult result = fetchResultQueue.poll();
+    if (result != null) {
+      return result;
+    }
+
+    final long startWait = System.currentTimeMillis();
+    waitingFetcherThreads.incrementAndGet();
+
     try {
-      return fetchResultQueue.remove(0);
+      result = fetchResultQueue.poll(maxWaitMillis, TimeUnit.MILLISECONDS);
     }
-    catch(IndexOutOfBoundsException e) {
+    finally {
+      waitingFetcherThreads.decrementAndGet();
+      updateIdleStatus(startWait, result != null);
     }
 
-    return null;
+    return result;
   }
 
   public FetchItem getPendingFetchItem(String queueID, long itemID) {
@@ -306,6 +480,86 @@ public class FetchManager extends Configured {
     }
   }
 
+  /**
+   * Check the robots rules before the item is fetched, the rules are loaded
+   * by the protocol if they are not cached yet. A disallowed item is finished
+   * without using the crawl delay of the queue.
+   *
+   * @return true if the item can be fetched
+   * */
+  public boolean checkRobotRules(FetchItem fetchItem, Protocol protocol) {
+    if (!checkRobots) {
+      return true;
+    }
+
+    BaseRobotRules rules = protocol.getRobotRules(fetchItem.getUrl(), fetchItem.getPage());
+    if (rules == null || rules.isAllowed(fetchItem.getUrl())) {
+      return true;
+    }
+
+    finishRobotsDenied(fetchItem);
+    return false;
+  }
+
+  /**
+   * Drop a consumed item if the cached robots rules disallow it, so it does
+   * not take a fetch slot. The rules are usually prefetched by the queue feeder.
+   *
+   * @return the item, or null if it's disallowed
+   * */
+  private FetchItem admit(FetchItem fetchItem) {
+    if (fetchItem == null || !checkRobots) {
+      return fetchItem;
+    }
+
+    BaseRobotRules rules = getCachedRobotRules(fetchItem);
+    if (rules == null || rules.isAllowed(fetchItem.getUrl())) {
+      return fetchItem;
+    }
+
+    finishRobotsDenied(fetchItem);
+    return null;
+  }
+
+  /**
+   * @return true if the item can be fetched without loading the robots rules,
+   * that is, the rules are not checked or they are cached already
+   * */
+  public boolean isRobotRulesReady(FetchItem fetchItem) {
+    return !checkRobots || getCachedRobotRules(fetchItem) != null;
+  }
+
+  private BaseRobotRules getCachedRobotRules(FetchItem fetchItem) {
+    try {
+      return robotRulesCache.getIfPresent(RobotRulesCache.getCacheKey(new URL(fetchItem.getUrl())));
+    } catch (MalformedURLException e) {
+      return null;
+    }
+  }
+
+  private void finishRobotsDenied(FetchItem fetchItem) {
+    LOG.debug("Denied by robots.txt: {}", fetchItem.getUrl());
+
+    try {
+      output(fetchItem, null, ProtocolStatusUtils.STATUS_ROBOTS_DENIED, CrawlStatus.STATUS_GONE);
+    } catch (IOException | InterruptedException e) {
+      LOG.error("Failed to write " + fetchItem.getUrl(), e);
+    } finally {
+      // the server is not touched, the next item of the queue need not wait
+      fetchItemQueues.finishFetchAsap(fetchItem);
+      lastTaskFinishTime.set(System.currentTimeMillis());
+      counter.increase(Counter.robotsDenied);
+    }
+  }
+
+  /**
+   * Heap bytes allocated by a protocol plugin to fetch one page
+   * */
+  public void updateAllocatedBytes(long bytes) {
+    allocatedBytes.addAndGet(bytes);
+    allocationSamples.incrementAndGet();
+  }
+
   public void reviewPendingFetchItems(boolean force) {
     fetchItemQueues.reviewPendingFetchItems(force);
   }
@@ -329,6 +583,36 @@ public class FetchManager extends Configured {
     counter.setValue(Counter.pendingFetchItems, pendingFetchItems);
     counter.setValue(Counter.activeFetcherThreads, activeFetcherThreads.get());
     counter.setValue(Counter.waitingFetcherThreads, waitingFetcherThreads.get());
+    counter.setValue(Counter.fetcherIdleSeconds, (int)(fetcherIdleTime.get() / 1000));
+    counter.setValue(Counter.savedIdleSeconds, (int)(savedIdleTime.get() / 1000));
+    counter.setValue(Counter.emptyWakeups, emptyWakeups.get());
+
+    governor.adjust();
+    counter.setValue(Counter.pendingLimit, governor.getPendingLimit());
+    counter.setValue(Counter.kbytesPerSecond, (int)(governor.getBytesPerSecond() / 1024));
+    counter.setValue(Counter.averageLatency, (int)governor.getAverageLatency());
+    counter.setValue(Counter.bandwidthThrottles, governor.getBandwidthThrottles());
+
+    int samples = allocationSamples.get();
+    counter.setValue(Counter.allocatedMBytes, (int)(allocatedBytes.get() / 1024 / 1024));
+    counter.setValue(Counter.allocatedBytesPerPage, samples == 0 ? 0 : (int)(allocatedBytes.get() / samples));
+    counter.setValue(Counter.bufferPoolHits, (int)BufferPool.getShared().getHits());
+    counter.setValue(Counter.bufferPoolMisses, (int)BufferPool.getShared().getMisses());
+
+    counter.setValue(Counter.dnsCacheHits, (int)dnsCache.getHits());
+    counter.setValue(Counter.dnsCacheMisses, (int)dnsCache.getMisses());
+    counter.setValue(Counter.dnsFailures, (int)dnsCache.getFailures());
+    counter.setValue(Counter.dnsPrefetches, (int)dnsCache.getPrefetches());
+
+    counter.setValue(Counter.httpConnections, (int)connectionPool.getCreatedCount());
+    counter.setValue(Counter.httpConnectionsReused, (int)connectionPool.getReusedCount());
+    counter.setValue(Counter.httpConnectionReuseRate, connectionPool.getReuseRate());
+    counter.setValue(Counter.handshakeMillisSaved, (int)connectionPool.getHandshakeTimeSaved());
+
+    counter.setValue(Counter.robotsCacheHits, (int)robotRulesCache.getHits());
+    counter.setValue(Counter.robotsCacheMisses, (int)robotRulesCache.getMisses());
+    counter.setValue(Counter.robotsAverageLoadMillis, (int)robotRulesCache.getAverageLoadTime());
+    counter.setValue(Counter.robotsHostDbLoads, (int)robotRulesCache.getHostDbLoads());
 
     reportAndLogStatus(context, pagesLastSec, bytesLastSec, readyFetchItems, pendingFetchItems);
 
@@ -342,17 +626,70 @@ public class FetchManager extends Configured {
       if (hitByTimeLimit != 0) {
         counter.increase(Counter.expiredQueues, hitByTimeLimit);
       }
+
+      checkTailCut(pagesLastSec);
     }
 
     return pagesLastSec;
   }
 
+  /**
+   * Once all items are fed, the throughput falls as the fast queues are finished
+   * and only the slow ones remain. If the throughput of some report windows in a row
+   * falls below a fraction of the peak, evict the items of the queues which can not be
+   * finished within the horizon, and write them back with a deferred mark so the next
+   * generate picks them up first
+   *
+   * @return the number of deferred items
+   * */
+  public int checkTailCut(float pagesPerSec) throws IOException {
+    if (!tailCut) {
+      return 0;
+    }
+
+    peakPagesPerSec = Math.max(peakPagesPerSec, pagesPerSec);
+    if (peakPagesPerSec == 0 || pagesPerSec >= tailCutRatio * peakPagesPerSec) {
+      lowThroughputWindows = 0;
+      return 0;
+    }
+
+    if (++lowThroughputWindows < tailCutWindows) {
+      return 0;
+    }
+    lowThroughputWindows = 0;
+
+    List<FetchItem> evicted = fetchItemQueues.evictSlowQueues(tailCutHorizon);
+    if (evicted.isEmpty()) {
+      return 0;
+    }
+
+    LOG.info("Tail cut, throughput " + pagesPerSec + " pages/s, peak " + peakPagesPerSec
+        + " pages/s, deferred " + evicted.size() + " items");
+
+    int deferred = 0;
+    for (FetchItem fetchItem : evicted) {
+      try {
+        outputDeferred(fetchItem);
+        ++deferred;
+      } catch (InterruptedException e) {
+        LOG.error("Interrupted while writing deferred items");
+        Thread.currentThread().interrupt();
+        break;
+      } catch (Exception e) {
+        LOG.error("Failed to defer " + fetchItem.getUrl() + ", " + e.toString());
+      }
+    }
+
+    counter.increase(Counter.tailCuts);
+    counter.increase(Counter.deferredItems, deferred);
+
+    return deferred;
+  }
+
   @SuppressWarnings("rawtypes")
   private void reportAndLogStatus(Context context, float pagesPerSec,
       long bytesPerSec, int readyFetchItems, int pendingFetchItems) throws IOException {
 
-    this.avePageLength = bytesPerSec / pagesPerSec;
-
     StringBuilder status = new StringBuilder();
     long elapsed = (System.currentTimeMillis() - startTime)/1000;
 
@@ -366,6 +703,7 @@ public class FetchManager extends Configured {
     status.append(readyFetchItems).append(" ready ");
     status.append(pendingFetchItems).append(" pending ");
     status.append("URLs in ").append(getQueueCount()).append(" queues");
+    status.append(", pending limit ").append(governor.getPendingLimit());
 
 //    context.setStatus(statusString);
 
@@ -373,26 +711,57 @@ public class FetchManager extends Configured {
     // LOG.info(counter.getStatusString());
   }
 
-  private void doFinishFetchTask(FetchItem fetchItem, ProtocolOutput output) throws IOException, InterruptedException, URLFilterException {
+  /**
+   * Bandwidth exhausted, slows down scheduling
+   * */
+  private boolean isBandwidthExhausted() {
+    return governor.getBandwidthDelay() > 0;
+  }
+
+  private boolean isTooManyPendingItems() {
+    return !governor.acceptPending(getPendingItemCount());
+  }
+
+  /**
+   * A fetcher thread waited since startWait. With the former polling loop, the
+   * thread would get the task only at the end of a poll interval
+   * */
+  private void updateIdleStatus(long startWait, boolean gotTask) {
+    long idleTime = System.currentTimeMillis() - startWait;
+    fetcherIdleTime.addAndGet(idleTime);
+
+    if (gotTask) {
+      savedIdleTime.addAndGet((POLL_INTERVAL - idleTime % POLL_INTERVAL) % POLL_INTERVAL);
+    }
+    else {
+      emptyWakeups.incrementAndGet();
+    }
+  }
+
+  private void doFinishFetchTask(FetchItem fetchItem, ProtocolOutput output) throws IOException, InterruptedException {
+    if (output.getStatus().getCode() == ProtocolStatusCodes.WOULDBLOCK) {
+      finishWouldBlock(fetchItem, output.getStatus());
+      return;
+    }
+
     final ProtocolStatus status = output.getStatus();
     final Content content = output.getContent();
 
-    // unblock queue
-    fetchItemQueues.finishFetchItem(fetchItem);
-
     int length = 0;
     if (content != null && content.getContent() != null) {
       length = content.getContent().length;
     }
 
+    long fetchTime = System.currentTimeMillis() - fetchItem.getPendingStart();
+    recordFetch(fetchItem, status, content, length, fetchTime);
+
+    // unblock queue
+    fetchItemQueues.finishFetchItem(fetchItem);
+
     updateStatus(fetchItem.getUrl(), length);
+    governor.finish(length, fetchTime);
 
     switch(status.getCode()) {
-    case ProtocolStatusCodes.WOULDBLOCK:
-      // retry ?
-      fetchItemQueues.produceFetchItem(fetchItem);
-      break;
-
     case ProtocolStatusCodes.SUCCESS:        // got a page
       output(fetchItem, content, status, CrawlStatus.STATUS_FETCHED);
       break;
@@ -427,6 +796,8 @@ public class FetchManager extends Configured {
       output(fetchItem, null, status, CrawlStatus.STATUS_GONE);
       break;
     case ProtocolStatusCodes.NOTMODIFIED:
+      // the content, the parse and the signature of the last fetch are kept
+      counter.increase(Counter.notModified);
       output(fetchItem, null, status, CrawlStatus.STATUS_NOTMODIFIED);
       break;
     default:
@@ -438,10 +809,77 @@ public class FetchManager extends Configured {
     }
   }
 
+  /**
+   * The protocol refused to fetch the item, for example because no proxy is
+   * free. No request is made, so the queue statistics, the governor and the
+   * crawl delay are left alone. The item goes back to its queue until it is
+   * refused too many times, then it fails like a fetch exception
+   * */
+  private void finishWouldBlock(FetchItem fetchItem, ProtocolStatus status) throws IOException, InterruptedException {
+    // unblock queue
+    fetchItemQueues.finishFetchItem(fetchItem);
+
+    int wouldBlocks = fetchItem.increaseWouldBlocks();
+    if (wouldBlocks <= maxWouldBlocks) {
+      fetchItemQueues.produceFetchItem(fetchItem);
+      return;
+    }
+
+    String message = "refused " + wouldBlocks + " times, " + ProtocolStatusUtils.getMessage(status) + ", "
+        + fetchItem.getUrl();
+    updateStatus(fetchItem.getUrl(), 0);
+    logFetchFailure(fetchItem.getUrl(), message);
+    output(fetchItem, null, ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.EXCEPTION, message),
+        CrawlStatus.STATUS_RETRY);
+  }
+
+  /**
+   * Update the statistics of the fetch queue, the connect time and the first
+   * byte time are reported by the protocol plugins in the content metadata
+   * */
+  private void recordFetch(FetchItem fetchItem, ProtocolStatus status, Content content, int length, long fetchTime) {
+    long connectTime = -1;
+    long firstByteTime = -1;
+    if (content != null) {
+      connectTime = NumberUtils.toLong(content.getMetadata().get(HttpHeaders.Q_CONNECT_TIME), -1);
+      firstByteTime = NumberUtils.toLong(content.getMetadata().get(HttpHeaders.Q_FIRST_BYTE_TIME), -1);
+    }
+
+    fetchItemQueues.recordFetch(fetchItem.getQueueID(), connectTime, firstByteTime, fetchTime, length,
+        FetchQueueStats.classify(status));
+  }
+
+  /**
+   * Report the statistics of all fetch queues to the job counters
+   * */
+  public void reportQueueStats() {
+    FetchQueueStats stats = fetchItemQueues.getTotalStats();
+
+    LOG.info("Fetch queue statistics : " + stats);
+    for (Map.Entry<String, Object> entry : stats.toMap().entrySet()) {
+      Object value = entry.getValue();
+      if (value instanceof Number) {
+        context.getCounter(QUEUE_STATS_COUNTER_GROUP, entry.getKey()).setValue(((Number)value).longValue());
+      }
+    }
+  }
+
+  public void reportParseStats() {
+    if (parseUtil != null) {
+      parseUtil.reportParseStats(context);
+    }
+  }
+
+  /**
+   * The url filter cache is shared with the parser of the fetcher
+   * */
+  public void reportURLFilterStats() {
+    urlFilterCache.reportStats(context);
+  }
+
   private void handleRedirect(String url, String newUrl, boolean temp, String redirType, WebPage page)
-  throws URLFilterException, IOException, InterruptedException {
-    newUrl = normalizers.normalize(newUrl, URLNormalizers.SCOPE_FETCHER);
-    newUrl = urlFilters.filter(newUrl);
+  throws IOException, InterruptedException {
+    newUrl = urlFilterCache.normalizeAndFilter(newUrl, URLNormalizers.SCOPE_FETCHER);
     if (newUrl == null || newUrl.equals(url)) {
       return;
     }
@@ -486,6 +924,7 @@ public class FetchManager extends Configured {
     }
 
     if (content != null) {
+      // wrap shares the array read by the protocol, the content is not copied
       page.setContent(ByteBuffer.wrap(content.getContent()));
       page.setContentType(new Utf8(content.getContentType()));
       page.setBaseUrl(new Utf8(content.getBaseUrl()));
@@ -494,16 +933,29 @@ public class FetchManager extends Configured {
     Mark.FETCH_MARK.putMark(page, Mark.GENERATE_MARK.checkMark(page));
     String key = TableUtil.reverseUrl(url);
 
-    if (parse) {
-      if (!skipTruncated || (skipTruncated && !ParserMapper.isTruncated(url, page))) {
-        parseUtil.process(key, page);
-      }
+    // the fetched pages and the redirects, with the status code of the response
+    if (warcWriter != null && content != null) {
+      writeWarc(url, page.getFetchTime(), content, pstatus);
     }
 
+    // nothing to parse if the page is not modified, the parse of the last fetch is kept
+    boolean parsing = parse && status != CrawlStatus.STATUS_NOTMODIFIED
+        && (!skipTruncated || !ParserMapper.isTruncated(url, page));
     // Remove content if storingContent is false. Content is added to page above
     // for ParseUtil be able to parse it.
-    if(content != null && !storingContent) {
-      page.setContent(ByteBuffer.wrap(new byte[0]));
+    boolean dropContent = content != null && !storingContent;
+
+    // parsed and written by a parse thread, the fetch thread goes on
+    if (parsing && parseStage != null && parseStage.put(key, page, dropContent)) {
+      return;
+    }
+
+    if (parsing) {
+      parseUtil.process(key, page);
+    }
+
+    if (dropContent) {
+      page.setContent(ByteBuffer.wrap(EMPTY_CONTENT));
     }
 
     // LOG.debug("ready to write hadoop : {}, {}", page.getStatus(), page.getMarkers());
@@ -511,6 +963,63 @@ public class FetchManager extends Configured {
     context.write(key, page);
   }
 
+  /**
+   * A page which can not be written to the WARC file is still written to the storage
+   * */
+  private void writeWarc(String url, long fetchTime, Content content, ProtocolStatus pstatus) {
+    try {
+      warcWriter.writeResponse(url, fetchTime, getHttpCode(content, pstatus), content.getMetadata(),
+          content.getContent());
+    } catch (IOException e) {
+      LOG.warn("Failed to write " + url + " to WARC file, " + e.getMessage());
+    }
+  }
+
+  /**
+   * The status code the http protocols report in the content metadata, or the
+   * code closest to the protocol status for the other protocols
+   * */
+  static int getHttpCode(Content content, ProtocolStatus pstatus) {
+    int code = NumberUtils.toInt(content.getMetadata().get(HttpHeaders.Q_STATUS_CODE), -1);
+    if (code > 0) {
+      return code;
+    }
+
+    switch (pstatus == null ? ProtocolStatusCodes.SUCCESS : pstatus.getCode()) {
+    case ProtocolStatusCodes.SUCCESS:
+      return 200;
+    case ProtocolStatusCodes.MOVED:
+      return 301;
+    case ProtocolStatusCodes.TEMP_MOVED:
+      return 302;
+    case ProtocolStatusCodes.NOTMODIFIED:
+      return 304;
+    case ProtocolStatusCodes.ACCESS_DENIED:
+      return 403;
+    case ProtocolStatusCodes.NOTFOUND:
+      return 404;
+    case ProtocolStatusCodes.GONE:
+      return 410;
+    default:
+      return 500;
+    }
+  }
+
+  /**
+   * Write back a page which is not fetched, the page loses the generate mark
+   * so it can be generated again, and the deferred mark lets the generator
+   * pick it up first
+   * */
+  @SuppressWarnings("unchecked")
+  private void outputDeferred(FetchItem fetchItem) throws IOException, InterruptedException {
+    WebPage page = fetchItem.getPage();
+
+    Utf8 batchId = Mark.GENERATE_MARK.removeMarkIfExist(page);
+    Mark.DEFERRED_MARK.putMark(page, batchId == null ? new Utf8() : batchId);
+
+    context.write(TableUtil.reverseUrl(fetchItem.getUrl()), page);
+  }
+
   private void updateStatus(String url, int bytesInPage) throws IOException {
     counter.updateAffectedRows(url);
     counter.increase(Counter.pages);
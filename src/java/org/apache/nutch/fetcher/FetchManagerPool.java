@@ -19,6 +19,9 @@ public class FetchManagerPool {
 
   public static final Logger LOG = LoggerFactory.getLogger(FetchManagerPool.class);
 
+  // a waiting client moves to the next job after this time
+  private static final long WAIT_SLICE = 1000;
+
   private static FetchManagerPool instance;
 
   private Map<Integer, FetchManager> fetchManagers = Maps.newTreeMap();
@@ -81,6 +84,63 @@ public class FetchManagerPool {
     return keys;
   }
 
+  /**
+   * Get at most @param count fetch items, wait at most @param maxWaitMillis
+   * if no job has an item to fetch, so the clients do not poll in a tight
+   * loop. The pool is not locked while waiting, the jobs are waited for in
+   * turn, a slice at a time
+   * */
+  public List<FetchItem.Key> randomFetchItems(int count, long maxWaitMillis) throws InterruptedException {
+    List<FetchItem.Key> keys = Lists.newArrayList();
+    final long deadline = System.currentTimeMillis() + maxWaitMillis;
+
+    while (true) {
+      // every job is asked once before waiting
+      int jobCount = size();
+      for (int i = 0; i < jobCount && keys.isEmpty(); i++) {
+        keys = randomFetchItems(count);
+      }
+
+      long remaining = deadline - System.currentTimeMillis();
+      if (!keys.isEmpty() || remaining <= 0) {
+        return keys;
+      }
+
+      long slice = Math.min(remaining, WAIT_SLICE);
+      FetchManager fetchManager = nextFetchManager();
+      if (fetchManager == null) {
+        Thread.sleep(slice);
+        continue;
+      }
+
+      FetchItem item = fetchManager.consumeFetchItem(slice);
+      if (item != null) {
+        keys.add(item.getKey());
+        for (FetchItem more : fetchManager.consumeFetchItems(count - 1)) {
+          keys.add(more.getKey());
+        }
+        return keys;
+      }
+    }
+  }
+
+  public synchronized int size() {
+    return fetchManagers.size();
+  }
+
+  /**
+   * The fetch manager of the next job in turn
+   * */
+  private synchronized FetchManager nextFetchManager() {
+    Integer jobID = jobIDs.poll();
+    if (jobID == null) {
+      return null;
+    }
+
+    jobIDs.add(jobID);
+    return fetchManagers.get(jobID);
+  }
+
   public synchronized void remove(int jobID) {
     jobIDs.remove(jobID);
     fetchManagers.remove(jobID);
@@ -1,10 +1,11 @@
 package org.apache.nutch.fetcher;
 
 /**
- * TODO : use just enum FetchMode {NATIVE, PROXY, CROWDSOURCING};
+ * TODO : use just enum FetchMode {NATIVE, PROXY, CROWDSOURCING, ASYNC};
  * */
 public enum FetchMode {
-  NATIVE("native"), PROXY("proxy"), CROWDSOURCING("crowdsourcing");
+  NATIVE("native"), PROXY("proxy"), CROWDSOURCING("crowdsourcing"), ASYNC("async"),
+  ELASTIC("elastic");
 
   private final String value;
 
@@ -28,6 +29,8 @@ public enum FetchMode {
     if (mode.equalsIgnoreCase("native")) return NATIVE;
     if (mode.equalsIgnoreCase("proxy")) return PROXY;
     if (mode.equalsIgnoreCase("crowdsourcing")) return CROWDSOURCING;
+    if (mode.equalsIgnoreCase("async")) return ASYNC;
+    if (mode.equalsIgnoreCase("elastic")) return ELASTIC;
 
     return NATIVE;
   }
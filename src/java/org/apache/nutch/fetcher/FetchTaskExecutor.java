@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetcher;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs every fetch task on its own lightweight thread. The threads have a
+ * small stack and are reused while there is work, so a fetcher can run
+ * thousands of blocking fetches at the same time without a fixed thread pool
+ * sized for the worst case.
+ *
+ * The number of tasks in flight is bounded by permits, {@link #execute(Runnable)}
+ * blocks until a permit is free.
+ */
+public class FetchTaskExecutor {
+
+  public static final long DEFAULT_STACK_SIZE = 256 * 1024;
+  public static final long KEEP_ALIVE_SECONDS = 30;
+
+  private final int maxConcurrency;
+  private final Semaphore permits;
+  private final ThreadPoolExecutor executor;
+  private final AtomicInteger inFlight = new AtomicInteger(0);
+  private final AtomicInteger peakInFlight = new AtomicInteger(0);
+
+  /**
+   * @param stackSize the stack size of the threads in bytes, 0 to use the default of the JVM
+   * */
+  public FetchTaskExecutor(final String name, int maxConcurrency, final long stackSize) {
+    this.maxConcurrency = maxConcurrency;
+    this.permits = new Semaphore(maxConcurrency);
+
+    // the permits bound the tasks, the pool is unbounded since a thread which released
+    // its permit may not be back to the pool yet
+    this.executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), new ThreadFactory() {
+          private final AtomicInteger sequence = new AtomicInteger(0);
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(null, r, name + "-" + sequence.incrementAndGet(), stackSize);
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  public int getInFlightCount() {
+    return inFlight.get();
+  }
+
+  public int getPeakInFlightCount() {
+    return peakInFlight.get();
+  }
+
+  /**
+   * The number of live threads, idle threads exit after the keep alive time
+   * */
+  public int getThreadCount() {
+    return executor.getPoolSize();
+  }
+
+  /**
+   * Wait until a permit is free
+   * */
+  public void acquire() throws InterruptedException {
+    permits.acquire();
+  }
+
+  /**
+   * Give back a permit taken by {@link #acquire()} without running a task
+   * */
+  public void release() {
+    permits.release();
+  }
+
+  /**
+   * Run the task on its own thread, the permit must be taken by {@link #acquire()}
+   * */
+  public void executeAcquired(final Runnable task) {
+    int n = inFlight.incrementAndGet();
+    int peak;
+    while (n > (peak = peakInFlight.get()) && !peakInFlight.compareAndSet(peak, n)) {
+    }
+
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+          } finally {
+            inFlight.decrementAndGet();
+            permits.release();
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      inFlight.decrementAndGet();
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Wait until a permit is free and run the task on its own thread
+   * */
+  public void execute(Runnable task) throws InterruptedException {
+    acquire();
+    executeAcquired(task);
+  }
+
+  /**
+   * Accept no more tasks and wait for the running tasks
+   *
+   * @return true if all tasks are finished
+   * */
+  public boolean shutdown(long maxWaitMillis) throws InterruptedException {
+    executor.shutdown();
+    return executor.awaitTermination(maxWaitMillis, TimeUnit.MILLISECONDS);
+  }
+}
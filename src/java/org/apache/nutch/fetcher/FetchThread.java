@@ -17,6 +17,7 @@ import org.apache.nutch.fetcher.data.FetchResult;
 import org.apache.nutch.protocol.Protocol;
 import org.apache.nutch.protocol.ProtocolFactory;
 import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.util.RuntimeUtil;
 import org.apache.nutch.util.TableUtil;
 import org.slf4j.Logger;
 
@@ -30,6 +31,11 @@ public class FetchThread extends Thread {
 
   private static AtomicInteger fetchThreadSequence = new AtomicInteger(0);
 
+  /**
+   * Wait at most this long for a task before checking if the mission is complete
+   * */
+  private static final long MAX_IDLE_WAIT = 1000;
+
   private final Configuration conf;
   private final ProtocolFactory protocolFactory;
   private String reprUrl;
@@ -69,7 +75,7 @@ public class FetchThread extends Thread {
         item = null;
 
         if (fetchMode.equals(FetchMode.CROWDSOURCING)) {
-          result = fetchManager.consumeFetchResut();
+          result = fetchManager.consumeFetchResut(MAX_IDLE_WAIT);
 
           if (result != null) {
             item = fetchManager.getPendingFetchItem(result.getQueueId(), result.getItemId());
@@ -80,20 +86,12 @@ public class FetchThread extends Thread {
           }
         }
         else {
-          item = fetchManager.consumeFetchItem();
+          item = fetchManager.consumeFetchItem(MAX_IDLE_WAIT);
         }
 
         if (item == null) {
           if (!isMissionComplete()) {
-
-            fetchManager.waitingFetcherThreads.incrementAndGet();
-
-            try {
-              Thread.sleep(1000);
-            } catch (final Exception e) {}
-
-            fetchManager.waitingFetcherThreads.decrementAndGet();
-
+            // the wait is already done in fetch manager
             continue;
           } else {
             // all done, finish this thread
@@ -122,10 +120,17 @@ public class FetchThread extends Thread {
 
           // Block, open the network to fetch the web page and wait for a response
           protocol = this.protocolFactory.getProtocol(item.getUrl());
+          if (!fetchManager.checkRobotRules(item, protocol)) {
+            continue;
+          }
         }
 
         // Blocking until the target web page is loaded
+        long allocatedBytes = RuntimeUtil.getCurrentThreadAllocatedBytes();
         final ProtocolOutput output = protocol.getProtocolOutput(item.getUrl(), item.getPage());
+        if (allocatedBytes >= 0) {
+          fetchManager.updateAllocatedBytes(RuntimeUtil.getCurrentThreadAllocatedBytes() - allocatedBytes);
+        }
         fetchManager.finishFetchItem(item.getQueueID(), item.getItemID(), output);
       } // while
     } catch (final Throwable e) {
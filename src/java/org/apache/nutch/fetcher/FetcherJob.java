@@ -57,6 +57,7 @@ public class FetcherJob extends NutchJob implements Tool {
   public static final String RESUME_KEY = "fetcher.job.resume";
   public static final String PARSE_KEY = "fetcher.parse";
   public static final String THREADS_KEY = "fetcher.threads.fetch";
+  public static final String WARC_OUTPUT_KEY = "fetcher.warc.output";
 
   private static final Collection<WebPage.Field> FIELDS = new HashSet<WebPage.Field>();
 
@@ -112,7 +113,8 @@ public class FetcherJob extends NutchJob implements Tool {
         "numTasks", numTasks,
         "batchId", batchId,
         "threads", threads,
-        "resume", resume);
+        "resume", resume,
+        "warcOutput", getConf().get(WARC_OUTPUT_KEY, ""));
   }
 
   @Override
@@ -186,12 +188,13 @@ public class FetcherJob extends NutchJob implements Tool {
   @Override
   public int run(String[] args) throws Exception {
     String usage = "Usage: FetcherJob (<batchId> | -all) [-crawlId <id>] "
-        + "[-threads N] \n \t \t  [-resume] [-numTasks N]\n"
+        + "[-threads N] \n \t \t  [-resume] [-numTasks N] [-warc <dir>]\n"
         + "    <batchId>     - crawl identifier returned by Generator, or -all for all \n \t \t    generated batchId-s\n"
         + "    -crawlId <id> - the id to prefix the schemas to operate on, \n \t \t    (default: storage.crawl.id)\n"
         + "    -threads N    - number of fetching threads per task\n"
         + "    -resume       - resume interrupted job\n"
-        + "    -numTasks N   - if N > 0 then use this many reduce tasks for fetching \n \t \t    (default: mapred.map.tasks)";
+        + "    -numTasks N   - if N > 0 then use this many reduce tasks for fetching \n \t \t    (default: mapred.map.tasks)\n"
+        + "    -warc <dir>   - write the fetched pages to WARC files in this directory too \n \t \t    (default: fetcher.warc.output)";
 
     if (args.length == 0) {
       System.err.println(usage);
@@ -218,6 +221,8 @@ public class FetcherJob extends NutchJob implements Tool {
         numTasks = Integer.parseInt(args[++i]);
       } else if ("-crawlId".equals(args[i])) {
         getConf().set(Nutch.CRAWL_ID_KEY, args[++i]);
+      } else if ("-warc".equals(args[i])) {
+        getConf().set(WARC_OUTPUT_KEY, args[++i]);
       } else {
         throw new IllegalArgumentException("arg " + args[i] + " not recognized");
       }
@@ -21,6 +21,7 @@ import java.util.List;
 
 import org.apache.commons.lang.Validate;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.nutch.api.NutchServer;
 import org.apache.nutch.fetcher.data.FetchEntry;
@@ -29,7 +30,9 @@ import org.apache.nutch.fetcher.server.FetcherServer;
 import org.apache.nutch.mapreduce.NutchReducer;
 import org.apache.nutch.mapreduce.NutchUtil;
 import org.apache.nutch.net.proxy.ProxyUpdateThread;
+import org.apache.nutch.parse.ParseUtil;
 import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.tools.arc.WarcWriter;
 import org.apache.nutch.util.NetUtil;
 import org.slf4j.Logger;
 
@@ -43,10 +46,15 @@ public class FetcherReducer extends NutchReducer<IntWritable, FetchEntry, String
   private Integer fetchServerPort;
   private FetcherServer fetcherServer;
   private final List<FetchThread> fetchThreads = Lists.newArrayList();
+  private final List<AsyncFetchThread> asyncFetchThreads = Lists.newArrayList();
+  private ElasticFetchThread elasticFetchThread;
   private int fetchThreadCount = 5;
+  private int asyncFetchThreadCount = 2;
   private int maxFeedPerThread = 100;
 
   private FetchManager fetchManager;
+  private WarcWriter warcWriter;
+  private ParseStage parseStage;
   private FetchMode fetchMode = FetchMode.NATIVE;
 
   private long fetchJobTimeout;
@@ -65,6 +73,9 @@ public class FetcherReducer extends NutchReducer<IntWritable, FetchEntry, String
     fetchManager = new FetchManager(context.getJobID().getId(), getCounter(), context);
     FetchManagerPool.getInstance().put(fetchManager);
 
+    openWarcWriter(context);
+    startParseStage(context);
+
     getCounter().register(FetchManager.Counter.class);
     getReporter().silence();
 
@@ -74,6 +85,7 @@ public class FetcherReducer extends NutchReducer<IntWritable, FetchEntry, String
     reportIntervalSec = conf.getInt("fetcher.pending.timeout.secs", 20);
     pendingQueueLastCheckTime = startTime;
     fetchThreadCount = conf.getInt("fetcher.threads.fetch", 5);
+    asyncFetchThreadCount = conf.getInt("fetcher.async.threads", 2);
     maxFeedPerThread = conf.getInt("fetcher.queue.depth.multiplier", 100);
 
     LOG.info(NutchUtil.printArgMap(
@@ -84,6 +96,7 @@ public class FetcherReducer extends NutchReducer<IntWritable, FetchEntry, String
         "reportIntervalSec", reportIntervalSec,
         "pendingQueueLastCheckTime", pendingQueueLastCheckTime,
         "fetchThreadCount", fetchThreadCount,
+        "asyncFetchThreadCount", asyncFetchThreadCount,
         "maxFeedPerThread", maxFeedPerThread,
         "fetchServerPort", fetchServerPort
     ));
@@ -104,6 +117,12 @@ public class FetcherReducer extends NutchReducer<IntWritable, FetchEntry, String
 
       startFetchServer(conf, fetchServerPort);
     }
+    else if (FetchMode.ASYNC.equals(fetchMode)) {
+      startAsyncFetcherThreads(context);
+    }
+    else if (FetchMode.ELASTIC.equals(fetchMode)) {
+      startElasticFetcherThread(context);
+    }
     else {
       if (FetchMode.PROXY.equals(fetchMode)) {
         ProxyUpdateThread proxyUpdateThread = new ProxyUpdateThread(conf);
@@ -119,14 +138,99 @@ public class FetcherReducer extends NutchReducer<IntWritable, FetchEntry, String
 
   @Override
   protected void cleanup(Context context) {
+    closeParseStage();
+
+    fetchManager.reportQueueStats();
+    fetchManager.reportParseStats();
+    fetchManager.reportURLFilterStats();
+    fetchManager.getFetchItemQueues().saveCrawlDelays();
+
     FetchManagerPool.getInstance().remove(context.getJobID().getId());
     if (fetcherServer != null && fetcherServer.isRunning()) {
       fetcherServer.stop(true);
     }
 
+    closeWarcWriter();
+
     super.cleanup(context);
   }
 
+  /**
+   * When the fetcher parses, the pages are parsed by fetcher.parse.threads
+   * threads of their own, as many as the parse threads by default. 0 parses
+   * on the fetch threads.
+   * */
+  private void startParseStage(Context context) {
+    ParseUtil parseUtil = fetchManager.getParseUtil();
+    if (parseUtil == null) {
+      return;
+    }
+
+    int threads = conf.getInt("fetcher.parse.threads", -1);
+    if (threads < 0) {
+      threads = parseUtil.getParseExecutor().getThreads();
+    }
+    if (threads == 0) {
+      return;
+    }
+
+    int queueSize = conf.getInt("fetcher.parse.queue.size", 100);
+    parseStage = new ParseStage(parseUtil, context, threads, Math.max(1, queueSize));
+    parseStage.start();
+    fetchManager.setParseStage(parseStage);
+
+    LOG.info("Parse stage with " + threads + " threads, queue size " + queueSize);
+  }
+
+  /**
+   * Wait until the fetched pages are parsed and written
+   * */
+  private void closeParseStage() {
+    if (parseStage == null) {
+      return;
+    }
+
+    try {
+      parseStage.close();
+    } catch (InterruptedException e) {
+      LOG.warn("Interrupted while closing the parse stage");
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Every fetch task writes the fetched pages to a WARC file of its own in the
+   * directory of fetcher.warc.output, if it's set
+   * */
+  private void openWarcWriter(Context context) throws IOException {
+    String warcDir = conf.get(FetcherJob.WARC_OUTPUT_KEY, "").trim();
+    if (warcDir.isEmpty()) {
+      return;
+    }
+
+    // named by the attempt, a retried or speculative attempt does not clobber the file of another one
+    String fileName = "fetch-" + context.getTaskAttemptID() + ".warc.gz";
+    Path path = new Path(warcDir, fileName);
+    warcWriter = new WarcWriter(path.getFileSystem(conf).create(path, false));
+    warcWriter.writeInfo(fileName, conf.get("http.agent.version", "Nutch"));
+    fetchManager.setWarcWriter(warcWriter);
+
+    LOG.info("Write fetched pages to " + path);
+  }
+
+  private void closeWarcWriter() {
+    if (warcWriter == null) {
+      return;
+    }
+
+    try {
+      LOG.info("Written " + warcWriter.getRecords() + " WARC records");
+      warcWriter.close();
+    } catch (IOException e) {
+      LOG.error("Failed to close WARC file, " + e.getMessage());
+    }
+  }
+
   /**
    * Start queue feeder thread. The thread fetches webpages from the reduce result
    * and add it into the fetch queue
@@ -152,6 +256,10 @@ public class FetcherReducer extends NutchReducer<IntWritable, FetchEntry, String
         && fetchManager.getPendingItemCount() == 0;
   }
 
+  private void reportFeederStatus() {
+    getCounter().setValue(FetchManager.Counter.feederIdleSeconds, (int)(queueFeederThread.getIdleTime() / 1000));
+  }
+
   private void startFetchServer(final Configuration conf, final int port) {
     fetcherServer = FetcherServer.startInDaemonThread(conf, port);
   }
@@ -172,6 +280,7 @@ public class FetcherReducer extends NutchReducer<IntWritable, FetchEntry, String
     boolean shouldStop = false;
     do {
       fetchManager.waitAndReport(context, reportIntervalSec, isFeederAlive());
+      reportFeederStatus();
 
       long now = System.currentTimeMillis();
       long idleTime = now - fetchManager.getLastTaskFinishTime();
@@ -200,6 +309,25 @@ public class FetcherReducer extends NutchReducer<IntWritable, FetchEntry, String
     }
   }
 
+  /**
+   * Non-blocking, every thread runs an event loop which keeps many fetches in flight
+   * */
+  private void startAsyncFetcherThreads(Context context) {
+    for (int i = 0; i < asyncFetchThreadCount; i++) {
+      AsyncFetchThread fetchThread = new AsyncFetchThread(queueFeederThread, fetchManager, context);
+      asyncFetchThreads.add(fetchThread);
+      fetchThread.start();
+    }
+  }
+
+  /**
+   * Non-blocking, every fetch item runs on its own lightweight thread
+   * */
+  private void startElasticFetcherThread(Context context) {
+    elasticFetchThread = new ElasticFetchThread(queueFeederThread, fetchManager, context);
+    elasticFetchThread.start();
+  }
+
   // Blocking
   private void checkAndReportFetcherStatus(Context context) throws IOException {
     if (FetchMode.CROWDSOURCING.equals(fetchMode)) {
@@ -220,10 +348,11 @@ public class FetcherReducer extends NutchReducer<IntWritable, FetchEntry, String
     if (LOG.isInfoEnabled()) {
       LOG.info("Fetcher: throughput threshold sequence: " + throughputThresholdSequence);
     }
-    long throughputThresholdTimeLimit = conf.getLong("fetcher.throughput.threshold.check.after", -1);
+    long throughputThresholdTimeLimit = startTime + 60 * 1000 * conf.getLong("fetcher.throughput.threshold.check.after", -1);
 
     do {
       float pagesLastSec = fetchManager.waitAndReport(context, reportIntervalSec, isFeederAlive());
+      reportFeederStatus();
 
       // if throughput threshold is enabled
       if (throughputThresholdTimeLimit < System.currentTimeMillis() && throughputThresholdPages != -1) {
@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetcher;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.nutch.parse.ParseUtil;
+import org.apache.nutch.storage.WebPage;
+import org.slf4j.Logger;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The parse stage of a fetcher which parses the pages it fetches. The fetch
+ * threads put the fetched pages into a bounded queue and go on fetching, the
+ * parse threads parse the pages and write them, so fetching and parsing
+ * overlap. A fetch thread waits while the queue is full, so the fetch can not
+ * run away from the parse.
+ */
+public class ParseStage {
+
+  public static final Logger LOG = FetcherJob.LOG;
+
+  private static final byte[] EMPTY_CONTENT = new byte[0];
+
+  private static final long POLL_INTERVAL = 1000;
+
+  private static class Item {
+    private final String key;
+    private final WebPage page;
+    private final boolean dropContent;
+
+    Item(String key, WebPage page, boolean dropContent) {
+      this.key = key;
+      this.page = page;
+      this.dropContent = dropContent;
+    }
+  }
+
+  private final ParseUtil parseUtil;
+  private final TaskInputOutputContext<?, ?, String, WebPage> context;
+  private final BlockingQueue<Item> queue;
+  private final List<Thread> threads = Lists.newArrayList();
+  // the fetch threads put under the read lock, close takes the write lock, so
+  // no page is put after close drained the queue
+  private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+  private volatile boolean closed = false;
+
+  // statistics
+  private final AtomicLong parsed = new AtomicLong(0);
+  private final AtomicLong errors = new AtomicLong(0);
+  private final AtomicLong rejected = new AtomicLong(0);
+  private final AtomicLong waits = new AtomicLong(0);
+  private final AtomicLong waitTime = new AtomicLong(0);
+
+  /**
+   * @param threadCount the number of parse threads
+   * @param queueSize the number of pages which wait for a parse thread at most
+   * */
+  public ParseStage(ParseUtil parseUtil, TaskInputOutputContext<?, ?, String, WebPage> context,
+      int threadCount, int queueSize) {
+    this.parseUtil = parseUtil;
+    this.context = context;
+    this.queue = new ArrayBlockingQueue<Item>(queueSize);
+
+    for (int i = 0; i < threadCount; i++) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          runParseLoop();
+        }
+      }, "ParseStage-" + i);
+      thread.setDaemon(true);
+      threads.add(thread);
+    }
+  }
+
+  public void start() {
+    for (Thread thread : threads) {
+      thread.start();
+    }
+  }
+
+  /**
+   * Parse and write the page on a parse thread, waits while the queue is full
+   *
+   * @param dropContent the content is removed from the page after the parse
+   * @return false if the stage is closed, the caller has to parse and write the page
+   * */
+  public boolean put(String key, WebPage page, boolean dropContent) throws InterruptedException {
+    closeLock.readLock().lockInterruptibly();
+    try {
+      if (closed) {
+        rejected.incrementAndGet();
+        return false;
+      }
+
+      Item item = new Item(key, page, dropContent);
+      if (queue.offer(item)) {
+        return true;
+      }
+
+      // the parse threads go on until the stage is closed, which waits for this put
+      long start = System.currentTimeMillis();
+      queue.put(item);
+      waits.incrementAndGet();
+      waitTime.addAndGet(System.currentTimeMillis() - start);
+      return true;
+    } finally {
+      closeLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Wait until the queued pages are parsed and written, and stop the parse threads
+   * */
+  public void close() throws InterruptedException {
+    // waits for the puts in progress, the later puts are rejected
+    closeLock.writeLock().lockInterruptibly();
+    try {
+      closed = true;
+    } finally {
+      closeLock.writeLock().unlock();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // a page put while the threads stopped
+    Item item;
+    while ((item = queue.poll()) != null) {
+      process(item);
+    }
+
+    LOG.info("Parse stage : " + this);
+  }
+
+  public int getQueueSize() {
+    return queue.size();
+  }
+
+  public long getParsed() {
+    return parsed.get();
+  }
+
+  public long getErrors() {
+    return errors.get();
+  }
+
+  /**
+   * The number of pages put after the stage is closed, the callers parsed and wrote them
+   * */
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  /**
+   * The number of times a fetch thread waited for the parse threads
+   * */
+  public long getWaits() {
+    return waits.get();
+  }
+
+  /**
+   * Milliseconds the fetch threads waited for the parse threads in total
+   * */
+  public long getWaitTime() {
+    return waitTime.get();
+  }
+
+  @Override
+  public String toString() {
+    return "threads=" + threads.size() + " queued=" + getQueueSize() + " parsed=" + getParsed() + " errors="
+        + getErrors() + " rejected=" + getRejected() + " waits=" + getWaits() + " waitTime=" + getWaitTime();
+  }
+
+  protected void parse(String key, WebPage page) {
+    parseUtil.process(key, page);
+  }
+
+  protected void write(String key, WebPage page) throws IOException, InterruptedException {
+    context.write(key, page);
+  }
+
+  private void runParseLoop() {
+    while (true) {
+      Item item;
+      try {
+        item = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        break;
+      }
+
+      if (item == null) {
+        if (closed) {
+          break;
+        }
+        continue;
+      }
+
+      if (!process(item)) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * @return false if the thread is interrupted
+   * */
+  private boolean process(Item item) {
+    try {
+      parse(item.key, item.page);
+      parsed.incrementAndGet();
+    } catch (Throwable e) {
+      errors.incrementAndGet();
+      LOG.warn("Failed to parse " + item.key + ", " + StringUtils.stringifyException(e));
+    }
+
+    if (item.dropContent) {
+      item.page.setContent(ByteBuffer.wrap(EMPTY_CONTENT));
+    }
+
+    try {
+      write(item.key, item.page);
+    } catch (IOException e) {
+      errors.incrementAndGet();
+      LOG.error("Failed to write " + item.key + ", " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+
+    return true;
+  }
+}
@@ -2,22 +2,34 @@ package org.apache.nutch.fetcher;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.Reducer.Context;
 import org.apache.nutch.fetcher.data.FetchEntry;
 import org.apache.nutch.fetcher.data.FetchItemQueues;
 import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.net.DnsCache;
 import org.apache.nutch.util.TableUtil;
+import org.apache.nutch.util.URLUtil;
 import org.slf4j.Logger;
 
 /**
  * This class feeds the queues with input items, and re-fills them as
  * items are consumed by FetcherThread-s.
+ *
+ * The hosts are resolved in background while the items wait in the queues,
+ * so the fetch does not wait for the DNS. The robots.txt of new hosts are
+ * loaded the same way.
  */
 public class QueueFeederThread extends Thread {
   public static final Logger LOG = FetcherJob.LOG;
 
+  /**
+   * Wait at most this long for free space in the queues
+   * */
+  private static final long MAX_IDLE_WAIT = 1000;
+
   private final Configuration conf;
   @SuppressWarnings("rawtypes")
   private final Context context;
@@ -26,6 +38,9 @@ public class QueueFeederThread extends Thread {
   private Iterator<FetchEntry> currentIter;
   boolean hasMore;
   private long timeLimitMillis = -1;
+  private final AtomicLong idleTime = new AtomicLong(0);
+  private final DnsCache dnsCache;
+  private final RobotRulesPrefetcher robotsPrefetcher;
 
   @SuppressWarnings("rawtypes")
   public QueueFeederThread(Context context, FetchItemQueues queues, int feedLimit)
@@ -44,8 +59,28 @@ public class QueueFeederThread extends Thread {
       currentIter = context.getValues().iterator();
     }
 
+    // no need to resolve the hosts if the pages are fetched by others
+    FetchMode fetchMode = FetchMode.fromString(conf.get("fetcher.fetch.mode", "native"));
+    boolean useProxy = !conf.get("http.proxy.host", "").isEmpty()
+        || FetchMode.PROXY.equals(fetchMode) || FetchMode.CROWDSOURCING.equals(fetchMode);
+    if (conf.getBoolean("fetcher.dns.prefetch", true) && !useProxy) {
+      dnsCache = DnsCache.getInstance(conf);
+    } else {
+      dnsCache = null;
+    }
+
+    if (conf.getBoolean("fetcher.robots.check", true) && conf.getInt("fetcher.robots.prefetch.threads", 8) > 0
+        && !FetchMode.CROWDSOURCING.equals(fetchMode)) {
+      robotsPrefetcher = new RobotRulesPrefetcher(conf);
+    } else {
+      robotsPrefetcher = null;
+    }
+
     // the value of the time limit is either -1 or the time where it should finish
-    timeLimitMillis = System.currentTimeMillis() + 1000 * 60 * conf.getLong("fetcher.timelimit.mins", -1);
+    long timeLimitMins = conf.getLong("fetcher.timelimit.mins", -1);
+    if (timeLimitMins > 0) {
+      timeLimitMillis = System.currentTimeMillis() + 1000 * 60 * timeLimitMins;
+    }
   }
 
   @Override
@@ -56,7 +91,7 @@ public class QueueFeederThread extends Thread {
     try {
       while (hasMore) {
         long now = System.currentTimeMillis();
-        if (timeLimitMillis > now && now >= timeLimitMillis) {
+        if (timeLimitMillis > 0 && now >= timeLimitMillis) {
           // enough .. lets' simply
           // read all the entries from the input without processing them
           while (currentIter.hasNext()) {
@@ -73,10 +108,10 @@ public class QueueFeederThread extends Thread {
 
         int feedCapacity = feedLimit - queues.getReadyItemCount() - queues.getPendingItemCount();
         if (feedCapacity <= 0) {
-          // queues are full - spin-wait until they have some free space
-          try {
-            Thread.sleep(1000);
-          } catch (final Exception e) {};
+          // queues are full - wait until some items are finished
+          long startWait = System.currentTimeMillis();
+          queues.awaitFeedCapacity(feedLimit, MAX_IDLE_WAIT);
+          idleTime.addAndGet(System.currentTimeMillis() - startWait);
           continue;
         }
 
@@ -88,6 +123,12 @@ public class QueueFeederThread extends Thread {
         while (feedCapacity > 0 && currentIter.hasNext()) {
           FetchEntry entry = currentIter.next();
           final String url = TableUtil.unreverseUrl(entry.getKey());
+          if (dnsCache != null) {
+            dnsCache.prefetch(URLUtil.getHost(url));
+          }
+          if (robotsPrefetcher != null) {
+            robotsPrefetcher.prefetch(url, entry.getWebPage());
+          }
           queues.produceFetchItem(context.getJobID().getId(), url, entry.getWebPage());
           feedCapacity--;
           feededCount++;
@@ -109,10 +150,23 @@ public class QueueFeederThread extends Thread {
     } catch (Exception e) {
       LOG.error("QueueFeeder error reading input, record " + feededCount, e);
       return;
+    } finally {
+      // let the waiting fetcher threads know the feeder is done
+      queues.wakeUp();
     }
 
     LOG.info("QueueFeeder finished: total " + feededCount + " records. Hit by time limit : " + timeLimitCount);
+    if (robotsPrefetcher != null) {
+      LOG.info("Prefetched robots.txt of " + robotsPrefetcher.getPrefetches() + " hosts");
+    }
 
     context.getCounter(Nutch.COUNTER_GROUP_STATUS, "HitByTimeLimit-QueueFeeder").increment(timeLimitCount);
   }
+
+  /**
+   * Total time waiting for free space in the queues, in milliseconds
+   * */
+  public long getIdleTime() {
+    return idleTime.get();
+  }
 }
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetcher;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.Protocol;
+import org.apache.nutch.protocol.ProtocolFactory;
+import org.apache.nutch.protocol.RobotRulesCache;
+import org.apache.nutch.storage.WebPage;
+import org.slf4j.Logger;
+
+/**
+ * Loads the robots rules of new hosts in background as soon as the queue feeder
+ * sees them, so the rules are usually cached before the first item of the host
+ * is fetched. The rules are loaded by the protocol plugins into the shared
+ * {@link RobotRulesCache}, a robots.txt is fetched once even if a fetch thread
+ * asks for it while it's loading.
+ */
+public class RobotRulesPrefetcher {
+
+  public static final Logger LOG = FetcherJob.LOG;
+
+  /**
+   * Prefetch requests are dropped if this many are waiting, the rules are loaded
+   * by the fetch threads then
+   * */
+  private static final int MAX_QUEUED_PREFETCHES = 10000;
+
+  private final ProtocolFactory protocolFactory;
+  private final RobotRulesCache cache;
+  private final ThreadPoolExecutor executor;
+  private final Set<String> prefetching = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private final AtomicLong prefetches = new AtomicLong(0);
+
+  public RobotRulesPrefetcher(Configuration conf) {
+    this.protocolFactory = new ProtocolFactory(conf);
+    this.cache = RobotRulesCache.getInstance(conf);
+
+    int threads = conf.getInt("fetcher.robots.prefetch.threads", 8);
+    this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(MAX_QUEUED_PREFETCHES), new ThreadFactory() {
+          private final AtomicInteger sequence = new AtomicInteger(0);
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "RobotsPrefetcher-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Load the robots rules of the host of the url in background if they are not cached, never blocks
+   * */
+  public void prefetch(final String url, final WebPage page) {
+    final String key;
+    try {
+      key = RobotRulesCache.getCacheKey(new URL(url));
+    } catch (MalformedURLException e) {
+      return;
+    }
+
+    if (cache.getIfPresent(key) != null || !prefetching.add(key)) {
+      return;
+    }
+
+    prefetches.incrementAndGet();
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            Protocol protocol = protocolFactory.getProtocol(url);
+            protocol.getRobotRules(url, page);
+          } catch (Throwable e) {
+            LOG.warn("Failed to prefetch robots.txt for " + url + ", " + e);
+          } finally {
+            prefetching.remove(key);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // too many prefetches are waiting, the rules will be loaded when the host is fetched
+      prefetching.remove(key);
+    }
+  }
+
+  public long getPrefetches() {
+    return prefetches.get();
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+}
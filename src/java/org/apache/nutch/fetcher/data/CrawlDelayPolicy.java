@@ -0,0 +1,101 @@
+package org.apache.nutch.fetcher.data;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.fetcher.data.FetchQueueStats.ErrorClass;
+
+/**
+ * Adapts the crawl delay of a fetch queue to the response of the server.
+ *
+ * A host that throttles us (429/503) or times out gets an exponentially longer
+ * delay, up to the maximum. After a back off, every successful fetch brings the
+ * delay back toward the configured delay. The delay never goes below the
+ * configured delay, unless shrinking is enabled, then a host that answers fast
+ * and never fails gets a shorter delay, down to the minimum crawl delay.
+ */
+public class CrawlDelayPolicy {
+
+  /**
+   * The back off starts from at least this delay, so a zero delay can back off
+   * */
+  public static final long MIN_BACKOFF_DELAY = 1000;
+
+  private final boolean enabled;
+  private final boolean shrinking;
+  private final long fastFetchTime;
+  private final int fastFetchWindow;
+  private final float shrinkFactor;
+  private final float backoffFactor;
+  private final long minDelay;
+  private final long maxDelay;
+
+  public CrawlDelayPolicy(Configuration conf) {
+    this.enabled = conf.getBoolean("fetcher.server.delay.adaptive", true);
+    this.shrinking = conf.getBoolean("fetcher.server.delay.adaptive.shrink", false);
+    this.fastFetchTime = conf.getLong("fetcher.server.delay.adaptive.fast.time", 1000);
+    this.fastFetchWindow = conf.getInt("fetcher.server.delay.adaptive.fast.window", 5);
+    this.shrinkFactor = conf.getFloat("fetcher.server.delay.adaptive.shrink.factor", 0.8f);
+    this.backoffFactor = conf.getFloat("fetcher.server.delay.adaptive.backoff.factor", 2.0f);
+    this.minDelay = (long) (conf.getFloat("fetcher.server.delay.adaptive.min", 0.25f) * 1000);
+    this.maxDelay = (long) (conf.getFloat("fetcher.server.delay.adaptive.max", 30.0f) * 1000);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @return true if the delay can shrink below the configured delay
+   * */
+  public boolean isShrinking() {
+    return shrinking;
+  }
+
+  /**
+   * Must be called with the monitor of the queue held
+   *
+   * @param fetchTime the time to finish the fetch in milliseconds
+   * @param error the error class, null if there is no error
+   * @return the new crawl delay of the queue
+   * */
+  long adapt(FetchItemQueue queue, long fetchTime, ErrorClass error) {
+    long delay = queue.crawlDelay;
+
+    if (error == ErrorClass.throttled || error == ErrorClass.timeout) {
+      queue.fastFetchCount = 0;
+      long base = Math.max(delay, Math.max(queue.initialCrawlDelay, MIN_BACKOFF_DELAY));
+      return Math.max(delay, Math.min(maxDelay, (long) (base * backoffFactor)));
+    }
+
+    if (error != null) {
+      // the host is not healthy, keep the delay
+      queue.fastFetchCount = 0;
+      return delay;
+    }
+
+    // recover from a back off
+    if (delay > queue.initialCrawlDelay) {
+      queue.fastFetchCount = 0;
+      return Math.max(queue.initialCrawlDelay, (long) (delay * shrinkFactor));
+    }
+
+    if (!shrinking || fetchTime > fastFetchTime) {
+      queue.fastFetchCount = 0;
+      return delay;
+    }
+
+    if (++queue.fastFetchCount < fastFetchWindow) {
+      return delay;
+    }
+
+    queue.fastFetchCount = 0;
+    long floor = Math.max(queue.minCrawlDelay, minDelay);
+    return Math.min(delay, Math.max(floor, (long) (delay * shrinkFactor)));
+  }
+
+  @Override
+  public String toString() {
+    return "enabled=" + enabled + " shrinking=" + shrinking + " fastFetchTime=" + fastFetchTime + " fastFetchWindow=" + fastFetchWindow
+        + " shrinkFactor=" + shrinkFactor + " backoffFactor=" + backoffFactor
+        + " minDelay=" + minDelay + " maxDelay=" + maxDelay;
+  }
+}
@@ -6,6 +6,7 @@ import java.net.UnknownHostException;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.nutch.fetcher.FetcherJob;
+import org.apache.nutch.net.DnsCache;
 import org.apache.nutch.storage.WebPage;
 import org.apache.nutch.util.URLUtil;
 import org.slf4j.Logger;
@@ -40,6 +41,8 @@ public class FetchItem {
   WebPage page;
   URL u;
   long pendingStart = 0;
+  // the times a protocol refused to fetch the item because it would block
+  int wouldBlocks = 0;
 
   public FetchItem(int jobID, String url, WebPage page, URL u, String queueID) {
     this.page = page;
@@ -83,18 +86,34 @@ public class FetchItem {
     this.pendingStart = pendingStart;
   }
 
+  /**
+   * @return the times a protocol refused to fetch the item because it would block, this one included
+   * */
+  public int increaseWouldBlocks() {
+    return ++wouldBlocks;
+  }
+
   /** 
    * Create an item. Queue id will be created based on <code>queueMode</code>
    * argument, either as a protocol + hostname pair, protocol + IP
    * address pair or protocol+domain pair.
    */
   public static FetchItem create(int jobID, String url, WebPage page, String queueMode) {
+    return create(jobID, url, page, queueMode, null);
+  }
+
+  /**
+   * Create an item, the hosts are resolved by <code>dnsCache</code> if the
+   * queues are by IP address, or by the cache of the default settings if it
+   * is null
+   */
+  public static FetchItem create(int jobID, String url, WebPage page, String queueMode, DnsCache dnsCache) {
     final URL u = getUrl(url);
 
     if (u == null) return null;
 
     final String proto = u.getProtocol().toLowerCase();
-    final String host = getHost(u, queueMode).toLowerCase();
+    final String host = getHost(u, queueMode, dnsCache).toLowerCase();
     final String queueID = proto + "://" + host;
 
     return new FetchItem(jobID, url, page, u, queueID);
@@ -126,11 +145,14 @@ public class FetchItem {
     return nextFetchItemId.incrementAndGet();
   }
 
-  protected static String getHost(URL url, String queueMode) {
+  protected static String getHost(URL url, String queueMode, DnsCache dnsCache) {
     String host;
     if (FetchItemQueues.QUEUE_MODE_IP.equalsIgnoreCase(queueMode)) {
       try {
-        final InetAddress addr = InetAddress.getByName(url.getHost());
+        if (dnsCache == null) {
+          dnsCache = DnsCache.getInstance(null);
+        }
+        final InetAddress addr = dnsCache.resolve(url.getHost());
         host = addr.getHostAddress();
       } catch (final UnknownHostException e) {
         // unable to resolve it, so don't fall back to host name
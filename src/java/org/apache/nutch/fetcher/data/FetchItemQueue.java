@@ -18,27 +18,62 @@ import com.google.common.collect.Maps;
  * This class handles FetchItems which come from the same host ID (be it
  * a proto/hostname or proto/IP pair). It also keeps track of requests in
  * progress and elapsed time between requests.
+ *
+ * Every queue is guarded by its own monitor, so operations on different hosts
+ * never contend with each other. {@link FetchItemQueues} holds the monitor
+ * while it changes the scheduling state of the queue.
  */
 class FetchItemQueue {
   public static final Logger LOG = FetcherJob.LOG;
 
-  List<FetchItem> fetchQueue = new LinkedList<FetchItem>();
+  final String id;
+
+  LinkedList<FetchItem> fetchQueue = new LinkedList<FetchItem>();
   Map<Long, FetchItem>  fetchingQueue = new HashMap<Long, FetchItem>();
 
   AtomicLong nextFetchTime = new AtomicLong();
 
   long crawlDelay;
   long minCrawlDelay;
+  /**
+   * The configured crawl delay, the adapted delay goes back to it after a back off
+   * */
+  final long initialCrawlDelay;
+  /**
+   * Consecutive fast and successful fetches, see {@link CrawlDelayPolicy}
+   * */
+  int fastFetchCount = 0;
+  /**
+   * True if the crawl delay is adapted and should be saved to the host table
+   * */
+  boolean crawlDelayChanged = false;
   int maxThreads;
   /**
    * Once timeout, the pending items should be put to the ready queue again.
    * time unit : seconds
-   * */  
+   * */
   long pendingTimeout;
 
-  public FetchItemQueue(Configuration conf, int maxThreads, long crawlDelay, long minCrawlDelay, long pendingTimeout) {
+  /**
+   * True if the queue is in the ready index of {@link FetchItemQueues}
+   * */
+  boolean scheduled = false;
+  /**
+   * True if the queue is removed from {@link FetchItemQueues}, a retired queue
+   * never accepts new items
+   * */
+  boolean retired = false;
+
+  /**
+   * Created when the first fetch is finished, most queues never need it
+   * */
+  private volatile FetchQueueStats stats;
+
+  public FetchItemQueue(Configuration conf, String id, int maxThreads, long crawlDelay, long minCrawlDelay, long pendingTimeout) {
+    this.id = id;
     this.maxThreads = maxThreads;
     this.crawlDelay = crawlDelay;
+    this.initialCrawlDelay = crawlDelay;
     this.minCrawlDelay = minCrawlDelay;
     this.pendingTimeout = pendingTimeout;
 
@@ -46,12 +81,16 @@ class FetchItemQueue {
     setEndTime(System.currentTimeMillis() - crawlDelay);
   }
 
-  public void produceFetchItem(FetchItem item) {
+  public String getId() {
+    return id;
+  }
+
+  public synchronized void produceFetchItem(FetchItem item) {
     if (item == null) return;
     fetchQueue.add(item);
   }
 
-  public FetchItem consumeFetchItem() {
+  public synchronized FetchItem consumeFetchItem() {
     if (fetchingQueue.size() >= maxThreads) return null;
 
     final long now = System.currentTimeMillis();
@@ -61,7 +100,7 @@ class FetchItemQueue {
 
     FetchItem item = null;
     try {
-      item = fetchQueue.remove(0);
+      item = fetchQueue.removeFirst();
       addToFetchingQueue(item);
     } catch (final Exception e) {
       LOG.error("Cannot remove FetchItem from fetch queue or cannot add it to fetching queue", e);
@@ -72,13 +111,13 @@ class FetchItemQueue {
 
   /**
    * Reload pending fetch items so that the items can be re-fetched
-   * 
+   *
    * In crowdsourcing mode, it's a common situation to lost
    * the fetching mission and should restart the task
-   * 
+   *
    * @param force reload all pending fetch items immediately
    * */
-  public void reviewPendingFetchItems(boolean force) {
+  public synchronized void reviewPendingFetchItems(boolean force) {
     long now = System.currentTimeMillis();
 
     List<FetchItem> readyList = Lists.newArrayList();
@@ -101,54 +140,138 @@ class FetchItemQueue {
     fetchingQueue.putAll(pendingList);
   }
 
-  public void finishFetchItem(FetchItem item, boolean asap) {
+  public synchronized void finishFetchItem(FetchItem item, boolean asap) {
     if (item != null) {
-      fetchingQueue.remove(item.getItemID());
-      setEndTime(System.currentTimeMillis(), asap);
+      finishFetchItem(item.getItemID(), asap);
     }
   }
 
-  public void finishFetchItem(long itemID, boolean asap) {
-    fetchingQueue.remove(itemID);
+  /**
+   * @return true if the item was fetching in this queue
+   * */
+  public synchronized boolean finishFetchItem(long itemID, boolean asap) {
+    if (fetchingQueue.remove(itemID) == null) {
+      return false;
+    }
+
     setEndTime(System.currentTimeMillis(), asap);
+    return true;
   }
 
-  public FetchItem getPendingFetchItem(long itemID) {
+  public synchronized FetchItem getPendingFetchItem(long itemID) {
     return fetchingQueue.get(itemID);
   }
 
-  public int getFetchQueueSize() {
+  public synchronized int getFetchQueueSize() {
     return fetchQueue.size();
   }
 
-  public int getFetchingQueueSize() {
+  public synchronized int getFetchingQueueSize() {
     return fetchingQueue.size();
   }
 
-  public long getCrawlDelay() {
+  public synchronized long getCrawlDelay() {
     return crawlDelay;
   }
 
-  public boolean fetchingItemExist(long itemID) {
+  /**
+   * Adapt the crawl delay to the response of the server, called before the
+   * item is finished so the next fetch time uses the new delay
+   * */
+  public synchronized void adaptCrawlDelay(CrawlDelayPolicy policy, long fetchTime, FetchQueueStats.ErrorClass error) {
+    long delay = policy.adapt(this, fetchTime, error);
+    if (delay != crawlDelay) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Crawl delay of " + id + " : " + crawlDelay + " -> " + delay);
+      }
+
+      crawlDelay = delay;
+      crawlDelayChanged = true;
+    }
+  }
+
+  /**
+   * @return the statistics, or null if nothing is fetched
+   * */
+  public FetchQueueStats getStats() {
+    return stats;
+  }
+
+  public FetchQueueStats getOrCreateStats() {
+    FetchQueueStats s = stats;
+    if (s == null) {
+      synchronized (this) {
+        if (stats == null) {
+          stats = new FetchQueueStats();
+        }
+        s = stats;
+      }
+    }
+
+    return s;
+  }
+
+  public long getNextFetchTime() {
+    return nextFetchTime.get();
+  }
+
+  public synchronized boolean fetchingItemExist(long itemID) {
     return fetchingQueue.containsKey(itemID);
   }
 
-  public int clearFetchQueue() {
+  /**
+   * Nothing to fetch and nothing is fetching
+   * */
+  public synchronized boolean isIdle() {
+    return fetchQueue.isEmpty() && fetchingQueue.isEmpty();
+  }
+
+  /**
+   * The queue has items to fetch and a free fetch slot, or the queue is idle
+   * and should be reaped once its crawl delay is passed
+   * */
+  public synchronized boolean isSchedulable() {
+    return (!fetchQueue.isEmpty() && fetchingQueue.size() < maxThreads) || isIdle();
+  }
+
+  /**
+   * Estimated time to fetch the remaining items, by the crawl delay and the
+   * mean fetch time of this queue
+   * */
+  public synchronized long getRemainingTime() {
+    long fetchTime = stats == null ? 0 : stats.getTotalTime().getMean();
+    long delay = maxThreads > 1 ? minCrawlDelay : crawlDelay;
+    return fetchQueue.size() * (delay + fetchTime) / Math.min(maxThreads, Math.max(1, fetchQueue.size()));
+  }
+
+  /**
+   * Remove all items waiting to fetch, the fetching items are kept
+   * */
+  public synchronized List<FetchItem> drainFetchQueue() {
+    List<FetchItem> items = Lists.newArrayList(fetchQueue);
+    fetchQueue.clear();
+    return items;
+  }
+
+  public synchronized int clearFetchQueue() {
     int presize = fetchQueue.size();
     fetchQueue.clear();
     return presize;
   }
 
-  public void dump() {
+  public synchronized void dump() {
     LOG.info("  maxThreads    = " + maxThreads);
     LOG.info("  fetchingQueue    = " + fetchingQueue.size());
-    LOG.info("  crawlDelay    = " + crawlDelay);
+    LOG.info("  crawlDelay    = " + crawlDelay + (crawlDelayChanged ? " (adapted from " + initialCrawlDelay + ")" : ""));
     LOG.info("  minCrawlDelay = " + minCrawlDelay);
     LOG.info("  nextFetchTime = " + nextFetchTime.get());
     LOG.info("  now           = " + System.currentTimeMillis());
-    for (int i = 0; i < fetchQueue.size(); i++) {
-      final FetchItem it = fetchQueue.get(i);
-      LOG.info("  " + i + ". " + it.getUrl());
+    if (stats != null) {
+      LOG.info("  stats         = " + stats);
+    }
+    int i = 0;
+    for (final FetchItem it : fetchQueue) {
+      LOG.info("  " + i++ + ". " + it.getUrl());
     }
   }
 
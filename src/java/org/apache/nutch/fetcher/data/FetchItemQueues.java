@@ -1,22 +1,50 @@
 package org.apache.nutch.fetcher.data;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.avro.util.Utf8;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.fetcher.FetchMode;
 import org.apache.nutch.fetcher.FetcherJob;
 import org.apache.nutch.host.HostDb;
+import org.apache.nutch.net.DnsCache;
 import org.apache.nutch.storage.Host;
 import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.TableUtil;
 import org.slf4j.Logger;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
 /**
  * Convenience class - a collection of queues that keeps track of the total
  * number of items, and provides items eligible for fetching from any queue.
+ *
+ * Queues which have something to do are kept in a ready index ordered by
+ * their next fetch time, so consuming an item never walks the queues blocked
+ * on crawl delay. Each queue is locked on its own, produce/consume/finish
+ * on different hosts run in parallel.
+ *
+ * Threads which find nothing to do can wait for a signal instead of polling,
+ * fetch threads wait until an item is scheduled or the earliest crawl delay
+ * passes, the feeder waits until fetch items are finished.
+ *
+ * The crawl delay of every queue adapts to the response of the server, see
+ * {@link CrawlDelayPolicy}. With host settings enabled, the learned delays are
+ * saved to the host table so the next batch starts with them.
  */
 public class FetchItemQueues {
   public static final Logger LOG = FetcherJob.LOG;
@@ -25,10 +53,33 @@ public class FetchItemQueues {
   public static final String QUEUE_MODE_DOMAIN = "byDomain";
   public static final String QUEUE_MODE_IP = "byIP";
 
-  private Map<String, FetchItemQueue> queues = new HashMap<String, FetchItemQueue>();
+  /**
+   * The host metadata key of the learned crawl delay, in milliseconds
+   * */
+  public static final String HOST_ADAPTIVE_CRAWL_DELAY = "q_acd";
+
+  private ConcurrentMap<String, FetchItemQueue> queues = new ConcurrentHashMap<String, FetchItemQueue>();
+  private ConcurrentSkipListMap<ReadyKey, FetchItemQueue> readyQueues = new ConcurrentSkipListMap<ReadyKey, FetchItemQueue>();
+  private AtomicLong readySequence = new AtomicLong(0);
   private AtomicInteger readyItemCount = new AtomicInteger(0);
   private AtomicInteger pendingItemCount = new AtomicInteger(0);
   private Configuration conf;
+  // resolves the hosts if the queues are by IP address
+  private DnsCache dnsCache;
+
+  // statistics of the reaped queues
+  private final FetchQueueStats reapedQueueStats = new FetchQueueStats();
+  // learned crawl delays of the reaped queues, to save to the host table
+  private final ConcurrentMap<String, Long> reapedCrawlDelays = new ConcurrentHashMap<String, Long>();
+
+  // signals, waiters only sleep if nothing is changed since they checked
+  private final ReentrantLock signalLock = new ReentrantLock();
+  private final Condition itemScheduled = signalLock.newCondition();
+  private final Condition itemFinished = signalLock.newCondition();
+  private final AtomicLong scheduleVersion = new AtomicLong(0);
+  private final AtomicLong finishVersion = new AtomicLong(0);
+  private final AtomicInteger scheduleWaiters = new AtomicInteger(0);
+  private final AtomicInteger finishWaiters = new AtomicInteger(0);
 
   private int maxThreads;
   private String queueMode;
@@ -39,6 +90,8 @@ public class FetchItemQueues {
    * */
   private long pendingTimeout = 3 * 60 * 1000;
 
+  private CrawlDelayPolicy crawlDelayPolicy;
+
   boolean useHostSettings = false;
   HostDb hostDb = null;
 
@@ -60,6 +113,10 @@ public class FetchItemQueues {
 
     LOG.info("Using queue mode : " + queueMode);
 
+    if (queueMode.equals(QUEUE_MODE_IP)) {
+      dnsCache = DnsCache.getInstance(conf);
+    }
+
     // Optionally enable host specific queue behavior
     if (queueMode.equals(QUEUE_MODE_HOST)) {
       useHostSettings = conf.getBoolean("fetcher.queue.use.host.settings", false);
@@ -73,31 +130,75 @@ public class FetchItemQueues {
     this.crawlDelay = (long) (conf.getFloat("fetcher.server.delay", 1.0f) * 1000);
     this.minCrawlDelay = (long) (conf.getFloat("fetcher.server.min.delay", 0.0f) * 1000);
     this.pendingTimeout = conf.getLong("fetcher.pending.timeout", 3 * 60 * 1000);
+    this.crawlDelayPolicy = new CrawlDelayPolicy(conf);
+
+    LOG.info("Adaptive crawl delay : " + crawlDelayPolicy);
   }
 
-  public synchronized void produceFetchItem(FetchItem item) {
-    final FetchItemQueue queue = getFetchItemQueue(item.getQueueID());
-    queue.produceFetchItem(item);
-    readyItemCount.incrementAndGet();
+  public void produceFetchItem(FetchItem item) {
+    while (true) {
+      final FetchItemQueue queue = getFetchItemQueue(item.getQueueID());
+
+      synchronized (queue) {
+        // the queue is reaped just now, try again with a fresh one
+        if (queue.retired) continue;
+
+        queue.produceFetchItem(item);
+        readyItemCount.incrementAndGet();
+        schedule(queue);
+      }
+
+      return;
+    }
   }
 
-  public synchronized void produceFetchItem(int jobID, String url, WebPage page) {
-    final FetchItem it = FetchItem.create(jobID, url, page, queueMode);
+  public void produceFetchItem(int jobID, String url, WebPage page) {
+    final FetchItem it = FetchItem.create(jobID, url, page, queueMode, dnsCache);
     if (it != null) produceFetchItem(it);
   }
 
-  public synchronized FetchItem consumeFetchItem() {
-    final Iterator<Map.Entry<String, FetchItemQueue>> it = queues.entrySet().iterator();
+  /**
+   * Consume a fetch item from the queue with the earliest next fetch time.
+   * Only queues which are eligible to fetch are kept in the ready index, so
+   * the cost does not depend on the number of queues
+   * */
+  public FetchItem consumeFetchItem() {
+    final long now = System.currentTimeMillis();
+
+    while (true) {
+      final Map.Entry<ReadyKey, FetchItemQueue> first = readyQueues.firstEntry();
+      if (first == null || first.getKey().readyTime > now) {
+        return null;
+      }
 
-    while (it.hasNext()) {
-      final FetchItemQueue queue = it.next().getValue();
-      // reap empty queues
-      if (queue.getFetchQueueSize() == 0 && queue.getFetchingQueueSize() == 0) {
-        it.remove();
+      // another thread takes this queue
+      if (readyQueues.remove(first.getKey()) == null) {
         continue;
       }
 
-      final FetchItem item = queue.consumeFetchItem();
+      final FetchItemQueue queue = first.getValue();
+      FetchItem item = null;
+
+      synchronized (queue) {
+        queue.scheduled = false;
+
+        // reap empty queues
+        if (queue.isIdle()) {
+          queue.retired = true;
+          queues.remove(queue.getId(), queue);
+          if (queue.getStats() != null) {
+            reapedQueueStats.add(queue.getStats());
+          }
+          if (queue.crawlDelayChanged && hostDb != null) {
+            reapedCrawlDelays.put(queue.getId(), queue.crawlDelay);
+          }
+          continue;
+        }
+
+        item = queue.consumeFetchItem();
+        schedule(queue);
+      }
+
       if (item != null) {
         readyItemCount.decrementAndGet();
         pendingItemCount.incrementAndGet();
@@ -109,31 +210,38 @@ public class FetchItemQueues {
         return item;
       }
     }
-
-    return null;
   }
 
-  public synchronized void finishFetchItem(String queueID, long itemID, boolean asap) {
+  public void finishFetchItem(String queueID, long itemID, boolean asap) {
     final FetchItemQueue queue = queues.get(queueID);
     if (queue == null) {
       LOG.warn("Attempting to finish item from unknown queue: " + queueID);
       return;
     }
 
-    if (!queue.fetchingItemExist(itemID)) {
-      LOG.warn("Attempting to finish unknown item: " + itemID);
-      return;
+    synchronized (queue) {
+      if (!queue.finishFetchItem(itemID, asap)) {
+        LOG.warn("Attempting to finish unknown item: " + itemID);
+        return;
+      }
+
+      pendingItemCount.decrementAndGet();
+      schedule(queue);
     }
 
-    pendingItemCount.decrementAndGet();
-    queue.finishFetchItem(itemID, asap);
+    signalFinished();
+
+    // nothing left, let all waiting threads check if the mission is complete
+    if (pendingItemCount.get() == 0 && readyItemCount.get() == 0) {
+      wakeUp();
+    }
   }
 
-  public synchronized void finishFetchItem(FetchItem item) {
+  public void finishFetchItem(FetchItem item) {
     finishFetchItem(item.getQueueID(), item.getItemID(), false);
   }
 
-  public synchronized void finishFetchAsap(FetchItem item) {
+  public void finishFetchAsap(FetchItem item) {
     finishFetchItem(item.getQueueID(), item.getItemID(), true);
   }
 
@@ -145,40 +253,156 @@ public class FetchItemQueues {
    * 
    * @param force reload all pending fetch items immediately
    * */
-  public synchronized void reviewPendingFetchItems(boolean force) {
+  public void reviewPendingFetchItems(boolean force) {
     int readyCount = 0;
     int pendingCount = 0;
 
-    final Iterator<FetchItemQueue> it = queues.values().iterator();
-    while (it.hasNext()) {
-      FetchItemQueue queue = it.next();
-      queue.reviewPendingFetchItems(force);
+    for (final FetchItemQueue queue : queues.values()) {
+      synchronized (queue) {
+        queue.reviewPendingFetchItems(force);
+        schedule(queue);
 
-      readyCount += queue.getFetchQueueSize();
-      pendingCount += queue.getFetchingQueueSize();
+        readyCount += queue.getFetchQueueSize();
+        pendingCount += queue.getFetchingQueueSize();
+      }
     }
 
     readyItemCount.set(readyCount);
     pendingItemCount.set(pendingCount);
+
+    signalFinished();
   }
 
-  public synchronized FetchItem getPendingFetchItem(String queueID, long itemID) {
-    FetchItemQueue queue = getFetchItemQueue(queueID);
+  public FetchItem getPendingFetchItem(String queueID, long itemID) {
+    FetchItemQueue queue = queues.get(queueID);
 
     if (queue == null) return null;
 
     return queue.getPendingFetchItem(itemID);
   }
 
-  public synchronized void dump(int limit) {
-    for (final String id : queues.keySet()) {
-      final FetchItemQueue queue = queues.get(id);
+  /**
+   * Record the statistics of a finished fetch, must be called before the fetch item is finished
+   * */
+  public void recordFetch(String queueID, long connectTime, long firstByteTime, long totalTime, long bytes,
+      FetchQueueStats.ErrorClass error) {
+    final FetchItemQueue queue = queues.get(queueID);
+    if (queue == null) {
+      return;
+    }
+
+    queue.getOrCreateStats().record(connectTime, firstByteTime, totalTime, bytes, error);
+    if (crawlDelayPolicy.isEnabled()) {
+      queue.adaptCrawlDelay(crawlDelayPolicy, totalTime, error);
+    }
+  }
+
+  /**
+   * Save the learned crawl delays to the host table, only if host settings are enabled
+   *
+   * @return the number of saved hosts
+   * */
+  public int saveCrawlDelays() {
+    if (hostDb == null) {
+      return 0;
+    }
+
+    Map<String, Long> crawlDelays = Maps.newHashMap(reapedCrawlDelays);
+    for (final FetchItemQueue queue : queues.values()) {
+      synchronized (queue) {
+        if (queue.crawlDelayChanged) {
+          crawlDelays.put(queue.getId(), queue.crawlDelay);
+        }
+      }
+    }
+
+    int count = 0;
+    for (Map.Entry<String, Long> entry : crawlDelays.entrySet()) {
+      String id = entry.getKey();
+      String hostname = id.substring(id.indexOf("://") + 3);
+
+      try {
+        Host host = hostDb.getByHostName(hostname);
+        if (host == null) {
+          host = Host.newBuilder().build();
+        }
+
+        host.getMetadata().put(new Utf8(HOST_ADAPTIVE_CRAWL_DELAY),
+            ByteBuffer.wrap(Long.toString(entry.getValue()).getBytes()));
+        hostDb.put(TableUtil.reverseHost(hostname), host);
+        ++count;
+      } catch (IOException e) {
+        LOG.error("Failed to save the crawl delay of " + hostname, e);
+      }
+    }
+
+    try {
+      hostDb.flush();
+    } catch (IOException e) {
+      LOG.error("Failed to flush the host table", e);
+    }
+
+    reapedCrawlDelays.clear();
+    LOG.info("Saved crawl delays of " + count + " hosts");
+
+    return count;
+  }
+
+  /**
+   * The statistics of all queues, including the reaped ones
+   * */
+  public FetchQueueStats getTotalStats() {
+    FetchQueueStats total = new FetchQueueStats();
+
+    total.add(reapedQueueStats);
+    for (final FetchItemQueue queue : queues.values()) {
+      if (queue.getStats() != null) {
+        total.add(queue.getStats());
+      }
+    }
+
+    return total;
+  }
+
+  /**
+   * The statistics of the live queues with the highest 90th percentile of fetch time
+   * */
+  public Map<String, FetchQueueStats> getSlowestQueueStats(int limit) {
+    List<FetchItemQueue> fetched = Lists.newArrayList();
+    for (final FetchItemQueue queue : queues.values()) {
+      if (queue.getStats() != null) {
+        fetched.add(queue);
+      }
+    }
+
+    Collections.sort(fetched, new Comparator<FetchItemQueue>() {
+      @Override
+      public int compare(FetchItemQueue q1, FetchItemQueue q2) {
+        long t1 = q1.getStats().getTotalTime().getPercentile(90);
+        long t2 = q2.getStats().getTotalTime().getPercentile(90);
+        return t1 > t2 ? -1 : (t1 == t2 ? 0 : 1);
+      }
+    });
+
+    Map<String, FetchQueueStats> result = Maps.newLinkedHashMap();
+    for (FetchItemQueue queue : fetched.subList(0, Math.min(limit, fetched.size()))) {
+      result.put(queue.getId(), queue.getStats());
+    }
 
+    return result;
+  }
+
+  public void dump(int limit) {
+    for (Map.Entry<String, FetchQueueStats> entry : getSlowestQueueStats(limit).entrySet()) {
+      LOG.info("* slow queue: " + entry.getKey() + ", " + entry.getValue());
+    }
+
+    for (final FetchItemQueue queue : queues.values()) {
       if (queue.getFetchQueueSize() == 0) {
         continue;
       }
-      
-      LOG.info("* queue: " + id);
+
+      LOG.info("* queue: " + queue.getId());
       queue.dump();
 
       if (--limit < 0) {
@@ -187,21 +411,46 @@ public class FetchItemQueues {
     }
   }
 
+  /**
+   * Remove the ready items of the queues which can not be finished in time,
+   * the fetching items are kept
+   *
+   * @param horizon the time in milliseconds a queue is still allowed to run
+   * @return the removed items
+   * */
+  public List<FetchItem> evictSlowQueues(long horizon) {
+    List<FetchItem> evicted = Lists.newArrayList();
+
+    for (final FetchItemQueue queue : queues.values()) {
+      synchronized (queue) {
+        if (queue.getFetchQueueSize() == 0 || queue.getRemainingTime() <= horizon) continue;
+
+        List<FetchItem> items = queue.drainFetchQueue();
+        readyItemCount.addAndGet(-items.size());
+        evicted.addAll(items);
+
+        LOG.info("* queue: " + queue.getId() + " >> evicted " + items.size() + " items");
+      }
+    }
+
+    if (!evicted.isEmpty()) {
+      signalFinished();
+    }
+
+    return evicted;
+  }
+
   // empties the queues (used by timebomb and throughput threshold)
-  public synchronized int clearQueues() {
+  public int clearQueues() {
     int count = 0;
 
-    // emptying the queues
-    for (String id : queues.keySet()) {
-      FetchItemQueue queue = queues.get(id);
-
+    // emptying the queues, empty queues are reaped when they are consumed
+    for (final FetchItemQueue queue : queues.values()) {
       if (queue.getFetchQueueSize() == 0) continue;
 
-      LOG.info("* queue: " + id + " >> dropping! ");
+      LOG.info("* queue: " + queue.getId() + " >> dropping! ");
       int deleted = queue.clearFetchQueue();
-      for (int i = 0; i < deleted; i++) {
-        readyItemCount.decrementAndGet();
-      }
+      readyItemCount.addAndGet(-deleted);
 
       count += deleted;
     }
@@ -213,10 +462,118 @@ public class FetchItemQueues {
       readyItemCount.set(0);
     }
 
+    signalFinished();
+
     return count;
   }
 
-  public synchronized int getQueueCount() {
+  /**
+   * Consume a fetch item, wait if there is no item eligible to fetch. The wait
+   * ends when an item is scheduled, when the earliest crawl delay is passed, or
+   * at the latest after maxWaitMillis
+   *
+   * @return the fetch item, or null if nothing is available after the wait
+   * */
+  public FetchItem consumeFetchItem(long maxWaitMillis) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + maxWaitMillis;
+
+    while (true) {
+      final long version = scheduleVersion.get();
+
+      FetchItem item = consumeFetchItem();
+      if (item != null) {
+        return item;
+      }
+
+      final long now = System.currentTimeMillis();
+      if (now >= deadline) {
+        return null;
+      }
+
+      long waitMillis = Math.min(getNextReadyTime(), deadline) - now;
+      if (waitMillis > 0) {
+        await(itemScheduled, scheduleWaiters, scheduleVersion, version, waitMillis);
+      }
+    }
+  }
+
+  /**
+   * Wait until the number of ready and pending items is less than limit,
+   * or at the latest after maxWaitMillis
+   *
+   * @return true if there is free space
+   * */
+  public boolean awaitFeedCapacity(int limit, long maxWaitMillis) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + maxWaitMillis;
+
+    while (true) {
+      final long version = finishVersion.get();
+
+      if (getReadyItemCount() + getPendingItemCount() < limit) {
+        return true;
+      }
+
+      long waitMillis = deadline - System.currentTimeMillis();
+      if (waitMillis <= 0) {
+        return false;
+      }
+
+      await(itemFinished, finishWaiters, finishVersion, version, waitMillis);
+    }
+  }
+
+  /**
+   * Wait until the number of pending items is less than limit,
+   * or at the latest after maxWaitMillis
+   *
+   * @return true if the pending items are under the limit
+   * */
+  public boolean awaitPendingCapacity(int limit, long maxWaitMillis) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + maxWaitMillis;
+
+    while (true) {
+      final long version = finishVersion.get();
+
+      if (getPendingItemCount() < limit) {
+        return true;
+      }
+
+      long waitMillis = deadline - System.currentTimeMillis();
+      if (waitMillis <= 0) {
+        return false;
+      }
+
+      await(itemFinished, finishWaiters, finishVersion, version, waitMillis);
+    }
+  }
+
+  /**
+   * Wake up all waiting threads, e.g. the feeder is finished
+   * */
+  public void wakeUp() {
+    scheduleVersion.incrementAndGet();
+    finishVersion.incrementAndGet();
+
+    signalLock.lock();
+    try {
+      itemScheduled.signalAll();
+      itemFinished.signalAll();
+    }
+    finally {
+      signalLock.unlock();
+    }
+  }
+
+  /**
+   * The earliest time a queue is allowed to fetch, Long.MAX_VALUE if no queue
+   * has anything to do
+   * */
+  public long getNextReadyTime() {
+    final Map.Entry<ReadyKey, FetchItemQueue> first = readyQueues.firstEntry();
+    return first == null ? Long.MAX_VALUE : first.getKey().readyTime;
+  }
+
+  public int getQueueCount() {
     return queues.size();
   }
 
@@ -228,6 +585,64 @@ public class FetchItemQueues {
     return pendingItemCount.get();
   }
 
+  /**
+   * Put the queue into the ready index if it's eligible and not indexed yet,
+   * the caller must hold the monitor of the queue
+   * */
+  private void schedule(FetchItemQueue queue) {
+    if (queue.scheduled || !queue.isSchedulable()) {
+      return;
+    }
+
+    queue.scheduled = true;
+    readyQueues.put(new ReadyKey(queue.getNextFetchTime(), readySequence.incrementAndGet()), queue);
+
+    signal(itemScheduled, scheduleWaiters, scheduleVersion, false);
+  }
+
+  private void signalFinished() {
+    signal(itemFinished, finishWaiters, finishVersion, true);
+  }
+
+  /**
+   * Bump the version so that a thread about to wait sees the change, the lock
+   * is taken only if somebody is waiting
+   * */
+  private void signal(Condition condition, AtomicInteger waiters, AtomicLong version, boolean all) {
+    version.incrementAndGet();
+
+    if (waiters.get() == 0) {
+      return;
+    }
+
+    signalLock.lock();
+    try {
+      if (all) {
+        condition.signalAll();
+      } else {
+        condition.signal();
+      }
+    }
+    finally {
+      signalLock.unlock();
+    }
+  }
+
+  private void await(Condition condition, AtomicInteger waiters, AtomicLong version, long seenVersion, long waitMillis)
+      throws InterruptedException {
+    waiters.incrementAndGet();
+    signalLock.lock();
+    try {
+      if (version.get() == seenVersion) {
+        condition.await(waitMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+    finally {
+      signalLock.unlock();
+      waiters.decrementAndGet();
+    }
+  }
+
   private FetchItemQueue getFetchItemQueue(String id) {
     FetchItemQueue queue = queues.get(id);
     if (queue == null) {
@@ -238,11 +653,16 @@ public class FetchItemQueues {
           String hostname = id.substring(id.indexOf("://") + 3);
           Host host = hostDb.getByHostName(hostname);
           if (host != null) {
-            queue = new FetchItemQueue(conf,
+            queue = new FetchItemQueue(conf, id,
                            host.getInt("q_mt", maxThreads),
                            host.getLong("q_cd", crawlDelay),
                            host.getLong("q_mcd", minCrawlDelay), 
                            pendingTimeout);
+            // start with the delay learned in the previous batches
+            if (crawlDelayPolicy.isEnabled()) {
+              long learned = host.getLong(HOST_ADAPTIVE_CRAWL_DELAY, queue.crawlDelay);
+              queue.crawlDelay = crawlDelayPolicy.isShrinking() ? learned : Math.max(learned, queue.crawlDelay);
+            }
           }
         } catch (IOException e) {
           LOG.error("Error while trying to access host settings", e);
@@ -251,12 +671,38 @@ public class FetchItemQueues {
 
       if (queue == null) {
         // Use queue defaults
-        queue = new FetchItemQueue(conf, maxThreads, crawlDelay, minCrawlDelay, pendingTimeout);
+        queue = new FetchItemQueue(conf, id, maxThreads, crawlDelay, minCrawlDelay, pendingTimeout);
       }
 
-      queues.put(id, queue);
+      FetchItemQueue existing = queues.putIfAbsent(id, queue);
+      if (existing != null) {
+        queue = existing;
+      }
     }
 
     return queue;
   }
+
+  /**
+   * Key of the ready index, ordered by the time a queue is allowed to fetch,
+   * the sequence breaks ties between queues with the same time
+   * */
+  private static class ReadyKey implements Comparable<ReadyKey> {
+    final long readyTime;
+    final long sequence;
+
+    ReadyKey(long readyTime, long sequence) {
+      this.readyTime = readyTime;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(ReadyKey other) {
+      if (readyTime != other.readyTime) {
+        return readyTime < other.readyTime ? -1 : 1;
+      }
+
+      return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+  }
 }
@@ -0,0 +1,209 @@
+package org.apache.nutch.fetcher.data;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.protocol.ProtocolStatusUtils;
+import org.apache.nutch.storage.ProtocolStatus;
+import org.apache.nutch.util.LatencyHistogram;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Latency, traffic and error statistics of a fetch queue, so we can see which
+ * hosts are slow. Updating the statistics does not allocate.
+ */
+public class FetchQueueStats {
+
+  public static enum ErrorClass {
+    timeout, connection, clientError, serverError, throttled, other
+  };
+
+  private static final Pattern HTTP_CODE = Pattern.compile("^Http code=(\\d+)");
+
+  private final LatencyHistogram connectTime = new LatencyHistogram();
+  private final LatencyHistogram firstByteTime = new LatencyHistogram();
+  private final LatencyHistogram totalTime = new LatencyHistogram();
+  private final AtomicLong pages = new AtomicLong(0);
+  private final AtomicLong bytes = new AtomicLong(0);
+  private final AtomicIntegerArray errors = new AtomicIntegerArray(ErrorClass.values().length);
+
+  /**
+   * @param connectTime time to connect the server in milliseconds, -1 if unknown
+   * @param firstByteTime time to the first byte of the response in milliseconds, -1 if unknown
+   * @param totalTime time to finish the fetch in milliseconds
+   * @param bytes the content length
+   * @param error the error class, null if there is no error
+   * */
+  public void record(long connectTime, long firstByteTime, long totalTime, long bytes, ErrorClass error) {
+    this.connectTime.record(connectTime);
+    this.firstByteTime.record(firstByteTime);
+    this.totalTime.record(totalTime);
+    this.pages.incrementAndGet();
+    this.bytes.addAndGet(bytes);
+
+    if (error != null) {
+      errors.incrementAndGet(error.ordinal());
+    }
+  }
+
+  public void add(FetchQueueStats other) {
+    connectTime.add(other.connectTime);
+    firstByteTime.add(other.firstByteTime);
+    totalTime.add(other.totalTime);
+    pages.addAndGet(other.pages.get());
+    bytes.addAndGet(other.bytes.get());
+
+    for (int i = 0; i < errors.length(); ++i) {
+      errors.addAndGet(i, other.errors.get(i));
+    }
+  }
+
+  public LatencyHistogram getConnectTime() {
+    return connectTime;
+  }
+
+  public LatencyHistogram getFirstByteTime() {
+    return firstByteTime;
+  }
+
+  public LatencyHistogram getTotalTime() {
+    return totalTime;
+  }
+
+  public long getPages() {
+    return pages.get();
+  }
+
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  public int getErrors(ErrorClass errorClass) {
+    return errors.get(errorClass.ordinal());
+  }
+
+  public int getErrors() {
+    int total = 0;
+    for (int i = 0; i < errors.length(); ++i) {
+      total += errors.get(i);
+    }
+    return total;
+  }
+
+  /**
+   * Classify the protocol status
+   *
+   * @return the error class, or null if the status is not an error
+   * */
+  public static ErrorClass classify(ProtocolStatus status) {
+    if (status == null) {
+      return ErrorClass.other;
+    }
+
+    switch (status.getCode()) {
+    case ProtocolStatusCodes.SUCCESS:
+    case ProtocolStatusCodes.MOVED:
+    case ProtocolStatusCodes.TEMP_MOVED:
+    case ProtocolStatusCodes.NOTMODIFIED:
+    case ProtocolStatusCodes.WOULDBLOCK:
+      return null;
+    case ProtocolStatusCodes.NOTFOUND:
+    case ProtocolStatusCodes.GONE:
+    case ProtocolStatusCodes.ACCESS_DENIED:
+      return ErrorClass.clientError;
+    case ProtocolStatusCodes.EXCEPTION:
+      return classifyMessage(ProtocolStatusUtils.getMessage(status));
+    default:
+      return ErrorClass.other;
+    }
+  }
+
+  /**
+   * Classify the message of an exception status. A failed http request is
+   * reported as "Http code=NNN, url=...", other failures by the exception and
+   * the url. The url is not looked at, it may contain anything
+   * */
+  static ErrorClass classifyMessage(String message) {
+    if (message == null) {
+      return ErrorClass.other;
+    }
+
+    Matcher matcher = HTTP_CODE.matcher(message);
+    if (matcher.find()) {
+      int code = Integer.parseInt(matcher.group(1));
+      if (code == 429 || code == 503) {
+        return ErrorClass.throttled;
+      }
+      if (code >= 500) {
+        return ErrorClass.serverError;
+      }
+      if (code >= 400) {
+        return ErrorClass.clientError;
+      }
+      return ErrorClass.other;
+    }
+
+    String m = message.toLowerCase();
+    int url = m.indexOf("://");
+    if (url >= 0) {
+      m = m.substring(0, Math.max(0, m.lastIndexOf(' ', url)));
+    }
+
+    if (m.contains("timed out") || m.contains("timeout")) {
+      return ErrorClass.timeout;
+    }
+    if (m.contains("connect") || m.contains("unknown host") || m.contains("unknownhost")
+        || m.contains("failed to fetch")) {
+      return ErrorClass.connection;
+    }
+
+    return ErrorClass.other;
+  }
+
+  /**
+   * A flat view for reports
+   * */
+  public Map<String, Object> toMap() {
+    Map<String, Object> map = Maps.newLinkedHashMap();
+
+    map.put("pages", getPages());
+    map.put("bytes", getBytes());
+    putHistogram(map, "connect", connectTime);
+    putHistogram(map, "firstByte", firstByteTime);
+    putHistogram(map, "total", totalTime);
+    for (ErrorClass errorClass : ErrorClass.values()) {
+      map.put(errorClass.name() + "Errors", getErrors(errorClass));
+    }
+
+    return map;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+
+    sb.append("pages=").append(getPages()).append(" bytes=").append(getBytes());
+    sb.append(" | connect ").append(connectTime);
+    sb.append(" | firstByte ").append(firstByteTime);
+    sb.append(" | total ").append(totalTime);
+    sb.append(" | errors");
+    for (ErrorClass errorClass : ErrorClass.values()) {
+      sb.append(' ').append(errorClass.name()).append('=').append(getErrors(errorClass));
+    }
+
+    return sb.toString();
+  }
+
+  private void putHistogram(Map<String, Object> map, String name, LatencyHistogram histogram) {
+    map.put(name + "Mean", histogram.getMean());
+    map.put(name + "P50", histogram.getPercentile(50));
+    map.put(name + "P90", histogram.getPercentile(90));
+    map.put(name + "P99", histogram.getPercentile(99));
+    map.put(name + "Max", histogram.getMax());
+  }
+}
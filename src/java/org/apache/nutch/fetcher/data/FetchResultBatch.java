@@ -0,0 +1,145 @@
+package org.apache.nutch.fetcher.data;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+
+/**
+ * The binary format of a batch of fetch results, which a satellite submits in
+ * one request. The results are read one by one while the request body
+ * arrives, the batch is never held in memory as a whole.
+ *
+ * The batch starts with a magic number and a version, every result is the
+ * number of its headers, the headers as name and value pairs of modified UTF-8,
+ * the content length and the content. A header count of -1 ends the batch.
+ * The headers are the same as the headers of a single submit, the Q- headers
+ * of the fetch item and the response headers of the page, without the F-
+ * prefix. The batch may be compressed with a content-encoding as a whole.
+ */
+public class FetchResultBatch {
+
+  public static final int MAGIC = 0x51424154; // "QBAT"
+
+  public static final int VERSION = 1;
+
+  public static final int MAX_HEADERS = 1000;
+
+  private static final int END = -1;
+
+  /**
+   * Writes a batch, used by satellites and tests
+   * */
+  public static class Writer {
+    private final DataOutputStream out;
+
+    public Writer(OutputStream out) throws IOException {
+      this.out = new DataOutputStream(out);
+      this.out.writeInt(MAGIC);
+      this.out.writeInt(VERSION);
+    }
+
+    public void write(FetchResult result) throws IOException {
+      Metadata headers = result.getHeaders();
+      String[] names = headers.names();
+
+      int count = 0;
+      for (String name : names) {
+        count += headers.getValues(name).length;
+      }
+      out.writeInt(count);
+
+      for (String name : names) {
+        for (String value : headers.getValues(name)) {
+          out.writeUTF(name);
+          out.writeUTF(value);
+        }
+      }
+
+      byte[] content = result.getContent();
+      if (content == null) {
+        out.writeInt(0);
+      } else {
+        out.writeInt(content.length);
+        out.write(content);
+      }
+    }
+
+    /**
+     * End the batch, the underlying stream is flushed but not closed
+     * */
+    public void finish() throws IOException {
+      out.writeInt(END);
+      out.flush();
+    }
+  }
+
+  /**
+   * Reads a batch result by result
+   * */
+  public static class Reader {
+    private final DataInputStream in;
+    private final int maxContentLength;
+    private boolean ended = false;
+
+    /**
+     * @param maxContentLength the maximum content length of a result, a longer
+     *          content means the batch is corrupted
+     * @throws IOException if the stream does not start with a batch header
+     * */
+    public Reader(InputStream in, int maxContentLength) throws IOException {
+      this.in = new DataInputStream(in);
+      this.maxContentLength = maxContentLength;
+
+      if (this.in.readInt() != MAGIC) {
+        throw new IOException("Not a fetch result batch");
+      }
+
+      int version = this.in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported fetch result batch version " + version);
+      }
+    }
+
+    /**
+     * @return the next result, or null at the end of the batch
+     * @throws EOFException if the batch is truncated
+     * */
+    public FetchResult next() throws IOException {
+      if (ended) {
+        return null;
+      }
+
+      int count = in.readInt();
+      if (count == END) {
+        ended = true;
+        return null;
+      }
+
+      if (count < 0 || count > MAX_HEADERS) {
+        throw new IOException("Bad header count " + count);
+      }
+
+      Metadata headers = new SpellCheckedMetadata();
+      for (int i = 0; i < count; i++) {
+        String name = in.readUTF();
+        headers.add(name, in.readUTF());
+      }
+
+      int length = in.readInt();
+      if (length < 0 || length > maxContentLength) {
+        throw new IOException("Bad content length " + length);
+      }
+
+      byte[] content = new byte[length];
+      in.readFully(content);
+
+      return new FetchResult(headers, content);
+    }
+  }
+}
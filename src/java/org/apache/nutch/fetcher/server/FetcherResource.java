@@ -16,9 +16,12 @@
  ******************************************************************************/
 package org.apache.nutch.fetcher.server;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
@@ -26,20 +29,29 @@ import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.nutch.fetcher.FetchManager;
 import org.apache.nutch.fetcher.FetchManagerPool;
 import org.apache.nutch.fetcher.FetcherJob;
 import org.apache.nutch.fetcher.data.FetchItem;
+import org.apache.nutch.fetcher.data.FetchItemQueues;
+import org.apache.nutch.fetcher.data.FetchQueueStats;
 import org.apache.nutch.fetcher.data.FetchResult;
+import org.apache.nutch.fetcher.data.FetchResultBatch;
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.apache.nutch.util.ContentDecoder;
 import org.slf4j.Logger;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 @Path(value = "/fetch")
 @Produces({ MediaType.APPLICATION_JSON })
@@ -49,17 +61,27 @@ public class FetcherResource {
 
   public final static int MAX_TASKS_PER_SCHEDULE = 100;
 
+  public final static long MAX_SCHEDULE_WAIT = 30 * 1000;
+
+  // a longer content means the batch is corrupted
+  public final static int MAX_SUBMIT_CONTENT_LENGTH = 64 * 1024 * 1024;
+
   private final FetchManagerPool fetchManagerPool = FetchManagerPool.getInstance();
 
   public FetcherResource() {
   }
 
+  /**
+   * Schedule at most count fetch items to a satellite. If wait is given, the
+   * request waits at most wait milliseconds until there is something to fetch,
+   * so an idle satellite does not ask again and again
+   * */
   @GET
   @Path("/schedule/{count}")
-  public List<FetchItem.Key> getFetchItems(@PathParam("count") int count) {
+  public List<FetchItem.Key> getFetchItems(@PathParam("count") int count, @QueryParam("wait") long waitMillis) {
     List<FetchItem.Key> keys = Lists.newArrayList();
 
-    if (count < 0) {
+    if (count <= 0) {
       LOG.debug("Invalid count " + count);
       return keys;
     }
@@ -68,7 +90,39 @@ public class FetcherResource {
       count = MAX_TASKS_PER_SCHEDULE;
     }
 
-    return fetchManagerPool.randomFetchItems(count);
+    if (waitMillis <= 0) {
+      return fetchManagerPool.randomFetchItems(count);
+    }
+
+    try {
+      return fetchManagerPool.randomFetchItems(count, Math.min(waitMillis, MAX_SCHEDULE_WAIT));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return keys;
+    }
+  }
+
+  /**
+   * Statistics of all fetch queues and the slowest ones of a fetch job
+   * */
+  @GET
+  @Path("/stats/{jobId}/{limit}")
+  public Map<String, Map<String, Object>> getQueueStats(@PathParam("jobId") int jobId, @PathParam("limit") int limit) {
+    Map<String, Map<String, Object>> result = Maps.newLinkedHashMap();
+
+    FetchManager fetchManager = fetchManagerPool.get(jobId);
+    if (fetchManager == null) {
+      LOG.debug("No fetch manager #" + jobId);
+      return result;
+    }
+
+    FetchItemQueues queues = fetchManager.getFetchItemQueues();
+    result.put("total", queues.getTotalStats().toMap());
+    for (Map.Entry<String, FetchQueueStats> entry : queues.getSlowestQueueStats(limit).entrySet()) {
+      result.put(entry.getKey(), entry.getValue().toMap());
+    }
+
+    return result;
   }
 
   /**
@@ -111,6 +165,55 @@ public class FetcherResource {
     return "success";
   }
 
+  /**
+   * Accept a batch of fetch results from a satellite, in the binary format of
+   * {@link FetchResultBatch}, compressed as a whole if the request has a
+   * Content-Encoding. The results are decoded while the body is read and
+   * handed to the fetch threads one by one.
+   *
+   * A truncated or corrupted batch is an error, the results before the bad
+   * one are accepted anyway, the satellite learns the count from the response
+   * */
+  @PUT
+  @Path("/submit/batch")
+  @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+  @Produces(MediaType.TEXT_PLAIN)
+  public String finishFetchItems(@javax.ws.rs.core.Context HttpHeaders httpHeaders, InputStream body) {
+    String contentEncoding = httpHeaders.getRequestHeaders().getFirst(org.apache.nutch.metadata.HttpHeaders.CONTENT_ENCODING);
+
+    int accepted = 0;
+    int rejected = 0;
+    InputStream in = null;
+    try {
+      in = ContentDecoder.decode(new BufferedInputStream(body), contentEncoding);
+      FetchResultBatch.Reader reader = new FetchResultBatch.Reader(in, MAX_SUBMIT_CONTENT_LENGTH);
+
+      FetchResult fetchResult;
+      while ((fetchResult = reader.next()) != null) {
+        FetchManager fetchManager = fetchManagerPool.get(fetchResult.getJobId());
+        if (fetchManager == null) {
+          ++rejected;
+          continue;
+        }
+
+        fetchManager.produceFetchResut(fetchResult);
+        ++accepted;
+      }
+    } catch (IOException e) {
+      LOG.warn("Bad fetch result batch after " + accepted + " results, " + e.toString());
+      throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+          .entity("accepted " + accepted + ", " + e.getMessage()).build());
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+
+    if (rejected > 0) {
+      LOG.debug("Rejected " + rejected + " fetch results of unknown jobs");
+    }
+
+    return "accepted " + accepted + ", rejected " + rejected;
+  }
+
   // TODO : we may use a general cache system
   private void debugContent(String fileName, String pageContent) {
     try {
@@ -28,6 +28,7 @@ import org.apache.nutch.storage.local.model.ServerInstance;
 import org.apache.nutch.util.NetUtil;
 import org.restlet.Component;
 import org.restlet.Context;
+import org.restlet.Server;
 import org.restlet.data.Protocol;
 import org.restlet.ext.jaxrs.JaxRsApplication;
 import org.slf4j.Logger;
@@ -73,7 +74,9 @@ public class FetcherServer extends Application {
     component.getLogger().setLevel(Level.parse(logLevel));
 
     // Add a new HTTP server listening on defined port.
-    component.getServers().add(Protocol.HTTP, this.port);
+    // Satellites wait for fetch items in long polling requests, keep threads for the submits
+    Server server = component.getServers().add(Protocol.HTTP, this.port);
+    server.getContext().getParameters().add("maxThreads", String.valueOf(conf.getInt("fetcher.server.max.threads", 200)));
 
     Context childContext = component.getContext().createChildContext();
     JaxRsApplication application = new JaxRsApplication(childContext);
@@ -134,6 +134,11 @@ public class HostDb implements Closeable {
     hostStore.put(key, host);
   }
 
+  public void flush() throws IOException {
+    hostStore.flush();
+    lastFlush.set(System.currentTimeMillis());
+  }
+
   @Override
   public void close() throws IOException {
     hostStore.close();
@@ -46,6 +46,12 @@ public interface HttpHeaders {
   
   public final static String LOCATION = "Location";
 
+  public final static String ETAG = "ETag";
+
+  public final static String IF_MODIFIED_SINCE = "If-Modified-Since";
+
+  public final static String IF_NONE_MATCH = "If-None-Match";
+
   // For satellite information
   public final static String Q_VERSION = "Q-Version";
 
@@ -66,4 +72,9 @@ public interface HttpHeaders {
   public final static String Q_CHECKSUM = "Q-Checksum";
 
   public final static String Q_URL = "Q-Url";
+
+  // Timing reported by the protocol plugins, in milliseconds
+  public final static String Q_CONNECT_TIME = "Q-Connect-Time";
+
+  public final static String Q_FIRST_BYTE_TIME = "Q-First-Byte-Time";
 }
@@ -107,6 +107,8 @@ public interface Nutch {
   public static final String ARG_SEEDLIST = "seed";
   /** a path to a directory containing a list of seed URLs. */
   public static final String ARG_SEEDDIR = "seedDir";
+  /** a path to a directory containing WARC or arc files. */
+  public static final String ARG_ARCHIVEDIR = "archiveDir";
   /** Class to run as a NutchTool. */
   public static final String ARG_CLASS = "class";
   /** Depth (number of cycles) of a crawl. */
@@ -0,0 +1,298 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.net;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.security.Security;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.math.NumberUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * A bounded cache of host name lookups shared by the fetcher and the protocol
+ * plugins, so a host is resolved once per TTL instead of once per fetch.
+ * Concurrent lookups of the same host wait for a single resolution, and failed
+ * lookups are remembered for a shorter time.
+ *
+ * Hosts can be resolved in background with {@link #prefetch(String)}, so the
+ * fetch does not wait for the DNS.
+ */
+public class DnsCache {
+
+  public static final Logger LOG = LoggerFactory.getLogger(DnsCache.class);
+
+  public static final long DEFAULT_TTL = 300;
+  public static final long DEFAULT_NEGATIVE_TTL = 60;
+  public static final long DEFAULT_MAX_SIZE = 100000;
+  public static final int DEFAULT_RESOLVER_THREADS = 8;
+
+  /**
+   * Prefetch requests are rejected if this many are waiting
+   * */
+  private static final int MAX_QUEUED_PREFETCHES = 10000;
+
+  private static final Map<String, DnsCache> instances = Maps.newHashMap();
+
+  private static final class Entry {
+    private final InetAddress address;
+    private final long expireTime;
+
+    Entry(InetAddress address, long expireTime) {
+      this.address = address;
+      this.expireTime = expireTime;
+    }
+  }
+
+  private final long ttl;
+  private final long negativeTtl;
+  private final Cache<String, Entry> cache;
+  private final ExecutorService resolver;
+  private final Set<String> prefetching = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  // statistics
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong failures = new AtomicLong(0);
+  private final AtomicLong prefetches = new AtomicLong(0);
+
+  /**
+   * @param ttl seconds to keep a resolved address
+   * @param negativeTtl seconds to remember a failed lookup
+   * */
+  public DnsCache(long maxSize, long ttl, long negativeTtl, final int resolverThreads) {
+    this.ttl = ttl * 1000;
+    this.negativeTtl = negativeTtl * 1000;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(Math.max(this.ttl, this.negativeTtl), TimeUnit.MILLISECONDS)
+        .build();
+
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(resolverThreads, resolverThreads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(MAX_QUEUED_PREFETCHES), new ThreadFactory() {
+          private final AtomicInteger sequence = new AtomicInteger(0);
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "DnsResolver-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+    this.resolver = executor;
+  }
+
+  /**
+   * The cache shared in the JVM by the callers with the same settings, a job
+   * with other settings gets a cache of its own
+   * */
+  public static synchronized DnsCache getInstance(Configuration conf) {
+    // respect the TTL of the JVM if it is set
+    long defaultTtl = NumberUtils.toLong(Security.getProperty("networkaddress.cache.ttl"), DEFAULT_TTL);
+    if (defaultTtl < 0) {
+      defaultTtl = DEFAULT_TTL;
+    }
+
+    long maxSize = DEFAULT_MAX_SIZE;
+    long ttl = defaultTtl;
+    long negativeTtl = DEFAULT_NEGATIVE_TTL;
+    int resolverThreads = DEFAULT_RESOLVER_THREADS;
+    if (conf != null) {
+      maxSize = conf.getLong("dns.cache.max.size", DEFAULT_MAX_SIZE);
+      ttl = conf.getLong("dns.cache.ttl.secs", defaultTtl);
+      negativeTtl = conf.getLong("dns.cache.negative.ttl.secs", DEFAULT_NEGATIVE_TTL);
+      resolverThreads = conf.getInt("dns.cache.resolver.threads", DEFAULT_RESOLVER_THREADS);
+    }
+
+    String key = maxSize + "," + ttl + "," + negativeTtl + "," + resolverThreads;
+    DnsCache instance = instances.get(key);
+    if (instance == null) {
+      // the resolver threads exit when idle, so an instance no job uses any more costs only its entries
+      instance = new DnsCache(maxSize, ttl, negativeTtl, resolverThreads);
+      instances.put(key, instance);
+    }
+
+    return instance;
+  }
+
+  /**
+   * Resolve the host, the cached address is used if it is not expired
+   *
+   * @throws UnknownHostException if the host can not be resolved now or recently
+   * */
+  public InetAddress resolve(final String host) throws UnknownHostException {
+    final String key = host.toLowerCase();
+
+    Entry entry = cache.getIfPresent(key);
+    if (entry != null && entry.expireTime < System.currentTimeMillis()) {
+      cache.asMap().remove(key, entry);
+      entry = null;
+    }
+
+    if (entry != null) {
+      hits.incrementAndGet();
+    } else {
+      try {
+        // concurrent lookups of the same host wait for one resolution
+        entry = cache.get(key, new Callable<Entry>() {
+          @Override
+          public Entry call() {
+            return load(key);
+          }
+        });
+      } catch (ExecutionException | UncheckedExecutionException e) {
+        throw new UnknownHostException(host + ", " + e.getCause());
+      }
+    }
+
+    if (entry.address == null) {
+      throw new UnknownHostException(host);
+    }
+
+    return entry.address;
+  }
+
+  /**
+   * @return the cached address, or null if the host is not resolved yet
+   * */
+  public InetAddress getIfPresent(String host) {
+    Entry entry = getEntry(host.toLowerCase());
+    return entry == null ? null : entry.address;
+  }
+
+  /**
+   * Create a resolved socket address, using the cache
+   * */
+  public InetSocketAddress createSocketAddress(String host, int port) throws UnknownHostException {
+    return new InetSocketAddress(resolve(host), port);
+  }
+
+  /**
+   * Resolve the host in background if it is not cached, never blocks
+   * */
+  public void prefetch(final String host) {
+    if (host == null || getEntry(host.toLowerCase()) != null || !prefetching.add(host.toLowerCase())) {
+      return;
+    }
+
+    prefetches.incrementAndGet();
+    try {
+      resolver.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            resolve(host);
+          } catch (UnknownHostException ignored) {
+          } finally {
+            prefetching.remove(host.toLowerCase());
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      // too many prefetches are waiting, the host will be resolved when it's fetched
+      prefetching.remove(host.toLowerCase());
+    }
+  }
+
+  /**
+   * Forget the host, for example if the cached address can not be connected
+   * */
+  public void invalidate(String host) {
+    cache.invalidate(host.toLowerCase());
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getFailures() {
+    return failures.get();
+  }
+
+  public long getPrefetches() {
+    return prefetches.get();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * Look up the host, can be overridden to use another resolver
+   * */
+  protected InetAddress lookup(String host) throws UnknownHostException {
+    return InetAddress.getByName(host);
+  }
+
+  /**
+   * @return the entry if it's not expired, a failed lookup has an entry without address
+   * */
+  private Entry getEntry(String key) {
+    Entry entry = cache.getIfPresent(key);
+    if (entry == null || entry.expireTime < System.currentTimeMillis()) {
+      return null;
+    }
+
+    return entry;
+  }
+
+  private Entry load(String host) {
+    misses.incrementAndGet();
+
+    long now = System.currentTimeMillis();
+    try {
+      return new Entry(lookup(host), now + ttl);
+    } catch (UnknownHostException e) {
+      failures.incrementAndGet();
+      LOG.debug("Unable to resolve " + host);
+      return new Entry(null, now + negativeTtl);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "size=" + size() + " hits=" + getHits() + " misses=" + getMisses() + " failures=" + getFailures()
+        + " prefetches=" + getPrefetches();
+  }
+}
@@ -0,0 +1,358 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.net;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the connections of finished HTTP/1.1 exchanges open, so the next fetch
+ * from the same host skips the TCP connect and the TLS handshake. The fetch
+ * queues fetch a host back to back, so most fetches can reuse a connection.
+ *
+ * The pool is bounded per host and in total, and a connection is closed if it
+ * is idle longer than the idle timeout, the keep alive timeout of the server,
+ * or if it has served too many requests.
+ */
+public class HttpConnectionPool {
+
+  public static final Logger LOG = LoggerFactory.getLogger(HttpConnectionPool.class);
+
+  public static final int DEFAULT_MAX_PER_HOST = 2;
+  public static final int DEFAULT_MAX_TOTAL = 1000;
+  public static final long DEFAULT_IDLE_TIMEOUT = 10;
+  public static final int DEFAULT_MAX_REQUESTS = 100;
+
+  /**
+   * Idle connections are checked at most once in this period
+   * */
+  private static final long EVICTION_INTERVAL = 1000;
+
+  private static final Map<String, HttpConnectionPool> instances = new HashMap<String, HttpConnectionPool>();
+
+  /**
+   * An open connection with the streams to talk on it. The input stream is
+   * buffered, it must be kept with the socket since it may hold read ahead bytes.
+   * */
+  public static class Connection {
+    private final String key;
+    private final Socket socket;
+    private final PushbackInputStream in;
+    private final OutputStream out;
+    private final long connectTime;
+    private int requests = 0;
+    private long expireTime = Long.MAX_VALUE;
+
+    /**
+     * @param connectTime milliseconds taken to connect and handshake, saved when the connection is reused
+     * */
+    public Connection(String key, Socket socket, int bufferSize, long connectTime) throws IOException {
+      this.key = key;
+      this.socket = socket;
+      this.in = new PushbackInputStream(new BufferedInputStream(socket.getInputStream(), bufferSize), bufferSize);
+      this.out = socket.getOutputStream();
+      this.connectTime = connectTime;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public Socket getSocket() {
+      return socket;
+    }
+
+    public PushbackInputStream getInputStream() {
+      return in;
+    }
+
+    public OutputStream getOutputStream() {
+      return out;
+    }
+
+    public long getConnectTime() {
+      return connectTime;
+    }
+
+    /**
+     * The number of requests sent on this connection, including the current one
+     * */
+    public int getRequests() {
+      return requests;
+    }
+
+    public boolean isReused() {
+      return requests > 1;
+    }
+
+    public void close() {
+      try {
+        socket.close();
+      } catch (IOException ignored) {
+      }
+    }
+
+    private boolean isUsable(long now) {
+      return now < expireTime && !socket.isClosed() && !socket.isInputShutdown() && !socket.isOutputShutdown();
+    }
+  }
+
+  private final boolean enabled;
+  private final int maxPerHost;
+  private final int maxTotal;
+  private final long idleTimeout;
+  private final int maxRequests;
+
+  private final Map<String, Deque<Connection>> idleConnections = new HashMap<String, Deque<Connection>>();
+  private int idleCount = 0;
+  private long lastEviction = System.currentTimeMillis();
+
+  // statistics
+  private final AtomicLong created = new AtomicLong(0);
+  private final AtomicLong reused = new AtomicLong(0);
+  private final AtomicLong evicted = new AtomicLong(0);
+  private final AtomicLong handshakeTimeSaved = new AtomicLong(0);
+
+  /**
+   * @param idleTimeout seconds to keep an idle connection
+   * */
+  public HttpConnectionPool(boolean enabled, int maxPerHost, int maxTotal, long idleTimeout, int maxRequests) {
+    this.enabled = enabled;
+    this.maxPerHost = maxPerHost;
+    this.maxTotal = maxTotal;
+    this.idleTimeout = idleTimeout * 1000;
+    this.maxRequests = maxRequests;
+  }
+
+  /**
+   * The pool shared in the JVM by the callers with the same settings, a job
+   * with other settings gets a pool of its own
+   * */
+  public static synchronized HttpConnectionPool getInstance(Configuration conf) {
+    boolean enabled = conf.getBoolean("http.keep.alive", true);
+    int maxPerHost = conf.getInt("http.keep.alive.max.per.host", DEFAULT_MAX_PER_HOST);
+    int maxTotal = conf.getInt("http.keep.alive.max.total", DEFAULT_MAX_TOTAL);
+    long idleTimeout = conf.getLong("http.keep.alive.idle.timeout.secs", DEFAULT_IDLE_TIMEOUT);
+    int maxRequests = conf.getInt("http.keep.alive.max.requests", DEFAULT_MAX_REQUESTS);
+
+    String key = enabled + "," + maxPerHost + "," + maxTotal + "," + idleTimeout + "," + maxRequests;
+    HttpConnectionPool instance = instances.get(key);
+    if (instance == null) {
+      instance = new HttpConnectionPool(enabled, maxPerHost, maxTotal, idleTimeout, maxRequests);
+      instances.put(key, instance);
+    }
+
+    return instance;
+  }
+
+  public static String getKey(String scheme, String host, int port) {
+    return scheme + "://" + host.toLowerCase() + ":" + port;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Wrap a new connection, it's returned to the pool by {@link #release(Connection, boolean, long)}
+   * */
+  public Connection newConnection(String key, Socket socket, int bufferSize, long connectTime) throws IOException {
+    created.incrementAndGet();
+
+    Connection connection = new Connection(key, socket, bufferSize, connectTime);
+    connection.requests = 1;
+    return connection;
+  }
+
+  /**
+   * Take an idle connection to the host
+   *
+   * @return the connection, or null if there is no idle connection which can be used
+   * */
+  public Connection acquire(String key) {
+    if (!enabled) {
+      return null;
+    }
+
+    Connection connection = null;
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      evictIdle(now);
+
+      Deque<Connection> connections = idleConnections.get(key);
+      while (connections != null && !connections.isEmpty()) {
+        // the most recently used one is the least likely closed by the server
+        Connection c = connections.pollLast();
+        --idleCount;
+
+        if (c.isUsable(now)) {
+          connection = c;
+          break;
+        }
+
+        evicted.incrementAndGet();
+        c.close();
+      }
+
+      if (connections != null && connections.isEmpty()) {
+        idleConnections.remove(key);
+      }
+    }
+
+    if (connection != null) {
+      ++connection.requests;
+      reused.incrementAndGet();
+      handshakeTimeSaved.addAndGet(connection.connectTime);
+    }
+
+    return connection;
+  }
+
+  /**
+   * Give back a connection after the exchange
+   *
+   * @param reusable true if the response is read completely and the server keeps the connection alive
+   * @param keepAlive milliseconds the server keeps the connection, or -1 if it's unknown
+   * */
+  public void release(Connection connection, boolean reusable, long keepAlive) {
+    if (!enabled || !reusable || connection.requests >= maxRequests) {
+      connection.close();
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+    long timeout = keepAlive >= 0 ? Math.min(keepAlive, idleTimeout) : idleTimeout;
+    connection.expireTime = now + timeout;
+
+    synchronized (this) {
+      evictIdle(now);
+
+      Deque<Connection> connections = idleConnections.get(connection.key);
+      if (connections == null) {
+        connections = new ArrayDeque<Connection>();
+        idleConnections.put(connection.key, connections);
+      }
+
+      if (connections.size() < maxPerHost && idleCount < maxTotal && connection.isUsable(now)) {
+        connections.addLast(connection);
+        ++idleCount;
+        return;
+      }
+
+      if (connections.isEmpty()) {
+        idleConnections.remove(connection.key);
+      }
+    }
+
+    connection.close();
+  }
+
+  /**
+   * Close all idle connections
+   * */
+  public synchronized void closeIdle() {
+    for (Deque<Connection> connections : idleConnections.values()) {
+      for (Connection connection : connections) {
+        connection.close();
+      }
+    }
+
+    idleConnections.clear();
+    idleCount = 0;
+  }
+
+  public long getCreatedCount() {
+    return created.get();
+  }
+
+  public long getReusedCount() {
+    return reused.get();
+  }
+
+  public long getEvictedCount() {
+    return evicted.get();
+  }
+
+  /**
+   * Milliseconds of connects and handshakes saved by reusing connections
+   * */
+  public long getHandshakeTimeSaved() {
+    return handshakeTimeSaved.get();
+  }
+
+  /**
+   * @return the percentage of requests sent on a reused connection
+   * */
+  public int getReuseRate() {
+    long total = created.get() + reused.get();
+    return total == 0 ? 0 : (int) (100 * reused.get() / total);
+  }
+
+  public synchronized int getIdleCount() {
+    return idleCount;
+  }
+
+  /**
+   * Close the expired connections, called while the pool is locked
+   * */
+  private void evictIdle(long now) {
+    if (now - lastEviction < EVICTION_INTERVAL) {
+      return;
+    }
+    lastEviction = now;
+
+    Iterator<Deque<Connection>> it = idleConnections.values().iterator();
+    while (it.hasNext()) {
+      Deque<Connection> connections = it.next();
+
+      Iterator<Connection> it2 = connections.iterator();
+      while (it2.hasNext()) {
+        Connection connection = it2.next();
+        if (!connection.isUsable(now)) {
+          it2.remove();
+          --idleCount;
+          evicted.incrementAndGet();
+          connection.close();
+        }
+      }
+
+      if (connections.isEmpty()) {
+        it.remove();
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "created=" + getCreatedCount() + " reused=" + getReusedCount() + " evicted=" + getEvictedCount()
+        + " reuseRate=" + getReuseRate() + "% handshakeTimeSaved=" + getHandshakeTimeSaved() + "ms";
+  }
+}
@@ -16,6 +16,8 @@
  */
 package org.apache.nutch.net;
 
+import java.util.regex.Pattern;
+
 /**
  * A generic regular expression rule.
  * 
@@ -61,4 +63,16 @@ public abstract class RegexRule {
    */
   protected abstract boolean match(String url);
 
+  /**
+   * The java.util.regex pattern this rule matches with, if any. The
+   * {@link RegexRuleMatcher} skips the rule for the urls which can not match
+   * the pattern.
+   * 
+   * @return the pattern, or <code>null</code> if the rule does not match with a
+   *         java.util.regex pattern.
+   */
+  protected Pattern getPattern() {
+    return null;
+  }
+
 }
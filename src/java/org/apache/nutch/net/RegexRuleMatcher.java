@@ -0,0 +1,480 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the first of a list of rules which matches a url, without matching
+ * the url against every rule.
+ *
+ * The literal strings which every match of a rule contains are taken from the
+ * regular expression of the rule, and the literals of all rules are compiled
+ * into one Aho-Corasick automaton. One pass of the automaton over the url finds
+ * the literals the url contains. Only the rules whose literals are found are
+ * candidates, and the candidates are matched in the order of the rules, so the
+ * first matching rule is the same as the one a loop over all rules finds.
+ *
+ * Rules without a {@link RegexRule#getPattern() java.util.regex pattern}, with
+ * flags, or without a literal are always candidates.
+ */
+public class RegexRuleMatcher {
+
+  /** Shorter literals are found in almost every url, they are not looked up */
+  static final int MIN_LITERAL_LENGTH = 2;
+
+  private static final String META_CHARS = "\\[](){}.*+?^$|";
+
+  private final RegexRule[] rules;
+  // for every rule, the sets of literal ids of which one must be found
+  private final int[][][] requirements;
+  private final int literalCount;
+
+  // the automaton, transitions of a state are sorted by char
+  private final char[][] keys;
+  private final int[][] next;
+  private final int[] fail;
+  private final int[][] outputs;
+
+  public RegexRuleMatcher(List<RegexRule> rules) {
+    this.rules = rules.toArray(new RegexRule[rules.size()]);
+    this.requirements = new int[rules.size()][][];
+
+    Map<String, Integer> literalIds = new HashMap<String, Integer>();
+    List<String> literals = new ArrayList<String>();
+    for (int i = 0; i < this.rules.length; i++) {
+      List<List<String>> ruleRequirements = getRequirements(this.rules[i].getPattern());
+      requirements[i] = new int[ruleRequirements.size()][];
+
+      for (int j = 0; j < ruleRequirements.size(); j++) {
+        List<String> anyOf = ruleRequirements.get(j);
+        requirements[i][j] = new int[anyOf.size()];
+        for (int k = 0; k < anyOf.size(); k++) {
+          Integer id = literalIds.get(anyOf.get(k));
+          if (id == null) {
+            id = literals.size();
+            literalIds.put(anyOf.get(k), id);
+            literals.add(anyOf.get(k));
+          }
+          requirements[i][j][k] = id;
+        }
+      }
+    }
+    this.literalCount = literals.size();
+
+    // build the trie
+    List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+    List<List<Integer>> ends = new ArrayList<List<Integer>>();
+    trie.add(new TreeMap<Character, Integer>());
+    ends.add(new ArrayList<Integer>());
+    for (int id = 0; id < literals.size(); id++) {
+      int state = 0;
+      for (char c : literals.get(id).toCharArray()) {
+        Integer n = trie.get(state).get(c);
+        if (n == null) {
+          n = trie.size();
+          trie.get(state).put(c, n);
+          trie.add(new TreeMap<Character, Integer>());
+          ends.add(new ArrayList<Integer>());
+        }
+        state = n;
+      }
+      ends.get(state).add(id);
+    }
+
+    int stateCount = trie.size();
+    keys = new char[stateCount][];
+    next = new int[stateCount][];
+    for (int state = 0; state < stateCount; state++) {
+      TreeMap<Character, Integer> transitions = trie.get(state);
+      keys[state] = new char[transitions.size()];
+      next[state] = new int[transitions.size()];
+      int k = 0;
+      for (Map.Entry<Character, Integer> entry : transitions.entrySet()) {
+        keys[state][k] = entry.getKey();
+        next[state][k] = entry.getValue();
+        ++k;
+      }
+    }
+
+    // failure links and outputs in breadth first order, a failure state is
+    // always shallower than its state
+    fail = new int[stateCount];
+    outputs = new int[stateCount][];
+    outputs[0] = toArray(ends.get(0));
+    ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+    for (int n : next[0]) {
+      fail[n] = 0;
+      queue.add(n);
+    }
+
+    while (!queue.isEmpty()) {
+      int state = queue.poll();
+
+      List<Integer> output = new ArrayList<Integer>(ends.get(state));
+      for (int id : outputs[fail[state]]) {
+        output.add(id);
+      }
+      outputs[state] = toArray(output);
+
+      for (int k = 0; k < keys[state].length; k++) {
+        int child = next[state][k];
+        int f = fail[state];
+        int target;
+        while ((target = transition(f, keys[state][k])) < 0 && f != 0) {
+          f = fail[f];
+        }
+        fail[child] = target < 0 || target == child ? 0 : target;
+        queue.add(child);
+      }
+    }
+  }
+
+  /**
+   * @return the first rule which matches the url, or null if no rule matches
+   * */
+  public RegexRule firstMatch(String url) {
+    boolean[] found = literalCount == 0 ? null : scan(url);
+
+    for (int i = 0; i < rules.length; i++) {
+      if (isCandidate(i, found) && rules[i].match(url)) {
+        return rules[i];
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * The number of distinct literals of all rules
+   * */
+  public int getLiteralCount() {
+    return literalCount;
+  }
+
+  /**
+   * The number of rules which are matched against every url
+   * */
+  public int getUnconditionalRuleCount() {
+    int count = 0;
+    for (int[][] ruleRequirements : requirements) {
+      if (ruleRequirements.length == 0) {
+        ++count;
+      }
+    }
+    return count;
+  }
+
+  private boolean isCandidate(int rule, boolean[] found) {
+    for (int[] anyOf : requirements[rule]) {
+      boolean any = false;
+      for (int id : anyOf) {
+        if (found[id]) {
+          any = true;
+          break;
+        }
+      }
+      if (!any) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean[] scan(String url) {
+    boolean[] found = new boolean[literalCount];
+
+    int state = 0;
+    for (int i = 0; i < url.length(); i++) {
+      char c = url.charAt(i);
+      int n;
+      while ((n = transition(state, c)) < 0 && state != 0) {
+        state = fail[state];
+      }
+      state = n < 0 ? 0 : n;
+
+      for (int id : outputs[state]) {
+        found[id] = true;
+      }
+    }
+
+    return found;
+  }
+
+  private int transition(int state, char c) {
+    int k = Arrays.binarySearch(keys[state], c);
+    return k < 0 ? -1 : next[state][k];
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+
+  /**
+   * The literals every match of the pattern contains. Each requirement is a
+   * set of literals, one of them is in every match.
+   * */
+  static List<List<String>> getRequirements(Pattern pattern) {
+    List<List<String>> requirements = new ArrayList<List<String>>();
+    if (pattern == null || pattern.flags() != 0) {
+      return requirements;
+    }
+
+    String regex = pattern.pattern();
+    if (hasAlternation(regex, 0, regex.length())) {
+      return requirements;
+    }
+
+    StringBuilder run = new StringBuilder();
+    int i = 0;
+    int n = regex.length();
+    while (i < n) {
+      char c = regex.charAt(i);
+
+      // the next atom, a literal, a set of literals or anything else
+      String literal = null;
+      List<String> anyOf = null;
+      if (c == '\\') {
+        if (i + 1 >= n) {
+          break;
+        }
+        char d = regex.charAt(i + 1);
+        if (Character.isLetterOrDigit(d)) {
+          // classes and assertions like \d and \b are no literals, other escapes are not followed
+          if ("dDwWsSbBAzZG".indexOf(d) < 0) {
+            break;
+          }
+        } else {
+          literal = String.valueOf(d);
+        }
+        i += 2;
+      } else if (c == '[') {
+        i = skipClass(regex, i);
+        if (i < 0) {
+          break;
+        }
+      } else if (c == '(') {
+        int close = findGroupEnd(regex, i);
+        if (close < 0 || regex.startsWith("(?", i) && !regex.startsWith("(?:", i)) {
+          // flags, look arounds and named groups are not followed
+          break;
+        }
+        anyOf = getLiterals(regex, regex.startsWith("(?:", i) ? i + 3 : i + 1, close);
+        if (anyOf != null && anyOf.size() == 1) {
+          literal = anyOf.get(0);
+          anyOf = null;
+        }
+        i = close + 1;
+      } else if (c == '.' || c == '^' || c == '$') {
+        ++i;
+      } else if (META_CHARS.indexOf(c) >= 0) {
+        break;
+      } else {
+        literal = String.valueOf(c);
+        ++i;
+      }
+
+      // the quantifier of the atom
+      int minCount = 1;
+      boolean quantified = false;
+      if (i < n && "*+?{".indexOf(regex.charAt(i)) >= 0) {
+        quantified = true;
+        char q = regex.charAt(i);
+        if (q == '{') {
+          int close = regex.indexOf('}', i);
+          if (close < 0) {
+            break;
+          }
+          String bounds = regex.substring(i + 1, close);
+          int comma = bounds.indexOf(',');
+          try {
+            minCount = Integer.parseInt(comma < 0 ? bounds : bounds.substring(0, comma));
+          } catch (NumberFormatException e) {
+            break;
+          }
+          i = close + 1;
+        } else {
+          minCount = q == '+' ? 1 : 0;
+          ++i;
+        }
+        // lazy or possessive
+        if (i < n && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+          ++i;
+        }
+      }
+
+      if (minCount == 0) {
+        flush(run, requirements);
+      } else if (literal != null) {
+        run.append(literal);
+        if (quantified) {
+          flush(run, requirements);
+        }
+      } else {
+        flush(run, requirements);
+        if (anyOf != null && minLength(anyOf) >= MIN_LITERAL_LENGTH) {
+          requirements.add(anyOf);
+        }
+      }
+    }
+
+    flush(run, requirements);
+    return requirements;
+  }
+
+  private static void flush(StringBuilder run, List<List<String>> requirements) {
+    if (run.length() >= MIN_LITERAL_LENGTH) {
+      List<String> literal = new ArrayList<String>(1);
+      literal.add(run.toString());
+      requirements.add(literal);
+    }
+    run.setLength(0);
+  }
+
+  private static int minLength(List<String> literals) {
+    int min = Integer.MAX_VALUE;
+    for (String literal : literals) {
+      min = Math.min(min, literal.length());
+    }
+    return min;
+  }
+
+  /**
+   * @return the alternatives of the group if they are all non empty literals, otherwise null
+   * */
+  private static List<String> getLiterals(String regex, int start, int end) {
+    List<String> literals = new ArrayList<String>();
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = start; i < end; i++) {
+      char c = regex.charAt(i);
+      if (c == '|') {
+        if (sb.length() == 0) {
+          return null;
+        }
+        literals.add(sb.toString());
+        sb.setLength(0);
+      } else if (c == '\\') {
+        if (i + 1 >= end || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+          return null;
+        }
+        sb.append(regex.charAt(++i));
+      } else if (META_CHARS.indexOf(c) >= 0) {
+        return null;
+      } else {
+        sb.append(c);
+      }
+    }
+
+    if (sb.length() == 0) {
+      return null;
+    }
+    literals.add(sb.toString());
+    return literals;
+  }
+
+  /**
+   * @return true if there is a | outside of groups and classes
+   * */
+  private static boolean hasAlternation(String regex, int start, int end) {
+    int depth = 0;
+    for (int i = start; i < end; i++) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        ++i;
+      } else if (c == '[') {
+        i = skipClass(regex, i);
+        if (i < 0) {
+          return true;
+        }
+        --i;
+      } else if (c == '(') {
+        ++depth;
+      } else if (c == ')') {
+        --depth;
+      } else if (c == '|' && depth == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the index of the closing parenthesis, or -1
+   * */
+  private static int findGroupEnd(String regex, int start) {
+    int depth = 0;
+    for (int i = start; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        ++i;
+      } else if (c == '[') {
+        i = skipClass(regex, i);
+        if (i < 0) {
+          return -1;
+        }
+        --i;
+      } else if (c == '(') {
+        ++depth;
+      } else if (c == ')') {
+        if (--depth == 0) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the index behind the class, or -1 if the class is not understood
+   * */
+  private static int skipClass(String regex, int start) {
+    int i = start + 1;
+    if (i < regex.length() && regex.charAt(i) == '^') {
+      ++i;
+    }
+    if (i < regex.length() && regex.charAt(i) == ']') {
+      return -1;
+    }
+
+    int depth = 1;
+    for (; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        ++i;
+      } else if (c == '[') {
+        ++depth;
+      } else if (c == ']') {
+        if (--depth == 0) {
+          return i + 1;
+        }
+      }
+    }
+    return -1;
+  }
+}
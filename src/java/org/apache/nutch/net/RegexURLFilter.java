@@ -95,6 +95,11 @@ public class RegexURLFilter extends RegexURLFilterBase {
 
       return pattern.matcher(url).find();
     }
+
+    @Override
+    protected Pattern getPattern() {
+      return pattern;
+    }
   }
 
   /*
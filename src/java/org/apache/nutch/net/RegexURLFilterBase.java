@@ -58,9 +58,17 @@ public abstract class RegexURLFilterBase implements URLFilter {
   /** My logger */
   public final static Logger LOG = LoggerFactory.getLogger(RegexURLFilterBase.class);
 
+  /** Match the rules with a {@link RegexRuleMatcher}, default true */
+  public static final String URLFILTER_REGEX_COMPILED = "urlfilter.regex.compiled";
+
   /** An array of applicable rules */
   private List<RegexRule> rules;
 
+  /** The compiled rules, null if the rules are matched one by one */
+  private RegexRuleMatcher matcher;
+
+  private boolean compiled = true;
+
   /** The current configuration */
   private Configuration conf;
 
@@ -99,7 +107,7 @@ public abstract class RegexURLFilterBase implements URLFilter {
    *          is a reader of rules.
    */
   protected RegexURLFilterBase(Reader reader) throws IllegalArgumentException, IOException{
-    rules = readRules(reader);
+    setRules(readRules(reader));
   }
 
   /**
@@ -134,6 +142,11 @@ public abstract class RegexURLFilterBase implements URLFilter {
   public String filter(String url) {
     if (url == null) return null;
 
+    if (matcher != null) {
+      RegexRule rule = matcher.firstMatch(url);
+      return rule != null && rule.accept() ? url : null;
+    }
+
     for (RegexRule rule : rules) {
       if (rule.match(url)) {
         return rule.accept() ? url : null;
@@ -154,6 +167,7 @@ public abstract class RegexURLFilterBase implements URLFilter {
    */
   public void setConf(Configuration conf) {
     this.conf = conf;
+    this.compiled = conf.getBoolean(URLFILTER_REGEX_COMPILED, true);
     Reader reader = null;
 
     try {
@@ -166,7 +180,7 @@ public abstract class RegexURLFilterBase implements URLFilter {
     }
 
     try {
-      rules = readRules(reader);
+      setRules(readRules(reader));
     }
     catch (IOException e) {
       if (LOG.isErrorEnabled()) {
@@ -185,6 +199,11 @@ public abstract class RegexURLFilterBase implements URLFilter {
    * ------------------------------
    */
 
+  private void setRules(List<RegexRule> rules) {
+    this.rules = rules;
+    this.matcher = compiled ? new RegexRuleMatcher(rules) : null;
+  }
+
   /**
    * Read the specified file of rules.
    * 
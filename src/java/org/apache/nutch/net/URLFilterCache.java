@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.net.MalformedURLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.nutch.util.ObjectCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+
+/**
+ * A bounded cache of normalized and filtered urls, shared by the parse, the
+ * fetcher and the generator of a task. The links to the navigation of a site
+ * repeat on every page of the site, they are normalized and filtered once
+ * instead of once per page. Rejected urls are cached as well.
+ *
+ * The urls are cached by normalizer scope, a url normalized with another
+ * scope is another entry.
+ */
+public class URLFilterCache {
+
+  public static final Logger LOG = LoggerFactory.getLogger(URLFilterCache.class);
+
+  public static final String URLFILTER_CACHE_COUNTER_GROUP = "URLFilterCache";
+
+  public static final long DEFAULT_MAX_SIZE = 50000;
+
+  /**
+   * The result of normalizing and filtering a url
+   * */
+  public static enum Status {
+    ACCEPTED, NORMALIZED_TO_NULL, FILTERED, MALFORMED, FILTER_ERROR
+  }
+
+  public static final class Entry {
+    private final String url;
+    private final Status status;
+
+    Entry(String url, Status status) {
+      this.url = url;
+      this.status = status;
+    }
+
+    /**
+     * @return the normalized url if it's accepted, otherwise null
+     * */
+    public String getUrl() {
+      return url;
+    }
+
+    public Status getStatus() {
+      return status;
+    }
+  }
+
+  private final Configuration conf;
+  private final Cache<String, Entry> cache;
+  private final ConcurrentMap<String, URLNormalizers> normalizers = new ConcurrentHashMap<String, URLNormalizers>();
+  private volatile URLFilters filters;
+
+  // statistics
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+
+  /**
+   * @param maxSize the number of cached urls at most, 0 disables the cache
+   * */
+  public URLFilterCache(Configuration conf, long maxSize) {
+    this.conf = conf;
+    this.cache = maxSize > 0 ? CacheBuilder.newBuilder().maximumSize(maxSize).<String, Entry> build() : null;
+  }
+
+  /**
+   * The cache of the configuration, so the users of a task share a cache
+   * */
+  public static URLFilterCache get(Configuration conf) {
+    synchronized (URLFilterCache.class) {
+      ObjectCache objectCache = ObjectCache.get(conf);
+      URLFilterCache urlFilterCache = (URLFilterCache) objectCache.getObject(URLFilterCache.class.getName());
+      if (urlFilterCache == null) {
+        urlFilterCache = new URLFilterCache(conf, conf.getLong("urlfilter.cache.max.size", DEFAULT_MAX_SIZE));
+        objectCache.setObject(URLFilterCache.class.getName(), urlFilterCache);
+      }
+      return urlFilterCache;
+    }
+  }
+
+  /**
+   * Normalize the url with the normalizers of the scope and filter it
+   *
+   * @param scope the normalizer scope, null if the url is not normalized
+   * @return the normalized url, or null if it's rejected
+   * */
+  public String normalizeAndFilter(String url, String scope) {
+    return getEntry(url, scope).getUrl();
+  }
+
+  /**
+   * Normalize the url with the normalizers of the scope and filter it, the
+   * status tells why a url is rejected
+   *
+   * @param scope the normalizer scope, null if the url is not normalized
+   * */
+  public Entry getEntry(String url, String scope) {
+    if (url == null) {
+      return new Entry(null, Status.NORMALIZED_TO_NULL);
+    }
+
+    if (cache == null) {
+      misses.incrementAndGet();
+      return load(url, scope);
+    }
+
+    String key = scope == null ? url : scope + " " + url;
+    Entry entry = cache.getIfPresent(key);
+    if (entry != null) {
+      hits.incrementAndGet();
+      return entry;
+    }
+
+    misses.incrementAndGet();
+    entry = load(url, scope);
+    // a filter error might not happen again
+    if (entry.status != Status.FILTER_ERROR) {
+      cache.put(key, entry);
+    }
+
+    return entry;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * The percentage of the lookups which hit the cache
+   * */
+  public int getHitRate() {
+    long lookups = hits.get() + misses.get();
+    return lookups == 0 ? 0 : (int) (100 * hits.get() / lookups);
+  }
+
+  public long size() {
+    return cache == null ? 0 : cache.size();
+  }
+
+  public Map<String, Object> toMap() {
+    Map<String, Object> map = Maps.newLinkedHashMap();
+
+    map.put("hits", getHits());
+    map.put("misses", getMisses());
+    map.put("hitRate", getHitRate());
+    map.put("size", size());
+
+    return map;
+  }
+
+  /**
+   * Report the statistics as counters of the task
+   * */
+  public void reportStats(TaskInputOutputContext<?, ?, ?, ?> context) {
+    LOG.info("Url filter cache statistics : " + this);
+    for (Map.Entry<String, Object> entry : toMap().entrySet()) {
+      Object value = entry.getValue();
+      if (value instanceof Number) {
+        context.getCounter(URLFILTER_CACHE_COUNTER_GROUP, entry.getKey()).setValue(((Number) value).longValue());
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "hits=" + getHits() + " misses=" + getMisses() + " hitRate=" + getHitRate() + "% size=" + size();
+  }
+
+  protected String normalize(String url, String scope) throws MalformedURLException {
+    URLNormalizers scopeNormalizers = normalizers.get(scope);
+    if (scopeNormalizers == null) {
+      scopeNormalizers = new URLNormalizers(conf, scope);
+      URLNormalizers old = normalizers.putIfAbsent(scope, scopeNormalizers);
+      if (old != null) {
+        scopeNormalizers = old;
+      }
+    }
+
+    return scopeNormalizers.normalize(url, scope);
+  }
+
+  protected String filter(String url) throws URLFilterException {
+    if (filters == null) {
+      filters = new URLFilters(conf);
+    }
+
+    return filters.filter(url);
+  }
+
+  private Entry load(String url, String scope) {
+    try {
+      if (scope != null) {
+        url = normalize(url, scope);
+        if (url == null) {
+          return new Entry(null, Status.NORMALIZED_TO_NULL);
+        }
+      }
+
+      url = filter(url);
+      return url == null ? new Entry(null, Status.FILTERED) : new Entry(url, Status.ACCEPTED);
+    } catch (MalformedURLException e) {
+      return new Entry(null, Status.MALFORMED);
+    } catch (URLFilterException e) {
+      LOG.warn("Failed to filter " + url + ", " + e.getMessage());
+      return new Entry(null, Status.FILTER_ERROR);
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.net.protocols;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.util.Utf8;
+import org.apache.nutch.metadata.HttpHeaders;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.storage.WebPage;
+
+/**
+ * Builds the conditional request headers of a refetch from the headers stored
+ * with the page, so the server answers 304 Not Modified without a body if the
+ * page is not changed since the last fetch. The headers of a 304 response are
+ * merged into the stored ones, they are the validators of the next refetch.
+ */
+public class ConditionalGet {
+
+  public static final String ENABLED_KEY = "http.conditional.get";
+
+  /**
+   * The If-Modified-Since value, the stored Last-Modified header as the server
+   * sent it, or the modified time of the page if there is no such header
+   *
+   * @return the value, or null if the page is not fetched before
+   * */
+  public static String getIfModifiedSince(WebPage page) {
+    String lastModified = getStoredHeader(page, HttpHeaders.LAST_MODIFIED);
+    if (lastModified != null) {
+      return lastModified;
+    }
+
+    Long modifiedTime = page.getModifiedTime();
+    if (modifiedTime != null && modifiedTime > 0) {
+      return HttpDateFormat.toString(modifiedTime);
+    }
+
+    return null;
+  }
+
+  /**
+   * The If-None-Match value, the stored ETag header
+   *
+   * @return the value, or null if the server sent no ETag
+   * */
+  public static String getIfNoneMatch(WebPage page) {
+    return getStoredHeader(page, HttpHeaders.ETAG);
+  }
+
+  /**
+   * The conditional request headers as name and value pairs, empty if the page
+   * is not fetched before
+   * */
+  public static List<String[]> getHeaders(WebPage page) {
+    List<String[]> headers = new ArrayList<String[]>(2);
+
+    String ifNoneMatch = getIfNoneMatch(page);
+    if (ifNoneMatch != null) {
+      headers.add(new String[] { HttpHeaders.IF_NONE_MATCH, ifNoneMatch });
+    }
+
+    String ifModifiedSince = getIfModifiedSince(page);
+    if (ifModifiedSince != null) {
+      headers.add(new String[] { HttpHeaders.IF_MODIFIED_SINCE, ifModifiedSince });
+    }
+
+    return headers;
+  }
+
+  /**
+   * Store the response headers into the page, the stored headers are replaced,
+   * except for a 304 response which updates them only. A 304 response carries
+   * the validators and little else, the headers of the unchanged content are
+   * kept with it.
+   * */
+  public static void storeHeaders(WebPage page, int code, Metadata headers) {
+    Map<CharSequence, CharSequence> stored = page.getHeaders();
+    if (code != 304) {
+      stored.clear();
+    }
+
+    for (String name : headers.names()) {
+      if (code == 304) {
+        removeStoredHeader(page, name);
+      }
+      stored.put(new Utf8(name), new Utf8(headers.get(name)));
+    }
+  }
+
+  /**
+   * The header names are stored as the server sent them, HTTP/2 sends them in
+   * lower case
+   * */
+  private static String getStoredHeader(WebPage page, String name) {
+    Map<CharSequence, CharSequence> stored = page.getHeaders();
+    if (stored == null) {
+      return null;
+    }
+
+    for (Map.Entry<CharSequence, CharSequence> header : stored.entrySet()) {
+      if (header.getValue() != null && name.equalsIgnoreCase(header.getKey().toString())) {
+        String value = header.getValue().toString().trim();
+        return value.isEmpty() ? null : value;
+      }
+    }
+
+    return null;
+  }
+
+  private static void removeStoredHeader(WebPage page, String name) {
+    Map<CharSequence, CharSequence> stored = page.getHeaders();
+    CharSequence found = null;
+    for (CharSequence key : stored.keySet()) {
+      if (name.equalsIgnoreCase(key.toString())) {
+        found = key;
+        break;
+      }
+    }
+
+    if (found != null) {
+      stored.remove(found);
+    }
+  }
+}
@@ -1,7 +1,10 @@
 package org.apache.nutch.net.proxy;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,10 +21,26 @@ public class ProxyEntry implements Comparable<ProxyEntry> {
   // if a proxy server can not be connected in a hour, we announce it's dead and remove it from the file
   private long missingProxyDeadTime = 60 * 60 * 1000;
 
+  // the weight of the latest request in the moving averages of latency and success
+  private static final double EwmaWeight = 0.2;
+
+  // the latency of a proxy which is not used yet, in milliseconds
+  private static final double InitialLatency = 1000;
+
   private String host;
   private int port;
-  private long lastAvailableTime = 0;
-  private boolean available = true;
+  private volatile long lastAvailableTime = 0;
+  private volatile boolean available = true;
+
+  // statistics of the requests through this proxy, updated when a request is finished
+  private final AtomicInteger inflight = new AtomicInteger(0);
+  private long requests = 0;
+  private long successes = 0;
+  private long failures = 0;
+  private int consecutiveFailures = 0;
+  private double latency = InitialLatency;
+  private double successRate = 1.0;
+  private long lastUsedTime = 0;
 
   public ProxyEntry(String host, int port) {
     this.host = host;
@@ -59,6 +78,84 @@ public class ProxyEntry implements Comparable<ProxyEntry> {
         System.currentTimeMillis() - lastAvailableTime > missingProxyDeadTime;
   }
 
+  /**
+   * Take a request slot of this proxy
+   *
+   * @return false if maxInflight requests are running through the proxy
+   * */
+  public boolean tryAcquire(int maxInflight) {
+    while (true) {
+      int n = inflight.get();
+      if (n >= maxInflight) {
+        return false;
+      }
+      if (inflight.compareAndSet(n, n + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Give the request slot back and record the result of the request
+   * */
+  public synchronized void release(boolean success, long latencyMillis) {
+    inflight.decrementAndGet();
+    record(success, latencyMillis);
+  }
+
+  /**
+   * Record the result of a request, or of a health check
+   * */
+  public synchronized void record(boolean success, long latencyMillis) {
+    ++requests;
+    lastUsedTime = System.currentTimeMillis();
+
+    if (success) {
+      ++successes;
+      consecutiveFailures = 0;
+      latency += EwmaWeight * (Math.max(0, latencyMillis) - latency);
+      refresh(true);
+    } else {
+      ++failures;
+      ++consecutiveFailures;
+    }
+
+    successRate += EwmaWeight * ((success ? 1.0 : 0.0) - successRate);
+  }
+
+  public int inflight() {
+    return inflight.get();
+  }
+
+  public synchronized int consecutiveFailures() {
+    return consecutiveFailures;
+  }
+
+  /**
+   * The higher the better, the recent success rate per second of latency. The
+   * score of a proxy which is not used yet is 1.0
+   * */
+  public synchronized double score() {
+    return successRate * InitialLatency / (latency + 1);
+  }
+
+  public synchronized Map<String, Object> getMetrics() {
+    Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+    metrics.put("proxy", ipPort());
+    metrics.put("available", available);
+    metrics.put("score", score());
+    metrics.put("latency", (long) latency);
+    metrics.put("successRate", successRate);
+    metrics.put("requests", requests);
+    metrics.put("successes", successes);
+    metrics.put("failures", failures);
+    metrics.put("consecutiveFailures", consecutiveFailures);
+    metrics.put("inflight", inflight.get());
+    metrics.put("lastAvailableTime", lastAvailableTime);
+    metrics.put("lastUsedTime", lastUsedTime);
+    return metrics;
+  }
+
   public static ProxyEntry parse(String ipPort) {
     String host = null;
     int port = DefaultProxyServerPort;
@@ -97,6 +194,11 @@ public class ProxyEntry implements Comparable<ProxyEntry> {
     return ipPort() + " " + lastAvailableTime;
   }
 
+  @Override
+  public int hashCode() {
+    return ipPort().hashCode();
+  }
+
   @Override
   public boolean equals(Object o) {
     return (o instanceof ProxyEntry) && ipPort().equals(((ProxyEntry) o).ipPort());
@@ -7,10 +7,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
@@ -20,43 +24,109 @@ import org.apache.nutch.util.NetUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-// manager all proxy servers, for every request, we choose a proxy server from a proxy server list
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Manages all proxy servers, every request chooses a proxy server from the pool.
+ *
+ * A proxy is handed out without blocking: the proxy with the best score, its
+ * recent success rate per latency, which runs less than
+ * http.proxy.pool.max.inflight requests, or null if there is none. The fetcher
+ * gives the item back to its queue then.
+ *
+ * The requests to a target host stick to one proxy while it's healthy, so the
+ * crawl delay of the host's fetch queue is the delay between the requests of
+ * that proxy, as the target host sees them.
+ *
+ * Proxies are retired after http.proxy.pool.max.failures consecutive failures.
+ * Retired, new and idle proxies are checked by a background task, the fetch
+ * threads never test the network.
+ * */
 public class ProxyPool {
 
   protected static final Logger logger = LoggerFactory.getLogger(ProxyPool.class);
 
   public static final String ProxyListFile = "/tmp/nutch-proxy-servers.txt";
 
+  private static ProxyPool instance;
+
   private final Configuration conf;
 
   private long fileLastModified = 0;
 
-  private long lastReviewRetiredTime = 0;
-
-  private long reviewRetiredPeriod = 60 * 1000;
+  private int maxPoolSize = 5;
 
-  private long pollingWait = 10;
+  private int maxInflight = 4;
 
-  private int pollingMaxRetry = 5;
+  private int maxFailures = 3;
 
-  private int maxPoolSize = 5;
-  
   private FiledLines proxyServerList = null;
 
-  // TODO : save connected connections
-  private BlockingQueue<ProxyEntry> proxyEntries = new LinkedBlockingQueue<ProxyEntry>();
-  private BlockingQueue<ProxyEntry> retiredProxyEntries = new LinkedBlockingQueue<ProxyEntry>();
+  // the available proxies and the retired ones, which are checked in background, by ip and port
+  private final ConcurrentMap<String, ProxyEntry> proxyEntries = new ConcurrentSkipListMap<String, ProxyEntry>();
+  private final ConcurrentMap<String, ProxyEntry> retiredProxyEntries = new ConcurrentSkipListMap<String, ProxyEntry>();
+
+  // target host -> proxy
+  private final Cache<String, ProxyEntry> stickyProxies;
+
+  private ScheduledExecutorService healthChecker = null;
+
+  private final Runnable healthCheckTask = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        checkHealth();
+      } catch (Throwable e) {
+        logger.error("Failed to check proxies, {}", e.toString());
+      }
+    }
+  };
 
   public ProxyPool() {
-    this.conf = null;
+    this(null);
   }
 
+  /**
+   * A pool without proxies, they are added by {@link #tryUpdateFromFile()} or
+   * {@link #put(ProxyEntry)}
+   * */
   public ProxyPool(Configuration conf) {
     this.conf = conf;
 
-    this.maxPoolSize = conf.getInt("scent.net.proxy.max.pool.size", 5);
+    long stickyExpiry = 600;
+    if (conf != null) {
+      this.maxPoolSize = conf.getInt("scent.net.proxy.max.pool.size", 5);
+      this.maxInflight = conf.getInt("http.proxy.pool.max.inflight", 4);
+      this.maxFailures = conf.getInt("http.proxy.pool.max.failures", 3);
+      stickyExpiry = conf.getLong("http.proxy.pool.sticky.expiry", 600);
+    }
 
-    update();
+    this.stickyProxies = CacheBuilder.newBuilder()
+        .maximumSize(100000)
+        .expireAfterAccess(stickyExpiry, TimeUnit.SECONDS)
+        .build();
+  }
+
+  /**
+   * The pool of the JVM, the proxies of the list file are loaded and checked in
+   * background every http.proxy.pool.check.interval milliseconds
+   * */
+  public static synchronized ProxyPool getInstance(Configuration conf) {
+    if (instance == null) {
+      instance = new ProxyPool(conf);
+      instance.update();
+      instance.startHealthCheck(conf.getLong("http.proxy.pool.check.interval", 10 * 1000));
+    }
+
+    return instance;
+  }
+
+  /**
+   * @return the pool of the JVM, or null if no one asked for it yet
+   * */
+  public static synchronized ProxyPool getSharedInstance() {
+    return instance;
   }
 
   public int size() {
@@ -66,121 +136,197 @@ public class ProxyPool {
   public boolean exhausted() {
     return size() == 0;
   }
-  
+
   public int retiredSize() {
     return retiredProxyEntries.size();
   }
 
-  // will block until timeout or an available proxy entry returns
-  // thread safe
-  public ProxyEntry poll() throws InterruptedException {
-    ProxyEntry proxy = null;
+  public int getMaxInflight() {
+    return maxInflight;
+  }
 
-    int retry = 0;
-    while (proxy == null && retry < pollingMaxRetry) {
-      if (proxyEntries.isEmpty()) {
-        reviewRetired();
+  /**
+   * @see #poll(String)
+   * */
+  public ProxyEntry poll() {
+    return poll(null);
+  }
+
+  /**
+   * Take a request slot of a proxy for a request to the target host, never
+   * blocks. The proxy must be given back by {@link #release(ProxyEntry, boolean, long)}.
+   *
+   * @param targetHost the host of the requested url, or null if the request
+   *          does not stick to a proxy
+   * @return the proxy, or null if all proxies are busy or retired
+   * */
+  public ProxyEntry poll(String targetHost) {
+    if (targetHost != null) {
+      ProxyEntry sticky = stickyProxies.getIfPresent(targetHost);
+      if (sticky != null && proxyEntries.containsKey(sticky.ipPort()) && sticky.tryAcquire(maxInflight)) {
+        return sticky;
       }
+    }
 
-      if (retry > 0) {
-        logger.debug("polling for proxy, retry : {}", retry);
+    while (true) {
+      ProxyEntry best = null;
+      double bestScore = -1;
+      for (ProxyEntry proxy : proxyEntries.values()) {
+        int inflight = proxy.inflight();
+        if (inflight >= maxInflight) {
+          continue;
+        }
+
+        // spread the requests over proxies with about the same score
+        double score = proxy.score() / (1 + inflight);
+        if (score > bestScore) {
+          best = proxy;
+          bestScore = score;
+        }
       }
 
-      // Retrieves and removes the head of this queue, waiting if necessary until an element becomes available.
-      proxy = proxyEntries.poll(pollingWait, TimeUnit.SECONDS);
-      if (proxy == null) {
-        ++retry;
-        continue;
+      if (best == null) {
+        return null;
       }
 
-      if (proxy.expired()) {
-        if (testNetwork(proxy)) {
-          // proxy server is available
-          proxy.refresh();
-        } else {
-          // proxy server is not available
-          retire(proxy);
-          proxy = null;
+      // another thread may take the last slot in between, choose again then
+      if (best.tryAcquire(maxInflight)) {
+        if (targetHost != null) {
+          stickyProxies.put(targetHost, best);
         }
+        return best;
       }
     }
+  }
 
-    return proxy;
+  /**
+   * Give back the request slot of the proxy with the result of the request.
+   * The proxy is retired after http.proxy.pool.max.failures consecutive failures
+   * */
+  public void release(ProxyEntry proxy, boolean success, long latencyMillis) {
+    proxy.release(success, latencyMillis);
+
+    if (!success && proxy.consecutiveFailures() >= maxFailures) {
+      retire(proxy);
+    }
   }
 
   // thread safe
   public boolean contains(ProxyEntry proxy) {
-    return proxyEntries.contains(proxy);
+    return proxyEntries.containsKey(proxy.ipPort());
   }
 
-  // thread safe
-  public void put(ProxyEntry proxy) throws InterruptedException {
-    if (contains(proxy)) {
+  /**
+   * Add the proxy to the available proxies
+   * */
+  public void put(ProxyEntry proxy) {
+    retiredProxyEntries.remove(proxy.ipPort());
+    proxy.refresh(true);
+    if (proxyEntries.putIfAbsent(proxy.ipPort(), proxy) != null) {
       logger.warn("{} is already in pool", proxy);
-      return;
     }
-
-    proxy.refresh(true);
-    proxyEntries.put(proxy);
   }
 
-  // thread safe
-  public void retire(ProxyEntry proxy) throws InterruptedException {
-    if (contains(proxy)) {
+  /**
+   * Move the proxy to the retired proxies, it's checked in background and put
+   * back if it's available again. The requests which stick to the proxy move
+   * to another one
+   * */
+  public void retire(ProxyEntry proxy) {
+    if (proxyEntries.remove(proxy.ipPort()) == null && retiredProxyEntries.containsKey(proxy.ipPort())) {
       logger.warn("{} is already retired", proxy);
       return;
     }
 
+    logger.debug("retire proxy {}", proxy.ipPort());
     proxy.refresh(false);
-    retiredProxyEntries.put(proxy);
+    retiredProxyEntries.put(proxy.ipPort(), proxy);
   }
 
-  // thread safe
-  public synchronized void reviewRetired() throws InterruptedException {
-    long time = System.currentTimeMillis();
-    if (time - lastReviewRetiredTime < reviewRetiredPeriod) {
-      // logger.debug("review retired proxy entries later, skip...");
-
-      return;
-    }
-
-    lastReviewRetiredTime = time;
-
-    int count = retiredProxyEntries.size();
+  /**
+   * Check the retired proxies and the idle available ones, which are not used
+   * successfully for a while. Available proxies which fail the check are
+   * retired, retired proxies which pass it are put back, dead proxies are
+   * thrown away
+   * */
+  public synchronized void checkHealth() {
     int reuseCount = 0;
+    int retireCount = 0;
 
-    // no retired proxy
-    if (count == 0) {
-      return;
-    }
-
-    logger.debug("retired proxy : {}, available proxy : {}", count, size());
-
-    // poll : Retrieves and removes the head of this queue, or returns null if this queue is empty.
-    ProxyEntry proxy = retiredProxyEntries.poll();
-    while (proxy != null) {
-      if (testNetwork(proxy)) {
+    for (ProxyEntry proxy : retiredProxyEntries.values()) {
+      if (check(proxy)) {
         ++reuseCount;
         put(proxy);
       }
-      else if (!proxy.dead()) {
-        retire(proxy);
-      }
-      else {
+      else if (proxy.dead()) {
         logger.info("proxy {} is dead", proxy);
-        // just throw away
+        retiredProxyEntries.remove(proxy.ipPort());
       }
+    }
 
-      if (count-- > 0) {
-        proxy = retiredProxyEntries.poll();
-      }
-      else {
-        proxy = null;
+    for (ProxyEntry proxy : proxyEntries.values()) {
+      if (proxy.inflight() == 0 && proxy.expired() && !check(proxy)) {
+        ++retireCount;
+        retire(proxy);
       }
     }
 
-    if (reuseCount > 0) {
-      logger.debug("reuse {} retired proxy, available proxy : {}", reuseCount, size());
+    if (reuseCount > 0 || retireCount > 0) {
+      logger.debug("reuse {} retired proxy, retire {} idle proxy, available proxy : {}",
+          reuseCount, retireCount, size());
+    }
+  }
+
+  /**
+   * Test the network connection to the proxy, the result counts in the score
+   * */
+  protected boolean check(ProxyEntry proxy) {
+    long start = System.currentTimeMillis();
+    boolean available = testNetwork(proxy);
+    proxy.record(available, System.currentTimeMillis() - start);
+    return available;
+  }
+
+  /**
+   * The metrics of the available and retired proxies
+   * */
+  public List<Map<String, Object>> getMetrics() {
+    List<Map<String, Object>> metrics = new ArrayList<Map<String, Object>>();
+    for (ProxyEntry proxy : proxyEntries.values()) {
+      metrics.add(proxy.getMetrics());
+    }
+    for (ProxyEntry proxy : retiredProxyEntries.values()) {
+      metrics.add(proxy.getMetrics());
+    }
+    return metrics;
+  }
+
+  /**
+   * Check the proxies in a daemon thread
+   * */
+  public synchronized void startHealthCheck(long intervalMillis) {
+    if (healthChecker != null || intervalMillis <= 0) {
+      return;
+    }
+
+    healthChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "ProxyHealthChecker");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    healthChecker.scheduleWithFixedDelay(healthCheckTask, 0, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Check the proxies now, without waiting for the next scheduled check
+   * */
+  private synchronized void scheduleHealthCheck() {
+    if (healthChecker != null) {
+      healthChecker.execute(healthCheckTask);
     }
   }
 
@@ -289,7 +435,7 @@ public class ProxyPool {
   @Override
   public String toString() {
     String result = "proxy servers : [";
-    for (ProxyEntry p : proxyEntries) {
+    for (ProxyEntry p : proxyEntries.values()) {
       result += p.toString() + ", ";
     }
     result += "]";
@@ -300,30 +446,30 @@ public class ProxyPool {
     proxyServerList = new FiledLines(ProxyListFile);
   }
 
+  /**
+   * New proxies are retired until the health check finds them available, the
+   * loading thread does not wait for the test
+   * */
   private void parse() {
-    try {
-      // for diagnostic
-      List<String> proxyList = new ArrayList<String>();
-
-      for (String line : proxyServerList.getLines(ProxyListFile)) {
-        ProxyEntry proxy = ProxyEntry.parse(line);
-
-        if (proxy != null && !proxyEntries.contains(proxy) && !retiredProxyEntries.contains(proxy)) {
-          // set a max pool size to avoid too much testing time
-          if (size() < maxPoolSize && testNetwork(proxy)) {
-            put(proxy);
-            proxyList.add(proxy.ipPort());
-          }
+    // for diagnostic
+    List<String> proxyList = new ArrayList<String>();
+
+    for (String line : proxyServerList.getLines(ProxyListFile)) {
+      ProxyEntry proxy = ProxyEntry.parse(line);
+
+      if (proxy != null && !proxyEntries.containsKey(proxy.ipPort())
+          && !retiredProxyEntries.containsKey(proxy.ipPort())) {
+        // set a max pool size to avoid too much testing time
+        if (size() + retiredSize() < maxPoolSize) {
+          retiredProxyEntries.put(proxy.ipPort(), proxy);
+          proxyList.add(proxy.ipPort());
         }
       }
+    }
 
-      if (!proxyList.isEmpty()) {
-        logger.debug("use {} new proxy : {}", proxyList.size(), proxyList);
-      }
-
-      // logger.trace("parse and add tested proxy servers : {}", testedProxyServers);
-    } catch (InterruptedException e) {
-      logger.error("putting proxy entry interrupted, {}", e);
+    if (!proxyList.isEmpty()) {
+      logger.debug("check {} new proxy : {}", proxyList.size(), proxyList);
+      scheduleHealthCheck();
     }
   }
 
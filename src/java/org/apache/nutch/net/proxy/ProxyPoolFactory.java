@@ -1,7 +1,6 @@
 package org.apache.nutch.net.proxy;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.nutch.util.ObjectCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,16 +14,10 @@ public class ProxyPoolFactory {
     this.conf = conf;
   }
 
+  /**
+   * The pool is shared by the JVM, so are the scores of the proxies
+   * */
   public ProxyPool getProxyPool() {
-    ObjectCache objectCache = ObjectCache.get(conf);
-    String cacheId = "NetworkProxyConnectionPool";
-
-    if (objectCache.getObject(cacheId) != null) {
-      return (ProxyPool) objectCache.getObject(cacheId);
-    } else {
-      ProxyPool pool = new ProxyPool(conf);
-      objectCache.setObject(cacheId, pool);
-      return pool;
-    }
+    return ProxyPool.getInstance(conf);
   }
 }
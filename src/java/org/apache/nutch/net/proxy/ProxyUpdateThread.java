@@ -46,16 +46,7 @@ public class ProxyUpdateThread extends Thread {
           updateProxyConfigFileFromMaster();
         }
 
-        long start = System.currentTimeMillis();
-        proxyPool.reviewRetired();
-        long elapsed = System.currentTimeMillis() - start;
-
-        // too often, enlarge review period
-        if (elapsed > updatePeriod) {
-          logger.info("it costs {} millis to check all retired proxy servers, enlarge the check interval", elapsed);
-          updatePeriod = elapsed * 10;
-        }
-
+        // the proxies are checked by the health check of the pool
         proxyPool.tryUpdateFromFile();
         Thread.sleep(updatePeriod);
 
@@ -95,11 +86,16 @@ public class ProxyUpdateThread extends Thread {
     while (true) {
       ProxyEntry proxy = proxyPool.poll();
 
-      if (ProxyPool.testNetwork(proxy)) {
+      if (proxy == null) {
+        logger.debug("no proxy is available");
+      }
+      else if (ProxyPool.testNetwork(proxy)) {
         logger.debug("proxy : {} is available", proxy);
+        proxyPool.release(proxy, true, 0);
       }
       else {
         logger.debug("proxy : {} is not available", proxy);
+        proxyPool.release(proxy, false, 0);
       }
 
       Thread.sleep(3000);
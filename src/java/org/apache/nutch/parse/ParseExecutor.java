@@ -0,0 +1,529 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.parse;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the parses of the JVM on a shared pool of parse threads, one per core
+ * by default, instead of a thread pool without bound for every
+ * {@link ParseUtil}.
+ *
+ * A parse which takes longer than the timeout is cancelled, the parse thread
+ * is interrupted and parsers which check {@link #isCancelled()} stop early. A
+ * thread which keeps on parsing is replaced until it stops, but no more
+ * threads than the pool size are replaced, so runaway parsers can not create
+ * threads without bound.
+ *
+ * If the parses of a content type time out a number of times in a row, the
+ * content type is quarantined and not parsed for a while.
+ */
+public class ParseExecutor {
+
+  public static final Logger LOG = LoggerFactory.getLogger(ParseExecutor.class);
+
+  public static final String PARSE_STATS_COUNTER_GROUP = "ParseStats";
+
+  public static final int DEFAULT_QUARANTINE_TIMEOUTS = 3;
+  public static final long DEFAULT_QUARANTINE_SECS = 600;
+
+  private static final int RUNNING = 0;
+  private static final int DONE = 1;
+  private static final int RUNAWAY = 2;
+
+  /**
+   * The shared executors by their settings
+   * */
+  private static final Map<String, ParseExecutor> instances = Maps.newHashMap();
+
+  private static final ThreadLocal<ParseTask> currentTask = new ThreadLocal<ParseTask>();
+
+  /**
+   * Latency and outcome of the parses of a parser
+   * */
+  public static class ParserStats {
+    private final LatencyHistogram time = new LatencyHistogram();
+    private final AtomicLong parses = new AtomicLong(0);
+    private final AtomicLong failures = new AtomicLong(0);
+    private final AtomicLong timeouts = new AtomicLong(0);
+
+    public LatencyHistogram getTime() {
+      return time;
+    }
+
+    public long getParses() {
+      return parses.get();
+    }
+
+    public long getFailures() {
+      return failures.get();
+    }
+
+    public long getTimeouts() {
+      return timeouts.get();
+    }
+
+    /**
+     * The parses since the earlier statistics, all of them if there are none
+     * */
+    ParserStats since(ParserStats earlier) {
+      ParserStats stats = new ParserStats();
+      stats.time.add(time);
+      stats.parses.set(getParses());
+      stats.failures.set(getFailures());
+      stats.timeouts.set(getTimeouts());
+
+      if (earlier != null) {
+        stats.time.subtract(earlier.time);
+        stats.parses.addAndGet(-earlier.getParses());
+        stats.failures.addAndGet(-earlier.getFailures());
+        stats.timeouts.addAndGet(-earlier.getTimeouts());
+      }
+
+      return stats;
+    }
+
+    @Override
+    public String toString() {
+      return "parses=" + getParses() + " failures=" + getFailures() + " timeouts=" + getTimeouts() + " | time "
+          + time;
+    }
+  }
+
+  /**
+   * The statistics of the executor at a point in time, a task takes one at its
+   * setup and reports the parses since, since the executor is shared by the
+   * tasks of the JVM
+   * */
+  public static class Snapshot {
+    private final long notStarted;
+    private final long quarantined;
+    private final Map<String, ParserStats> parserStats = Maps.newHashMap();
+
+    private Snapshot(ParseExecutor executor) {
+      this.notStarted = executor.notStarted.get();
+      this.quarantined = executor.quarantined.get();
+      for (Map.Entry<String, ParserStats> entry : executor.parserStats.entrySet()) {
+        parserStats.put(entry.getKey(), entry.getValue().since(null));
+      }
+    }
+  }
+
+  /**
+   * Timeouts in a row and the quarantine of a content type
+   * */
+  private static class ContentTypeState {
+    private final AtomicInteger timeouts = new AtomicInteger(0);
+    private volatile long quarantineEnd = 0;
+  }
+
+  private final int threads;
+  private final int quarantineTimeouts;
+  private final long quarantineTime;
+  private final ThreadPoolExecutor executor;
+  private final AtomicInteger runaways = new AtomicInteger(0);
+  private final ConcurrentMap<String, ParserStats> parserStats = new ConcurrentHashMap<String, ParserStats>();
+  private final ConcurrentMap<String, ContentTypeState> contentTypes = new ConcurrentHashMap<String, ContentTypeState>();
+  private final AtomicLong notStarted = new AtomicLong(0);
+  private final AtomicLong quarantined = new AtomicLong(0);
+
+  /**
+   * @param threads the number of parse threads
+   * @param quarantineTimeouts a content type is quarantined after this many
+   *          timeouts in a row, 0 to never quarantine
+   * @param quarantineSecs seconds to quarantine a content type
+   * */
+  public ParseExecutor(int threads, int quarantineTimeouts, long quarantineSecs) {
+    this.threads = threads;
+    this.quarantineTimeouts = quarantineTimeouts;
+    this.quarantineTime = quarantineSecs * 1000;
+
+    // the callers wait for their parses, so there are never more parses queued than callers
+    this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder().setNameFormat("parse-%d").setDaemon(true).build());
+    // the threads of an executor no task uses any more go away
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * The executor shared in the JVM by the callers with the same settings, so
+   * jobs with other settings in the same JVM, in local mode or in the
+   * NutchServer, have executors of their own. An executor is never shut down
+   * under its users, its idle threads exit.
+   * */
+  public static synchronized ParseExecutor getInstance(Configuration conf) {
+    int threads = conf.getInt("parser.threads", -1);
+    if (threads <= 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    int quarantineTimeouts = conf.getInt("parser.quarantine.timeouts", DEFAULT_QUARANTINE_TIMEOUTS);
+    long quarantineSecs = conf.getLong("parser.quarantine.secs", DEFAULT_QUARANTINE_SECS);
+
+    String key = threads + "," + quarantineTimeouts + "," + quarantineSecs;
+    ParseExecutor instance = instances.get(key);
+    if (instance == null) {
+      instance = new ParseExecutor(threads, quarantineTimeouts, quarantineSecs);
+      instances.put(key, instance);
+      LOG.info("Parse executor with " + threads + " threads");
+    }
+
+    return instance;
+  }
+
+  /**
+   * Parsers which can take long should check this now and then and stop
+   * early if it's true
+   *
+   * @return true if the parse running in the current thread is cancelled or
+   *         its time is up
+   * */
+  public static boolean isCancelled() {
+    if (Thread.currentThread().isInterrupted()) {
+      return true;
+    }
+
+    ParseTask task = currentTask.get();
+    return task != null && (task.isCancelled() || task.isExpired());
+  }
+
+  /**
+   * Parse on a parse thread and wait for the parse. The time the parse waits
+   * for a parse thread is not counted.
+   *
+   * @param timeout seconds to give the parser, the parse runs in the current
+   *          thread without a timeout if less than 0
+   * @return the parse, or null if the parser failed, timed out or the parse
+   *         did not start within the timeout
+   * */
+  public Parse parse(Parser parser, String url, WebPage page, String contentType, int timeout) {
+    ParserStats stats = getParserStats(parser);
+
+    if (timeout < 0) {
+      long startTime = System.currentTimeMillis();
+      try {
+        return parser.getParse(url, page);
+      } catch (RuntimeException e) {
+        LOG.warn("Error parsing " + url, e);
+        stats.failures.incrementAndGet();
+        return null;
+      } finally {
+        stats.parses.incrementAndGet();
+        stats.time.record(System.currentTimeMillis() - startTime);
+      }
+    }
+
+    ParseTask task = new ParseTask(parser, url, page, timeout * 1000L);
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      LOG.warn("Parse executor rejected " + url);
+      notStarted.incrementAndGet();
+      return null;
+    }
+
+    Parse parse = null;
+    try {
+      parse = await(task);
+    } catch (TimeoutException e) {
+      if (task.startTime == 0) {
+        // all threads are busy with other parses
+        task.cancel(false);
+        notStarted.incrementAndGet();
+        LOG.warn("Parse of " + url + " did not start in " + timeout + " seconds");
+        return null;
+      }
+
+      cancel(task);
+    } catch (ExecutionException e) {
+      LOG.warn("Error parsing " + url, e.getCause());
+    } catch (InterruptedException e) {
+      task.cancel(true);
+      Thread.currentThread().interrupt();
+      return null;
+    }
+
+    long elapsed = System.currentTimeMillis() - task.startTime;
+    stats.parses.incrementAndGet();
+    stats.time.record(elapsed);
+
+    // a parser which stopped since its time was up timed out as well
+    if (elapsed >= task.timeout) {
+      stats.timeouts.incrementAndGet();
+      countTimeout(contentType);
+      LOG.warn("Parse of " + url + " by " + parser.getClass().getSimpleName() + " timed out after " + timeout
+          + " seconds");
+      return null;
+    }
+
+    resetTimeouts(contentType);
+    if (parse == null || !ParseStatusUtils.isSuccess(parse.getParseStatus())) {
+      stats.failures.incrementAndGet();
+    }
+
+    return parse;
+  }
+
+  /**
+   * @return true if the content type is not parsed now, since its parses timed out too often
+   * */
+  public boolean isQuarantined(String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+
+    ContentTypeState state = contentTypes.get(contentType);
+    if (state == null || state.quarantineEnd < System.currentTimeMillis()) {
+      return false;
+    }
+
+    quarantined.incrementAndGet();
+    return true;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Stop taking parses, the parses already taken are finished
+   * */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * The statistics so far, the statistics of a task are reported since its snapshot
+   * */
+  public Snapshot snapshot() {
+    return new Snapshot(this);
+  }
+
+  /**
+   * The number of threads which are still busy with a parse which timed out
+   * */
+  public int getRunaways() {
+    return runaways.get();
+  }
+
+  public Map<String, ParserStats> getParserStats() {
+    return parserStats;
+  }
+
+  public Map<String, Object> toMap() {
+    return toMap(null);
+  }
+
+  /**
+   * The statistics by parser, the keys are prefixed with the simple name of the parser class
+   *
+   * @param since the parses since the snapshot are counted, all of them if null
+   * */
+  public Map<String, Object> toMap(Snapshot since) {
+    Map<String, Object> map = Maps.newLinkedHashMap();
+
+    map.put("runaways", getRunaways());
+    map.put("notStarted", notStarted.get() - (since == null ? 0 : since.notStarted));
+    map.put("quarantined", quarantined.get() - (since == null ? 0 : since.quarantined));
+    for (Map.Entry<String, ParserStats> entry : parserStats.entrySet()) {
+      ParserStats stats = entry.getValue().since(since == null ? null : since.parserStats.get(entry.getKey()));
+      if (stats.getParses() == 0) {
+        continue;
+      }
+
+      String name = entry.getKey().substring(entry.getKey().lastIndexOf('.') + 1);
+      map.put(name + "Parses", stats.getParses());
+      map.put(name + "Failures", stats.getFailures());
+      map.put(name + "Timeouts", stats.getTimeouts());
+      map.put(name + "Mean", stats.time.getMean());
+      map.put(name + "P99", stats.time.getPercentile(99));
+    }
+
+    return map;
+  }
+
+  /**
+   * Log the statistics of the task and put them into its counters
+   *
+   * @param since the snapshot taken at the setup of the task
+   * */
+  public void reportStats(TaskInputOutputContext<?, ?, ?, ?> context, Snapshot since) {
+    Map<String, Object> stats = toMap(since);
+    LOG.info("Parse statistics : threads=" + threads + " " + stats);
+    for (Map.Entry<String, Object> entry : stats.entrySet()) {
+      Object value = entry.getValue();
+      if (value instanceof Number) {
+        context.getCounter(PARSE_STATS_COUNTER_GROUP, entry.getKey()).setValue(((Number) value).longValue());
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+
+    sb.append("threads=").append(threads).append(" runaways=").append(getRunaways())
+        .append(" notStarted=").append(notStarted.get()).append(" quarantined=").append(quarantined.get());
+    for (Map.Entry<String, ParserStats> entry : parserStats.entrySet()) {
+      sb.append("\n").append(entry.getKey()).append(" : ").append(entry.getValue());
+    }
+
+    return sb.toString();
+  }
+
+  private ParserStats getParserStats(Parser parser) {
+    String name = parser.getClass().getName();
+    ParserStats stats = parserStats.get(name);
+    if (stats == null) {
+      parserStats.putIfAbsent(name, new ParserStats());
+      stats = parserStats.get(name);
+    }
+    return stats;
+  }
+
+  /**
+   * Wait until the parse is done, or until the timeout after it started. A
+   * parse which does not start within the timeout is given up as well.
+   * */
+  private Parse await(ParseTask task) throws TimeoutException, ExecutionException, InterruptedException {
+    long queueDeadline = System.currentTimeMillis() + task.timeout;
+    long waitTime = task.timeout;
+
+    while (true) {
+      try {
+        return task.get(waitTime, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        long startTime = task.startTime;
+        long deadline = startTime == 0 ? queueDeadline : startTime + task.timeout;
+        waitTime = deadline - System.currentTimeMillis();
+        if (waitTime <= 0) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Cancel the parse, the thread is replaced if it does not stop
+   * */
+  private void cancel(ParseTask task) {
+    if (task.state.compareAndSet(RUNNING, RUNAWAY)) {
+      runaways.incrementAndGet();
+      resize();
+    }
+    task.cancel(true);
+  }
+
+  private void countTimeout(String contentType) {
+    if (contentType == null || quarantineTimeouts <= 0) {
+      return;
+    }
+
+    ContentTypeState state = contentTypes.get(contentType);
+    if (state == null) {
+      contentTypes.putIfAbsent(contentType, new ContentTypeState());
+      state = contentTypes.get(contentType);
+    }
+
+    if (state.timeouts.incrementAndGet() >= quarantineTimeouts) {
+      state.timeouts.set(0);
+      state.quarantineEnd = System.currentTimeMillis() + quarantineTime;
+      LOG.warn("Quarantine " + contentType + " for " + quarantineTime / 1000 + " seconds, "
+          + quarantineTimeouts + " parses timed out in a row");
+    }
+  }
+
+  private void resetTimeouts(String contentType) {
+    if (contentType == null) {
+      return;
+    }
+
+    ContentTypeState state = contentTypes.get(contentType);
+    if (state != null) {
+      state.timeouts.set(0);
+    }
+  }
+
+  /**
+   * One more thread for every runaway thread, at most twice the threads in total
+   * */
+  private synchronized void resize() {
+    int size = threads + Math.min(runaways.get(), threads);
+    if (size > executor.getMaximumPoolSize()) {
+      executor.setMaximumPoolSize(size);
+      executor.setCorePoolSize(size);
+    } else if (size < executor.getMaximumPoolSize()) {
+      executor.setCorePoolSize(size);
+      executor.setMaximumPoolSize(size);
+    }
+
+    if (runaways.get() >= threads) {
+      LOG.warn(runaways.get() + " parse threads do not stop after the timeout");
+    }
+  }
+
+  private class ParseTask extends FutureTask<Parse> {
+    private final long timeout;
+    private final AtomicInteger state = new AtomicInteger(RUNNING);
+    private volatile long startTime = 0;
+
+    ParseTask(Parser parser, String url, WebPage page, long timeout) {
+      super(new ParseCallable(parser, page, url));
+      this.timeout = timeout;
+    }
+
+    boolean isExpired() {
+      return startTime > 0 && System.currentTimeMillis() - startTime > timeout;
+    }
+
+    @Override
+    public void run() {
+      startTime = System.currentTimeMillis();
+      currentTask.set(this);
+      try {
+        super.run();
+      } finally {
+        currentTask.remove();
+        if (state.getAndSet(DONE) == RUNAWAY) {
+          runaways.decrementAndGet();
+          resize();
+        }
+      }
+    }
+  }
+}
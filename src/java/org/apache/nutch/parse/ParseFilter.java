@@ -26,6 +26,10 @@ import org.w3c.dom.DocumentFragment;
  * Extension point for DOM-based parsers. Permits one to add additional metadata
  * to parses provided by the html or tika plugins. All plugins found which
  * implement this extension point are run sequentially on the parse.
+ *
+ * A filter which does not walk the DOM tree declares it with the extension
+ * parameter <code>requiresDOM</code> set to false, then a parser may give it
+ * a null doc. A filter without the parameter always gets the DOM tree.
  */
 public interface ParseFilter extends FieldPluggable, Configurable {
   /** The name of the extension point. */
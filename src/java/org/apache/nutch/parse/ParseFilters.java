@@ -36,8 +36,19 @@ public class ParseFilters {
 
   private ParseFilter[] parseFilters;
 
+  private boolean domRequired;
+
   public static final String HTMLPARSEFILTER_ORDER = "htmlparsefilter.order";
 
+  /**
+   * The extension parameter by which a parse filter declares if it needs the
+   * DOM tree of the page. A filter which does not declare it is taken to need
+   * it.
+   */
+  public static final String REQUIRES_DOM = "requiresDOM";
+
+  private static final String DOM_REQUIRED_KEY = ParseFilter.class.getName() + "." + REQUIRES_DOM;
+
   public ParseFilters(Configuration conf) {
     String order = conf.get(HTMLPARSEFILTER_ORDER);
     ObjectCache objectCache = ObjectCache.get(conf);
@@ -53,6 +64,7 @@ public class ParseFilters {
         orderedFilters = order.split("\\s+");
       }
       HashMap<String, ParseFilter> filterMap = new HashMap<String, ParseFilter>();
+      HashMap<String, Boolean> domRequiredMap = new HashMap<String, Boolean>();
       try {
         ExtensionPoint point = PluginRepository.get(conf).getExtensionPoint(
             ParseFilter.X_POINT_ID);
@@ -65,6 +77,8 @@ public class ParseFilters {
               .getExtensionInstance();
           if (!filterMap.containsKey(parseFilter.getClass().getName())) {
             filterMap.put(parseFilter.getClass().getName(), parseFilter);
+            domRequiredMap.put(parseFilter.getClass().getName(),
+                !"false".equalsIgnoreCase(extension.getAttribute(REQUIRES_DOM)));
           }
         }
         ParseFilter[] htmlParseFilters = filterMap.values().toArray(
@@ -93,7 +107,24 @@ public class ParseFilters {
       }
       this.parseFilters = (ParseFilter[]) objectCache
           .getObject(ParseFilter.class.getName());
+
+      boolean required = false;
+      for (ParseFilter parseFilter : parseFilters) {
+        required |= domRequiredMap.get(parseFilter.getClass().getName());
+      }
+      objectCache.setObject(DOM_REQUIRED_KEY, required);
     }
+
+    Boolean required = (Boolean) objectCache.getObject(DOM_REQUIRED_KEY);
+    this.domRequired = required == null || required;
+  }
+
+  /**
+   * True if any of the filters needs the DOM tree of the page, the doc given
+   * to {@link #filter} may be null otherwise
+   */
+  public boolean isDomRequired() {
+    return domRequired;
   }
 
   /** Run all defined filters. */
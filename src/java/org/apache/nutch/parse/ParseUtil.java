@@ -21,21 +21,17 @@ package org.apache.nutch.parse;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.ByteBuffer;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.avro.util.Utf8;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.nutch.crawl.CrawlStatus;
 import org.apache.nutch.crawl.Signature;
 import org.apache.nutch.crawl.SignatureFactory;
 import org.apache.nutch.fetcher.FetcherJob;
-import org.apache.nutch.net.URLFilterException;
-import org.apache.nutch.net.URLFilters;
+import org.apache.nutch.net.URLFilterCache;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.storage.Mark;
 import org.apache.nutch.storage.WebPage;
@@ -44,8 +40,6 @@ import org.apache.nutch.util.URLUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
-
 /**
  * A Utility class containing methods to simply perform parsing utilities such
  * as iterating through a preferred list of {@link Parser}s to obtain
@@ -64,14 +58,14 @@ public class ParseUtil extends Configured {
 
   private Configuration conf;
   private Signature sig;
-  private URLFilters filters;
-  private URLNormalizers normalizers;
+  private URLFilterCache urlFilterCache;
   private int maxOutlinks;
   private boolean ignoreExternalLinks;
   private ParserFactory parserFactory;
   /** Parser timeout set to 30 sec by default. Set -1 to deactivate **/
   private int maxParseTime;
-  private ExecutorService executorService;
+  private ParseExecutor parseExecutor;
+  private ParseExecutor.Snapshot parseStats;
 
   /**
    * 
@@ -93,14 +87,13 @@ public class ParseUtil extends Configured {
     parserFactory = new ParserFactory(conf);
     maxParseTime = conf.getInt("parser.timeout", DEFAULT_MAX_PARSE_TIME);
     sig = SignatureFactory.getSignature(conf);
-    filters = new URLFilters(conf);
-    normalizers = new URLNormalizers(conf, URLNormalizers.SCOPE_OUTLINK);
+    urlFilterCache = URLFilterCache.get(conf);
     int maxOutlinksPerPage = conf.getInt("db.max.outlinks.per.page", 100);
     maxOutlinks = (maxOutlinksPerPage < 0) ? Integer.MAX_VALUE
         : maxOutlinksPerPage;
     ignoreExternalLinks = conf.getBoolean("db.ignore.external.links", false);
-    executorService = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
-        .setNameFormat("parse-%d").setDaemon(true).build());
+    parseExecutor = ParseExecutor.getInstance(conf);
+    parseStats = parseExecutor.snapshot();
   }
 
   /**
@@ -121,16 +114,17 @@ public class ParseUtil extends Configured {
 
     parsers = this.parserFactory.getParsers(contentType, url);
 
+    if (parseExecutor.isQuarantined(contentType)) {
+      LOG.debug("Skipping " + url + ", " + contentType + " is quarantined");
+      return ParseStatusUtils.getEmptyParse(ParseStatusCodes.FAILED_EXCEPTION,
+          "Parsers of " + contentType + " time out", getConf());
+    }
+
     for (int i = 0; i < parsers.length; i++) {
       if (LOG.isDebugEnabled()) {
         // LOG.debug("Parsing [" + url + "] with [" + parsers[i] + "]");
       }
-      Parse parse = null;
-
-      if (maxParseTime != -1)
-        parse = runParser(parsers[i], url, page);
-      else
-        parse = parsers[i].getParse(url, page);
+      Parse parse = parseExecutor.parse(parsers[i], url, page, contentType, maxParseTime);
 
       if (parse != null && ParseStatusUtils.isSuccess(parse.getParseStatus())) {
         return parse;
@@ -141,21 +135,26 @@ public class ParseUtil extends Configured {
     return ParseStatusUtils.getEmptyParse(new ParseException("Unable to successfully parse content"), null);
   }
 
-  private Parse runParser(Parser p, String url, WebPage page) {
-    ParseCallable pc = new ParseCallable(p, page, url);
-    Future<Parse> task = executorService.submit(pc);
+  /**
+   * The shared executor of the parses, which keeps the parse statistics
+   * */
+  public ParseExecutor getParseExecutor() {
+    return parseExecutor;
+  }
 
-    Parse res = null;
-    try {
-      res = task.get(maxParseTime, TimeUnit.SECONDS);
-    } catch (Exception e) {
-      LOG.warn("Error parsing " + url, e);
-      task.cancel(true);
-    } finally {
-      pc = null;
-    }
+  /**
+   * Report the statistics of the parses since this is configured, usually at the
+   * setup of the task
+   * */
+  public void reportParseStats(TaskInputOutputContext<?, ?, ?, ?> context) {
+    parseExecutor.reportStats(context, parseStats);
+  }
 
-    return res;
+  /**
+   * The cache of the normalized and filtered outlinks of the task
+   * */
+  public URLFilterCache getURLFilterCache() {
+    return urlFilterCache;
   }
 
   /**
@@ -234,16 +233,7 @@ public class ParseUtil extends Configured {
 
     int validCount = 0;
     for (int i = 0; validCount < outlinksToStore && i < outlinks.length; i++) {
-      String toUrl = outlinks[i].getToUrl();
-      try {
-        toUrl = normalizers.normalize(toUrl, URLNormalizers.SCOPE_OUTLINK);
-        toUrl = filters.filter(toUrl);
-      } catch (MalformedURLException e2) {
-        continue;
-      } catch (URLFilterException e) {
-        continue;
-      }
-
+      String toUrl = urlFilterCache.normalizeAndFilter(outlinks[i].getToUrl(), URLNormalizers.SCOPE_OUTLINK);
       if (toUrl == null) {
         // LOG.debug("Violate filter or normalizers");
         continue;
@@ -282,26 +272,21 @@ public class ParseUtil extends Configured {
       org.apache.nutch.storage.ParseStatus pstatus) {
     String newUrl = ParseStatusUtils.getMessage(pstatus);
     int refreshTime = Integer.parseInt(ParseStatusUtils.getArg(pstatus, 1));
-    try {
-      newUrl = normalizers.normalize(newUrl, URLNormalizers.SCOPE_FETCHER);
-      if (newUrl == null) {
-        LOG.warn("redirect normalized to null " + url);
-        return;
-      }
-
-      try {
-        newUrl = filters.filter(newUrl);
-      } catch (URLFilterException e) {
-        return;
-      }
-
-      if (newUrl == null) {
-        LOG.warn("redirect filtered to null " + url);
-        return;
-      }
-    } catch (MalformedURLException e) {
+    URLFilterCache.Entry entry = urlFilterCache.getEntry(newUrl, URLNormalizers.SCOPE_FETCHER);
+    switch (entry.getStatus()) {
+    case NORMALIZED_TO_NULL:
+      LOG.warn("redirect normalized to null " + url);
+      return;
+    case FILTERED:
+      LOG.warn("redirect filtered to null " + url);
+      return;
+    case MALFORMED:
       LOG.warn("malformed url exception parsing redirect " + url);
       return;
+    case FILTER_ERROR:
+      return;
+    default:
+      newUrl = entry.getUrl();
     }
 
     page.getOutlinks().put(new Utf8(newUrl), new Utf8());
@@ -5,6 +5,7 @@ import java.nio.ByteBuffer;
 
 import org.apache.avro.util.Utf8;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.crawl.CrawlStatus;
 import org.apache.nutch.mapreduce.NutchMapper;
 import org.apache.nutch.mapreduce.NutchUtil;
 import org.apache.nutch.metadata.HttpHeaders;
@@ -20,7 +21,7 @@ public class ParserMapper extends NutchMapper<String, WebPage, String, WebPage>
 
   public static final Logger LOG = ParserJob.LOG;
 
-  public static enum Counter { notFetchedPages, alreadyParsedPages, truncatedPages, notParsed, parseSuccess, parseFailed };
+  public static enum Counter { notFetchedPages, notModifiedPages, alreadyParsedPages, truncatedPages, notParsed, parseSuccess, parseFailed };
 
   private ParseUtil parseUtil;
   private boolean resume;
@@ -75,6 +76,14 @@ public class ParserMapper extends NutchMapper<String, WebPage, String, WebPage>
     context.write(key, page);
   }
 
+  @Override
+  protected void cleanup(Context context) {
+    parseUtil.reportParseStats(context);
+    parseUtil.getURLFilterCache().reportStats(context);
+
+    super.cleanup(context);
+  }
+
   // 0 : "notparsed", 1 : "success", 2 : "failed"
   private void countParseStatus(ParseStatus pstatus) {
     if (pstatus == null) {
@@ -103,6 +112,12 @@ public class ParserMapper extends NutchMapper<String, WebPage, String, WebPage>
       return false;
     }
 
+    // the parse of the last fetch is still valid, unless asked to parse again
+    if (!reparse && !force && page.getStatus() != null && page.getStatus() == CrawlStatus.STATUS_NOTMODIFIED) {
+      getCounter().increase(Counter.notModifiedPages);
+      return false;
+    }
+
     if (!reparse && resume && Mark.PARSE_MARK.hasMark(page)) {
       getCounter().increase(Counter.alreadyParsedPages);
 
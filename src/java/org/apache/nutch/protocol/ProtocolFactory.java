@@ -21,6 +21,8 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.conf.Configuration;
@@ -49,6 +51,9 @@ public class ProtocolFactory {
 
   private final Configuration conf;
 
+  // protocol name -> protocol, read without a lock
+  private final ConcurrentMap<String, Protocol> protocols = new ConcurrentHashMap<String, Protocol>();
+
   public ProtocolFactory(Configuration conf) {
     this.conf = conf;
     this.extensionPoint = PluginRepository.get(conf).getExtensionPoint(
@@ -69,33 +74,17 @@ public class ProtocolFactory {
    * @throws ProtocolNotFound
    *           when Protocol can not be found for urlString
    */
-  public synchronized Protocol getProtocol(String urlString)
+  public Protocol getProtocol(String urlString)
       throws ProtocolNotFound {
-    ObjectCache objectCache = ObjectCache.get(conf);
     try {
       URL url = new URL(urlString);
       String protocolName = url.getProtocol();
       if (protocolName == null)
         throw new ProtocolNotFound(urlString);
 
-      String cacheId = Protocol.X_POINT_ID + protocolName;
-      Protocol protocol = (Protocol) objectCache.getObject(cacheId);
-      if (protocol != null) {
-        return protocol;
-      }
-
-      Extension extension = findExtension(protocolName);
-      if (extension == null) {
-        throw new ProtocolNotFound(protocolName);
-      }
-
-      protocol = (Protocol) extension.getExtensionInstance();
-      objectCache.setObject(cacheId, protocol);
-      return protocol;
+      return getProtocolByName(protocolName, urlString);
     } catch (MalformedURLException e) {
       throw new ProtocolNotFound(urlString, e.toString());
-    } catch (PluginRuntimeException e) {
-      throw new ProtocolNotFound(urlString, e.toString());
     }
   }
 
@@ -109,29 +98,48 @@ public class ProtocolFactory {
    * @throws ProtocolNotFound
    *           when Protocol can not be found for urlString
    */
-  public synchronized Protocol getCustomProtocol(String urlString) throws ProtocolNotFound {
-    ObjectCache objectCache = ObjectCache.get(conf);
-    try {
-      String protocolName = StringUtils.substringBefore(urlString, ":");
-      if (protocolName == null) throw new ProtocolNotFound(urlString);
+  public Protocol getCustomProtocol(String urlString) throws ProtocolNotFound {
+    String protocolName = StringUtils.substringBefore(urlString, ":");
+    if (protocolName == null) throw new ProtocolNotFound(urlString);
+
+    return getProtocolByName(protocolName, urlString);
+  }
 
+  /**
+   * The protocols are looked up without a lock, fetch threads do not wait for
+   * each other. The first lookup of a protocol takes the instance from the
+   * object cache of the configuration, or creates it
+   * */
+  private Protocol getProtocolByName(String protocolName, String urlString) throws ProtocolNotFound {
+    Protocol protocol = protocols.get(protocolName);
+    if (protocol != null) {
+      return protocol;
+    }
+
+    // the object cache is not thread safe, and the plugin is created once
+    synchronized (ProtocolFactory.class) {
+      ObjectCache objectCache = ObjectCache.get(conf);
       String cacheId = Protocol.X_POINT_ID + protocolName;
-      Protocol protocol = (Protocol) objectCache.getObject(cacheId);
-      if (protocol != null) {
-        return protocol;
-      }
+      protocol = (Protocol) objectCache.getObject(cacheId);
+
+      if (protocol == null) {
+        try {
+          Extension extension = findExtension(protocolName);
+          if (extension == null) {
+            throw new ProtocolNotFound(protocolName);
+          }
+
+          protocol = (Protocol) extension.getExtensionInstance();
+        } catch (PluginRuntimeException e) {
+          throw new ProtocolNotFound(urlString, e.toString());
+        }
 
-      Extension extension = findExtension(protocolName);
-      if (extension == null) {
-        throw new ProtocolNotFound(protocolName);
+        objectCache.setObject(cacheId, protocol);
       }
-
-      protocol = (Protocol) extension.getExtensionInstance();
-      objectCache.setObject(cacheId, protocol);
-      return protocol;
-    } catch (PluginRuntimeException e) {
-      throw new ProtocolNotFound(urlString, e.toString());
     }
+
+    protocols.put(protocolName, protocol);
+    return protocol;
   }
 
   private Extension findExtension(String name) throws PluginRuntimeException {
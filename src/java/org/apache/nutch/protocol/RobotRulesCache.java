@@ -0,0 +1,449 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.protocol;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.host.HostDb;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.storage.Host;
+import org.apache.nutch.util.TableUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import crawlercommons.robots.BaseRobotRules;
+
+/**
+ * The robots rules of the hosts, shared by the fetch threads of the JVM. The
+ * cache is bounded in size and the rules expire, so they are fetched again
+ * after robots.cache.ttl.secs. Concurrent misses of the same key wait for a
+ * single load, so a robots.txt is fetched once even if many threads ask for it.
+ *
+ * Rules which are not fetched for a temporary reason, for example a server
+ * error, are kept for a shorter time.
+ *
+ * If robots.cache.hostdb is true, the fetched robots.txt files are saved in the
+ * host table, so another job or a restarted server parses them instead of
+ * fetching them again.
+ */
+public class RobotRulesCache {
+
+  public static final Logger LOG = LoggerFactory.getLogger(RobotRulesCache.class);
+
+  /**
+   * The prefix of the host metadata key of a saved robots.txt, followed by the cache key
+   * */
+  public static final String HOST_ROBOTS_PREFIX = "q_rbt_";
+
+  public static final long DEFAULT_MAX_SIZE = 10000;
+  public static final long DEFAULT_TTL = 24 * 3600;
+  public static final long DEFAULT_ERROR_TTL = 60;
+
+  private static final Map<String, RobotRulesCache> instances = Maps.newHashMap();
+
+  private static final class Entry {
+    private final BaseRobotRules rules;
+    private final long expireTime;
+
+    Entry(BaseRobotRules rules, long expireTime) {
+      this.rules = rules;
+      this.expireTime = expireTime;
+    }
+  }
+
+  /**
+   * A robots.txt response, saved in the host table to be parsed again later
+   * */
+  public static class RobotsFile {
+    private final int code;
+    private final String contentType;
+    private final byte[] content;
+    private final long fetchTime;
+
+    public RobotsFile(int code, String contentType, byte[] content, long fetchTime) {
+      this.code = code;
+      this.contentType = contentType == null ? "" : contentType;
+      this.content = content == null ? new byte[0] : content;
+      this.fetchTime = fetchTime;
+    }
+
+    public int getCode() {
+      return code;
+    }
+
+    public String getContentType() {
+      return contentType;
+    }
+
+    public byte[] getContent() {
+      return content;
+    }
+
+    public long getFetchTime() {
+      return fetchTime;
+    }
+
+    /**
+     * A header line "code fetchTime contentType" followed by the content
+     * */
+    public ByteBuffer encode() {
+      byte[] header = (code + " " + fetchTime + " " + contentType + "\n").getBytes();
+      ByteBuffer buffer = ByteBuffer.allocate(header.length + content.length);
+      buffer.put(header).put(content);
+      buffer.flip();
+      return buffer;
+    }
+
+    /**
+     * @return the file, or null if the value is not an encoded file
+     * */
+    public static RobotsFile decode(ByteBuffer value) {
+      byte[] bytes = new byte[value.remaining()];
+      value.duplicate().get(bytes);
+
+      int end = 0;
+      while (end < bytes.length && bytes[end] != '\n') {
+        ++end;
+      }
+      if (end == bytes.length) {
+        return null;
+      }
+
+      String[] header = new String(bytes, 0, end).split(" ", 3);
+      if (header.length < 2) {
+        return null;
+      }
+
+      try {
+        return new RobotsFile(Integer.parseInt(header[0]), header.length > 2 ? header[2] : "",
+            Arrays.copyOfRange(bytes, end + 1, bytes.length), Long.parseLong(header[1]));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+  }
+
+  private final long ttl;
+  private final long errorTtl;
+  private final Cache<String, Entry> cache;
+  private final HostDb hostDb;
+
+  // statistics
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong loadTime = new AtomicLong(0);
+  private final AtomicLong hostDbLoads = new AtomicLong(0);
+  private final AtomicLong hostDbSaves = new AtomicLong(0);
+
+  /**
+   * @param ttl seconds to keep the rules
+   * @param errorTtl seconds to keep the rules used if robots.txt can not be fetched for a temporary reason
+   * @param hostDb the host table to save the robots.txt files, or null
+   * */
+  public RobotRulesCache(long maxSize, long ttl, long errorTtl, HostDb hostDb) {
+    this.ttl = ttl * 1000;
+    this.errorTtl = errorTtl * 1000;
+    this.hostDb = hostDb;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(Math.max(this.ttl, this.errorTtl), TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  /**
+   * The cache shared in the JVM by the callers with the same settings, a job
+   * with other settings or of another crawl gets a cache of its own
+   * */
+  public static synchronized RobotRulesCache getInstance(Configuration conf) {
+    long maxSize = DEFAULT_MAX_SIZE;
+    long ttl = DEFAULT_TTL;
+    long errorTtl = DEFAULT_ERROR_TTL;
+    boolean useHostDb = false;
+    String crawlId = "";
+    if (conf != null) {
+      maxSize = conf.getLong("robots.cache.max.size", DEFAULT_MAX_SIZE);
+      ttl = conf.getLong("robots.cache.ttl.secs", DEFAULT_TTL);
+      errorTtl = conf.getLong("robots.cache.error.ttl.secs", DEFAULT_ERROR_TTL);
+      useHostDb = conf.getBoolean("robots.cache.hostdb", false);
+      // the host table is per crawl
+      crawlId = useHostDb ? conf.get(Nutch.CRAWL_ID_KEY, "") : "";
+    }
+
+    String key = maxSize + "," + ttl + "," + errorTtl + "," + useHostDb + "," + crawlId;
+    RobotRulesCache instance = instances.get(key);
+    if (instance == null) {
+      HostDb hostDb = null;
+      if (useHostDb) {
+        try {
+          hostDb = new HostDb(conf);
+        } catch (Exception e) {
+          LOG.error("Failed to open the host table, robots.txt files are not saved", e);
+        }
+      }
+
+      instance = new RobotRulesCache(maxSize, ttl, errorTtl, hostDb);
+      instances.put(key, instance);
+    }
+
+    return instance;
+  }
+
+  /**
+   * Compose the key of the rules for the url, robots rules apply only to the
+   * protocol, host and port where robots.txt is hosted (cf. NUTCH-1752)
+   * */
+  public static String getCacheKey(URL url) {
+    String protocol = url.getProtocol().toLowerCase(); // normalize to lower case
+    String host = url.getHost().toLowerCase(); // normalize to lower case
+    int port = url.getPort();
+    if (port == -1) {
+      port = url.getDefaultPort();
+    }
+
+    return protocol + ":" + host + ":" + port;
+  }
+
+  /**
+   * @return the cached rules, or null if they are not cached or expired
+   * */
+  public BaseRobotRules getIfPresent(String key) {
+    Entry entry = getEntry(key);
+    return entry == null ? null : entry.rules;
+  }
+
+  /**
+   * Get the rules of the key, the loader is called if they are not cached.
+   * Concurrent calls for the same key wait for a single load.
+   *
+   * @return the rules, or null if the loader failed
+   * */
+  public BaseRobotRules get(String key, final Callable<BaseRobotRules> loader) {
+    Entry entry = cache.getIfPresent(key);
+    if (entry != null && entry.expireTime < System.currentTimeMillis()) {
+      // expired, the cache keeps the entry until the longest ttl
+      cache.asMap().remove(key, entry);
+      entry = null;
+    }
+
+    if (entry != null) {
+      hits.incrementAndGet();
+      return entry.rules;
+    }
+
+    try {
+      entry = cache.get(key, new Callable<Entry>() {
+        @Override
+        public Entry call() throws Exception {
+          misses.incrementAndGet();
+
+          long startTime = System.currentTimeMillis();
+          BaseRobotRules rules = loader.call();
+          long now = System.currentTimeMillis();
+          loadTime.addAndGet(now - startTime);
+
+          if (rules == null) {
+            throw new NullPointerException("Robots rules loader returned null");
+          }
+
+          return new Entry(rules, now + ttl);
+        }
+      });
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      LOG.warn("Failed to load robots rules of " + key + ", " + e.getCause());
+      return null;
+    }
+
+    return entry.rules;
+  }
+
+  /**
+   * Cache the rules, for example for the host a robots.txt is redirected to
+   * */
+  public void put(String key, BaseRobotRules rules) {
+    cache.put(key, new Entry(rules, System.currentTimeMillis() + ttl));
+  }
+
+  /**
+   * Cache the rules used while the robots.txt can not be fetched, for robots.cache.error.ttl.secs
+   * */
+  public void putTransient(String key, BaseRobotRules rules) {
+    cache.put(key, new Entry(rules, System.currentTimeMillis() + errorTtl));
+  }
+
+  public void invalidate(String key) {
+    cache.invalidate(key);
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  public boolean isHostDbEnabled() {
+    return hostDb != null;
+  }
+
+  /**
+   * Load the robots.txt saved in the host table
+   *
+   * @param key the cache key, which starts with the protocol and the host, separated by ':'
+   * @return the file, or null if it's not saved or older than the ttl
+   * */
+  public RobotsFile loadFile(String key) {
+    String hostname = getHostName(key);
+    if (hostname == null) {
+      return null;
+    }
+
+    try {
+      Host host = getHost(hostname);
+      if (host == null) {
+        return null;
+      }
+
+      ByteBuffer value = host.getMetadata().get(new Utf8(HOST_ROBOTS_PREFIX + key));
+      RobotsFile file = value == null ? null : RobotsFile.decode(value);
+      if (file == null || file.getFetchTime() + ttl < System.currentTimeMillis()) {
+        return null;
+      }
+
+      hostDbLoads.incrementAndGet();
+      return file;
+    } catch (IOException e) {
+      LOG.warn("Failed to load robots.txt of " + key + ", " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Save the robots.txt in the host table
+   * */
+  public void saveFile(String key, RobotsFile file) {
+    String hostname = getHostName(key);
+    if (hostname == null) {
+      return;
+    }
+
+    try {
+      Host host = getHost(hostname);
+      if (host == null) {
+        host = Host.newBuilder().build();
+      }
+
+      host.getMetadata().put(new Utf8(HOST_ROBOTS_PREFIX + key), file.encode());
+      putHost(hostname, host);
+      hostDbSaves.incrementAndGet();
+    } catch (IOException e) {
+      LOG.warn("Failed to save robots.txt of " + key + ", " + e);
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * The total time of the loads in milliseconds
+   * */
+  public long getLoadTime() {
+    return loadTime.get();
+  }
+
+  public long getAverageLoadTime() {
+    long n = misses.get();
+    return n == 0 ? 0 : loadTime.get() / n;
+  }
+
+  public long getHostDbLoads() {
+    return hostDbLoads.get();
+  }
+
+  public long getHostDbSaves() {
+    return hostDbSaves.get();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * Read the host from the host table, the table is opened only if robots.cache.hostdb is true
+   * */
+  protected Host getHost(String hostname) throws IOException {
+    if (hostDb == null) {
+      return null;
+    }
+
+    synchronized (hostDb) {
+      return hostDb.getByHostName(hostname);
+    }
+  }
+
+  protected void putHost(String hostname, Host host) throws IOException {
+    if (hostDb == null) {
+      return;
+    }
+
+    synchronized (hostDb) {
+      hostDb.put(TableUtil.reverseHost(hostname), host);
+      hostDb.flush();
+    }
+  }
+
+  private Entry getEntry(String key) {
+    Entry entry = cache.getIfPresent(key);
+    if (entry == null || entry.expireTime < System.currentTimeMillis()) {
+      return null;
+    }
+
+    return entry;
+  }
+
+  /**
+   * The cache keys are like "http:example.com:80" or "ftp:example.com"
+   * */
+  private String getHostName(String key) {
+    String[] parts = key.split(":");
+    return parts.length < 2 || parts[1].isEmpty() ? null : parts[1];
+  }
+
+  @Override
+  public String toString() {
+    return "size=" + size() + " hits=" + getHits() + " misses=" + getMisses()
+        + " averageLoadTime=" + getAverageLoadTime() + "ms hostDbLoads=" + getHostDbLoads()
+        + " hostDbSaves=" + getHostDbSaves();
+  }
+}
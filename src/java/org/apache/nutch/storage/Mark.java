@@ -20,7 +20,8 @@ import org.apache.avro.util.Utf8;
 
 public enum Mark {
   INJECT_MARK("_injmrk_"), GENERATE_MARK("_gnmrk_"), FETCH_MARK("_ftcmrk_"), PARSE_MARK(
-      "__prsmrk__"), UPDATEDB_MARK("_updmrk_"), INDEX_MARK("_idxmrk_");
+      "__prsmrk__"), UPDATEDB_MARK("_updmrk_"), INDEX_MARK("_idxmrk_"),
+  DEFERRED_MARK("_dfrmrk_");
 
   private Utf8 name;
 
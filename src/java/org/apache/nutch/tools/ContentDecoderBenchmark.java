@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.util.ContentDecoder;
+import org.apache.nutch.util.DeflateUtils;
+import org.apache.nutch.util.GZIPUtils;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.RuntimeUtil;
+
+/**
+ * Compares decoding compressed pages as a whole with {@link GZIPUtils} and
+ * {@link DeflateUtils} against {@link ContentDecoder}, which decodes with pooled
+ * inflaters into pooled buffers and stops at the content limit. Reports the
+ * decoded throughput and the bytes allocated per page.
+ *
+ * The corpus is read from a directory, every file is a page and compressed
+ * once before the run. Generated pages are used without a corpus.
+ *
+ * Usage: ContentDecoderBenchmark [-corpus dir] [-pages NN] [-limit N,N,...] [-seconds NN]
+ */
+public class ContentDecoderBenchmark extends Configured implements Tool {
+
+  public static void main(String[] args) throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    int res = ToolRunner.run(conf, new ContentDecoderBenchmark(), args);
+    System.exit(res);
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    String corpus = null;
+    int pageCount = 1000;
+    int[] limits = { -1, 64 * 1024 };
+    int seconds = 5;
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-corpus")) {
+        corpus = args[++i];
+      } else if (args[i].equals("-pages")) {
+        pageCount = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-limit")) {
+        limits = parseInts(args[++i]);
+      } else if (args[i].equals("-seconds")) {
+        seconds = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println("Usage: ContentDecoderBenchmark [-corpus dir] [-pages NN] [-limit N,N,...] [-seconds NN]");
+        return -1;
+      }
+    }
+
+    List<byte[]> pages = corpus == null ? generatePages(pageCount) : readPages(new File(corpus));
+    if (pages.isEmpty()) {
+      System.err.println("No pages in " + corpus);
+      return -1;
+    }
+
+    List<byte[]> gzipped = new ArrayList<byte[]>();
+    List<byte[]> deflated = new ArrayList<byte[]>();
+    long size = 0;
+    long compressedSize = 0;
+    for (byte[] page : pages) {
+      gzipped.add(GZIPUtils.zip(page));
+      deflated.add(deflate(page));
+      size += page.length;
+      compressedSize += gzipped.get(gzipped.size() - 1).length;
+    }
+    System.out.println(pages.size() + " pages, " + size / pages.size() + " bytes per page, "
+        + compressedSize / pages.size() + " bytes gzipped");
+
+    System.out.println("encoding\tlimit\tdecoder\tMB/s\tallocated bytes/page");
+    for (int limit : limits) {
+      for (String encoding : new String[] { ContentDecoder.GZIP, ContentDecoder.DEFLATE }) {
+        List<byte[]> encoded = encoding.equals(ContentDecoder.GZIP) ? gzipped : deflated;
+        for (boolean streaming : new boolean[] { false, true }) {
+          // warm up
+          benchmark(encoded, encoding, limit, streaming, 1);
+          long[] result = benchmark(encoded, encoding, limit, streaming, seconds);
+          System.out.println(encoding + "\t" + limit + "\t" + (streaming ? "streaming" : "whole") + "\t"
+              + result[0] / seconds / (1024 * 1024) + "\t" + result[1] / Math.max(1, result[2]));
+        }
+      }
+    }
+
+    return 0;
+  }
+
+  /**
+   * @return decoded bytes, allocated bytes and decoded pages
+   * */
+  public long[] benchmark(List<byte[]> encoded, String encoding, int limit, boolean streaming, int seconds)
+      throws IOException {
+    long decodedBytes = 0;
+    long decodedPages = 0;
+    long allocatedBytes = RuntimeUtil.getCurrentThreadAllocatedBytes();
+    long deadline = System.currentTimeMillis() + seconds * 1000L;
+
+    while (System.currentTimeMillis() < deadline) {
+      for (byte[] page : encoded) {
+        byte[] content;
+        if (streaming) {
+          content = ContentDecoder.decode(page, encoding, limit);
+        } else if (encoding.equals(ContentDecoder.GZIP)) {
+          content = GZIPUtils.unzipBestEffort(page, limit < 0 ? Integer.MAX_VALUE : limit);
+        } else {
+          content = DeflateUtils.inflateBestEffort(page, limit < 0 ? Integer.MAX_VALUE : limit);
+        }
+
+        decodedBytes += content.length;
+        ++decodedPages;
+      }
+    }
+
+    allocatedBytes = RuntimeUtil.getCurrentThreadAllocatedBytes() - allocatedBytes;
+    return new long[] { decodedBytes, allocatedBytes, decodedPages };
+  }
+
+  private List<byte[]> readPages(File dir) throws IOException {
+    List<byte[]> pages = new ArrayList<byte[]>();
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return pages;
+    }
+
+    for (File file : files) {
+      if (file.isFile() && file.length() > 0) {
+        pages.add(Files.readAllBytes(file.toPath()));
+      }
+    }
+    return pages;
+  }
+
+  /**
+   * Pages of 10 KB to 500 KB, about as compressible as html
+   * */
+  private List<byte[]> generatePages(int count) {
+    Random random = new Random(0);
+    List<byte[]> pages = new ArrayList<byte[]>();
+    for (int i = 0; i < count; i++) {
+      int size = 10 * 1024 + random.nextInt(490 * 1024);
+      StringBuilder sb = new StringBuilder("<html><body>\n");
+      while (sb.length() < size) {
+        sb.append("<div class=\"item-").append(random.nextInt(100)).append("\"><a href=\"/page/")
+            .append(random.nextInt(1000000)).append(".html\">link ").append(random.nextInt(10000))
+            .append("</a></div>\n");
+      }
+      sb.append("</body></html>");
+      pages.add(sb.toString().getBytes());
+    }
+    return pages;
+  }
+
+  /**
+   * HTTP deflate, zlib wrapped
+   * */
+  private static byte[] deflate(byte[] page) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DeflaterOutputStream out = new DeflaterOutputStream(bytes);
+    out.write(page);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private int[] parseInts(String value) {
+    String[] parts = value.split(",");
+    int[] result = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      result[i] = Integer.parseInt(parts[i].trim());
+    }
+    return result;
+  }
+}
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.tools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.fetcher.FetchTaskExecutor;
+import org.apache.nutch.protocol.Protocol;
+import org.apache.nutch.protocol.ProtocolFactory;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Compares a fixed pool of platform fetcher threads with the elastic fetch mode,
+ * which runs every fetch on its own lightweight thread, see {@link FetchTaskExecutor}.
+ * Pages are fetched with the configured protocol plugin from a local stub http
+ * server, which answers every request after a fixed latency.
+ *
+ * Usage: FetchModeBenchmark [-threads N,N,...] [-concurrency N,N,...] [-pages NN] [-latency ms] [-size bytes]
+ */
+public class FetchModeBenchmark extends Configured implements Tool {
+
+  public static void main(String[] args) throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    int res = ToolRunner.run(conf, new FetchModeBenchmark(), args);
+    System.exit(res);
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    int[] threadCounts = { 10, 100, 300 };
+    int[] concurrencies = { 300, 1000, 5000 };
+    int pages = 20000;
+    int latency = 200;
+    int size = 16 * 1024;
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-threads")) {
+        threadCounts = parseInts(args[++i]);
+      } else if (args[i].equals("-concurrency")) {
+        concurrencies = parseInts(args[++i]);
+      } else if (args[i].equals("-pages")) {
+        pages = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-latency")) {
+        latency = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-size")) {
+        size = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println("Usage: FetchModeBenchmark [-threads N,N,...] [-concurrency N,N,...] "
+            + "[-pages NN] [-latency ms] [-size bytes]");
+        return -1;
+      }
+    }
+
+    Configuration conf = new Configuration(getConf());
+    if (conf.get("http.agent.name", "").isEmpty()) {
+      conf.set("http.agent.name", "FetchModeBenchmark");
+    }
+
+    HttpServer server = startStubServer(latency, size);
+    String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/page-";
+    Protocol protocol = new ProtocolFactory(conf).getProtocol(baseUrl + 0);
+
+    try {
+      System.out.println("mode\tconcurrency\tpages/s\tfailures\tpeak threads");
+      for (int threadCount : threadCounts) {
+        report("native", threadCount, benchmarkNative(protocol, baseUrl, pages, threadCount), pages);
+      }
+      for (int concurrency : concurrencies) {
+        report("elastic", concurrency, benchmarkElastic(protocol, baseUrl, pages, concurrency), pages);
+      }
+    } finally {
+      server.stop(0);
+    }
+
+    return 0;
+  }
+
+  /**
+   * A fixed number of threads fetch the pages one by one, like FetchThread does
+   *
+   * @return elapsed time in milliseconds, number of failures and peak thread count
+   * */
+  public long[] benchmarkNative(final Protocol protocol, final String baseUrl, final int pages, int threadCount)
+      throws Exception {
+    final AtomicInteger next = new AtomicInteger(0);
+    final AtomicInteger failures = new AtomicInteger(0);
+    final CountDownLatch latch = new CountDownLatch(threadCount);
+
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    threadBean.resetPeakThreadCount();
+    long start = System.currentTimeMillis();
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < threadCount; i++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          int page;
+          while ((page = next.getAndIncrement()) < pages) {
+            fetch(protocol, baseUrl + page, failures);
+          }
+
+          latch.countDown();
+        }
+      };
+
+      thread.setDaemon(true);
+      threads.add(thread);
+    }
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    latch.await();
+
+    return new long[] { System.currentTimeMillis() - start, failures.get(), threadBean.getPeakThreadCount() };
+  }
+
+  /**
+   * Every page is fetched on its own thread, at most concurrency pages in flight
+   *
+   * @return elapsed time in milliseconds, number of failures and peak thread count
+   * */
+  public long[] benchmarkElastic(final Protocol protocol, final String baseUrl, int pages, int concurrency)
+      throws Exception {
+    final AtomicInteger failures = new AtomicInteger(0);
+    FetchTaskExecutor executor = new FetchTaskExecutor("ElasticBenchmark", concurrency,
+        FetchTaskExecutor.DEFAULT_STACK_SIZE);
+
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    threadBean.resetPeakThreadCount();
+    long start = System.currentTimeMillis();
+
+    for (int i = 0; i < pages; i++) {
+      final String url = baseUrl + i;
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          fetch(protocol, url, failures);
+        }
+      });
+    }
+    executor.shutdown(Long.MAX_VALUE);
+
+    return new long[] { System.currentTimeMillis() - start, failures.get(), threadBean.getPeakThreadCount() };
+  }
+
+  private void fetch(Protocol protocol, String url, AtomicInteger failures) {
+    try {
+      int code = protocol.getProtocolOutput(url, WebPage.newBuilder().build()).getStatus().getCode();
+      if (code != ProtocolStatusCodes.SUCCESS) {
+        failures.incrementAndGet();
+      }
+    } catch (Exception e) {
+      failures.incrementAndGet();
+    }
+  }
+
+  private void report(String mode, int concurrency, long[] result, int pages) {
+    long elapsed = Math.max(1, result[0]);
+    System.out.println(mode + "\t" + concurrency + "\t" + pages * 1000L / elapsed + "\t" + result[1] + "\t" + result[2]);
+  }
+
+  /**
+   * A stub http server which answers every request after the latency
+   * */
+  private HttpServer startStubServer(final int latency, int size) throws IOException {
+    final byte[] body = new byte[size];
+    for (int i = 0; i < size; i++) {
+      body[i] = (byte) ('a' + i % 26);
+    }
+
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          Thread.sleep(latency);
+        } catch (InterruptedException ignored) {}
+
+        exchange.getResponseHeaders().set("Content-Type", "text/html");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+      }
+    });
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    server.setExecutor(executor);
+    server.start();
+
+    return server;
+  }
+
+  private int[] parseInts(String value) {
+    String[] parts = value.split(",");
+    int[] result = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      result[i] = Integer.parseInt(parts[i].trim());
+    }
+    return result;
+  }
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.fetcher.data.FetchItem;
+import org.apache.nutch.fetcher.data.FetchItemQueues;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Standalone benchmark of the fetch queue scheduler, measures consume/finish
+ * throughput of {@link FetchItemQueues} against the number of host queues and
+ * the number of fetch threads. No network or storage is involved.
+ *
+ * Usage: FetchQueueBenchmark [-queues N,N,...] [-threads N,N,...] [-items NN] [-delay ms] [-seconds NN]
+ */
+public class FetchQueueBenchmark extends Configured implements Tool {
+
+  public static void main(String[] args) throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    int res = ToolRunner.run(conf, new FetchQueueBenchmark(), args);
+    System.exit(res);
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    int[] queueCounts = { 1000, 10000, 50000 };
+    int[] threadCounts = { 1, 10, 100, 300 };
+    int itemsPerQueue = 20;
+    long crawlDelay = 1000;
+    int seconds = 5;
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-queues")) {
+        queueCounts = parseInts(args[++i]);
+      } else if (args[i].equals("-threads")) {
+        threadCounts = parseInts(args[++i]);
+      } else if (args[i].equals("-items")) {
+        itemsPerQueue = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-delay")) {
+        crawlDelay = Long.parseLong(args[++i]);
+      } else if (args[i].equals("-seconds")) {
+        seconds = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println("Usage: FetchQueueBenchmark [-queues N,N,...] [-threads N,N,...] "
+            + "[-items NN] [-delay ms] [-seconds NN]");
+        return -1;
+      }
+    }
+
+    System.out.println("queues\tthreads\tconsumed/s\tempty polls/s");
+    for (int queueCount : queueCounts) {
+      for (int threadCount : threadCounts) {
+        long[] result = benchmark(queueCount, threadCount, itemsPerQueue, crawlDelay, seconds);
+        System.out.println(queueCount + "\t" + threadCount + "\t" + result[0] / seconds + "\t" + result[1] / seconds);
+      }
+    }
+
+    return 0;
+  }
+
+  /**
+   * @return number of consumed items and number of polls which got nothing
+   * */
+  public long[] benchmark(int queueCount, int threadCount, int itemsPerQueue, long crawlDelay, int seconds)
+      throws Exception {
+    Configuration conf = new Configuration(getConf());
+    conf.set("fetcher.fetch.mode", "native");
+    conf.set("fetcher.queue.mode", FetchItemQueues.QUEUE_MODE_HOST);
+    conf.setBoolean("fetcher.queue.use.host.settings", false);
+    conf.setInt("fetcher.threads.per.queue", 1);
+    conf.setFloat("fetcher.server.delay", crawlDelay / 1000.0f);
+
+    final FetchItemQueues queues = new FetchItemQueues(conf);
+    for (int i = 0; i < itemsPerQueue; i++) {
+      for (int q = 0; q < queueCount; q++) {
+        queues.produceFetchItem(0, "http://www.host-" + q + ".com/page-" + i + ".html", WebPage.newBuilder().build());
+      }
+    }
+
+    final AtomicLong consumed = new AtomicLong(0);
+    final AtomicLong emptyPolls = new AtomicLong(0);
+    final long deadline = System.currentTimeMillis() + seconds * 1000L;
+    final CountDownLatch latch = new CountDownLatch(threadCount);
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < threadCount; i++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          while (System.currentTimeMillis() < deadline) {
+            FetchItem item = queues.consumeFetchItem();
+            if (item == null) {
+              emptyPolls.incrementAndGet();
+              Thread.yield();
+              continue;
+            }
+
+            consumed.incrementAndGet();
+            queues.finishFetchItem(item);
+          }
+
+          latch.countDown();
+        }
+      };
+
+      thread.setDaemon(true);
+      threads.add(thread);
+    }
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    latch.await();
+
+    return new long[] { consumed.get(), emptyPolls.get() };
+  }
+
+  private int[] parseInts(String value) {
+    String[] parts = value.split(",");
+    int[] result = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      result[i] = Integer.parseInt(parts[i].trim());
+    }
+    return result;
+  }
+}
@@ -0,0 +1,220 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.net.RegexRuleMatcher;
+import org.apache.nutch.net.RegexURLFilter;
+import org.apache.nutch.net.RegexURLFilterBase;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Compares matching urls against the regex url filter rules one by one with
+ * matching them with a {@link RegexRuleMatcher}. Reports the filtered urls per
+ * second and the urls the two disagree on, which must be none.
+ *
+ * The rules are read from a file or from a resource on the classpath, the urls
+ * from a file with one url per line. Without a file of urls, urls are generated
+ * for the hosts of the rules and for other hosts.
+ *
+ * Usage: URLFilterBenchmark [-rules file] [-urls file] [-count NN] [-seconds NN]
+ */
+public class URLFilterBenchmark extends Configured implements Tool {
+
+  private static final Pattern HOST_RULE = Pattern.compile("^\\+\\^https?://\\(\\[a-z0-9\\]\\*\\\\\\.\\)\\*([^/]+)/");
+
+  public static void main(String[] args) throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    int res = ToolRunner.run(conf, new URLFilterBenchmark(), args);
+    System.exit(res);
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    String rulesName = "regex-urlfilter.top100.txt";
+    String urlsFile = null;
+    int count = 100000;
+    int seconds = 5;
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-rules")) {
+        rulesName = args[++i];
+      } else if (args[i].equals("-urls")) {
+        urlsFile = args[++i];
+      } else if (args[i].equals("-count")) {
+        count = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-seconds")) {
+        seconds = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println("Usage: URLFilterBenchmark [-rules file] [-urls file] [-count NN] [-seconds NN]");
+        return -1;
+      }
+    }
+
+    String rules = readRules(rulesName);
+    if (rules == null) {
+      System.err.println("No rules in " + rulesName);
+      return -1;
+    }
+    List<String> urls = urlsFile == null ? generateUrls(rules, count) : readUrls(new File(urlsFile));
+    if (urls.isEmpty()) {
+      System.err.println("No urls in " + urlsFile);
+      return -1;
+    }
+
+    RegexURLFilter sequential = createFilter(rules, false);
+    RegexURLFilter compiled = createFilter(rules, true);
+
+    int mismatches = 0;
+    int accepted = 0;
+    for (String url : urls) {
+      String result = compiled.filter(url);
+      if (result != null) {
+        ++accepted;
+      }
+      if (result == null ? sequential.filter(url) != null : !result.equals(sequential.filter(url))) {
+        ++mismatches;
+      }
+    }
+
+    System.out.println(urls.size() + " urls, " + accepted + " accepted, " + mismatches + " mismatches");
+
+    System.out.println("filter\turls/s");
+    for (boolean isCompiled : new boolean[] { false, true }) {
+      RegexURLFilter filter = isCompiled ? compiled : sequential;
+      // warm up
+      benchmark(filter, urls, 1);
+      long[] result = benchmark(filter, urls, seconds);
+      System.out.println((isCompiled ? "compiled" : "sequential") + "\t" + result[0] * 1000 / Math.max(1, result[1]));
+    }
+
+    return mismatches == 0 ? 0 : -1;
+  }
+
+  /**
+   * @return the number of filtered urls and the milliseconds it took
+   * */
+  public long[] benchmark(RegexURLFilterBase filter, List<String> urls, int seconds) {
+    long filtered = 0;
+    long start = System.currentTimeMillis();
+    long deadline = start + seconds * 1000L;
+
+    while (System.currentTimeMillis() < deadline) {
+      for (String url : urls) {
+        filter.filter(url);
+        ++filtered;
+      }
+    }
+
+    return new long[] { filtered, System.currentTimeMillis() - start };
+  }
+
+  private RegexURLFilter createFilter(String rules, boolean compiled) {
+    Configuration conf = new Configuration(getConf());
+    conf.set(RegexURLFilter.URLFILTER_REGEX_RULES, rules);
+    conf.setBoolean(RegexURLFilterBase.URLFILTER_REGEX_COMPILED, compiled);
+
+    RegexURLFilter filter = new RegexURLFilter();
+    filter.setConf(conf);
+    return filter;
+  }
+
+  /**
+   * Read the rules from a file, or from a resource on the classpath
+   * */
+  private String readRules(String name) throws IOException {
+    File file = new File(name);
+    Reader reader = file.isFile() ? new FileReader(file) : getConf().getConfResourceAsReader(name);
+    if (reader == null) {
+      return null;
+    }
+
+    try {
+      return IOUtils.toString(reader);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private List<String> readUrls(File file) throws IOException {
+    List<String> urls = new ArrayList<String>();
+    BufferedReader reader = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (!line.isEmpty() && !line.startsWith("#")) {
+          urls.add(line);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return urls;
+  }
+
+  /**
+   * Urls for the hosts of the rules, for their sub domains and for other
+   * hosts, some of them with the suffixes of images
+   * */
+  private List<String> generateUrls(String rules, int count) {
+    List<String> hosts = new ArrayList<String>();
+    for (String line : rules.split("\n")) {
+      Matcher matcher = HOST_RULE.matcher(line.trim());
+      if (matcher.find()) {
+        hosts.add(matcher.group(1).replace("\\.", "."));
+      }
+    }
+    int otherHosts = Math.max(10, hosts.size());
+    for (int i = 0; i < otherHosts; i++) {
+      hosts.add("site" + i + ".example.com");
+    }
+
+    String[] suffixes = { "", ".html", ".htm", "/", ".jpg", ".png", ".css", ".js", "?id=" };
+    Random random = new Random(0);
+    List<String> urls = new ArrayList<String>();
+    for (int i = 0; i < count; i++) {
+      StringBuilder sb = new StringBuilder(random.nextInt(10) == 0 ? "https://" : "http://");
+      if (random.nextBoolean()) {
+        sb.append("www.");
+      }
+      sb.append(hosts.get(random.nextInt(hosts.size())));
+      int depth = 1 + random.nextInt(4);
+      for (int j = 0; j < depth; j++) {
+        sb.append('/').append(Integer.toString(random.nextInt(100000), 36));
+      }
+      sb.append(suffixes[random.nextInt(suffixes.length)]);
+      urls.add(sb.toString());
+    }
+    return urls;
+  }
+}
@@ -0,0 +1,345 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools.arc;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.apache.avro.util.Utf8;
+import org.apache.gora.mapreduce.GoraOutputFormat;
+import org.apache.gora.store.DataStore;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.crawl.CrawlStatus;
+import org.apache.nutch.fetcher.FetcherJob;
+import org.apache.nutch.mapreduce.NutchJob;
+import org.apache.nutch.mapreduce.NutchUtil;
+import org.apache.nutch.metadata.HttpHeaders;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.net.URLFilterCache;
+import org.apache.nutch.net.URLNormalizers;
+import org.apache.nutch.parse.ParseUtil;
+import org.apache.nutch.parse.ParserJob;
+import org.apache.nutch.parse.ParserMapper;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.protocol.ProtocolStatusUtils;
+import org.apache.nutch.storage.Mark;
+import org.apache.nutch.storage.ProtocolStatus;
+import org.apache.nutch.storage.StorageUtils;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.MimeUtil;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.TableUtil;
+import org.apache.nutch.util.URLUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Imports the pages of WARC and arc files into the web table, as if they were
+ * fetched at the archive date, without touching the network. The pages get
+ * the content, the headers, the fetch time and the status of the archived
+ * response and are marked as generated and fetched in one batch, so the batch
+ * can be parsed and updated as usual. With -parse the pages are parsed while
+ * they are imported, as the fetcher does with fetcher.parse.
+ *
+ * Usage: ArchiveImporterJob &lt;archive_dir&gt; [-crawlId &lt;id&gt;] [-batchId &lt;id&gt;] [-parse]
+ */
+public class ArchiveImporterJob extends NutchJob implements Tool {
+
+  public static final Logger LOG = LoggerFactory.getLogger(ArchiveImporterJob.class);
+
+  public static final String PARSE_KEY = "archive.import.parse";
+
+  public static enum Counter { importedPages, fetchedPages, parsedPages, truncatedPages, badUrls };
+
+  public static class ArchiveMapper extends Mapper<Text, ArchiveRecord, String, WebPage> {
+    private Utf8 batchId;
+    private int interval;
+    private long curTime;
+    private MimeUtil mimeUtil;
+    private boolean parse;
+    private boolean skipTruncated;
+    private ParseUtil parseUtil;
+    private URLFilterCache urlFilterCache;
+    private boolean ignoreExternalLinks;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+      Configuration conf = context.getConfiguration();
+
+      batchId = new Utf8(conf.get(Nutch.GENERATOR_BATCH_ID, Nutch.ALL_BATCH_ID_STR));
+      interval = conf.getInt("db.fetch.interval.default", 2592000);
+      curTime = conf.getLong("archive.import.current.time", System.currentTimeMillis());
+      mimeUtil = MimeUtil.get(conf);
+      urlFilterCache = URLFilterCache.get(conf);
+      ignoreExternalLinks = conf.getBoolean("db.ignore.external.links", false);
+      parse = conf.getBoolean(PARSE_KEY, false);
+      if (parse) {
+        skipTruncated = conf.getBoolean(ParserJob.SKIP_TRUNCATED, true);
+        parseUtil = new ParseUtil(conf);
+      }
+    }
+
+    @Override
+    protected void map(Text key, ArchiveRecord record, Context context) throws IOException, InterruptedException {
+      String url = record.getUrl();
+
+      String reversedUrl;
+      try {
+        reversedUrl = TableUtil.reverseUrl(url);
+      } catch (MalformedURLException e) {
+        context.getCounter(Counter.badUrls).increment(1);
+        return;
+      }
+
+      WebPage page = WebPage.newBuilder().build();
+      byte status = setStatus(page, record);
+      if (status == CrawlStatus.STATUS_REDIR_PERM || status == CrawlStatus.STATUS_REDIR_TEMP) {
+        handleRedirect(url, page, status == CrawlStatus.STATUS_REDIR_TEMP);
+      }
+
+      long fetchTime = record.getDate() > 0 ? record.getDate() : curTime;
+      page.setFetchTime(fetchTime);
+      page.setPrevFetchTime(fetchTime);
+      page.setFetchInterval(interval);
+      page.setBaseUrl(new Utf8(url));
+
+      Metadata headers = record.getHeaders();
+      for (String name : headers.names()) {
+        page.getHeaders().put(new Utf8(name), new Utf8(headers.get(name)));
+      }
+
+      if (status == CrawlStatus.STATUS_FETCHED) {
+        // the content type is resolved as it is for a fetched page
+        Content content = new Content(url, url, record.getContent(), record.getContentType(), headers, mimeUtil);
+        page.setContent(ByteBuffer.wrap(record.getContent()));
+        page.setContentType(new Utf8(content.getContentType()));
+        context.getCounter(Counter.fetchedPages).increment(1);
+      }
+
+      if (record.isTruncated()) {
+        context.getCounter(Counter.truncatedPages).increment(1);
+      }
+
+      Mark.GENERATE_MARK.putMark(page, batchId);
+      Mark.FETCH_MARK.putMark(page, batchId);
+
+      if (parse && status == CrawlStatus.STATUS_FETCHED) {
+        if (!skipTruncated || !ParserMapper.isTruncated(url, page)) {
+          parseUtil.process(reversedUrl, page);
+          context.getCounter(Counter.parsedPages).increment(1);
+        }
+      }
+
+      context.write(reversedUrl, page);
+
+      context.getCounter(Counter.importedPages).increment(1);
+    }
+
+    /**
+     * The target of a redirect becomes an outlink of the page, as the fetcher
+     * does, so it's added to the web table by the update
+     * */
+    private void handleRedirect(String url, WebPage page, boolean temp) {
+      String newUrl = ProtocolStatusUtils.getMessage(page.getProtocolStatus());
+      newUrl = urlFilterCache.normalizeAndFilter(newUrl, URLNormalizers.SCOPE_FETCHER);
+      if (newUrl == null || newUrl.equals(url)) {
+        return;
+      }
+
+      if (ignoreExternalLinks) {
+        try {
+          String toHost = new URL(newUrl).getHost().toLowerCase();
+          String fromHost = new URL(url).getHost().toLowerCase();
+          if (!toHost.equals(fromHost)) {
+            return;
+          }
+        } catch (MalformedURLException e) {
+          return;
+        }
+      }
+
+      page.getOutlinks().put(new Utf8(newUrl), new Utf8());
+      page.getMetadata().put(FetcherJob.REDIRECT_DISCOVERED, TableUtil.YES_VAL);
+      String reprUrl = URLUtil.chooseRepr(url, newUrl, temp);
+      if (reprUrl != null) {
+        page.setReprUrl(new Utf8(reprUrl));
+      }
+    }
+
+    /**
+     * Set the crawl status and the protocol status the fetcher would set for
+     * the archived response
+     *
+     * @return the crawl status
+     * */
+    static byte setStatus(WebPage page, ArchiveRecord record) {
+      int code = record.getHttpCode();
+
+      byte status;
+      ProtocolStatus protocolStatus;
+      if (code == ArchiveRecord.NO_HTTP_CODE || (code >= 200 && code < 300)) {
+        status = CrawlStatus.STATUS_FETCHED;
+        protocolStatus = ProtocolStatusUtils.STATUS_SUCCESS;
+      } else if (code == 301 || code == 308) {
+        status = CrawlStatus.STATUS_REDIR_PERM;
+        protocolStatus = ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.MOVED, getLocation(record));
+      } else if (code >= 300 && code < 400 && code != 304) {
+        status = CrawlStatus.STATUS_REDIR_TEMP;
+        protocolStatus = ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.TEMP_MOVED, getLocation(record));
+      } else if (code == 304) {
+        status = CrawlStatus.STATUS_NOTMODIFIED;
+        protocolStatus = ProtocolStatusUtils.STATUS_NOTMODIFIED;
+      } else if (code == 404) {
+        status = CrawlStatus.STATUS_GONE;
+        protocolStatus = ProtocolStatusUtils.STATUS_NOTFOUND;
+      } else if (code == 410) {
+        status = CrawlStatus.STATUS_GONE;
+        protocolStatus = ProtocolStatusUtils.STATUS_GONE;
+      } else if (code == 401 || code == 403) {
+        status = CrawlStatus.STATUS_GONE;
+        protocolStatus = ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.ACCESS_DENIED);
+      } else {
+        status = CrawlStatus.STATUS_RETRY;
+        protocolStatus = ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.EXCEPTION, "Http code=" + code);
+      }
+
+      page.setStatus((int) status);
+      page.setProtocolStatus(protocolStatus);
+      return status;
+    }
+
+    /**
+     * The location of a redirect, resolved against the url as the fetcher does
+     * */
+    private static String getLocation(ArchiveRecord record) {
+      String location = record.getHeaders().get(HttpHeaders.LOCATION);
+      if (location == null) {
+        location = "";
+      }
+
+      try {
+        return new URL(new URL(record.getUrl()), location).toString();
+      } catch (MalformedURLException e) {
+        return location;
+      }
+    }
+  }
+
+  public ArchiveImporterJob() {
+  }
+
+  public ArchiveImporterJob(Configuration conf) {
+    setConf(conf);
+  }
+
+  @Override
+  protected void setup(Map<String, Object> args) throws Exception {
+    super.setup(args);
+
+    String batchId = NutchUtil.get(args, Nutch.ARG_BATCH, NutchUtil.generateBatchId());
+    getConf().set(Nutch.GENERATOR_BATCH_ID, batchId);
+    getConf().setLong("archive.import.current.time", startTime);
+
+    recordAndLogParams(
+        "archiveDir", args.get(Nutch.ARG_ARCHIVEDIR),
+        "batchId", batchId,
+        "parse", getConf().getBoolean(PARSE_KEY, false));
+  }
+
+  @Override
+  protected void doRun(Map<String, Object> args) throws Exception {
+    Path input = new Path(args.get(Nutch.ARG_ARCHIVEDIR).toString());
+
+    FileInputFormat.addInputPath(currentJob, input);
+    currentJob.setInputFormatClass(ArchiveInputFormat.class);
+    currentJob.setMapperClass(ArchiveMapper.class);
+    currentJob.setMapOutputKeyClass(String.class);
+    currentJob.setMapOutputValueClass(WebPage.class);
+    currentJob.setOutputFormatClass(GoraOutputFormat.class);
+
+    DataStore<String, WebPage> store = StorageUtils.createWebStore(
+        currentJob.getConfiguration(), String.class, WebPage.class);
+    GoraOutputFormat.setOutput(currentJob, store, true);
+
+    currentJob.setReducerClass(Reducer.class);
+    currentJob.setNumReduceTasks(0);
+
+    LOG.info("schemaName : " + store.getSchemaName());
+
+    currentJob.waitForCompletion(true);
+  }
+
+  public void importArchives(Path archiveDir, String batchId) throws Exception {
+    LOG.info("ArchiveImporterJob: importing " + archiveDir);
+    run(NutchUtil.toArgMap(Nutch.ARG_ARCHIVEDIR, archiveDir, Nutch.ARG_BATCH, batchId));
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    String usage = "Usage: ArchiveImporterJob <archive_dir> [-crawlId <id>] [-batchId <id>] [-parse]\n"
+        + "    <archive_dir> - a directory of WARC or arc files, compressed or not\n"
+        + "    -crawlId <id> - the id to prefix the schemas to operate on, \n \t \t    (default: storage.crawl.id)\n"
+        + "    -batchId <id> - the batch of the imported pages (default: a new batch)\n"
+        + "    -parse        - parse the pages while they are imported";
+
+    if (args.length < 1 || args[0].startsWith("-")) {
+      System.err.println(usage);
+      return -1;
+    }
+
+    String batchId = null;
+    for (int i = 1; i < args.length; i++) {
+      if ("-crawlId".equals(args[i])) {
+        getConf().set(Nutch.CRAWL_ID_KEY, args[++i]);
+      } else if ("-batchId".equals(args[i])) {
+        batchId = args[++i];
+      } else if ("-parse".equals(args[i])) {
+        getConf().setBoolean(PARSE_KEY, true);
+      } else {
+        System.err.println("Unrecognized arg " + args[i]);
+        System.err.println(usage);
+        return -1;
+      }
+    }
+
+    try {
+      importArchives(new Path(args[0]), batchId);
+      return 0;
+    } catch (Exception e) {
+      LOG.error("ArchiveImporterJob: " + org.apache.hadoop.util.StringUtils.stringifyException(e));
+      return -1;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    LOG.info("---------------------------------------------------\n\n");
+    int res = ToolRunner.run(NutchConfiguration.create(), new ArchiveImporterJob(), args);
+    System.exit(res);
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools.arc;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * An input format which reads the pages of WARC and arc files, see
+ * {@link ArchiveReader}. A file is read by one task from the start to the end,
+ * the records of a compressed file can not be found from the middle of it.
+ */
+public class ArchiveInputFormat extends FileInputFormat<Text, ArchiveRecord> {
+
+  public static final String CONTENT_LIMIT_KEY = "archive.content.limit";
+
+  @Override
+  protected boolean isSplitable(JobContext context, Path file) {
+    return false;
+  }
+
+  @Override
+  public RecordReader<Text, ArchiveRecord> createRecordReader(InputSplit split, TaskAttemptContext context) {
+    return new ArchiveRecordReader();
+  }
+
+  public static class ArchiveRecordReader extends RecordReader<Text, ArchiveRecord> {
+    private FSDataInputStream in;
+    private ArchiveReader reader;
+    private long length;
+    private final Text key = new Text();
+    private ArchiveRecord value;
+
+    @Override
+    public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+      FileSplit split = (FileSplit) genericSplit;
+      Configuration conf = context.getConfiguration();
+      Path path = split.getPath();
+      FileSystem fs = path.getFileSystem(conf);
+
+      length = split.getLength();
+      in = fs.open(path);
+      reader = new ArchiveReader(in, conf.getInt(CONTENT_LIMIT_KEY, -1));
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+      value = reader.next();
+      if (value == null) {
+        return false;
+      }
+
+      key.set(value.getUrl());
+      return true;
+    }
+
+    @Override
+    public Text getCurrentKey() {
+      return key;
+    }
+
+    @Override
+    public ArchiveRecord getCurrentValue() {
+      return value;
+    }
+
+    /**
+     * The progress in the compressed file
+     * */
+    @Override
+    public float getProgress() throws IOException {
+      if (length == 0) {
+        return 0.0f;
+      }
+      return Math.min(1.0f, in.getPos() / (float) length);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (reader != null) {
+        reader.close();
+      }
+    }
+  }
+}
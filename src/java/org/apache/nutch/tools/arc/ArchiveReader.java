@@ -0,0 +1,487 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools.arc;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+import org.apache.nutch.metadata.HttpHeaders;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.apache.nutch.util.ContentDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the records of a WARC file (WARC/1.0 and WARC/1.1) or an arc file
+ * (version 1 and 2) from a stream, one by one, without seeking and without
+ * holding more than one record in memory.
+ *
+ * The file may be compressed as a whole or record by record, gzip members are
+ * read one after another. Only the records which hold a page are returned,
+ * WARC response and resource records and arc records, other records are
+ * skipped. The HTTP status line and headers of a response are parsed, the
+ * transfer and content encoding of the archived content is decoded.
+ */
+public class ArchiveReader implements Closeable {
+
+  public static final Logger LOG = LoggerFactory.getLogger(ArchiveReader.class);
+
+  public static final String WARC_TYPE = "warc-type";
+  public static final String WARC_TARGET_URI = "warc-target-uri";
+  public static final String WARC_DATE = "warc-date";
+  public static final String WARC_IP_ADDRESS = "warc-ip-address";
+  public static final String WARC_CONTENT_TYPE = "content-type";
+  public static final String WARC_CONTENT_LENGTH = "content-length";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_LINE_LENGTH = 64 * 1024;
+  private static final int MAX_HEADERS = 1000;
+
+  private final InputStream in;
+  private final int maxContentLength;
+  private final SimpleDateFormat warcDateFormat = newDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+  private final SimpleDateFormat arcDateFormat = newDateFormat("yyyyMMddHHmmss");
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+
+  private long records = 0;
+  private long skippedRecords = 0;
+
+  /**
+   * @param maxContentLength the maximum length of the content of a record, the
+   *          rest is skipped, no limit if less than 0
+   * */
+  public ArchiveReader(InputStream in, int maxContentLength) throws IOException {
+    PushbackInputStream pushback = new PushbackInputStream(in, 2);
+    int b1 = pushback.read();
+    int b2 = b1 == -1 ? -1 : pushback.read();
+    if (b2 != -1) {
+      pushback.unread(b2);
+    }
+    if (b1 != -1) {
+      pushback.unread(b1);
+    }
+
+    // GZIPInputStream reads the concatenated members of a record by record compressed file
+    boolean gzip = b1 == 0x1f && b2 == 0x8b;
+    this.in = new BufferedInputStream(gzip ? new GZIPInputStream(pushback, BUFFER_SIZE) : pushback, BUFFER_SIZE);
+    this.maxContentLength = maxContentLength;
+  }
+
+  /**
+   * @return the next record which holds a page, or null at the end of the file
+   * @throws EOFException if the file is truncated
+   * */
+  public ArchiveRecord next() throws IOException {
+    String line;
+    while ((line = readLine(in)) != null) {
+      // the blank lines between the records
+      if (line.isEmpty()) {
+        continue;
+      }
+
+      ArchiveRecord record = line.startsWith("WARC/") ? readWarcRecord() : readArcRecord(line);
+      if (record != null) {
+        ++records;
+        return record;
+      }
+
+      ++skippedRecords;
+    }
+
+    return null;
+  }
+
+  /**
+   * The number of records returned so far
+   * */
+  public long getRecords() {
+    return records;
+  }
+
+  /**
+   * The number of records skipped so far, the records without a page
+   * */
+  public long getSkippedRecords() {
+    return skippedRecords;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private ArchiveRecord readWarcRecord() throws IOException {
+    Map<String, String> warcHeaders = new HashMap<String, String>();
+    String line;
+    while ((line = readHeaderLine(in)) != null) {
+      int pos = line.indexOf(':');
+      if (pos > 0) {
+        warcHeaders.put(line.substring(0, pos).trim().toLowerCase(), line.substring(pos + 1).trim());
+      }
+    }
+
+    long length = parseLength(warcHeaders.get(WARC_CONTENT_LENGTH));
+    BoundedInputStream block = new BoundedInputStream(in, length);
+
+    String type = warcHeaders.get(WARC_TYPE);
+    String url = warcHeaders.get(WARC_TARGET_URI);
+    if (url == null || !("response".equals(type) || "resource".equals(type))) {
+      block.skipAll();
+      return null;
+    }
+
+    // WARC/1.1 drafts put the uri in angle brackets
+    if (url.startsWith("<") && url.endsWith(">")) {
+      url = url.substring(1, url.length() - 1);
+    }
+
+    String contentType = warcHeaders.get(WARC_CONTENT_TYPE);
+    boolean http = "response".equals(type) && contentType != null && contentType.startsWith("application/http");
+    long date = parseDate(warcHeaders.get(WARC_DATE), warcDateFormat);
+
+    return readBlock(url, date, warcHeaders.get(WARC_IP_ADDRESS), contentType, http, block);
+  }
+
+  /**
+   * The header line of an arc record is
+   * URL IP-address Archive-date Content-type Archive-length in version 1,
+   * version 2 has more fields, the length is the last one in both versions
+   * */
+  private ArchiveRecord readArcRecord(String headerLine) throws IOException {
+    String[] fields = headerLine.split(" ");
+    if (fields.length < 5) {
+      throw new IOException("Bad arc record header " + headerLine);
+    }
+
+    long length = parseLength(fields[fields.length - 1]);
+    BoundedInputStream block = new BoundedInputStream(in, length);
+
+    String url = fields[0];
+    if (url.startsWith("filedesc:")) {
+      // the description of the file
+      block.skipAll();
+      return null;
+    }
+
+    boolean http = url.startsWith("http:") || url.startsWith("https:");
+    long date = parseDate(fields[2], arcDateFormat);
+
+    return readBlock(url, date, fields[1], fields[3], http, block);
+  }
+
+  private ArchiveRecord readBlock(String url, long date, String ip, String contentType,
+      boolean http, BoundedInputStream block) throws IOException {
+    int httpCode = ArchiveRecord.NO_HTTP_CODE;
+    Metadata headers = new SpellCheckedMetadata();
+
+    if (http) {
+      httpCode = parseStatusLine(readLine(block));
+      if (httpCode == ArchiveRecord.NO_HTTP_CODE) {
+        LOG.debug("Not a HTTP response, skip " + url);
+        block.skipAll();
+        return null;
+      }
+
+      readHttpHeaders(block, headers);
+      if (headers.get(HttpHeaders.CONTENT_TYPE) != null) {
+        contentType = headers.get(HttpHeaders.CONTENT_TYPE);
+      }
+    }
+
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    int n;
+    while ((n = block.read(buffer, 0, readLength(body.size()))) > 0) {
+      body.write(buffer, 0, n);
+    }
+    boolean truncated = block.skipAll() > 0;
+
+    byte[] content = decode(url, body.toByteArray(), headers, truncated);
+
+    return new ArchiveRecord(url, date, ip, contentType, httpCode, headers, content, truncated);
+  }
+
+  private int readLength(int size) {
+    if (maxContentLength < 0) {
+      return buffer.length;
+    }
+    return Math.min(buffer.length, maxContentLength - size);
+  }
+
+  /**
+   * Decode the transfer encoding and the content encoding, the content which
+   * can not be decoded is kept as it is
+   * */
+  private byte[] decode(String url, byte[] content, Metadata headers, boolean truncated) {
+    boolean decoded = false;
+
+    String transferEncoding = headers.get(HttpHeaders.TRANSFER_ENCODING);
+    if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+      content = dechunk(content);
+      headers.remove(HttpHeaders.TRANSFER_ENCODING);
+      decoded = true;
+    }
+
+    String contentEncoding = headers.get(HttpHeaders.CONTENT_ENCODING);
+    if (ContentDecoder.isEncoded(contentEncoding)) {
+      try {
+        content = ContentDecoder.decode(content, contentEncoding, maxContentLength);
+        headers.remove(HttpHeaders.CONTENT_ENCODING);
+        decoded = true;
+      } catch (IOException e) {
+        LOG.debug("Can not decode " + url + ", " + e.getMessage());
+      }
+    }
+
+    // the length of the truncated content says nothing, the header is kept to tell the parser
+    if (decoded && !truncated) {
+      headers.set(HttpHeaders.CONTENT_LENGTH, String.valueOf(content.length));
+    }
+
+    return content;
+  }
+
+  /**
+   * Decode the chunked transfer encoding, the chunks before a broken chunk are kept
+   * */
+  static byte[] dechunk(byte[] content) {
+    InputStream in = new ByteArrayInputStream(content);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(content.length);
+
+    try {
+      String line;
+      while ((line = readLine(in)) != null) {
+        int pos = line.indexOf(';');
+        String size = (pos == -1 ? line : line.substring(0, pos)).trim();
+        if (size.isEmpty()) {
+          continue;
+        }
+
+        int length = Integer.parseInt(size, 16);
+        if (length <= 0) {
+          // the trailer is not kept
+          break;
+        }
+
+        byte[] chunk = new byte[length];
+        int n = in.read(chunk, 0, length);
+        out.write(chunk, 0, Math.max(0, n));
+        if (n < length) {
+          break;
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      LOG.debug("Bad chunk, " + e.getMessage());
+    }
+
+    return out.size() == 0 ? content : out.toByteArray();
+  }
+
+  /**
+   * @return the status code, or NO_HTTP_CODE if the line is not a status line
+   * */
+  private static int parseStatusLine(String line) {
+    if (line == null || !line.startsWith("HTTP/")) {
+      return ArchiveRecord.NO_HTTP_CODE;
+    }
+
+    String[] parts = line.split("\\s+");
+    try {
+      return parts.length < 2 ? ArchiveRecord.NO_HTTP_CODE : Integer.parseInt(parts[1]);
+    } catch (NumberFormatException e) {
+      return ArchiveRecord.NO_HTTP_CODE;
+    }
+  }
+
+  private static void readHttpHeaders(InputStream in, Metadata headers) throws IOException {
+    String line;
+    int count = 0;
+    while ((line = readHeaderLine(in)) != null && count++ < MAX_HEADERS) {
+      int pos = line.indexOf(':');
+      if (pos > 0) {
+        headers.add(line.substring(0, pos).trim(), line.substring(pos + 1).trim());
+      }
+    }
+  }
+
+  /**
+   * @return the header line, or null at the blank line or at the end of the block
+   * */
+  private static String readHeaderLine(InputStream in) throws IOException {
+    String line = readLine(in);
+    return line == null || line.isEmpty() ? null : line;
+  }
+
+  /**
+   * Read a line ended by LF or CRLF
+   *
+   * @return the line without the line end, or null at the end of the stream
+   * */
+  static String readLine(InputStream in) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    int b;
+    while ((b = in.read()) != -1) {
+      if (b == '\n') {
+        break;
+      }
+
+      if (sb.length() >= MAX_LINE_LENGTH) {
+        throw new IOException("Line too long");
+      }
+      sb.append((char) b);
+    }
+
+    if (b == -1 && sb.length() == 0) {
+      return null;
+    }
+
+    int length = sb.length();
+    if (length > 0 && sb.charAt(length - 1) == '\r') {
+      sb.setLength(length - 1);
+    }
+    return sb.toString();
+  }
+
+  private static long parseLength(String length) throws IOException {
+    try {
+      long value = length == null ? -1 : Long.parseLong(length.trim());
+      if (value >= 0) {
+        return value;
+      }
+    } catch (NumberFormatException e) {
+    }
+
+    throw new IOException("Bad record length " + length);
+  }
+
+  /**
+   * @return the time in milliseconds, or 0 if the date can not be parsed
+   * */
+  private static long parseDate(String date, SimpleDateFormat format) {
+    if (date == null) {
+      return 0;
+    }
+
+    try {
+      // the fraction of a second of WARC/1.1 is ignored
+      return format.parse(date).getTime();
+    } catch (ParseException e) {
+      LOG.debug("Bad date " + date);
+      return 0;
+    }
+  }
+
+  private static SimpleDateFormat newDateFormat(String pattern) {
+    SimpleDateFormat format = new SimpleDateFormat(pattern);
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return format;
+  }
+
+  /**
+   * The block of a record, reading ends at the end of the block, a file which
+   * ends before the block is truncated
+   * */
+  private static class BoundedInputStream extends FilterInputStream {
+    private long remaining;
+
+    BoundedInputStream(InputStream in, long length) {
+      super(in);
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+
+      int b = in.read();
+      if (b == -1) {
+        throw new EOFException("Truncated archive record");
+      }
+      --remaining;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      if (len == 0) {
+        return 0;
+      }
+
+      int n = in.read(b, off, (int) Math.min(len, remaining));
+      if (n == -1) {
+        throw new EOFException("Truncated archive record");
+      }
+      remaining -= n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(Math.min(n, remaining));
+      remaining -= skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(in.available(), remaining);
+    }
+
+    /**
+     * @return the number of skipped bytes
+     * */
+    public long skipAll() throws IOException {
+      long skipped = 0;
+      while (remaining > 0) {
+        long n = in.skip(remaining);
+        if (n <= 0) {
+          if (in.read() == -1) {
+            throw new EOFException("Truncated archive record");
+          }
+          n = 1;
+        }
+        remaining -= n;
+        skipped += n;
+      }
+      return skipped;
+    }
+
+    @Override
+    public void close() {
+      // the archive stream is closed by the reader
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools.arc;
+
+import org.apache.nutch.metadata.Metadata;
+
+/**
+ * A record of a WARC or an arc file, a page as it was archived: the url, the
+ * archive date, the HTTP status code and headers and the content.
+ */
+public class ArchiveRecord {
+
+  /** The status code of records without a HTTP response, e.g. WARC resource records */
+  public static final int NO_HTTP_CODE = -1;
+
+  private final String url;
+  private final long date;
+  private final String ip;
+  private final String contentType;
+  private final int httpCode;
+  private final Metadata headers;
+  private final byte[] content;
+  private final boolean truncated;
+
+  public ArchiveRecord(String url, long date, String ip, String contentType,
+      int httpCode, Metadata headers, byte[] content, boolean truncated) {
+    this.url = url;
+    this.date = date;
+    this.ip = ip;
+    this.contentType = contentType;
+    this.httpCode = httpCode;
+    this.headers = headers;
+    this.content = content;
+    this.truncated = truncated;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * The time the page was archived, in milliseconds
+   * */
+  public long getDate() {
+    return date;
+  }
+
+  public String getIp() {
+    return ip;
+  }
+
+  /**
+   * The content type of the page, the HTTP Content-Type header if there is
+   * one, the content type of the record otherwise
+   * */
+  public String getContentType() {
+    return contentType;
+  }
+
+  public int getHttpCode() {
+    return httpCode;
+  }
+
+  /**
+   * The HTTP response headers, the transfer and content encoding of the
+   * archived content is decoded already
+   * */
+  public Metadata getHeaders() {
+    return headers;
+  }
+
+  public byte[] getContent() {
+    return content;
+  }
+
+  /**
+   * True if the content is longer than the content limit of the reader
+   * */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  @Override
+  public String toString() {
+    return url + " " + httpCode + " " + contentType + " " + content.length;
+  }
+}
@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools.arc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.nutch.metadata.HttpHeaders;
+import org.apache.nutch.metadata.Metadata;
+
+/**
+ * Writes pages as WARC/1.0 response records, every record is a gzip member of
+ * its own, so the file can be read record by record by the usual tools and by
+ * {@link ArchiveReader}.
+ *
+ * The content is written as it is given, decoded. So the Content-Encoding,
+ * Transfer-Encoding and Content-Length headers are replaced by the length of
+ * the written content. The internal headers, Q- headers and HTTP/2 pseudo
+ * headers are not written. The writer is thread safe.
+ */
+public class WarcWriter implements Closeable {
+
+  private static final String CRLF = "\r\n";
+
+  private final OutputStream out;
+  private final SimpleDateFormat dateFormat;
+  private long records = 0;
+
+  public WarcWriter(OutputStream out) {
+    this.out = out;
+    this.dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    this.dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+  }
+
+  /**
+   * Write the warcinfo record, which describes the file, it's the first record
+   * of a file
+   * */
+  public void writeInfo(String fileName, String software) throws IOException {
+    String fields = "software: " + software + CRLF + "format: WARC File Format 1.0" + CRLF;
+    byte[] block = fields.getBytes(StandardCharsets.UTF_8);
+
+    StringBuilder header = newRecordHeader("warcinfo", System.currentTimeMillis());
+    header.append("WARC-Filename: ").append(fileName).append(CRLF);
+    header.append("Content-Type: application/warc-fields").append(CRLF);
+
+    writeRecord(header, block, null);
+  }
+
+  /**
+   * Write a response record
+   *
+   * @param fetchTime the time the page is fetched, in milliseconds
+   * @param headers the response headers, may be null
+   * */
+  public void writeResponse(String url, long fetchTime, int httpCode, Metadata headers,
+      byte[] content) throws IOException {
+    if (content == null) {
+      content = new byte[0];
+    }
+
+    StringBuilder http = new StringBuilder();
+    // the reason phrase may be empty
+    http.append("HTTP/1.1 ").append(httpCode).append(' ').append(httpCode == 200 ? "OK" : "").append(CRLF);
+    if (headers != null) {
+      for (String name : headers.names()) {
+        if (!isWritten(name)) {
+          continue;
+        }
+        for (String value : headers.getValues(name)) {
+          http.append(name).append(": ").append(value).append(CRLF);
+        }
+      }
+    }
+    http.append(HttpHeaders.CONTENT_LENGTH).append(": ").append(content.length).append(CRLF);
+    http.append(CRLF);
+    byte[] httpHeaders = http.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+    StringBuilder header = newRecordHeader("response", fetchTime);
+    header.append("WARC-Target-URI: ").append(url).append(CRLF);
+    header.append("Content-Type: application/http; msgtype=response").append(CRLF);
+
+    writeRecord(header, httpHeaders, content);
+  }
+
+  /**
+   * The number of records written so far
+   * */
+  public synchronized long getRecords() {
+    return records;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    out.close();
+  }
+
+  private StringBuilder newRecordHeader(String type, long date) {
+    StringBuilder header = new StringBuilder("WARC/1.0").append(CRLF);
+    header.append("WARC-Type: ").append(type).append(CRLF);
+    String formattedDate;
+    synchronized (dateFormat) {
+      formattedDate = dateFormat.format(new Date(date));
+    }
+    header.append("WARC-Date: ").append(formattedDate).append(CRLF);
+    header.append("WARC-Record-ID: <urn:uuid:").append(UUID.randomUUID()).append(">").append(CRLF);
+    return header;
+  }
+
+  private void writeRecord(StringBuilder header, byte[] block, byte[] content) throws IOException {
+    long length = block.length + (content == null ? 0 : content.length);
+    header.append("Content-Length: ").append(length).append(CRLF);
+    header.append(CRLF);
+
+    // the record is compressed in memory and out of the lock, a broken write
+    // does not leave a broken member behind
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(length, Integer.MAX_VALUE / 2) / 4 + 1024);
+    GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+    gzip.write(header.toString().getBytes(StandardCharsets.UTF_8));
+    gzip.write(block);
+    if (content != null) {
+      gzip.write(content);
+    }
+    gzip.write((CRLF + CRLF).getBytes(StandardCharsets.ISO_8859_1));
+    gzip.close();
+
+    synchronized (this) {
+      bytes.writeTo(out);
+      ++records;
+    }
+  }
+
+  private static boolean isWritten(String name) {
+    return !name.startsWith("Q-") && !name.startsWith(":")
+        && !name.equalsIgnoreCase(HttpHeaders.CONTENT_ENCODING)
+        && !name.equalsIgnoreCase(HttpHeaders.TRANSFER_ENCODING)
+        && !name.equalsIgnoreCase(HttpHeaders.CONTENT_LENGTH);
+  }
+}
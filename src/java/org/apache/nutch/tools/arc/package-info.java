@@ -17,7 +17,9 @@
 
 /**
  * Tools to read the
- * <a href="http://archive.org/web/researcher/ArcFileFormat.php">Arc file format</a>.
+ * <a href="http://archive.org/web/researcher/ArcFileFormat.php">Arc file format</a>
+ * and the WARC file format, to import archived pages into the web table and
+ * to write fetched pages to WARC files.
  */
 package org.apache.nutch.tools.arc;
 
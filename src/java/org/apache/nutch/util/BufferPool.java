@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of fixed size byte arrays. Fetchers read the page content into
+ * pooled buffers, so that every fetch does not allocate and throw away its own
+ * buffers.
+ */
+public class BufferPool {
+
+  public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+  public static final int DEFAULT_MAX_POOLED = 1024;
+
+  private static final BufferPool SHARED = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+
+  private final int bufferSize;
+  private final int maxPooled;
+  private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+  private final AtomicInteger pooled = new AtomicInteger(0);
+
+  // statistics
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+
+  public BufferPool(int bufferSize, int maxPooled) {
+    this.bufferSize = bufferSize;
+    this.maxPooled = maxPooled;
+  }
+
+  /**
+   * The pool shared by all fetchers in the JVM
+   * */
+  public static BufferPool getShared() {
+    return SHARED;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  public byte[] acquire() {
+    byte[] buffer = buffers.poll();
+    if (buffer != null) {
+      pooled.decrementAndGet();
+      hits.incrementAndGet();
+      return buffer;
+    }
+
+    misses.incrementAndGet();
+    return new byte[bufferSize];
+  }
+
+  /**
+   * Put the buffer back, the buffer is dropped if the pool is full
+   * */
+  public void release(byte[] buffer) {
+    if (buffer == null || buffer.length != bufferSize) {
+      return;
+    }
+
+    if (pooled.incrementAndGet() > maxPooled) {
+      pooled.decrementAndGet();
+      return;
+    }
+
+    buffers.offer(buffer);
+  }
+
+  public int getPooledCount() {
+    return pooled.get();
+  }
+
+  /**
+   * The number of buffers taken from the pool
+   * */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * The number of buffers allocated because the pool was empty
+   * */
+  public long getMisses() {
+    return misses.get();
+  }
+}
@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the content of a page in pooled buffers while it's read from the
+ * network. Unlike ByteArrayOutputStream, the content is never copied while it
+ * grows, it's copied exactly once into an array of the final size.
+ *
+ * The content is truncated at the limit, so the reader stops as soon as the
+ * limit is reached. Call {@link #release()} to give the buffers back.
+ */
+public class ContentBuffer {
+
+  private final BufferPool pool;
+  private final int limit;
+  private final List<byte[]> buffers = new ArrayList<byte[]>();
+  private int size = 0;
+  /**
+   * The number of bytes used in the last buffer
+   * */
+  private int position = 0;
+
+  /**
+   * @param limit the maximum size of the content, no limit if less than 0
+   * */
+  public ContentBuffer(BufferPool pool, int limit) {
+    this.pool = pool;
+    this.limit = limit < 0 ? Integer.MAX_VALUE : limit;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isFull() {
+    return size >= limit;
+  }
+
+  /**
+   * Read until the end of the stream or the limit is reached
+   *
+   * @return the number of bytes read
+   * */
+  public int readFrom(InputStream in) throws IOException {
+    int total = 0;
+
+    int n;
+    while ((n = readFrom(in, Integer.MAX_VALUE)) > 0) {
+      total += n;
+    }
+
+    return total;
+  }
+
+  /**
+   * Read at most maxBytes bytes in one read call
+   *
+   * @return the number of bytes read, 0 if the buffer is full, or -1 if the end of the stream is reached
+   * */
+  public int readFrom(InputStream in, int maxBytes) throws IOException {
+    if (isFull()) {
+      return 0;
+    }
+
+    byte[] buffer = currentBuffer();
+    int length = Math.min(Math.min(buffer.length - position, limit - size), maxBytes);
+    int n = in.read(buffer, position, length);
+    if (n > 0) {
+      position += n;
+      size += n;
+    }
+
+    return n;
+  }
+
+  /**
+   * Copy the content into an array of the exact size
+   * */
+  public byte[] toByteArray() {
+    byte[] content = new byte[size];
+
+    int offset = 0;
+    for (byte[] buffer : buffers) {
+      int length = Math.min(buffer.length, size - offset);
+      System.arraycopy(buffer, 0, content, offset, length);
+      offset += length;
+    }
+
+    return content;
+  }
+
+  /**
+   * Give the buffers back to the pool, the content is lost
+   * */
+  public void release() {
+    for (byte[] buffer : buffers) {
+      pool.release(buffer);
+    }
+
+    buffers.clear();
+    size = 0;
+    position = 0;
+  }
+
+  private byte[] currentBuffer() {
+    if (buffers.isEmpty() || position == buffers.get(buffers.size() - 1).length) {
+      buffers.add(pool.acquire());
+      position = 0;
+    }
+
+    return buffers.get(buffers.size() - 1);
+  }
+}
@@ -0,0 +1,306 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes the content-encoding of a page while it's read, so the content limit
+ * applies to the decoded content and the encoded content is never buffered as
+ * a whole.
+ *
+ * gzip and deflate are decoded with pooled inflaters. brotli is decoded if the
+ * brotli decoder (org.brotli:dec) is on the classpath, it's not advertised in
+ * Accept-Encoding otherwise.
+ */
+public class ContentDecoder {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ContentDecoder.class);
+
+  public static final String IDENTITY = "identity";
+  public static final String GZIP = "gzip";
+  public static final String X_GZIP = "x-gzip";
+  public static final String DEFLATE = "deflate";
+  public static final String BROTLI = "br";
+
+  private static final int MAX_POOLED_INFLATERS = 256;
+
+  // gzip header flags, RFC 1952
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+
+  private static final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+  private static final AtomicInteger pooledInflaters = new AtomicInteger(0);
+
+  private static final Constructor<?> BROTLI_INPUT_STREAM;
+
+  static {
+    Constructor<?> constructor = null;
+    try {
+      constructor = Class.forName("org.brotli.dec.BrotliInputStream").getConstructor(InputStream.class);
+    } catch (ClassNotFoundException | NoSuchMethodException e) {
+      LOG.debug("No brotli decoder on the classpath");
+    }
+    BROTLI_INPUT_STREAM = constructor;
+  }
+
+  public static boolean isBrotliSupported() {
+    return BROTLI_INPUT_STREAM != null;
+  }
+
+  /**
+   * The value of the Accept-Encoding request header, the encodings which can be decoded
+   * */
+  public static String getAcceptEncoding() {
+    return isBrotliSupported() ? "x-gzip, gzip, deflate, br" : "x-gzip, gzip, deflate";
+  }
+
+  /**
+   * @return true if the content with this Content-Encoding has to be decoded
+   *         and it can be, false for the identity encoding and unknown
+   *         encodings, which are kept as they are
+   * */
+  public static boolean isEncoded(String contentEncoding) {
+    String encoding = normalize(contentEncoding);
+    return GZIP.equals(encoding) || X_GZIP.equals(encoding) || DEFLATE.equals(encoding)
+        || (BROTLI.equals(encoding) && isBrotliSupported());
+  }
+
+  /**
+   * Wrap the stream of the encoded content with a decoding stream. The
+   * decoding stream must be closed to give the inflater back, closing it
+   * leaves the underlying stream open.
+   *
+   * @throws ZipException if the header of the encoded content is invalid
+   * */
+  public static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+    String encoding = normalize(contentEncoding);
+
+    if (GZIP.equals(encoding) || X_GZIP.equals(encoding)) {
+      readGzipHeader(in);
+      return new PooledInflaterInputStream(in);
+    } else if (DEFLATE.equals(encoding)) {
+      return new PooledInflaterInputStream(skipZlibHeader(in));
+    } else if (BROTLI.equals(encoding) && isBrotliSupported()) {
+      return newBrotliInputStream(in);
+    }
+
+    return in;
+  }
+
+  /**
+   * Decode the content, truncated to limit bytes. If the encoded content is
+   * truncated or corrupted, the content decoded so far is returned.
+   *
+   * @param limit the maximum size of the decoded content, no limit if less than 0
+   * @throws ZipException if the header of the encoded content is invalid
+   * */
+  public static byte[] decode(byte[] content, String contentEncoding, int limit) throws IOException {
+    InputStream decoded = decode(new ByteArrayInputStream(content), contentEncoding);
+    ContentBuffer buffer = new ContentBuffer(BufferPool.getShared(), limit);
+    try {
+      readBestEffort(decoded, buffer);
+      return buffer.toByteArray();
+    } finally {
+      decoded.close();
+      buffer.release();
+    }
+  }
+
+  /**
+   * Read the decoded content until the end or until the buffer is full. The
+   * content decoded so far is kept if the encoded content is truncated or
+   * corrupted.
+   *
+   * @return true if the end of the decoded content is reached
+   * */
+  public static boolean readBestEffort(InputStream decoded, ContentBuffer buffer) throws IOException {
+    try {
+      int n;
+      while ((n = buffer.readFrom(decoded, Integer.MAX_VALUE)) > 0) {
+      }
+      return n == -1;
+    } catch (ZipException | EOFException e) {
+      LOG.debug("Encoded content is truncated or corrupted, " + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * The number of idle inflaters in the pool
+   * */
+  public static int getPooledInflaters() {
+    return pooledInflaters.get();
+  }
+
+  private static String normalize(String contentEncoding) {
+    return contentEncoding == null ? IDENTITY : contentEncoding.trim().toLowerCase();
+  }
+
+  private static Inflater acquireInflater() {
+    Inflater inflater = inflaters.poll();
+    if (inflater != null) {
+      pooledInflaters.decrementAndGet();
+      return inflater;
+    }
+
+    // the headers are read by us, the inflater sees raw deflate data only
+    return new Inflater(true);
+  }
+
+  private static void releaseInflater(Inflater inflater) {
+    if (pooledInflaters.incrementAndGet() > MAX_POOLED_INFLATERS) {
+      pooledInflaters.decrementAndGet();
+      inflater.end();
+      return;
+    }
+
+    inflater.reset();
+    inflaters.offer(inflater);
+  }
+
+  /**
+   * Skip the gzip header, the trailer is not checked
+   * */
+  private static void readGzipHeader(InputStream in) throws IOException {
+    if (readByte(in) != 0x1f || readByte(in) != 0x8b) {
+      throw new ZipException("Not in GZIP format");
+    }
+    if (readByte(in) != 8) {
+      throw new ZipException("Unsupported compression method");
+    }
+
+    int flags = readByte(in);
+    // modification time, extra flags and operating system
+    skipBytes(in, 6);
+
+    if ((flags & FEXTRA) != 0) {
+      skipBytes(in, readByte(in) | (readByte(in) << 8));
+    }
+    if ((flags & FNAME) != 0) {
+      while (readByte(in) != 0) {
+      }
+    }
+    if ((flags & FCOMMENT) != 0) {
+      while (readByte(in) != 0) {
+      }
+    }
+    if ((flags & FHCRC) != 0) {
+      skipBytes(in, 2);
+    }
+  }
+
+  /**
+   * HTTP deflate is zlib wrapped deflate, but many servers send raw deflate,
+   * both are accepted
+   * */
+  private static InputStream skipZlibHeader(InputStream in) throws IOException {
+    int cmf = in.read();
+    int flg = cmf == -1 ? -1 : in.read();
+    if (flg == -1) {
+      throw new EOFException("Unexpected end of deflate input stream");
+    }
+
+    boolean zlib = (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+    if (!zlib) {
+      return new SequenceInputStream(new ByteArrayInputStream(new byte[] { (byte) cmf, (byte) flg }), in);
+    }
+
+    if ((flg & 0x20) != 0) {
+      throw new ZipException("Preset dictionary is not supported");
+    }
+
+    return in;
+  }
+
+  private static InputStream newBrotliInputStream(InputStream in) throws IOException {
+    // the brotli stream closes the underlying stream
+    InputStream unclosable = new FilterInputStream(in) {
+      @Override
+      public void close() {
+      }
+    };
+
+    try {
+      return (InputStream) BROTLI_INPUT_STREAM.newInstance(unclosable);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } catch (ReflectiveOperationException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static int readByte(InputStream in) throws IOException {
+    int b = in.read();
+    if (b == -1) {
+      throw new EOFException("Unexpected end of GZIP input stream");
+    }
+    return b;
+  }
+
+  private static void skipBytes(InputStream in, int n) throws IOException {
+    for (int i = 0; i < n; i++) {
+      readByte(in);
+    }
+  }
+
+  /**
+   * Inflates with a pooled inflater into a pooled buffer, both are given back
+   * on close
+   * */
+  private static class PooledInflaterInputStream extends InflaterInputStream {
+    private boolean closed = false;
+
+    PooledInflaterInputStream(InputStream in) {
+      // the one byte buffer is replaced by a pooled one
+      super(in, acquireInflater(), 1);
+      buf = BufferPool.getShared().acquire();
+    }
+
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+
+      closed = true;
+      releaseInflater(inf);
+      BufferPool.getShared().release(buf);
+      buf = null;
+    }
+  }
+}
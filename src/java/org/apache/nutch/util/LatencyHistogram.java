@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A compact log-linear histogram of latencies in milliseconds, in the manner of
+ * HdrHistogram. Every power of two range is split into 4 linear sub buckets, so a
+ * recorded value is reported with an error of at most 25%, and the histogram
+ * takes less than 400 bytes no matter how many values are recorded.
+ *
+ * Recording is lock free and does not allocate.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  /**
+   * Larger values are recorded as this value, about 70 minutes
+   * */
+  public static final long MAX_VALUE = (1L << 22) - 1;
+  private static final int BUCKETS = indexOf(MAX_VALUE) + 1;
+
+  private final AtomicIntegerArray counts = new AtomicIntegerArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong(0);
+  private final AtomicLong sum = new AtomicLong(0);
+  private final AtomicLong max = new AtomicLong(0);
+
+  public void record(long value) {
+    if (value < 0) {
+      return;
+    }
+    if (value > MAX_VALUE) {
+      value = MAX_VALUE;
+    }
+
+    counts.incrementAndGet(indexOf(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+
+    long m;
+    while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+    }
+  }
+
+  /**
+   * Add all values recorded by the other histogram
+   * */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < BUCKETS; ++i) {
+      int c = other.counts.get(i);
+      if (c != 0) {
+        counts.addAndGet(i, c);
+      }
+    }
+
+    count.addAndGet(other.count.get());
+    sum.addAndGet(other.sum.get());
+
+    long value = other.max.get();
+    long m;
+    while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+    }
+  }
+
+  /**
+   * Remove the values recorded by the other histogram, which is an earlier
+   * copy of this one, so the histogram holds the values recorded since. The
+   * max is kept, it's an upper bound of the values since.
+   * */
+  public void subtract(LatencyHistogram other) {
+    for (int i = 0; i < BUCKETS; ++i) {
+      int c = other.counts.get(i);
+      if (c != 0) {
+        counts.addAndGet(i, -c);
+      }
+    }
+
+    count.addAndGet(-other.count.get());
+    sum.addAndGet(-other.sum.get());
+  }
+
+  public LatencyHistogram copy() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.add(this);
+    return histogram;
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public long getMean() {
+    long c = count.get();
+    return c == 0 ? 0 : sum.get() / c;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the value at the percentile, or 0 if nothing is recorded
+   * */
+  public long getPercentile(double percentile) {
+    long c = count.get();
+    if (c == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(percentile / 100.0 * c);
+    if (rank < 1) {
+      rank = 1;
+    }
+
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; ++i) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(valueOf(i), max.get());
+      }
+    }
+
+    return max.get();
+  }
+
+  @Override
+  public String toString() {
+    return "n=" + getCount() + " mean=" + getMean() + " p50=" + getPercentile(50) + " p90=" + getPercentile(90)
+        + " p99=" + getPercentile(99) + " max=" + getMax();
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+
+    int msb = 63 - Long.numberOfLeadingZeros(value);
+    int shift = msb - SUB_BUCKET_BITS;
+    int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+    return (shift + 1) * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * The middle of the range of the bucket
+   * */
+  static long valueOf(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+
+    int shift = index / SUB_BUCKETS - 1;
+    int sub = index % SUB_BUCKETS;
+    long lower = (long) (SUB_BUCKETS + sub) << shift;
+    return lower + ((1L << shift) >> 1);
+  }
+}
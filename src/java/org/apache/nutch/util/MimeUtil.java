@@ -18,9 +18,17 @@
 package org.apache.nutch.util;
 
 // JDK imports
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 // Hadoop imports
@@ -39,6 +47,9 @@ import org.apache.tika.mime.MimeTypesFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * @author mattmann
  * @since NUTCH-608
@@ -54,6 +65,23 @@ public final class MimeUtil {
 
   private static final String SEPARATOR = ";";
 
+  /*
+   * magic detection of these types needs the whole content, the entries of a
+   * zip file or an OLE2 file tell the actual type
+   */
+  private static final Set<String> CONTAINER_TYPES = new HashSet<String>(Arrays.asList(
+      "application/zip", "application/x-tika-ooxml", "application/x-tika-msoffice"));
+
+  /* the tika detectors, thread safe and costly to create */
+  private static Tika sharedTika;
+
+  /* cache size -> detected types, shared by the instances with the same cache size */
+  private static final Map<Integer, Cache<String, DetectedType>> detectedTypeCaches =
+      new HashMap<Integer, Cache<String, DetectedType>>();
+
+  private static final AtomicLong detections = new AtomicLong(0);
+  private static final AtomicLong cacheHits = new AtomicLong(0);
+
   /* our Tika mime type registry */
   private MimeTypes mimeTypes;
 
@@ -63,12 +91,67 @@ public final class MimeUtil {
   /* whether or not magic should be employed or not */
   private boolean mimeMagic;
 
+  /* the magic detection inspects at most this many bytes, except for container formats */
+  private int magicLength;
+
+  /* (host, url extension, content type header) -> detected type */
+  private Cache<String, DetectedType> detectedTypes;
+
+  /* a detected type is cached after it's confirmed this many times in a row */
+  private int cacheConfidence;
+
   /* our log stream */
   private static final Logger LOG = LoggerFactory.getLogger(MimeUtil.class
       .getName());
 
+  /**
+   * A detected type and how many detections in a row confirmed it
+   * */
+  private static final class DetectedType {
+    final String type;
+    int confirmations;
+
+    DetectedType(String type) {
+      this.type = type;
+    }
+  }
+
+  /**
+   * The instance of the configuration, creating a {@link MimeUtil} for every
+   * page is costly
+   * */
+  public static MimeUtil get(Configuration conf) {
+    synchronized (MimeUtil.class) {
+      ObjectCache objectCache = ObjectCache.get(conf);
+      MimeUtil mimeUtil = (MimeUtil) objectCache.getObject(MimeUtil.class.getName());
+      if (mimeUtil == null) {
+        mimeUtil = new MimeUtil(conf);
+        objectCache.setObject(MimeUtil.class.getName(), mimeUtil);
+      }
+      return mimeUtil;
+    }
+  }
+
   public MimeUtil(Configuration conf) {
-    tika = new Tika();
+    synchronized (MimeUtil.class) {
+      if (sharedTika == null) {
+        sharedTika = new Tika();
+      }
+      int cacheSize = Math.max(0, conf.getInt("mime.type.cache.size", 10000));
+      detectedTypes = detectedTypeCaches.get(cacheSize);
+      if (detectedTypes == null) {
+        detectedTypes = CacheBuilder.newBuilder()
+            .maximumSize(cacheSize)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
+        detectedTypeCaches.put(cacheSize, detectedTypes);
+      }
+    }
+
+    tika = sharedTika;
+    magicLength = conf.getInt("mime.type.magic.length", 8192);
+    cacheConfidence = conf.getInt("mime.type.cache.confidence", 3);
+
     ObjectCache objectCache = ObjectCache.get(conf);
     MimeTypes mimeTypez = (MimeTypes) objectCache.getObject(MimeTypes.class
         .getName());
@@ -146,6 +229,23 @@ public final class MimeUtil {
    * @return The correctly, automatically guessed {@link MimeType} name.
    */
   public String autoResolveContentType(String typeName, String url, byte[] data) {
+    detections.incrementAndGet();
+
+    // the type is taken from the cache if the content did not change the
+    // type of the same header and url pattern of the host the last times
+    String cacheKey = this.mimeMagic && cacheConfidence > 0 ? getCacheKey(typeName, url) : null;
+    if (cacheKey != null) {
+      DetectedType detected = detectedTypes.getIfPresent(cacheKey);
+      if (detected != null) {
+        synchronized (detected) {
+          if (detected.confirmations >= cacheConfidence) {
+            cacheHits.incrementAndGet();
+            return detected.type;
+          }
+        }
+      }
+    }
+
     String retType = null;
     MimeType type = null;
     String cleanedMimeType = null;
@@ -191,15 +291,14 @@ public final class MimeUtil {
       tikaMeta.add(Metadata.CONTENT_TYPE,
           (cleanedMimeType != null ? cleanedMimeType : typeName));
       try {
-        InputStream stream = TikaInputStream.get(data);
-        try {
-          magicType = tika.detect(stream, tikaMeta);
-        } finally {
-          stream.close();
-        }
+        magicType = detectMagic(data, tikaMeta);
       } catch (IOException ignore) {
       }
 
+      if (cacheKey != null) {
+        confirm(cacheKey, retType, retType != null && retType.equals(magicType));
+      }
+
       if (magicType != null && !magicType.equals(MimeTypes.OCTET_STREAM)
           && !magicType.equals(MimeTypes.PLAIN_TEXT) && retType != null
           && !retType.equals(magicType)) {
@@ -222,6 +321,95 @@ public final class MimeUtil {
     return retType;
   }
 
+  /**
+   * The number of content types resolved by all instances, and how many of them
+   * are taken from the cache
+   * */
+  public static long[] getDetectionStats() {
+    return new long[] { detections.get(), cacheHits.get() };
+  }
+
+  /**
+   * Detect the type from a bounded prefix of the content. Container formats
+   * are detected again with the whole content
+   * */
+  private String detectMagic(byte[] data, Metadata tikaMeta) throws IOException {
+    if (magicLength > 0 && data.length > magicLength) {
+      String type = tika.detect(new ByteArrayInputStream(data, 0, magicLength), tikaMeta);
+      if (!CONTAINER_TYPES.contains(type)) {
+        return type;
+      }
+    }
+
+    InputStream stream = TikaInputStream.get(data);
+    try {
+      return tika.detect(stream, tikaMeta);
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Count the detections which confirm the type, a detection which changes it
+   * starts over
+   * */
+  private void confirm(String cacheKey, String type, boolean confirmed) {
+    if (!confirmed) {
+      detectedTypes.invalidate(cacheKey);
+      return;
+    }
+
+    DetectedType detected = detectedTypes.getIfPresent(cacheKey);
+    if (detected == null || !detected.type.equals(type)) {
+      detected = new DetectedType(type);
+      detectedTypes.put(cacheKey, detected);
+    }
+
+    synchronized (detected) {
+      ++detected.confirmations;
+    }
+  }
+
+  /**
+   * @return the key of the host, the extension of the url and the content type
+   *         header, or null if there is no content type header, the content
+   *         tells the type then
+   * */
+  private static String getCacheKey(String typeName, String url) {
+    String contentType = cleanMimeType(typeName);
+    if (contentType == null || contentType.trim().isEmpty() || url == null) {
+      return null;
+    }
+
+    int hostStart = url.indexOf("://");
+    if (hostStart < 0) {
+      return null;
+    }
+    hostStart += 3;
+
+    int pathStart = url.indexOf('/', hostStart);
+    String host = pathStart < 0 ? url.substring(hostStart) : url.substring(hostStart, pathStart);
+
+    String extension = "";
+    if (pathStart >= 0) {
+      int pathEnd = url.length();
+      for (int i = pathStart; i < url.length(); i++) {
+        char c = url.charAt(i);
+        if (c == '?' || c == '#') {
+          pathEnd = i;
+          break;
+        }
+      }
+
+      int dot = url.lastIndexOf('.', pathEnd - 1);
+      if (dot > url.lastIndexOf('/', pathEnd - 1) && pathEnd - dot <= 10) {
+        extension = url.substring(dot + 1, pathEnd).toLowerCase();
+      }
+    }
+
+    return host.toLowerCase() + " " + extension + " " + contentType.trim().toLowerCase();
+  }
+
   /**
    * Facade interface to Tika's underlying {@link MimeTypes#getMimeType(String)}
    * method.
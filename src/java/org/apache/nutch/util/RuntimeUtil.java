@@ -2,6 +2,8 @@ package org.apache.nutch.util;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,4 +30,15 @@ public class RuntimeUtil {
     return false;
   }
 
+  /**
+   * The total bytes allocated in heap by the current thread, -1 if the JVM does not support it
+   * */
+  public static long getCurrentThreadAllocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    return -1;
+  }
 }
@@ -24,7 +24,9 @@ import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.slf4j.Logger;
@@ -35,6 +37,8 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.fetcher.FetchMode;
 import org.apache.nutch.mapreduce.NutchUtil;
 import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.net.HttpConnectionPool;
+import org.apache.nutch.net.protocols.ConditionalGet;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.net.proxy.NoProxyException;
 import org.apache.nutch.net.proxy.ProxyPool;
@@ -47,9 +51,7 @@ import org.apache.nutch.protocol.ProtocolStatusCodes;
 import org.apache.nutch.protocol.ProtocolStatusUtils;
 import org.apache.nutch.storage.WebPage;
 import org.apache.hadoop.hbase.util.Bytes;
-import org.apache.nutch.util.GZIPUtils;
-import org.apache.nutch.util.DeflateUtils;
-import org.apache.nutch.util.GZIPUtils;
+import org.apache.nutch.util.ContentDecoder;
 import org.apache.nutch.util.MimeUtil;
 
 
@@ -123,6 +125,12 @@ public abstract class HttpBase implements Protocol {
   /** Response Time */
   protected boolean responseTime = true;
 
+  /** Do we send conditional requests for the pages fetched before? */
+  protected boolean conditionalGet = true;
+
+  /** The keep alive connections shared by the protocol instances */
+  protected HttpConnectionPool connectionPool;
+
   /** Which TLS/SSL protocols to support */
   protected Set<String> tlsPreferredProtocols;
 
@@ -164,7 +172,9 @@ public abstract class HttpBase implements Protocol {
     this.mimeTypes = new MimeUtil(conf);
     this.useHttp11 = conf.getBoolean("http.useHttp11", false);
     this.responseTime = conf.getBoolean("http.store.responsetime", true);
+    this.conditionalGet = conf.getBoolean(ConditionalGet.ENABLED_KEY, true);
     this.robots.setConf(conf);
+    this.connectionPool = HttpConnectionPool.getInstance(conf);
 
     String[] protocols = conf.getStrings("http.tls.supported.protocols",
         "TLSv1.2", "TLSv1.1", "TLSv1", "SSLv3");
@@ -223,7 +233,9 @@ public abstract class HttpBase implements Protocol {
         "http.content.limit", maxContent,
         "http.agent", userAgent,
         "http.accept.language", acceptLanguage,
-        "http.accept", accept
+        "http.accept", accept,
+        "http.keep.alive", connectionPool.isEnabled(),
+        "http.conditional.get", conditionalGet
     ));
   }
 
@@ -240,6 +252,7 @@ public abstract class HttpBase implements Protocol {
       long startTime = System.currentTimeMillis();
 
       int retry = 0;
+      Exception lastException = null;
       while (response == null && retry < this.fetchMaxRetry) {
         try {
           if (retry > 0) {
@@ -247,9 +260,14 @@ public abstract class HttpBase implements Protocol {
           }
 
           response = getResponse(u, page, false);
-        } catch (NoProxyException | SocketException | SocketTimeoutException | EOFException e) {
+        } catch (NoProxyException e) {
+          // all proxies are busy or retired, the fetcher gives the url back to its queue a few times
+          logger.debug("{}, {}", e.getMessage(), url);
+          return new ProtocolOutput(null, ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.WOULDBLOCK, e.getMessage()));
+        } catch (SocketException | SocketTimeoutException | EOFException e) {
           ++retry;
           response = null;
+          lastException = e;
           logger.warn("{}, retry : {}", e, retry);
         } finally {
         }
@@ -259,7 +277,8 @@ public abstract class HttpBase implements Protocol {
       int elapsedTime = (int) (System.currentTimeMillis() - startTime);
 
       if (response == null) {
-        String e = "failed to fetch : " + url;
+        // the cause comes before the url, so the fetcher can classify the failure
+        String e = "failed to fetch" + (lastException == null ? "" : ", " + lastException) + " : " + url;
         logger.error(e);
         return new ProtocolOutput(null, ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.EXCEPTION, e));
       }
@@ -277,6 +296,8 @@ public abstract class HttpBase implements Protocol {
       Content c = new Content(u.toString(), u.toString(),
           (content == null ? EMPTY_CONTENT : content),
           response.getHeader("Content-Type"), response.getHeaders(), mimeTypes);
+      // the status code goes to the content metadata only, the WARC output needs it
+      c.getMetadata().set(Response.Q_STATUS_CODE, String.valueOf(code));
 
       if (code == 200) { // got a good response
         return new ProtocolOutput(c); // return it
@@ -395,6 +416,22 @@ public abstract class HttpBase implements Protocol {
     return useHttp11;
   }
 
+  /**
+   * The If-None-Match and If-Modified-Since request headers built from the
+   * stored headers of the page, empty if conditional requests are disabled or
+   * the page is not fetched before
+   * */
+  public List<String[]> getConditionalHeaders(WebPage page) {
+    if (!conditionalGet) {
+      return Collections.emptyList();
+    }
+    return ConditionalGet.getHeaders(page);
+  }
+
+  public HttpConnectionPool getConnectionPool() {
+    return connectionPool;
+  }
+
   public Set<String> getTlsPreferredCipherSuites() {
     return tlsPreferredCipherSuites;
   }
@@ -447,45 +484,34 @@ public abstract class HttpBase implements Protocol {
 
   public byte[] processGzipEncoded(byte[] compressed, URL url)
       throws IOException {
-
-    if (LOGGER.isTraceEnabled()) {
-      LOGGER.trace("uncompressing....");
-    }
-
-    byte[] content;
-    if (getMaxContent() >= 0) {
-      content = GZIPUtils.unzipBestEffort(compressed, getMaxContent());
-    } else {
-      content = GZIPUtils.unzipBestEffort(compressed);
-    }
-
-    if (content == null)
-      throw new IOException("unzipBestEffort returned null");
-
-    if (LOGGER.isTraceEnabled()) {
-      LOGGER.trace("fetched " + compressed.length
-          + " bytes of compressed content (expanded to " + content.length
-          + " bytes) from " + url);
-    }
-    return content;
+    return processEncoded(compressed, ContentDecoder.GZIP, url);
   }
 
   public byte[] processDeflateEncoded(byte[] compressed, URL url)
       throws IOException {
+    return processEncoded(compressed, ContentDecoder.DEFLATE, url);
+  }
 
-    if (LOGGER.isTraceEnabled()) {
-      LOGGER.trace("inflating....");
+  /**
+   * Decode the content read as a whole, truncated to the content limit. The
+   * protocols decode the content while it's read if they can, see
+   * {@link ContentDecoder}.
+   * */
+  public byte[] processEncoded(byte[] encoded, String contentEncoding, URL url)
+      throws IOException {
+    if (!ContentDecoder.isEncoded(contentEncoding)) {
+      return encoded;
     }
 
-    byte[] content = DeflateUtils
-        .inflateBestEffort(compressed, getMaxContent());
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("decoding " + contentEncoding + "....");
+    }
 
-    if (content == null)
-      throw new IOException("inflateBestEffort returned null");
+    byte[] content = ContentDecoder.decode(encoded, contentEncoding, getMaxContent());
 
     if (LOGGER.isTraceEnabled()) {
-      LOGGER.trace("fetched " + compressed.length
-          + " bytes of compressed content (expanded to " + content.length
+      LOGGER.trace("fetched " + encoded.length
+          + " bytes of " + contentEncoding + " content (expanded to " + content.length
           + " bytes) from " + url);
     }
     return content;
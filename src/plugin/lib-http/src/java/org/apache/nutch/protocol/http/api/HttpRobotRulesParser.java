@@ -18,16 +18,18 @@
 package org.apache.nutch.protocol.http.api;
 
 import crawlercommons.robots.BaseRobotRules;
-import crawlercommons.robots.SimpleRobotRules;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.Protocol;
+import org.apache.nutch.protocol.RobotRulesCache;
+import org.apache.nutch.protocol.RobotRulesCache.RobotsFile;
 import org.apache.nutch.protocol.RobotRulesParser;
 import org.apache.nutch.storage.WebPage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URL;
+import java.util.concurrent.Callable;
 
 /**
  * This class is used for parsing robots for urls belonging to HTTP protocol. It
@@ -50,19 +52,7 @@ public class HttpRobotRulesParser extends RobotRulesParser {
 
   /** Compose unique key to store and access robot rules in cache for given URL */
   protected static String getCacheKey(URL url) {
-    String protocol = url.getProtocol().toLowerCase(); // normalize to lower
-                                                       // case
-    String host = url.getHost().toLowerCase(); // normalize to lower case
-    int port = url.getPort();
-    if (port == -1) {
-      port = url.getDefaultPort();
-    }
-    /*
-     * Robot rules apply only to host, protocol, and port where robots.txt is
-     * hosted (cf. NUTCH-1752). Consequently
-     */
-    String cacheKey = protocol + ":" + host + ":" + port;
-    return cacheKey;
+    return RobotRulesCache.getCacheKey(url);
   }
 
   /**
@@ -70,7 +60,8 @@ public class HttpRobotRulesParser extends RobotRulesParser {
    * Robot rules are cached for a unique combination of host, protocol, and
    * port. If no rules are found in the cache, a HTTP request is send to fetch
    * {{protocol://host:port/robots.txt}}. The robots.txt is then parsed and the
-   * rules are cached to avoid re-fetching and re-parsing it again.
+   * rules are cached to avoid re-fetching and re-parsing it again. Concurrent
+   * misses of the same host wait for a single fetch.
    * 
    * @param http
    *          The {@link Protocol} object
@@ -79,68 +70,103 @@ public class HttpRobotRulesParser extends RobotRulesParser {
    * 
    * @return {@link BaseRobotRules} holding the rules from robots.txt
    */
-  public BaseRobotRules getRobotRulesSet(Protocol http, URL url) {
-
-    String cacheKey = getCacheKey(url);
-    BaseRobotRules robotRules = (SimpleRobotRules) CACHE.get(cacheKey);
+  public BaseRobotRules getRobotRulesSet(final Protocol http, final URL url) {
+    final RobotRulesCache cache = getCache();
+    final String cacheKey = getCacheKey(url);
+
+    // set by the thread which loads the rules
+    final boolean[] cacheRule = { true };
+    final URL[] redir = { null };
+
+    BaseRobotRules robotRules = cache.get(cacheKey, new Callable<BaseRobotRules>() {
+      @Override
+      public BaseRobotRules call() {
+        if (LOG.isTraceEnabled()) {
+          LOG.trace("cache miss " + url);
+        }
 
-    boolean cacheRule = true;
+        RobotsFile file = cache.loadFile(cacheKey);
+        if (file != null) {
+          return getRobotRules(url, file);
+        }
 
-    if (robotRules == null) { // cache miss
-      URL redir = null;
-      if (LOG.isTraceEnabled()) {
-        LOG.trace("cache miss " + url);
-      }
-      try {
-        Response response = ((HttpBase) http).getResponse(new URL(url,
-            "/robots.txt"), WebPage.newBuilder().build(), true);
-        // try one level of redirection ?
-        if (response.getCode() == 301 || response.getCode() == 302) {
-          String redirection = response.getHeader("Location");
-          if (redirection == null) {
-            // some versions of MS IIS are known to mangle this header
-            redirection = response.getHeader("location");
-          }
-          if (redirection != null) {
-            if (!redirection.startsWith("http")) {
-              // RFC says it should be absolute, but apparently it isn't
-              redir = new URL(url, redirection);
-            } else {
-              redir = new URL(redirection);
-            }
-
-            response = ((HttpBase) http).getResponse(redir, WebPage
-                .newBuilder().build(), true);
+        try {
+          file = fetchRobotsFile((HttpBase) http, url, redir);
+        } catch (Throwable t) {
+          if (LOG.isInfoEnabled()) {
+            LOG.info("Couldn't get robots.txt for " + url + ": " + t.toString());
           }
+          cacheRule[0] = false;
+          return EMPTY_RULES;
         }
 
-        if (response.getCode() == 200) // found rules: parse them
-          robotRules = parseRules(url.toString(), response.getContent(),
-              response.getHeader("Content-Type"), agentNames);
-
-        else if ((response.getCode() == 403) && (!allowForbidden))
-          robotRules = FORBID_ALL_RULES; // use forbid all
-        else if (response.getCode() >= 500) {
-          cacheRule = false;
-          robotRules = EMPTY_RULES;
-        } else
-          robotRules = EMPTY_RULES; // use default rules
-      } catch (Throwable t) {
-        if (LOG.isInfoEnabled()) {
-          LOG.info("Couldn't get robots.txt for " + url + ": " + t.toString());
+        if (file.getCode() >= 500) {
+          cacheRule[0] = false;
+        } else if (cache.isHostDbEnabled()) {
+          cache.saveFile(cacheKey, file);
         }
-        cacheRule = false;
-        robotRules = EMPTY_RULES;
+
+        return getRobotRules(url, file);
       }
+    });
+
+    if (robotRules == null) {
+      robotRules = EMPTY_RULES;
+      cacheRule[0] = false;
+    }
+
+    if (!cacheRule[0]) {
+      // try again later
+      cache.putTransient(cacheKey, robotRules);
+    } else if (redir[0] != null && !redir[0].getHost().equalsIgnoreCase(url.getHost())) {
+      // cache also for the redirected host
+      cache.put(getCacheKey(redir[0]), robotRules);
+    }
+
+    return robotRules;
+  }
 
-      if (cacheRule) {
-        CACHE.put(cacheKey, robotRules); // cache rules for host
-        if (redir != null && !redir.getHost().equalsIgnoreCase(url.getHost())) {
-          // cache also for the redirected host
-          CACHE.put(getCacheKey(redir), robotRules);
+  /**
+   * Fetch robots.txt, following one level of redirection
+   *
+   * @param redir set to the url robots.txt is redirected to
+   */
+  protected RobotsFile fetchRobotsFile(HttpBase http, URL url, URL[] redir) throws Exception {
+    Response response = http.getResponse(new URL(url, "/robots.txt"),
+        WebPage.newBuilder().build(), true);
+    // try one level of redirection ?
+    if (response.getCode() == 301 || response.getCode() == 302) {
+      String redirection = response.getHeader("Location");
+      if (redirection == null) {
+        // some versions of MS IIS are known to mangle this header
+        redirection = response.getHeader("location");
+      }
+      if (redirection != null) {
+        if (!redirection.startsWith("http")) {
+          // RFC says it should be absolute, but apparently it isn't
+          redir[0] = new URL(url, redirection);
+        } else {
+          redir[0] = new URL(redirection);
         }
+
+        response = http.getResponse(redir[0], WebPage.newBuilder().build(), true);
       }
     }
-    return robotRules;
+
+    return new RobotsFile(response.getCode(), response.getHeader("Content-Type"),
+        response.getContent(), System.currentTimeMillis());
+  }
+
+  /**
+   * Parse the fetched or saved robots.txt
+   */
+  protected BaseRobotRules getRobotRules(URL url, RobotsFile file) {
+    if (file.getCode() == 200) // found rules: parse them
+      return parseRules(url.toString(), file.getContent(),
+          file.getContentType(), agentNames);
+    else if ((file.getCode() == 403) && (!allowForbidden))
+      return FORBID_ALL_RULES; // use forbid all
+    else
+      return EMPTY_RULES; // use default rules
   }
 }
@@ -96,6 +96,14 @@ public class DOMContentUtils {
     }
   }
 
+  /**
+   * The link parameters of an element, or null if the element is not a link,
+   * the element name is lower case
+   */
+  public LinkParams getLinkParams(String elName) {
+    return linkParams.get(elName);
+  }
+
   /**
    * This method takes a {@link StringBuilder} and a DOM {@link Node}, and will
    * append all the content text found beneath the DOM node to the
@@ -0,0 +1,446 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.parse.ParseExecutor;
+import org.apache.nutch.parse.html.DOMContentUtils.LinkParams;
+import org.apache.nutch.util.URLUtil;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Extracts the text, the title, the meta tags, the base and the outlinks of a
+ * page in one pass over the SAX events of the html parser, without building a
+ * DOM tree. The result is the same as {@link DOMContentUtils} and
+ * {@link HTMLMetaProcessor} give for the DOM tree built by the same parser.
+ * 
+ * A handler is used for one page, it's not thread safe.
+ */
+public class HtmlContentHandler extends DefaultHandler implements LexicalHandler {
+
+  // the kinds of the first children of a link element, see DOMContentUtils.shouldThrowAwayLink
+  private static final int SAME_ELEMENT = 0;
+  private static final int OTHER_ELEMENT = 1;
+  private static final int WHITESPACE_TEXT = 2;
+  private static final int TEXT = 3;
+  private static final int OTHER = 4;
+
+  private static final int TRACKED_CHILDREN = 3;
+
+  // check if the parse is cancelled every this many elements
+  private static final int CANCEL_CHECK_INTERVAL = 256;
+
+  private final DOMContentUtils utils;
+  private final HTMLMetaTags metaTags;
+  private final URL currURL;
+
+  private final StringBuilder text = new StringBuilder();
+  private final StringBuilder title = new StringBuilder();
+  // the characters of the current text node, a text node may come in many events
+  private final StringBuilder pendingText = new StringBuilder();
+  private URL base = null;
+
+  private int depth = 0;
+  private int elements = 0;
+  // the number of open script and style elements, their text is not extracted
+  private int skipDepth = 0;
+  private int titleDepth = -1;
+  private boolean titleFound = false;
+  private boolean bodyFound = false;
+  private boolean inCDATA = false;
+
+  // the link elements in document order, and the open ones
+  private final ArrayList<LinkState> links = new ArrayList<LinkState>();
+  private final ArrayList<LinkState> openLinks = new ArrayList<LinkState>();
+
+  /**
+   * @param utils
+   *          the link parameters
+   * @param metaTags
+   *          the meta tags found before the body are set
+   * @param currURL
+   *          the url of the page, relative urls of the meta tags are resolved
+   *          against it
+   */
+  public HtmlContentHandler(DOMContentUtils utils, HTMLMetaTags metaTags, URL currURL) {
+    this.utils = utils;
+    this.metaTags = metaTags;
+    this.currURL = currURL;
+  }
+
+  /**
+   * The text of the page, as {@link DOMContentUtils#getText(StringBuilder, org.w3c.dom.Node)} gives
+   */
+  public String getText() {
+    return text.toString();
+  }
+
+  /**
+   * The text of the first title before the body, not trimmed
+   */
+  public String getTitle() {
+    return title.toString();
+  }
+
+  /**
+   * The href of the first BASE tag before the body, or null
+   */
+  public URL getBase() {
+    return base;
+  }
+
+  /**
+   * Adds the outlinks of the page, relative to the supplied <code>base</code>
+   * URL, the same links {@link DOMContentUtils#getOutlinks} finds
+   */
+  public void getOutlinks(URL base, ArrayList<Outlink> outlinks) {
+    for (LinkState link : links) {
+      if (link.shouldThrowAway() || link.target == null || link.noFollow || link.post) {
+        continue;
+      }
+
+      try {
+        URL url = URLUtil.resolveURL(base, link.target);
+        outlinks.add(new Outlink(url.toString(), link.text.toString().trim()));
+      } catch (MalformedURLException e) {
+        // don't care
+      }
+    }
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+    if (++elements % CANCEL_CHECK_INTERVAL == 0 && ParseExecutor.isCancelled()) {
+      throw new SAXException("Parse is cancelled after " + elements + " elements");
+    }
+
+    flushText();
+
+    String name = (localName != null && !localName.isEmpty() ? localName : qName).toLowerCase();
+
+    LinkState parent = getParentLink();
+    if (parent != null) {
+      parent.addChild(name.equals(parent.params.elName) ? SAME_ELEMENT : OTHER_ELEMENT);
+    }
+
+    ++depth;
+
+    if ("body".equals(name)) {
+      bodyFound = true;
+    }
+
+    // meta tags, base and title are looked for before the body only
+    if (!bodyFound) {
+      if ("meta".equals(name)) {
+        HTMLMetaProcessor.processMeta(metaTags, getAttribute(atts, "name"),
+            getAttribute(atts, "http-equiv"), getAttribute(atts, "content"), currURL);
+      } else if ("base".equals(name)) {
+        processBase(getAttribute(atts, "href"));
+      } else if ("title".equals(name) && !titleFound && titleDepth == -1) {
+        titleDepth = depth;
+      }
+    }
+
+    if ("script".equals(name) || "style".equals(name)) {
+      ++skipDepth;
+    }
+
+    if ("a".equals(name)) {
+      // the text of a link ends at a nested anchor
+      for (LinkState link : openLinks) {
+        if (++link.anchors > 1) {
+          link.aborted = true;
+        }
+      }
+    }
+
+    LinkParams params = utils.getLinkParams(name);
+    if (params != null) {
+      LinkState link = new LinkState(params, depth, atts);
+      if ("a".equals(name)) {
+        link.anchors = 1;
+      }
+      links.add(link);
+      openLinks.add(link);
+    }
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) {
+    flushText();
+
+    String name = (localName != null && !localName.isEmpty() ? localName : qName).toLowerCase();
+    if (("script".equals(name) || "style".equals(name)) && skipDepth > 0) {
+      --skipDepth;
+    }
+
+    if (titleDepth == depth) {
+      titleFound = true;
+      titleDepth = -1;
+    }
+
+    int last = openLinks.size() - 1;
+    if (last >= 0 && openLinks.get(last).depth == depth) {
+      openLinks.remove(last);
+    }
+
+    --depth;
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) {
+    // a CDATA section is no text node
+    if (!inCDATA) {
+      pendingText.append(ch, start, length);
+    }
+  }
+
+  @Override
+  public void ignorableWhitespace(char[] ch, int start, int length) {
+    characters(ch, start, length);
+  }
+
+  @Override
+  public void processingInstruction(String target, String data) {
+    flushText();
+    addChild(OTHER);
+  }
+
+  @Override
+  public void endDocument() {
+    flushText();
+  }
+
+  @Override
+  public void comment(char[] ch, int start, int length) {
+    flushText();
+    addChild(OTHER);
+  }
+
+  @Override
+  public void startCDATA() {
+    flushText();
+    addChild(OTHER);
+    inCDATA = true;
+  }
+
+  @Override
+  public void endCDATA() {
+    inCDATA = false;
+  }
+
+  @Override
+  public void startDTD(String name, String publicId, String systemId) {
+  }
+
+  @Override
+  public void endDTD() {
+  }
+
+  @Override
+  public void startEntity(String name) {
+  }
+
+  @Override
+  public void endEntity(String name) {
+  }
+
+  private void processBase(String href) {
+    if (href == null) {
+      return;
+    }
+
+    HTMLMetaProcessor.processBase(metaTags, href, currURL);
+
+    // the base of the outlinks has to be absolute
+    if (base == null) {
+      try {
+        base = new URL(href);
+      } catch (MalformedURLException e) {
+      }
+    }
+  }
+
+  /**
+   * The text node is complete, extract its text
+   */
+  private void flushText() {
+    if (pendingText.length() == 0) {
+      return;
+    }
+
+    String value = pendingText.toString();
+    pendingText.setLength(0);
+
+    addChild(isWhitespace(value) ? WHITESPACE_TEXT : TEXT);
+
+    if (skipDepth > 0) {
+      return;
+    }
+
+    String cleaned = collapseWhitespace(value);
+    if (cleaned.isEmpty()) {
+      return;
+    }
+
+    append(text, cleaned);
+    if (titleDepth != -1) {
+      append(title, cleaned);
+    }
+    for (LinkState link : openLinks) {
+      if (!link.aborted) {
+        append(link.text, cleaned);
+      }
+    }
+  }
+
+  private void addChild(int kind) {
+    LinkState parent = getParentLink();
+    if (parent != null) {
+      parent.addChild(kind);
+    }
+  }
+
+  /**
+   * The link element the current node is a child of, or null
+   */
+  private LinkState getParentLink() {
+    int last = openLinks.size() - 1;
+    if (last >= 0 && openLinks.get(last).depth == depth) {
+      return openLinks.get(last);
+    }
+    return null;
+  }
+
+  private static void append(StringBuilder sb, String text) {
+    if (sb.length() > 0) {
+      sb.append(' ');
+    }
+    sb.append(text);
+  }
+
+  /**
+   * The same as text.replaceAll("\\s+", " ").trim()
+   */
+  private static String collapseWhitespace(String text) {
+    StringBuilder sb = new StringBuilder(text.length());
+    boolean space = false;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r') {
+        if (!space) {
+          sb.append(' ');
+          space = true;
+        }
+      } else {
+        sb.append(c);
+        space = false;
+      }
+    }
+    return sb.toString().trim();
+  }
+
+  private static boolean isWhitespace(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (!Character.isWhitespace(text.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String getAttribute(Attributes atts, String name) {
+    String value = null;
+    for (int i = 0; i < atts.getLength(); i++) {
+      if (name.equalsIgnoreCase(getName(atts, i))) {
+        value = atts.getValue(i);
+      }
+    }
+    return value;
+  }
+
+  private static String getName(Attributes atts, int i) {
+    String name = atts.getLocalName(i);
+    return name == null || name.isEmpty() ? atts.getQName(i) : name;
+  }
+
+  /**
+   * A link element, its link text is collected while it's open
+   */
+  private static class LinkState {
+    final LinkParams params;
+    final int depth;
+    final StringBuilder text = new StringBuilder();
+    String target = null;
+    boolean noFollow = false;
+    boolean post = false;
+    int anchors = 0;
+    boolean aborted = false;
+    int children = 0;
+    final int[] kinds = new int[TRACKED_CHILDREN];
+
+    LinkState(LinkParams params, int depth, Attributes atts) {
+      this.params = params;
+      this.depth = depth;
+
+      for (int i = 0; i < atts.getLength(); i++) {
+        String attrName = getName(atts, i);
+        String value = atts.getValue(i);
+        if (params.attrName.equalsIgnoreCase(attrName)) {
+          target = value;
+        } else if ("rel".equalsIgnoreCase(attrName) && "nofollow".equalsIgnoreCase(value)) {
+          noFollow = true;
+        } else if ("method".equalsIgnoreCase(attrName) && "post".equalsIgnoreCase(value)) {
+          post = true;
+        }
+      }
+    }
+
+    void addChild(int kind) {
+      if (children < TRACKED_CHILDREN) {
+        kinds[children] = kind;
+      }
+      ++children;
+    }
+
+    /**
+     * The same cases of empty links as DOMContentUtils.shouldThrowAwayLink
+     */
+    boolean shouldThrowAway() {
+      if (children == 0) {
+        return params.childLen != 0;
+      } else if (children == 1) {
+        return kinds[0] == SAME_ELEMENT;
+      } else if (children == 2) {
+        return (kinds[0] == SAME_ELEMENT && kinds[1] == WHITESPACE_TEXT)
+            || (kinds[1] == SAME_ELEMENT && kinds[0] == WHITESPACE_TEXT);
+      } else if (children == 3) {
+        return kinds[1] == SAME_ELEMENT && kinds[0] == WHITESPACE_TEXT && kinds[2] == WHITESPACE_TEXT;
+      }
+      return false;
+    }
+  }
+}
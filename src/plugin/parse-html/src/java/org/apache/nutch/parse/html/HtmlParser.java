@@ -38,12 +38,14 @@ import org.apache.avro.util.Utf8;
 import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.html.dom.HTMLDocumentImpl;
+import org.apache.nutch.crawl.filters.CrawlFilter;
 import org.apache.nutch.crawl.filters.CrawlFilters;
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.Nutch;
 import org.apache.nutch.parse.HTMLMetaTags;
 import org.apache.nutch.parse.Outlink;
 import org.apache.nutch.parse.Parse;
+import org.apache.nutch.parse.ParseExecutor;
 import org.apache.nutch.parse.ParseFilters;
 import org.apache.nutch.parse.ParseStatusCodes;
 import org.apache.nutch.parse.ParseStatusUtils;
@@ -61,6 +63,7 @@ import org.w3c.dom.DocumentFragment;
 import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 import com.google.gson.Gson;
 
@@ -103,6 +106,8 @@ public class HtmlParser implements Parser {
 
   private String cachingPolicy;
 
+  private boolean streaming;
+
   public void setConf(Configuration conf) {
     this.conf = conf;
     this.htmlParseFilters = new ParseFilters(getConf());
@@ -111,6 +116,7 @@ public class HtmlParser implements Parser {
     this.utils = new DOMContentUtils(conf);
     this.cachingPolicy = getConf().get("parser.caching.forbidden.policy", Nutch.CACHING_FORBIDDEN_CONTENT);
     this.crawlFilters = CrawlFilters.create(conf);
+    this.streaming = getConf().getBoolean("parser.html.streaming", false);
   }
 
   public Parse getParse(String url, WebPage page) {
@@ -128,8 +134,10 @@ public class HtmlParser implements Parser {
     String title = "";
     Outlink[] outlinks = new Outlink[0];
 
-    // parse the content
-    DocumentFragment root;
+    // parse the content, in streaming mode the DOM is built only if a parse
+    // filter or a block filter needs it
+    DocumentFragment root = null;
+    HtmlContentHandler handler = null;
     try {
       ByteBuffer contentInOctets = page.getContent();
       InputSource input = new InputSource(new ByteArrayInputStream(
@@ -150,7 +158,12 @@ public class HtmlParser implements Parser {
       if (LOG.isTraceEnabled()) {
         LOG.trace("Parsing...");
       }
-      root = parse(input);
+      if (streaming && !isDomRequired()) {
+        handler = new HtmlContentHandler(utils, metaTags, base);
+        parse(input, handler);
+      } else {
+        root = parse(input);
+      }
     } catch (IOException e) {
       LOG.error("Failed with the following IOException: ", e);
       return ParseStatusUtils.getEmptyParse(e, getConf());
@@ -165,8 +178,10 @@ public class HtmlParser implements Parser {
       return ParseStatusUtils.getEmptyParse(e, getConf());
     }
 
-    // get meta directives
-    HTMLMetaProcessor.getMetaTags(metaTags, root, base);
+    // get meta directives, the handler has got them while parsing
+    if (root != null) {
+      HTMLMetaProcessor.getMetaTags(metaTags, root, base);
+    }
     if (LOG.isTraceEnabled()) {
       LOG.trace("Meta tags for " + base + ": " + metaTags.toString());
     }
@@ -177,24 +192,33 @@ public class HtmlParser implements Parser {
       if (LOG.isTraceEnabled()) {
         LOG.trace("Getting text...");
       }
-      utils.getText(sb, root); // extract text
-      text = sb.toString();
-      sb.setLength(0);
-      if (LOG.isTraceEnabled()) {
-        LOG.trace("Getting title...");
+      if (root != null) {
+        utils.getText(sb, root); // extract text
+        text = sb.toString();
+        sb.setLength(0);
+        if (LOG.isTraceEnabled()) {
+          LOG.trace("Getting title...");
+        }
+        utils.getTitle(sb, root); // extract title
+        title = sb.toString().trim();
+      } else {
+        text = handler.getText();
+        title = handler.getTitle().trim();
       }
-      utils.getTitle(sb, root); // extract title
-      title = sb.toString().trim();
     }
 
     if (crawlFilters.testTextSatisfied(text)) {
       if (!metaTags.getNoFollow()) { // okay to follow links
         ArrayList<Outlink> l = new ArrayList<Outlink>(); // extract outlinks
-        URL baseTag = utils.getBase(root);
+        URL baseTag = root != null ? utils.getBase(root) : handler.getBase();
         if (LOG.isTraceEnabled()) {
           LOG.trace("Getting links...");
         }
-        utils.getOutlinks(baseTag != null ? baseTag : base, l, root, crawlFilters);
+        if (root != null) {
+          utils.getOutlinks(baseTag != null ? baseTag : base, l, root, crawlFilters);
+        } else {
+          handler.getOutlinks(baseTag != null ? baseTag : base, l);
+        }
         outlinks = l.toArray(new Outlink[l.size()]);
         if (LOG.isTraceEnabled()) {
           LOG.trace("found " + outlinks.length + " outlinks in " + url);
@@ -300,6 +324,40 @@ public class HtmlParser implements Parser {
     return encoding;
   }
 
+  /**
+   * The DOM is required if a parse filter needs it or if a crawl filter
+   * allows or disallows blocks of the page
+   */
+  private boolean isDomRequired() {
+    if (htmlParseFilters.isDomRequired()) {
+      return true;
+    }
+
+    for (CrawlFilter filter : crawlFilters.getCrawlFilters()) {
+      if (filter.getBlockFilter() != null) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Parse without building a DOM, the handler gets the SAX events
+   */
+  private void parse(InputSource input, HtmlContentHandler handler) throws Exception {
+    XMLReader reader;
+    if (parserImpl.equalsIgnoreCase("tagsoup")) {
+      reader = newTagSoupReader();
+    } else {
+      reader = newNekoSAXParser(defaultCharEncoding);
+    }
+
+    reader.setContentHandler(handler);
+    reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+    reader.parse(input);
+  }
+
   private DocumentFragment parse(InputSource input) throws Exception {
     if (parserImpl.equalsIgnoreCase("tagsoup"))
       return parseTagSoup(input);
@@ -307,20 +365,44 @@ public class HtmlParser implements Parser {
       return parseNeko(input);
   }
 
+  private static XMLReader newTagSoupReader() throws SAXException {
+    org.ccil.cowan.tagsoup.Parser reader = new org.ccil.cowan.tagsoup.Parser();
+    reader.setFeature(org.ccil.cowan.tagsoup.Parser.ignoreBogonsFeature, true);
+    reader.setFeature(org.ccil.cowan.tagsoup.Parser.bogonsEmptyFeature, false);
+    return reader;
+  }
+
+  /**
+   * A SAX parser configured as the DOM fragment parser is, so the handler
+   * sees the same tree the DOM walk sees
+   */
+  static XMLReader newNekoSAXParser(String defaultCharEncoding) {
+    org.cyberneko.html.parsers.SAXParser parser = new org.cyberneko.html.parsers.SAXParser();
+    try {
+      parser.setFeature("http://cyberneko.org/html/features/scanner/allow-selfclosing-iframe", true);
+      parser.setFeature("http://cyberneko.org/html/features/augmentations", true);
+      parser.setProperty("http://cyberneko.org/html/properties/default-encoding", defaultCharEncoding);
+      parser.setFeature("http://cyberneko.org/html/features/scanner/ignore-specified-charset", true);
+      parser.setFeature("http://cyberneko.org/html/features/balance-tags/ignore-outside-content", false);
+      parser.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment", true);
+      parser.setFeature("http://cyberneko.org/html/features/report-errors", LOG.isTraceEnabled());
+    } catch (SAXException e) {
+    }
+    return parser;
+  }
+
   private DocumentFragment parseTagSoup(InputSource input) throws Exception {
     HTMLDocumentImpl doc = new HTMLDocumentImpl();
     DocumentFragment frag = doc.createDocumentFragment();
     DOMBuilder builder = new DOMBuilder(doc, frag);
-    org.ccil.cowan.tagsoup.Parser reader = new org.ccil.cowan.tagsoup.Parser();
+    XMLReader reader = newTagSoupReader();
     reader.setContentHandler(builder);
-    reader.setFeature(org.ccil.cowan.tagsoup.Parser.ignoreBogonsFeature, true);
-    reader.setFeature(org.ccil.cowan.tagsoup.Parser.bogonsEmptyFeature, false);
     reader.setProperty("http://xml.org/sax/properties/lexical-handler", builder);
     reader.parse(input);
     return frag;
   }
 
-  private DocumentFragment parseNeko(InputSource input) throws Exception {
+  static org.cyberneko.html.parsers.DOMFragmentParser newNekoDOMParser(String defaultCharEncoding) {
     org.cyberneko.html.parsers.DOMFragmentParser parser = 
         new org.cyberneko.html.parsers.DOMFragmentParser();
     try {
@@ -348,6 +430,11 @@ public class HtmlParser implements Parser {
           LOG.isTraceEnabled());
     } catch (SAXException e) {
     }
+    return parser;
+  }
+
+  private DocumentFragment parseNeko(InputSource input) throws Exception {
+    org.cyberneko.html.parsers.DOMFragmentParser parser = newNekoDOMParser(defaultCharEncoding);
 
     // convert Document to DocumentFragment
     HTMLDocumentImpl doc = new HTMLDocumentImpl();
@@ -359,6 +446,10 @@ public class HtmlParser implements Parser {
 
     try {
       while (true) {
+        if (ParseExecutor.isCancelled()) {
+          LOG.warn("Parse is cancelled");
+          break;
+        }
         frag = doc.createDocumentFragment();
         parser.parse(input, frag);
         if (!frag.hasChildNodes())
@@ -0,0 +1,204 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.parse.html;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.html.dom.HTMLDocumentImpl;
+import org.apache.nutch.crawl.filters.CrawlFilters;
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.RuntimeUtil;
+import org.w3c.dom.DocumentFragment;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * Compares extracting text, title, meta tags, base and outlinks from a DOM,
+ * as {@link HtmlParser} does by default, against the single streaming pass of
+ * {@link HtmlContentHandler}. Both use neko. Reports the throughput and the
+ * bytes allocated per page.
+ *
+ * The corpus is read from a directory, every file is a page. Generated pages
+ * are used without a corpus.
+ *
+ * Usage: HtmlParserBenchmark [-corpus dir] [-pages NN] [-seconds NN]
+ */
+public class HtmlParserBenchmark extends Configured implements Tool {
+
+  private static final String BASE = "http://www.example.com/";
+
+  public static void main(String[] args) throws Exception {
+    Configuration conf = NutchConfiguration.create();
+    int res = ToolRunner.run(conf, new HtmlParserBenchmark(), args);
+    System.exit(res);
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    String corpus = null;
+    int pageCount = 200;
+    int seconds = 5;
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-corpus")) {
+        corpus = args[++i];
+      } else if (args[i].equals("-pages")) {
+        pageCount = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-seconds")) {
+        seconds = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println("Usage: HtmlParserBenchmark [-corpus dir] [-pages NN] [-seconds NN]");
+        return -1;
+      }
+    }
+
+    List<byte[]> pages = corpus == null ? generatePages(pageCount) : readPages(new File(corpus));
+    if (pages.isEmpty()) {
+      System.err.println("No pages in " + corpus);
+      return -1;
+    }
+
+    long size = 0;
+    for (byte[] page : pages) {
+      size += page.length;
+    }
+    System.out.println(pages.size() + " pages, " + size / pages.size() + " bytes per page");
+
+    System.out.println("parser\tpages/s\tMB/s\tallocated bytes/page\toutlinks/page");
+    for (boolean streaming : new boolean[] { false, true }) {
+      // warm up
+      benchmark(pages, streaming, 1);
+      long[] result = benchmark(pages, streaming, seconds);
+      System.out.println((streaming ? "streaming" : "dom") + "\t" + result[2] / seconds + "\t"
+          + result[0] / seconds / (1024 * 1024) + "\t" + result[1] / Math.max(1, result[2]) + "\t"
+          + result[3] / Math.max(1, result[2]));
+    }
+
+    return 0;
+  }
+
+  /**
+   * @return parsed bytes, allocated bytes, parsed pages and outlinks found
+   * */
+  public long[] benchmark(List<byte[]> pages, boolean streaming, int seconds) throws Exception {
+    Configuration conf = getConf();
+    DOMContentUtils utils = new DOMContentUtils(conf);
+    CrawlFilters crawlFilters = new CrawlFilters(conf);
+    String defaultCharEncoding = conf.get("parser.character.encoding.default", "windows-1252");
+    URL base = new URL(BASE);
+
+    long parsedBytes = 0;
+    long parsedPages = 0;
+    long outlinkCount = 0;
+    long allocatedBytes = RuntimeUtil.getCurrentThreadAllocatedBytes();
+    long deadline = System.currentTimeMillis() + seconds * 1000L;
+
+    while (System.currentTimeMillis() < deadline) {
+      for (byte[] page : pages) {
+        HTMLMetaTags metaTags = new HTMLMetaTags();
+        ArrayList<Outlink> outlinks = new ArrayList<Outlink>();
+
+        if (streaming) {
+          HtmlContentHandler handler = new HtmlContentHandler(utils, metaTags, base);
+          XMLReader reader = HtmlParser.newNekoSAXParser(defaultCharEncoding);
+          reader.setContentHandler(handler);
+          reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+          reader.parse(newInput(page));
+
+          handler.getText();
+          handler.getTitle();
+          handler.getOutlinks(handler.getBase() != null ? handler.getBase() : base, outlinks);
+        } else {
+          DocumentFragment root = new HTMLDocumentImpl().createDocumentFragment();
+          HtmlParser.newNekoDOMParser(defaultCharEncoding).parse(newInput(page), root);
+
+          HTMLMetaProcessor.getMetaTags(metaTags, root, base);
+          StringBuilder sb = new StringBuilder();
+          utils.getText(sb, root);
+          sb.setLength(0);
+          utils.getTitle(sb, root);
+          URL baseTag = utils.getBase(root);
+          utils.getOutlinks(baseTag != null ? baseTag : base, outlinks, root, crawlFilters);
+        }
+
+        parsedBytes += page.length;
+        outlinkCount += outlinks.size();
+        ++parsedPages;
+      }
+    }
+
+    allocatedBytes = RuntimeUtil.getCurrentThreadAllocatedBytes() - allocatedBytes;
+    return new long[] { parsedBytes, allocatedBytes, parsedPages, outlinkCount };
+  }
+
+  private static InputSource newInput(byte[] page) {
+    InputSource input = new InputSource(new ByteArrayInputStream(page));
+    input.setEncoding("UTF-8");
+    return input;
+  }
+
+  private List<byte[]> readPages(File dir) throws IOException {
+    List<byte[]> pages = new ArrayList<byte[]>();
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return pages;
+    }
+
+    for (File file : files) {
+      if (file.isFile() && file.length() > 0) {
+        pages.add(Files.readAllBytes(file.toPath()));
+      }
+    }
+    return pages;
+  }
+
+  /**
+   * Pages of 10 KB to 200 KB with a head, nested blocks, text and links
+   * */
+  private List<byte[]> generatePages(int count) {
+    Random random = new Random(0);
+    List<byte[]> pages = new ArrayList<byte[]>();
+    for (int i = 0; i < count; i++) {
+      int size = 10 * 1024 + random.nextInt(190 * 1024);
+      StringBuilder sb = new StringBuilder("<html><head><title>page ").append(i).append("</title>\n")
+          .append("<meta name=\"keywords\" content=\"page, benchmark\">\n")
+          .append("<script>var x = 1;</script><style>.a { color: red; }</style></head><body>\n");
+      while (sb.length() < size) {
+        sb.append("<div class=\"item-").append(random.nextInt(100)).append("\"><p>paragraph ")
+            .append(random.nextInt(10000)).append(" with <b>some</b> text</p><a href=\"/page/")
+            .append(random.nextInt(1000000)).append(".html\">link ").append(random.nextInt(10000))
+            .append("</a></div>\n");
+      }
+      sb.append("</body></html>");
+      pages.add(sb.toString().getBytes());
+    }
+    return pages;
+  }
+}
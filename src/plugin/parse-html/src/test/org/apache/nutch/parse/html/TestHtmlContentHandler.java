@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.util.ArrayList;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.html.dom.HTMLDocumentImpl;
+import org.apache.nutch.crawl.filters.CrawlFilters;
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.DocumentFragment;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * Unit tests for HtmlContentHandler, the streaming pass must find what the
+ * DOM walks find.
+ */
+public class TestHtmlContentHandler {
+
+  private static final String BASE = "http://www.nutch.org/docs/foo.html";
+
+  private static final String[] testPages = {
+      "<html><head><title> title </title><script> script </script>"
+          + "</head><body> body <a href=\"http://www.nutch.org\">"
+          + " anchor </a><!--comment-->" + "<style> style </style>"
+          + " <a href=\"bot.html\">" + " bots </a></body></html>",
+      "<html><head><title> </title>" + "</head><body> "
+          + "<a href=\"/\"> separate this " + "<a href=\"ok\"> from this"
+          + "</a></a>" + "</body></html>",
+      "<html><head><title> my title </title>"
+          + "</head><body> body " + "<ul>" + "<li> <a href=\"/\"> home"
+          + "<li> <a href=\"1\"> 1" + "<li> <a href=\"2\"> 2" + "</ul>"
+          + "</body></html>",
+      "<html><head><title> my title </title>"
+          + "</head><frameset rows=\"20,*\"> " + "<frame src=\"top.html\">"
+          + "</frame>" + "<frameset cols=\"20,*\">"
+          + "<frame src=\"left.html\">" + "<frame src=\"invalid.html\"/>"
+          + "</frame>" + "<frame src=\"right.html\">" + "</frame>"
+          + "</frameset>" + "</frameset>" + "</body></html>",
+      "<html><head><title> my title </title>"
+          + "</head><body>"
+          + "<img src=\"logo.gif\" usemap=\"#green\" border=\"0\">"
+          + "<map name=\"green\">"
+          + "<area shape=\"polygon\" coords=\"19,44,45,11,87\" href=\"../index.html\">"
+          + "<area shape=\"rect\" coords=\"128,132,241,179\" href=\"#bottom\">"
+          + "</map>" + "<a name=\"bottom\"/><h1> the bottom </h1> "
+          + "<iframe src=\"../docs/index.html\"/>" + "</body></html>",
+      "<html><head>\n <title> my\t\n  title\r\n </title>\n"
+          + " </head>\n <body>\n"
+          + "    <h1> Whitespace\ttest  </h1> \n"
+          + "\t<a href=\"../index.html\">\n  \twhitespace  test\r\n\t</a>  \t\n"
+          + "    <p> This is<span> a whitespace<span></span> test</span>.</p>"
+          + "    This\t<b>is a</b> break -&gt;<br>and the line after<i> break</i>.<br>\n"
+          + "<table><tr><td>one</td><td>two</td></tr></table>"
+          + "<![CDATA[ cdata ]]><?pi data?></body>  </html>",
+      "<html><head></head><body>"
+          + "<a href=\"http://www.nutch.org\" rel=\"nofollow\"> ignore </a>"
+          + "<form method='POST' action='/search.jsp'><input type=text>"
+          + "<p>test1</p></form>"
+          + "<form method='GET' action='/dummy.jsp'><input type=text>"
+          + "<p>test2</p></form></body></html>",
+      "<html><head><title>first</title>"
+          + "<base href=\"http://www.nutch.org/base/\">"
+          + "<meta name=\"robots\" content=\"noindex\">"
+          + "<meta http-equiv=\"refresh\" content=\"5; url=next.html\">"
+          + "</head><body><title>second</title>"
+          + "<a href=\"page.html\">page</a>"
+          + "<meta name=\"robots\" content=\"nofollow\"></body></html>",
+      "<html><head><meta name=\"robots\" content=\"none\"></head>"
+          + "<body><a href=\"a.html\"><img src=\"a.gif\"></a></body></html>" };
+
+  private Configuration conf;
+  private DOMContentUtils utils;
+
+  @Before
+  public void setup() {
+    conf = NutchConfiguration.create();
+    conf.setBoolean("parser.html.form.use_action", true);
+    utils = new DOMContentUtils(conf);
+  }
+
+  @Test
+  public void testSameAsDom() throws Exception {
+    URL base = new URL(BASE);
+
+    for (String page : testPages) {
+      DocumentFragment root = new HTMLDocumentImpl().createDocumentFragment();
+      HtmlParser.newNekoDOMParser("windows-1252").parse(newInput(page), root);
+
+      HTMLMetaTags domMetaTags = new HTMLMetaTags();
+      HTMLMetaProcessor.getMetaTags(domMetaTags, root, base);
+      StringBuilder domText = new StringBuilder();
+      utils.getText(domText, root);
+      StringBuilder domTitle = new StringBuilder();
+      utils.getTitle(domTitle, root);
+      URL domBase = utils.getBase(root);
+      ArrayList<Outlink> domOutlinks = new ArrayList<Outlink>();
+      utils.getOutlinks(domBase != null ? domBase : base, domOutlinks, root, new CrawlFilters(conf));
+
+      HTMLMetaTags metaTags = new HTMLMetaTags();
+      HtmlContentHandler handler = new HtmlContentHandler(utils, metaTags, base);
+      XMLReader reader = HtmlParser.newNekoSAXParser("windows-1252");
+      reader.setContentHandler(handler);
+      reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+      reader.parse(newInput(page));
+      ArrayList<Outlink> outlinks = new ArrayList<Outlink>();
+      handler.getOutlinks(handler.getBase() != null ? handler.getBase() : base, outlinks);
+
+      assertEquals(page, domText.toString(), handler.getText());
+      assertEquals(page, domTitle.toString().trim(), handler.getTitle().trim());
+      assertEquals(page, domBase, handler.getBase());
+      assertEquals(page, domOutlinks, outlinks);
+      assertEquals(page, domMetaTags.getNoIndex(), metaTags.getNoIndex());
+      assertEquals(page, domMetaTags.getNoFollow(), metaTags.getNoFollow());
+      assertEquals(page, domMetaTags.getRefresh(), metaTags.getRefresh());
+      assertEquals(page, domMetaTags.getRefreshHref(), metaTags.getRefreshHref());
+    }
+  }
+
+  private static InputSource newInput(String page) {
+    InputSource input = new InputSource(new ByteArrayInputStream(page.getBytes()));
+    input.setEncoding("UTF-8");
+    return input;
+  }
+}
@@ -18,7 +18,6 @@
 package org.apache.nutch.protocol.ftp;
 
 import crawlercommons.robots.BaseRobotRules;
-import crawlercommons.robots.SimpleRobotRules;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.protocol.Protocol;
 import org.apache.nutch.protocol.ProtocolOutput;
@@ -29,6 +28,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URL;
+import java.util.concurrent.Callable;
 
 /**
  * This class is used for parsing robots for urls belonging to FTP protocol. It
@@ -61,45 +61,54 @@ public class FtpRobotRulesParser extends RobotRulesParser {
    * 
    * @return robotRules A {@link BaseRobotRules} object for the rules
    */
-  public BaseRobotRules getRobotRulesSet(Protocol ftp, URL url) {
+  public BaseRobotRules getRobotRulesSet(final Protocol ftp, final URL url) {
 
     String protocol = url.getProtocol().toLowerCase(); // normalize to lower
                                                        // case
     String host = url.getHost().toLowerCase(); // normalize to lower case
-
-    BaseRobotRules robotRules = (SimpleRobotRules) CACHE.get(protocol + ":"
-        + host);
-
-    boolean cacheRule = true;
-
-    if (robotRules == null) { // cache miss
-
-      if (LOG.isTraceEnabled())
-        LOG.trace("cache miss " + url);
-
-      try {
-        String robotsUrl = new URL(url, "/robots.txt").toString();
-        ProtocolOutput output = ((Ftp) ftp).getProtocolOutput(robotsUrl,
-            WebPage.newBuilder().build());
-        int statusCode = output.getStatus().getCode();
-
-        if (statusCode == ProtocolStatusCodes.SUCCESS) {
-          robotRules = parseRules(url.toString(), output.getContent()
-              .getContent(), CONTENT_TYPE, agentNames);
-        } else {
-          robotRules = EMPTY_RULES; // use default rules
-        }
-      } catch (Throwable t) {
-        if (LOG.isInfoEnabled()) {
-          LOG.info("Couldn't get robots.txt for " + url + ": " + t.toString());
+    String cacheKey = protocol + ":" + host;
+
+    // set by the thread which loads the rules
+    final boolean[] cacheRule = { true };
+
+    BaseRobotRules robotRules = getCache().get(cacheKey, new Callable<BaseRobotRules>() {
+      @Override
+      public BaseRobotRules call() {
+        if (LOG.isTraceEnabled())
+          LOG.trace("cache miss " + url);
+
+        try {
+          String robotsUrl = new URL(url, "/robots.txt").toString();
+          ProtocolOutput output = ((Ftp) ftp).getProtocolOutput(robotsUrl,
+              WebPage.newBuilder().build());
+          int statusCode = output.getStatus().getCode();
+
+          if (statusCode == ProtocolStatusCodes.SUCCESS) {
+            return parseRules(url.toString(), output.getContent()
+                .getContent(), CONTENT_TYPE, agentNames);
+          } else {
+            return EMPTY_RULES; // use default rules
+          }
+        } catch (Throwable t) {
+          if (LOG.isInfoEnabled()) {
+            LOG.info("Couldn't get robots.txt for " + url + ": " + t.toString());
+          }
+          cacheRule[0] = false;
+          return EMPTY_RULES;
         }
-        cacheRule = false;
-        robotRules = EMPTY_RULES;
       }
+    });
 
-      if (cacheRule)
-        CACHE.put(protocol + ":" + host, robotRules); // cache rules for host
+    if (robotRules == null) {
+      robotRules = EMPTY_RULES;
+      cacheRule[0] = false;
     }
+
+    if (!cacheRule[0]) {
+      // try again later
+      getCache().putTransient(cacheKey, robotRules);
+    }
+
     return robotRules;
   }
 }
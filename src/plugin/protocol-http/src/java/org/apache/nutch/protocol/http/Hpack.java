@@ -0,0 +1,447 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * HPACK header compression of HTTP/2 (RFC 7541).
+ *
+ * The encoder never adds to the dynamic table of the server, so the requests can
+ * be encoded without a lock and sent in any order. The decoder keeps the dynamic
+ * table of the connection and understands Huffman coded strings.
+ */
+public class Hpack {
+
+  private static final Charset CHARSET = Charset.forName("UTF-8");
+
+  /**
+   * Every entry of the dynamic table takes this many octets more than its name and value
+   * */
+  private static final int ENTRY_OVERHEAD = 32;
+
+  private static final String[][] STATIC_TABLE = {
+      { ":authority", "" },
+      { ":method", "GET" },
+      { ":method", "POST" },
+      { ":path", "/" },
+      { ":path", "/index.html" },
+      { ":scheme", "http" },
+      { ":scheme", "https" },
+      { ":status", "200" },
+      { ":status", "204" },
+      { ":status", "206" },
+      { ":status", "304" },
+      { ":status", "400" },
+      { ":status", "404" },
+      { ":status", "500" },
+      { "accept-charset", "" },
+      { "accept-encoding", "gzip, deflate" },
+      { "accept-language", "" },
+      { "accept-ranges", "" },
+      { "accept", "" },
+      { "access-control-allow-origin", "" },
+      { "age", "" },
+      { "allow", "" },
+      { "authorization", "" },
+      { "cache-control", "" },
+      { "content-disposition", "" },
+      { "content-encoding", "" },
+      { "content-language", "" },
+      { "content-length", "" },
+      { "content-location", "" },
+      { "content-range", "" },
+      { "content-type", "" },
+      { "cookie", "" },
+      { "date", "" },
+      { "etag", "" },
+      { "expect", "" },
+      { "expires", "" },
+      { "from", "" },
+      { "host", "" },
+      { "if-match", "" },
+      { "if-modified-since", "" },
+      { "if-none-match", "" },
+      { "if-range", "" },
+      { "if-unmodified-since", "" },
+      { "last-modified", "" },
+      { "link", "" },
+      { "location", "" },
+      { "max-forwards", "" },
+      { "proxy-authenticate", "" },
+      { "proxy-authorization", "" },
+      { "range", "" },
+      { "referer", "" },
+      { "refresh", "" },
+      { "retry-after", "" },
+      { "server", "" },
+      { "set-cookie", "" },
+      { "strict-transport-security", "" },
+      { "transfer-encoding", "" },
+      { "user-agent", "" },
+      { "vary", "" },
+      { "via", "" },
+      { "www-authenticate", "" },
+  };
+
+  /**
+   * Huffman codes of the octets and EOS, the codes are right aligned
+   * */
+  private static final int[] CODES = {
+      0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+      0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+      0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+      0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+      0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+      0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+      0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+      0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+      0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+      0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+      0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+      0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+      0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+      0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+      0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+      0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+      0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+      0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+      0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+      0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+      0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+      0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+      0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+      0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+      0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+      0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+      0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+      0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+      0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+      0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+      0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+      0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+      0x3fffffff
+  };
+
+  private static final byte[] LENGTHS = {
+      13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+      28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+      6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+      5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+      13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+      7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+      15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+      6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+      20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+      24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+      22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+      21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+      26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+      19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+      20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+      26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+      30
+  };
+
+  private static final int EOS = 256;
+
+  /**
+   * The Huffman code as a binary tree, a node is a leaf if its symbol is not negative
+   * */
+  private static final int[] LEFT = new int[2 * (EOS + 1)];
+  private static final int[] RIGHT = new int[2 * (EOS + 1)];
+  private static final int[] SYMBOLS = new int[2 * (EOS + 1)];
+
+  static {
+    Arrays.fill(SYMBOLS, -1);
+
+    int nodes = 1;
+    for (int symbol = 0; symbol <= EOS; symbol++) {
+      int node = 0;
+      for (int bit = LENGTHS[symbol] - 1; bit >= 0; bit--) {
+        int[] children = ((CODES[symbol] >>> bit) & 1) == 0 ? LEFT : RIGHT;
+        if (children[node] == 0) {
+          children[node] = nodes++;
+        }
+        node = children[node];
+      }
+      SYMBOLS[node] = symbol;
+    }
+  }
+
+  private Hpack() {
+  }
+
+  /**
+   * Encode a header block, the names must be in lower case
+   * */
+  public static byte[] encode(List<String[]> headers) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+    for (String[] header : headers) {
+      encode(out, header[0], header[1]);
+    }
+    return out.toByteArray();
+  }
+
+  private static void encode(ByteArrayOutputStream out, String name, String value) {
+    int nameIndex = 0;
+    for (int i = 0; i < STATIC_TABLE.length; i++) {
+      if (STATIC_TABLE[i][0].equals(name)) {
+        if (STATIC_TABLE[i][1].equals(value)) {
+          // indexed header field
+          writeInt(out, 0x80, 7, i + 1);
+          return;
+        }
+
+        if (nameIndex == 0) {
+          nameIndex = i + 1;
+        }
+      }
+    }
+
+    // literal header field without indexing
+    writeInt(out, 0x00, 4, nameIndex);
+    if (nameIndex == 0) {
+      writeString(out, name);
+    }
+    writeString(out, value);
+  }
+
+  static void writeInt(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+    int max = (1 << prefixBits) - 1;
+    if (value < max) {
+      out.write(flags | value);
+      return;
+    }
+
+    out.write(flags | max);
+    value -= max;
+    while (value >= 0x80) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  private static void writeString(ByteArrayOutputStream out, String s) {
+    byte[] bytes = s.getBytes(CHARSET);
+    writeInt(out, 0x00, 7, bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Decode a Huffman coded string
+   * */
+  static byte[] decodeHuffman(byte[] data, int offset, int length) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(length * 8 / 5 + 1);
+
+    int node = 0;
+    // the bits since the last symbol, they must be a prefix of EOS at the end
+    int pendingBits = 0;
+    boolean pendingOnes = true;
+    for (int i = offset; i < offset + length; i++) {
+      for (int bit = 7; bit >= 0; bit--) {
+        int b = (data[i] >>> bit) & 1;
+        node = b == 0 ? LEFT[node] : RIGHT[node];
+        if (node == 0) {
+          throw new IOException("Bad Huffman code");
+        }
+
+        ++pendingBits;
+        pendingOnes &= b == 1;
+
+        int symbol = SYMBOLS[node];
+        if (symbol >= 0) {
+          if (symbol == EOS) {
+            throw new IOException("EOS in Huffman code");
+          }
+
+          out.write(symbol);
+          node = 0;
+          pendingBits = 0;
+          pendingOnes = true;
+        }
+      }
+    }
+
+    if (pendingBits > 7 || !pendingOnes) {
+      throw new IOException("Bad Huffman padding");
+    }
+
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes the header blocks of a connection, in the order they are received
+   * */
+  public static class Decoder {
+    private final int maxTableSize;
+    private int tableCapacity;
+    private int tableSize = 0;
+    /** The dynamic table, the newest entry is the last */
+    private final List<String[]> table = new ArrayList<String[]>();
+    private final List<Integer> entrySizes = new ArrayList<Integer>();
+
+    private byte[] block;
+    private int pos;
+    private int limit;
+
+    /**
+     * @param maxTableSize the size of the dynamic table announced to the server
+     * */
+    public Decoder(int maxTableSize) {
+      this.maxTableSize = maxTableSize;
+      this.tableCapacity = maxTableSize;
+    }
+
+    public List<String[]> decode(byte[] block, int offset, int length) throws IOException {
+      this.block = block;
+      this.pos = offset;
+      this.limit = offset + length;
+
+      List<String[]> headers = new ArrayList<String[]>();
+      while (pos < limit) {
+        int b = block[pos] & 0xff;
+        if ((b & 0x80) != 0) {
+          // indexed header field
+          headers.add(get(readInt(7)));
+        } else if ((b & 0x40) != 0) {
+          // literal header field with incremental indexing
+          String[] header = readLiteral(6);
+          headers.add(header);
+          add(header);
+        } else if ((b & 0x20) != 0) {
+          int capacity = readInt(5);
+          if (capacity > maxTableSize) {
+            throw new IOException("Table size update " + capacity + " exceeds " + maxTableSize);
+          }
+          tableCapacity = capacity;
+          evict(0);
+        } else {
+          // literal header field without indexing or never indexed
+          headers.add(readLiteral(4));
+        }
+      }
+
+      this.block = null;
+      return headers;
+    }
+
+    public int getTableSize() {
+      return tableSize;
+    }
+
+    private String[] readLiteral(int prefixBits) throws IOException {
+      int index = readInt(prefixBits);
+      String name = index == 0 ? readString() : get(index)[0];
+      return new String[] { name, readString() };
+    }
+
+    private String[] get(int index) throws IOException {
+      if (index <= 0) {
+        throw new IOException("Bad header index " + index);
+      }
+
+      if (index <= STATIC_TABLE.length) {
+        return STATIC_TABLE[index - 1];
+      }
+
+      int dynamicIndex = index - STATIC_TABLE.length - 1;
+      if (dynamicIndex >= table.size()) {
+        throw new IOException("Bad header index " + index);
+      }
+      return table.get(table.size() - 1 - dynamicIndex);
+    }
+
+    private void add(String[] header) {
+      int size = header[0].getBytes(CHARSET).length + header[1].getBytes(CHARSET).length + ENTRY_OVERHEAD;
+      evict(size);
+
+      // an entry larger than the table empties the table
+      if (size <= tableCapacity) {
+        table.add(header);
+        entrySizes.add(size);
+        tableSize += size;
+      }
+    }
+
+    /**
+     * Drop the oldest entries until there is room for the given size
+     * */
+    private void evict(int room) {
+      while (!table.isEmpty() && tableSize + room > tableCapacity) {
+        table.remove(0);
+        tableSize -= entrySizes.remove(0);
+      }
+    }
+
+    private int readInt(int prefixBits) throws IOException {
+      int max = (1 << prefixBits) - 1;
+      int value = (readByte() & max);
+      if (value < max) {
+        return value;
+      }
+
+      for (int shift = 0; ; shift += 7) {
+        if (shift > 21) {
+          throw new IOException("Integer overflow in header block");
+        }
+
+        int b = readByte();
+        value += (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+    }
+
+    private String readString() throws IOException {
+      if (pos >= limit) {
+        throw new IOException("Truncated header block");
+      }
+
+      boolean huffman = (block[pos] & 0x80) != 0;
+      int length = readInt(7);
+      if (length > limit - pos) {
+        throw new IOException("Truncated header block");
+      }
+
+      byte[] bytes;
+      if (huffman) {
+        bytes = decodeHuffman(block, pos, length);
+      } else {
+        bytes = new byte[length];
+        System.arraycopy(block, pos, bytes, 0, length);
+      }
+      pos += length;
+
+      return new String(bytes, CHARSET);
+    }
+
+    private int readByte() throws IOException {
+      if (pos >= limit) {
+        throw new IOException("Truncated header block");
+      }
+      return block[pos++] & 0xff;
+    }
+  }
+}
@@ -43,6 +43,9 @@ public class Http extends HttpBase {
     FIELDS.add(WebPage.Field.HEADERS);
   }
 
+  /** Fetches the hosts speaking HTTP/2, null if it's disabled */
+  private Http2Client http2Client;
+
   public Http() {
     super(LOG);
   }
@@ -50,6 +53,9 @@ public class Http extends HttpBase {
   @Override
   public void setConf(Configuration conf) {
     super.setConf(conf);
+    if (conf.getBoolean("http.http2", false)) {
+      http2Client = new Http2Client(this, conf);
+    }
     // Level logLevel = Level.WARNING;
     // if (conf.getBoolean("http.verbose", false)) {
     // logLevel = Level.FINE;
@@ -68,7 +74,14 @@ public class Http extends HttpBase {
       throws ProtocolException, IOException, NoProxyException {
       Response r = null;
       try {
-        r = new HttpResponse(this, url, page);
+        if (http2Client != null) {
+          r = http2Client.getResponse(url, page);
+        }
+
+        // the host does not speak HTTP/2
+        if (r == null) {
+          r = new HttpResponse(this, url, page);
+        }
       } catch (InterruptedException e) {
         LOG.error(e.toString());
       }
@@ -0,0 +1,293 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.net.DnsCache;
+import org.apache.nutch.net.HttpConnectionPool;
+import org.apache.nutch.net.protocols.Response;
+import org.apache.nutch.protocol.http.api.HttpBase;
+import org.apache.nutch.storage.WebPage;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Fetches the pages of a host over one HTTP/2 connection, the fetch threads of
+ * the host's queue share the connection instead of opening their own. So the
+ * number of requests in flight per host is still bounded by the politeness
+ * settings of the queue (fetcher.threads.per.queue), by default.
+ *
+ * HTTPS hosts negotiate HTTP/2 with ALPN, plain HTTP hosts are spoken to with
+ * HTTP/2 prior knowledge only if it's enabled. The hosts without HTTP/2 are
+ * remembered, and fetched with HTTP/1.1.
+ */
+public class Http2Client {
+
+  /**
+   * Idle connections are checked at most once in this period
+   * */
+  private static final long EVICTION_INTERVAL = 1000;
+
+  private static final int MAX_HTTP1_HOSTS = 10000;
+
+  private static final SSLSocketFactory SSL_SOCKET_FACTORY = (SSLSocketFactory) SSLSocketFactory.getDefault();
+
+  /**
+   * ALPN is available since Java 9 (and 8u252), it's looked up by reflection
+   * */
+  private static final Method SET_APPLICATION_PROTOCOLS;
+  private static final Method GET_APPLICATION_PROTOCOL;
+
+  static {
+    Method setProtocols = null;
+    Method getProtocol = null;
+    try {
+      setProtocols = SSLParameters.class.getMethod("setApplicationProtocols", String[].class);
+      getProtocol = SSLSocket.class.getMethod("getApplicationProtocol");
+    } catch (NoSuchMethodException e) {
+      setProtocols = null;
+    }
+    SET_APPLICATION_PROTOCOLS = setProtocols;
+    GET_APPLICATION_PROTOCOL = getProtocol;
+  }
+
+  private final HttpBase http;
+  private final boolean cleartext;
+  private final int maxStreams;
+  private final long idleTimeout;
+
+  private final ConcurrentMap<String, AtomicReference<Http2Connection>> connections =
+      new ConcurrentHashMap<String, AtomicReference<Http2Connection>>();
+  private final Cache<String, Boolean> http1Hosts = CacheBuilder.newBuilder().maximumSize(MAX_HTTP1_HOSTS).build();
+  private final AtomicLong lastEviction = new AtomicLong(System.currentTimeMillis());
+
+  public Http2Client(HttpBase http, Configuration conf) {
+    this.http = http;
+    this.cleartext = conf.getBoolean("http.http2.cleartext", false);
+
+    int maxStreams = conf.getInt("http.http2.max.streams.per.host", -1);
+    this.maxStreams = maxStreams > 0 ? maxStreams : conf.getInt("fetcher.threads.per.queue", 1);
+    this.idleTimeout = conf.getLong("http.http2.idle.timeout.secs", 30) * 1000;
+
+    if (SET_APPLICATION_PROTOCOLS == null) {
+      Http.LOG.warn("ALPN is not supported by this JVM, HTTPS hosts are fetched with HTTP/1.1");
+    }
+
+    Http.LOG.info("HTTP/2 is enabled, maxStreamsPerHost=" + this.maxStreams + ", cleartext=" + cleartext);
+  }
+
+  /**
+   * Fetch the page over HTTP/2
+   *
+   * @return the response, or null if the page should be fetched with HTTP/1.1
+   * */
+  public Response getResponse(URL url, WebPage page) throws IOException, InterruptedException {
+    // the proxies are spoken to with HTTP/1.1
+    if (http.useProxy() || http.useProxyPool()) {
+      return null;
+    }
+
+    boolean https = "https".equals(url.getProtocol());
+    if (!https && !(cleartext && "http".equals(url.getProtocol()))) {
+      return null;
+    }
+
+    int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+    String key = HttpConnectionPool.getKey(url.getProtocol(), url.getHost(), port);
+    if (http1Hosts.getIfPresent(key) != null) {
+      return null;
+    }
+
+    closeIdle();
+
+    // a refused request was not processed by the server, it's sent once more on a new connection
+    for (int attempt = 0;; ++attempt) {
+      Http2Connection connection;
+      try {
+        connection = getConnection(key, https, url.getHost(), port);
+      } catch (Http2Connection.UnsupportedException e) {
+        Http.LOG.info(e.getMessage() + ", fetch it with HTTP/1.1");
+        http1Hosts.put(key, Boolean.TRUE);
+        return null;
+      }
+
+      try {
+        return new Http2Response(http, connection, url, page);
+      } catch (Http2Connection.UnsupportedException e) {
+        Http.LOG.info(e.getMessage() + ", fetch it with HTTP/1.1");
+        http1Hosts.put(key, Boolean.TRUE);
+        return null;
+      } catch (Http2Connection.RefusedStreamException e) {
+        if (attempt > 0) {
+          throw e;
+        }
+        Http.LOG.debug("{}, retry on a new connection", e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * The number of open connections
+   * */
+  public int getConnectionCount() {
+    int count = 0;
+    for (AtomicReference<Http2Connection> holder : connections.values()) {
+      Http2Connection connection = holder.get();
+      if (connection != null && !connection.isClosed()) {
+        ++count;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Close all connections, the requests in flight fail
+   * */
+  public void close() {
+    for (AtomicReference<Http2Connection> holder : connections.values()) {
+      Http2Connection connection = holder.getAndSet(null);
+      if (connection != null) {
+        connection.close();
+      }
+    }
+    connections.clear();
+  }
+
+  private Http2Connection getConnection(String key, boolean https, String host, int port) throws IOException {
+    AtomicReference<Http2Connection> holder = connections.get(key);
+    if (holder == null) {
+      holder = new AtomicReference<Http2Connection>();
+      AtomicReference<Http2Connection> old = connections.putIfAbsent(key, holder);
+      if (old != null) {
+        holder = old;
+      }
+    }
+
+    // only the threads of the same host wait for the connect
+    synchronized (holder) {
+      Http2Connection connection = holder.get();
+      if (connection != null && connection.isUsable(idleTimeout)) {
+        return connection;
+      }
+
+      // a connection going away is closed when its last stream is done
+      if (connection != null) {
+        connection.closeIfUnusable(idleTimeout);
+      }
+
+      connection = connect(key, https, host, port);
+      holder.set(connection);
+      return connection;
+    }
+  }
+
+  private Http2Connection connect(String key, boolean https, String host, int port) throws IOException {
+    long startTime = System.currentTimeMillis();
+
+    Socket socket = new Socket();
+    try {
+      socket.setSoTimeout(http.getTimeout());
+      socket.setTcpNoDelay(true);
+
+      InetSocketAddress sockAddr = DnsCache.getInstance(http.getConf()).createSocketAddress(host, port);
+      socket.connect(sockAddr, http.getTimeout());
+
+      if (https) {
+        socket = startTls(socket, key, host, port);
+      }
+
+      Http2Connection connection = new Http2Connection(key, socket, maxStreams,
+          System.currentTimeMillis() - startTime);
+      connection.start();
+      return connection;
+    } catch (IOException | RuntimeException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  private SSLSocket startTls(Socket socket, String key, String host, int port) throws IOException {
+    if (SET_APPLICATION_PROTOCOLS == null) {
+      throw new Http2Connection.UnsupportedException("ALPN is not supported by this JVM, " + key);
+    }
+
+    SSLSocket sslsocket = (SSLSocket) SSL_SOCKET_FACTORY.createSocket(socket, host, port, true);
+    sslsocket.setUseClientMode(true);
+
+    // only the protocols are narrowed, HTTP/2 refuses some of the older cipher suites
+    Set<String> protocols = new HashSet<String>(Arrays.asList(sslsocket.getSupportedProtocols()));
+    protocols.retainAll(http.getTlsPreferredProtocols());
+    sslsocket.setEnabledProtocols(protocols.toArray(new String[protocols.size()]));
+
+    String protocol;
+    try {
+      SSLParameters parameters = sslsocket.getSSLParameters();
+      SET_APPLICATION_PROTOCOLS.invoke(parameters, (Object) new String[] { "h2", "http/1.1" });
+      sslsocket.setSSLParameters(parameters);
+
+      sslsocket.startHandshake();
+      protocol = (String) GET_APPLICATION_PROTOCOL.invoke(sslsocket);
+    } catch (ReflectiveOperationException e) {
+      sslsocket.close();
+      throw new Http2Connection.UnsupportedException("ALPN failed, " + e);
+    }
+
+    if (!"h2".equals(protocol)) {
+      sslsocket.close();
+      throw new Http2Connection.UnsupportedException(key + " does not negotiate HTTP/2");
+    }
+
+    return sslsocket;
+  }
+
+  /**
+   * Close the connections idle longer than the idle timeout
+   * */
+  private void closeIdle() {
+    long now = System.currentTimeMillis();
+    long last = lastEviction.get();
+    if (now - last < EVICTION_INTERVAL || !lastEviction.compareAndSet(last, now)) {
+      return;
+    }
+
+    // the holders are kept, a fetch thread may be connecting with it
+    for (AtomicReference<Http2Connection> holder : connections.values()) {
+      Http2Connection connection = holder.get();
+      if (connection != null && connection.closeIfUnusable(idleTimeout)) {
+        holder.compareAndSet(connection, null);
+      }
+    }
+  }
+}
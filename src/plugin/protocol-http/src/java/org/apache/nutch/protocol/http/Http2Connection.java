@@ -0,0 +1,817 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.nutch.protocol.http.api.HttpBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An HTTP/2 connection to a host, the requests of several fetch threads are
+ * multiplexed on it as streams. At most maxStreams requests are in flight,
+ * fewer if the server asks so, the other requests wait for a free stream.
+ *
+ * A reader thread dispatches the frames to the streams. Only GET requests are
+ * sent, so the flow control is only done for the data received.
+ */
+public class Http2Connection {
+
+  public static final Logger LOG = LoggerFactory.getLogger(Http2Connection.class);
+
+  private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+
+  static final int DATA = 0x0;
+  static final int HEADERS = 0x1;
+  static final int PRIORITY = 0x2;
+  static final int RST_STREAM = 0x3;
+  static final int SETTINGS = 0x4;
+  static final int PUSH_PROMISE = 0x5;
+  static final int PING = 0x6;
+  static final int GOAWAY = 0x7;
+  static final int WINDOW_UPDATE = 0x8;
+  static final int CONTINUATION = 0x9;
+
+  static final int FLAG_END_STREAM = 0x1;
+  static final int FLAG_ACK = 0x1;
+  static final int FLAG_END_HEADERS = 0x4;
+  static final int FLAG_PADDED = 0x8;
+  static final int FLAG_PRIORITY = 0x20;
+
+  static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+  static final int SETTINGS_ENABLE_PUSH = 0x2;
+  static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+  static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+  static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+  static final int NO_ERROR = 0x0;
+  static final int PROTOCOL_ERROR = 0x1;
+  static final int REFUSED_STREAM = 0x7;
+  static final int CANCEL = 0x8;
+
+  static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+  static final int DEFAULT_WINDOW_SIZE = 65535;
+  static final int HEADER_TABLE_SIZE = 4096;
+
+  /**
+   * The receive window of the connection and of every stream
+   * */
+  static final int WINDOW_SIZE = 1024 * 1024;
+
+  /**
+   * The server does not speak HTTP/2, the host should be fetched with HTTP/1.1
+   * */
+  public static class UnsupportedException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public UnsupportedException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * The server did not process the request, it can be sent again on a new connection
+   * */
+  public static class RefusedStreamException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public RefusedStreamException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * A request and its response
+   * */
+  public class Stream {
+    private final int id;
+    private final int maxContent;
+    private final long startTime = System.currentTimeMillis();
+    private int status = -1;
+    private List<String[]> headers;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private boolean done = false;
+    private IOException error;
+    private long lastActivity = System.currentTimeMillis();
+    private long firstByteTime = -1;
+    /** Bytes received but not yet given back to the server's window, used by the reader thread only */
+    private int unacknowledged = 0;
+
+    private Stream(int id, int maxContent) {
+      this.id = id;
+      this.maxContent = maxContent;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    /**
+     * Wait for the complete response
+     *
+     * @param timeout milliseconds to wait for the next frame of the response
+     * */
+    public void await(long timeout) throws IOException, InterruptedException {
+      synchronized (this) {
+        while (!done) {
+          long remaining = lastActivity + timeout - System.currentTimeMillis();
+          if (remaining <= 0) {
+            break;
+          }
+          wait(remaining);
+        }
+
+        if (done) {
+          if (error != null) {
+            throw error;
+          }
+          return;
+        }
+      }
+
+      cancel(this);
+      throw new SocketTimeoutException("Timeout reading stream " + id + " from " + key);
+    }
+
+    public synchronized int getStatus() {
+      return status;
+    }
+
+    /**
+     * The response headers, the names are in lower case
+     * */
+    public synchronized List<String[]> getHeaders() {
+      return headers;
+    }
+
+    public synchronized byte[] getContent() {
+      return body.toByteArray();
+    }
+
+    /**
+     * Milliseconds from the creation of the stream to the response headers
+     * */
+    public synchronized long getFirstByteTime() {
+      return firstByteTime;
+    }
+
+    private synchronized void onHeaders(List<String[]> block) throws IOException {
+      lastActivity = System.currentTimeMillis();
+
+      // trailers are ignored
+      if (status >= 200) {
+        return;
+      }
+
+      int code = -1;
+      for (String[] header : block) {
+        if (":status".equals(header[0])) {
+          try {
+            code = Integer.parseInt(header[1]);
+          } catch (NumberFormatException e) {
+            throw new IOException("Bad status " + header[1]);
+          }
+        }
+      }
+      if (code < 0) {
+        throw new IOException("No status in the response headers");
+      }
+
+      // an informational response is followed by the final one
+      if (code >= 200) {
+        status = code;
+        headers = block;
+        firstByteTime = lastActivity - startTime;
+      }
+    }
+
+    /**
+     * @return false if the content is truncated and the stream should be cancelled
+     * */
+    private synchronized boolean onData(byte[] data, int offset, int length) {
+      lastActivity = System.currentTimeMillis();
+
+      if (maxContent >= 0 && body.size() + length > maxContent) {
+        body.write(data, offset, maxContent - body.size());
+        return false;
+      }
+
+      body.write(data, offset, length);
+      return true;
+    }
+
+    /**
+     * @return true if the final headers are received, and the content is as long as announced
+     * */
+    private synchronized boolean hasCompleteResponse() {
+      if (status < 200) {
+        return false;
+      }
+
+      for (String[] header : headers) {
+        if ("content-length".equals(header[0])) {
+          return header[1].trim().equals(String.valueOf(body.size()));
+        }
+      }
+      return true;
+    }
+
+    private synchronized void finish(IOException e) {
+      if (done) {
+        return;
+      }
+
+      if (e == null && status < 0) {
+        e = new IOException("Stream " + id + " ended without response");
+      }
+
+      done = true;
+      error = e;
+      notifyAll();
+    }
+  }
+
+  private final String key;
+  private final Socket socket;
+  private final DataInputStream in;
+  private final OutputStream out;
+  private final int maxStreams;
+  private final long connectTime;
+  private final Hpack.Decoder decoder = new Hpack.Decoder(HEADER_TABLE_SIZE);
+  private Thread reader;
+
+  // guarded by this
+  private final Map<Integer, Stream> streams = new HashMap<Integer, Stream>();
+  private int remoteMaxStreams = Integer.MAX_VALUE;
+  private int remoteMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+  private int nextStreamId = 1;
+  private int reservedStreams = 0;
+  private boolean shutdown = false;
+  private boolean closed = false;
+  private long idleSince = System.currentTimeMillis();
+  private int requests = 0;
+  private int maxConcurrentStreams = 0;
+
+  // used by the reader thread only
+  private int unacknowledged = 0;
+  private int headersStreamId = 0;
+  private int headersFlags = 0;
+  private ByteArrayOutputStream headerBlock;
+
+  /**
+   * @param maxStreams the number of requests in flight at most
+   * @param connectTime milliseconds taken to connect and handshake
+   * */
+  public Http2Connection(String key, Socket socket, int maxStreams, long connectTime) throws IOException {
+    this.key = key;
+    this.socket = socket;
+    this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), HttpBase.BUFFER_SIZE));
+    this.out = new BufferedOutputStream(socket.getOutputStream(), HttpBase.BUFFER_SIZE);
+    this.maxStreams = Math.max(1, maxStreams);
+    this.connectTime = connectTime;
+  }
+
+  /**
+   * Send the connection preface, wait for the settings of the server and start the reader thread
+   *
+   * @throws UnsupportedException if the server does not answer with HTTP/2 settings
+   * */
+  public void start() throws IOException {
+    synchronized (out) {
+      out.write(PREFACE);
+
+      ByteArrayOutputStream settings = new ByteArrayOutputStream();
+      writeSetting(settings, SETTINGS_ENABLE_PUSH, 0);
+      writeSetting(settings, SETTINGS_INITIAL_WINDOW_SIZE, WINDOW_SIZE);
+      writeSetting(settings, SETTINGS_HEADER_TABLE_SIZE, HEADER_TABLE_SIZE);
+      writeFrame(SETTINGS, 0, 0, settings.toByteArray());
+      writeFrame(WINDOW_UPDATE, 0, 0, toBytes(WINDOW_SIZE - DEFAULT_WINDOW_SIZE));
+      out.flush();
+    }
+
+    // a server without HTTP/2 answers with an HTTP/1.x status line or closes the connection
+    byte[] header = new byte[9];
+    try {
+      in.readFully(header);
+    } catch (EOFException e) {
+      throw new UnsupportedException(key + " closed the connection after the HTTP/2 preface");
+    }
+
+    int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+    int streamId = readInt(header, 5) & 0x7fffffff;
+    if (header[3] != SETTINGS || header[4] != 0 || streamId != 0 || length % 6 != 0
+        || length > DEFAULT_MAX_FRAME_SIZE) {
+      throw new UnsupportedException(key + " does not speak HTTP/2");
+    }
+
+    byte[] payload = new byte[length];
+    in.readFully(payload);
+    onSettings(payload);
+
+    reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        readFrames();
+      }
+    }, "Http2Reader-" + key);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public long getConnectTime() {
+    return connectTime;
+  }
+
+  /**
+   * Send a request, waits if too many requests are in flight. Fails with an
+   * {@link UnsupportedException} at once if the server allows no streams.
+   *
+   * @param headers the request headers, the pseudo headers first, the names in lower case
+   * @param timeout milliseconds to wait for a free stream
+   * */
+  public Stream newStream(List<String[]> headers, int maxContent, long timeout)
+      throws IOException, InterruptedException {
+    synchronized (this) {
+      long deadline = System.currentTimeMillis() + timeout;
+      while (!shutdown && streams.size() + reservedStreams >= getMaxStreams()) {
+        if (remoteMaxStreams == 0) {
+          // the server takes no requests at all, waiting for a free stream does not help
+          shutdown = true;
+          notifyAll();
+          throw new UnsupportedException(key + " allows no concurrent streams");
+        }
+
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          throw new SocketTimeoutException("No free stream on " + key);
+        }
+        wait(remaining);
+      }
+
+      // the slot is taken until the stream is opened
+      ++reservedStreams;
+    }
+
+    byte[] block = Hpack.encode(headers);
+
+    Stream stream;
+    // the stream ids must be used in increasing order
+    synchronized (out) {
+      synchronized (this) {
+        --reservedStreams;
+        if (shutdown) {
+          notifyAll();
+          throw new RefusedStreamException(key + " is shut down");
+        }
+
+        stream = new Stream(nextStreamId, maxContent);
+        nextStreamId += 2;
+        streams.put(stream.id, stream);
+        ++requests;
+        maxConcurrentStreams = Math.max(maxConcurrentStreams, streams.size());
+      }
+
+      try {
+        writeHeaders(stream.id, block);
+        out.flush();
+      } catch (IOException e) {
+        close(e);
+        throw e;
+      }
+    }
+
+    return stream;
+  }
+
+  /**
+   * @return true if new requests can be sent on this connection
+   * */
+  public synchronized boolean isUsable(long idleTimeout) {
+    if (streams.isEmpty() && System.currentTimeMillis() - idleSince > idleTimeout) {
+      shutdown = true;
+    }
+    return !shutdown;
+  }
+
+  /**
+   * @return true if the connection is idle and can not be used any more, it's closed then
+   * */
+  public boolean closeIfUnusable(long idleTimeout) {
+    synchronized (this) {
+      if (isUsable(idleTimeout) || !streams.isEmpty()) {
+        return false;
+      }
+    }
+
+    close(null);
+    return true;
+  }
+
+  public synchronized int getActiveStreams() {
+    return streams.size();
+  }
+
+  /**
+   * The number of requests sent on this connection
+   * */
+  public synchronized int getRequests() {
+    return requests;
+  }
+
+  /**
+   * The most requests in flight at the same time
+   * */
+  public synchronized int getMaxConcurrentStreams() {
+    return maxConcurrentStreams;
+  }
+
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Close the connection, the streams in flight fail
+   * */
+  public void close() {
+    close(null);
+  }
+
+  private synchronized int getMaxStreams() {
+    return Math.min(maxStreams, remoteMaxStreams);
+  }
+
+  private void cancel(Stream stream) {
+    if (removeStream(stream.id) != null) {
+      try {
+        writeFrame(RST_STREAM, 0, stream.id, toBytes(CANCEL), true);
+      } catch (IOException e) {
+        close(e);
+      }
+    }
+  }
+
+  private Stream removeStream(int id) {
+    Stream stream;
+    boolean drained = false;
+    synchronized (this) {
+      stream = streams.remove(id);
+      if (stream != null) {
+        if (streams.isEmpty()) {
+          idleSince = System.currentTimeMillis();
+          drained = shutdown;
+        }
+        notifyAll();
+      }
+    }
+
+    // a connection going away is closed after its last stream
+    if (drained) {
+      close(null);
+    }
+    return stream;
+  }
+
+  private synchronized Stream getStream(int id) {
+    return streams.get(id);
+  }
+
+  private void close(IOException e) {
+    List<Stream> failed;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+
+      closed = true;
+      shutdown = true;
+      failed = new ArrayList<Stream>(streams.values());
+      streams.clear();
+      notifyAll();
+    }
+
+    if (e != null) {
+      LOG.debug("Connection to {} failed, {}", key, e.toString());
+    }
+
+    try {
+      socket.close();
+    } catch (IOException ignored) {
+    }
+
+    IOException error = e != null ? e : new IOException("Connection to " + key + " is closed");
+    for (Stream stream : failed) {
+      stream.finish(error);
+    }
+  }
+
+  private void readFrames() {
+    byte[] header = new byte[9];
+    try {
+      // idle connections are closed by the connection owner, not by a read timeout
+      socket.setSoTimeout(0);
+
+      while (true) {
+        in.readFully(header);
+
+        int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+        int type = header[3] & 0xff;
+        int flags = header[4] & 0xff;
+        int streamId = readInt(header, 5) & 0x7fffffff;
+        if (length > DEFAULT_MAX_FRAME_SIZE) {
+          throw new IOException("Frame of " + length + " bytes exceeds the max frame size");
+        }
+
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+
+        if (headerBlock != null && type != CONTINUATION) {
+          throw new IOException("Expect CONTINUATION, got frame type " + type);
+        }
+
+        onFrame(type, flags, streamId, payload);
+      }
+    } catch (IOException e) {
+      close(isClosed() ? null : e);
+    } catch (RuntimeException e) {
+      LOG.warn("Unexpected HTTP/2 error from " + key, e);
+      close(new IOException(e));
+    }
+  }
+
+  private void onFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+    switch (type) {
+    case DATA:
+      onData(flags, streamId, payload);
+      break;
+    case HEADERS:
+      int offset = 0;
+      int length = payload.length;
+      if ((flags & FLAG_PADDED) != 0) {
+        int padding = payload[0] & 0xff;
+        ++offset;
+        length -= 1 + padding;
+      }
+      if ((flags & FLAG_PRIORITY) != 0) {
+        offset += 5;
+        length -= 5;
+      }
+      if (length < 0) {
+        throw new IOException("Bad HEADERS frame");
+      }
+
+      headersStreamId = streamId;
+      headersFlags = flags;
+      headerBlock = new ByteArrayOutputStream(length);
+      headerBlock.write(payload, offset, length);
+      if ((flags & FLAG_END_HEADERS) != 0) {
+        onHeaderBlock();
+      }
+      break;
+    case CONTINUATION:
+      if (headerBlock == null || streamId != headersStreamId) {
+        throw new IOException("Unexpected CONTINUATION frame");
+      }
+
+      headerBlock.write(payload, 0, payload.length);
+      if ((flags & FLAG_END_HEADERS) != 0) {
+        onHeaderBlock();
+      }
+      break;
+    case RST_STREAM:
+      Stream stream = removeStream(streamId);
+      if (stream != null) {
+        int errorCode = readInt(payload, 0);
+        if (errorCode == NO_ERROR && stream.hasCompleteResponse()) {
+          // some servers end a response this way if the request is not closed in time
+          stream.finish(null);
+        } else if (errorCode == REFUSED_STREAM) {
+          stream.finish(new RefusedStreamException("Stream " + streamId + " is refused by " + key));
+        } else {
+          stream.finish(new IOException("Stream " + streamId + " is reset by " + key + ", error " + errorCode));
+        }
+      }
+      break;
+    case SETTINGS:
+      if ((flags & FLAG_ACK) == 0) {
+        onSettings(payload);
+      }
+      break;
+    case PING:
+      if ((flags & FLAG_ACK) == 0) {
+        writeFrame(PING, FLAG_ACK, 0, payload, true);
+      }
+      break;
+    case GOAWAY:
+      onGoAway(payload);
+      break;
+    case PUSH_PROMISE:
+      // the push is disabled in our settings
+      throw new IOException("Unexpected PUSH_PROMISE from " + key);
+    default:
+      // PRIORITY and WINDOW_UPDATE, nothing is sent except the requests
+      break;
+    }
+  }
+
+  private void onData(int flags, int streamId, byte[] payload) throws IOException {
+    int offset = 0;
+    int length = payload.length;
+    if ((flags & FLAG_PADDED) != 0 && length > 0) {
+      ++offset;
+      length -= 1 + (payload[0] & 0xff);
+      if (length < 0) {
+        throw new IOException("Bad DATA frame");
+      }
+    }
+
+    // the window of the connection is given back even for the cancelled streams
+    unacknowledged += payload.length;
+    if (unacknowledged >= WINDOW_SIZE / 2) {
+      writeFrame(WINDOW_UPDATE, 0, 0, toBytes(unacknowledged), true);
+      unacknowledged = 0;
+    }
+
+    Stream stream = getStream(streamId);
+    if (stream == null) {
+      return;
+    }
+
+    if (!stream.onData(payload, offset, length)) {
+      // the content is truncated, the rest is not needed
+      removeStream(streamId);
+      stream.finish(null);
+      writeFrame(RST_STREAM, 0, streamId, toBytes(CANCEL), true);
+      return;
+    }
+
+    if ((flags & FLAG_END_STREAM) != 0) {
+      removeStream(streamId);
+      stream.finish(null);
+      return;
+    }
+
+    stream.unacknowledged += payload.length;
+    if (stream.unacknowledged >= WINDOW_SIZE / 2) {
+      writeFrame(WINDOW_UPDATE, 0, streamId, toBytes(stream.unacknowledged), true);
+      stream.unacknowledged = 0;
+    }
+  }
+
+  private void onHeaderBlock() throws IOException {
+    byte[] block = headerBlock.toByteArray();
+    headerBlock = null;
+
+    // the block is decoded even if the stream is gone, the table is shared by all streams
+    List<String[]> headers = decoder.decode(block, 0, block.length);
+
+    Stream stream = getStream(headersStreamId);
+    if (stream == null) {
+      return;
+    }
+
+    stream.onHeaders(headers);
+    if ((headersFlags & FLAG_END_STREAM) != 0) {
+      removeStream(headersStreamId);
+      stream.finish(null);
+    }
+  }
+
+  private void onSettings(byte[] payload) throws IOException {
+    if (payload.length % 6 != 0) {
+      throw new IOException("Bad SETTINGS frame");
+    }
+
+    synchronized (this) {
+      for (int i = 0; i < payload.length; i += 6) {
+        int id = ((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff);
+        int value = readInt(payload, i + 2);
+        if (id == SETTINGS_MAX_CONCURRENT_STREAMS) {
+          remoteMaxStreams = value < 0 ? Integer.MAX_VALUE : value;
+        } else if (id == SETTINGS_MAX_FRAME_SIZE) {
+          remoteMaxFrameSize = value;
+        }
+      }
+      notifyAll();
+    }
+
+    writeFrame(SETTINGS, FLAG_ACK, 0, new byte[0], true);
+  }
+
+  private void onGoAway(byte[] payload) {
+    int lastStreamId = readInt(payload, 0) & 0x7fffffff;
+
+    // the streams after the last one are not processed, they can be sent again
+    List<Stream> refused = new ArrayList<Stream>();
+    synchronized (this) {
+      shutdown = true;
+      for (Stream stream : new ArrayList<Stream>(streams.values())) {
+        if (stream.id > lastStreamId) {
+          streams.remove(stream.id);
+          refused.add(stream);
+        }
+      }
+      notifyAll();
+    }
+
+    for (Stream stream : refused) {
+      stream.finish(new RefusedStreamException(key + " is going away"));
+    }
+
+    LOG.debug("{} is going away, last stream {}", key, lastStreamId);
+  }
+
+  private void writeHeaders(int streamId, byte[] block) throws IOException {
+    int maxFrameSize;
+    synchronized (this) {
+      maxFrameSize = remoteMaxFrameSize;
+    }
+
+    int length = Math.min(block.length, maxFrameSize);
+    int flags = FLAG_END_STREAM | (length == block.length ? FLAG_END_HEADERS : 0);
+    writeFrame(HEADERS, flags, streamId, block, 0, length);
+
+    for (int offset = length; offset < block.length; offset += length) {
+      length = Math.min(block.length - offset, maxFrameSize);
+      flags = offset + length == block.length ? FLAG_END_HEADERS : 0;
+      writeFrame(CONTINUATION, flags, streamId, block, offset, length);
+    }
+  }
+
+  private void writeFrame(int type, int flags, int streamId, byte[] payload, boolean flush) throws IOException {
+    synchronized (out) {
+      writeFrame(type, flags, streamId, payload, 0, payload.length);
+      if (flush) {
+        out.flush();
+      }
+    }
+  }
+
+  private void writeFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+    writeFrame(type, flags, streamId, payload, 0, payload.length);
+  }
+
+  /**
+   * Write a frame, the caller holds the lock of the output stream
+   * */
+  private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length)
+      throws IOException {
+    out.write(length >>> 16);
+    out.write(length >>> 8);
+    out.write(length);
+    out.write(type);
+    out.write(flags);
+    out.write(toBytes(streamId));
+    out.write(payload, offset, length);
+  }
+
+  private static void writeSetting(ByteArrayOutputStream out, int id, int value) {
+    out.write(id >>> 8);
+    out.write(id);
+    out.write(toBytes(value), 0, 4);
+  }
+
+  private static byte[] toBytes(int value) {
+    return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+  }
+
+  private static int readInt(byte[] bytes, int offset) {
+    return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16)
+        | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+  }
+
+  @Override
+  public String toString() {
+    return key + " requests=" + getRequests() + " maxConcurrentStreams=" + getMaxConcurrentStreams();
+  }
+}
@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.apache.nutch.net.protocols.ConditionalGet;
+import org.apache.nutch.net.protocols.Response;
+import org.apache.nutch.protocol.http.api.HttpBase;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.ContentDecoder;
+
+/** An HTTP response received on a stream of an HTTP/2 connection. */
+public class Http2Response implements Response {
+
+  private final URL url;
+  private final int code;
+  private final Metadata headers = new SpellCheckedMetadata();
+  private byte[] content;
+
+  public Http2Response(HttpBase http, Http2Connection connection, URL url, WebPage page)
+      throws IOException, InterruptedException {
+    this.url = url;
+
+    if (Http.LOG.isTraceEnabled()) {
+      Http.LOG.trace("fetching " + url + " on HTTP/2 connection " + connection.getKey());
+    }
+
+    String path = "".equals(url.getFile()) ? "/" : url.getFile();
+    String authority = url.getPort() == -1 ? url.getHost() : url.getHost() + ":" + url.getPort();
+
+    List<String[]> requestHeaders = new ArrayList<String[]>();
+    requestHeaders.add(new String[] { ":method", "GET" });
+    requestHeaders.add(new String[] { ":scheme", url.getProtocol() });
+    requestHeaders.add(new String[] { ":authority", authority });
+    requestHeaders.add(new String[] { ":path", path });
+    requestHeaders.add(new String[] { "accept-encoding", ContentDecoder.getAcceptEncoding() });
+    requestHeaders.add(new String[] { "accept", http.getAccept() });
+
+    String userAgent = http.getUserAgent();
+    if ((userAgent == null) || (userAgent.length() == 0)) {
+      if (Http.LOG.isErrorEnabled()) {
+        Http.LOG.error("User-agent is not set!");
+      }
+    } else {
+      requestHeaders.add(new String[] { "user-agent", userAgent });
+    }
+
+    for (String[] header : http.getConditionalHeaders(page)) {
+      requestHeaders.add(new String[] { header[0].toLowerCase(), header[1] });
+    }
+
+    // Blocking until a stream is free and the response is complete
+    Http2Connection.Stream stream = connection.newStream(requestHeaders, http.getMaxContent(), http.getTimeout());
+    stream.await(http.getTimeout());
+
+    code = stream.getStatus();
+    for (String[] header : stream.getHeaders()) {
+      // the pseudo headers are not http headers
+      if (!header[0].startsWith(":")) {
+        headers.add(header[0], header[1]);
+      }
+    }
+    content = stream.getContent();
+
+    // the stream is truncated at the content limit already, that's close to the limit on the decoded content
+    String contentEncoding = getHeader(Response.CONTENT_ENCODING);
+    if (ContentDecoder.isEncoded(contentEncoding)) {
+      content = http.processEncoded(content, contentEncoding, url);
+    } else {
+      if (Http.LOG.isTraceEnabled()) {
+        Http.LOG.trace("fetched " + content.length + " bytes from " + url);
+      }
+    }
+
+    // add headers in metadata to row
+    ConditionalGet.storeHeaders(page, code, headers);
+
+    // the connection is paid by the first stream only
+    long connectTime = stream.getId() == 1 ? connection.getConnectTime() : 0;
+    headers.set(Response.Q_CONNECT_TIME, String.valueOf(connectTime));
+    headers.set(Response.Q_FIRST_BYTE_TIME, String.valueOf(stream.getFirstByteTime()));
+  }
+
+  /*
+   * ------------------------- * <implementation:Response> *
+   * -------------------------
+   */
+
+  public URL getUrl() {
+    return url;
+  }
+
+  public int getCode() {
+    return code;
+  }
+
+  public String getHeader(String name) {
+    return headers.get(name);
+  }
+
+  public Metadata getHeaders() {
+    return headers;
+  }
+
+  public byte[] getContent() {
+    return content;
+  }
+}
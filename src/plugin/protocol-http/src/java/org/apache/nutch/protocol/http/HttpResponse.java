@@ -18,8 +18,6 @@ package org.apache.nutch.protocol.http;
 
 // JDK imports
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -37,10 +35,13 @@ import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 
 import org.apache.avro.util.Utf8;
+import org.apache.commons.lang.math.NumberUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.SpellCheckedMetadata;
-import org.apache.nutch.net.protocols.HttpDateFormat;
+import org.apache.nutch.net.DnsCache;
+import org.apache.nutch.net.HttpConnectionPool;
+import org.apache.nutch.net.protocols.ConditionalGet;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.net.proxy.NoProxyException;
 import org.apache.nutch.net.proxy.ProxyEntry;
@@ -48,10 +49,23 @@ import org.apache.nutch.protocol.ProtocolException;
 import org.apache.nutch.protocol.http.api.HttpBase;
 import org.apache.nutch.protocol.http.api.HttpException;
 import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.BufferPool;
+import org.apache.nutch.util.ContentBuffer;
+import org.apache.nutch.util.ContentDecoder;
 
 /** An HTTP response. */
 public class HttpResponse implements Response {
 
+  /**
+   * Do not trust a larger Content-Length to allocate the content at once
+   * */
+  private static final int MAX_PREALLOCATED_CONTENT = 8 * 1024 * 1024;
+
+  /**
+   * The default factory caches TLS sessions, so new connections to a host resume the session
+   * */
+  private static final SSLSocketFactory SSL_SOCKET_FACTORY = (SSLSocketFactory) SSLSocketFactory.getDefault();
+
   private Configuration conf;
   private final HttpBase http;
   private final URL url;
@@ -59,6 +73,10 @@ public class HttpResponse implements Response {
   private byte[] content;
   private int code;
   private final Metadata headers = new SpellCheckedMetadata();
+  private long firstByteTime = -1;
+  /** The content is read completely, the connection can be reused */
+  private boolean complete = false;
+  private boolean http10Response = false;
 
   protected enum Scheme {
     HTTP, HTTPS,
@@ -104,34 +122,109 @@ public class HttpResponse implements Response {
       port = url.getPort();
       portString = ":" + port;
     }
-    Socket socket = null;
     boolean fetchSuccess = false;
+    long startTime = System.currentTimeMillis();
+    long connectTime = -1;
+    conf = http.getConf();
+
+    // connect
+    String sockHost = http.useProxy() ? http.getProxyHost() : host;
+    int sockPort = http.useProxy() ? http.getProxyPort() : port;
+    if (http.useProxyPool()) {
+      // the requests to a host stick to a proxy, never wait for one
+      proxy = http.proxyPool().poll(host);
+      if (proxy == null) {
+        throw new NoProxyException("no proxy available");
+      }
+
+      sockHost = proxy.host();
+      sockPort = proxy.port();
+
+      String message = String.format(
+          "proxy : %s, available : %d, retired : %d, url : %s", proxy
+              .ipPort(), http.proxyPool().size(), http.proxyPool()
+              .retiredSize(), url);
+
+      Http.LOG.debug(message);
+    }
+
+    // the proxies of the pool change on every fetch, keep alive connections to a host otherwise
+    HttpConnectionPool connectionPool = http.getConnectionPool();
+    boolean keepAlive = connectionPool.isEnabled() && !http.useProxyPool();
+    String poolKey = HttpConnectionPool.getKey(url.getProtocol(), sockHost, sockPort);
+    HttpConnectionPool.Connection connection = keepAlive ? connectionPool.acquire(poolKey) : null;
+    boolean reusable = false;
 
     try {
-      socket = new Socket(); // create the socket
-      socket.setSoTimeout(http.getTimeout());
+      while (true) {
+        if (connection == null) {
+          connection = connect(scheme, sockHost, sockPort, poolKey);
+        }
+        connectTime = System.currentTimeMillis() - startTime;
 
-      // connect
-      String sockHost = http.useProxy() ? http.getProxyHost() : host;
-      int sockPort = http.useProxy() ? http.getProxyPort() : port;
-      if (http.useProxyPool()) {
-        proxy = http.proxyPool().poll();
-        if (proxy == null) {
-          throw new NoProxyException("proxy pool exhausted");
+        try {
+          writeRequest(connection.getOutputStream(), page, host, portString, path, keepAlive);
+          readResponse(connection.getInputStream(), startTime);
+          break;
+        } catch (IOException e) {
+          // the server may close an idle connection any time, retry on a new connection
+          if (!connection.isReused() || firstByteTime >= 0) {
+            throw e;
+          }
+
+          Http.LOG.debug("Reused connection to {} is closed, reconnect", poolKey);
+          connection.close();
+          connection = null;
         }
+      }
 
-        sockHost = proxy.host();
-        sockPort = proxy.port();
+      if (conf.getBoolean("store.ip.address", false) == true) {
+        String ipString = connection.getSocket().getInetAddress().getHostAddress(); // get the ip
+                                                                                   // address
+        page.getMetadata().put(new Utf8("_ip_"),
+            ByteBuffer.wrap(ipString.getBytes()));
+      }
 
-        String message = String.format(
-            "proxy : %s, available : %d, retired : %d, url : %s", proxy
-                .ipPort(), http.proxyPool().size(), http.proxyPool()
-                .retiredSize(), url);
+      reusable = keepAlive && complete && isKeepAliveResponse();
 
-        Http.LOG.debug(message);
+      // the content is decoded while it's read
+      if (Http.LOG.isTraceEnabled()) {
+        Http.LOG.trace("fetched " + content.length + " bytes from " + url);
       }
 
-      InetSocketAddress sockAddr = new InetSocketAddress(sockHost, sockPort);
+      // add headers in metadata to row
+      ConditionalGet.storeHeaders(page, code, headers);
+
+      // timing goes to the content metadata only
+      headers.set(Response.Q_CONNECT_TIME, String.valueOf(connectTime));
+      headers.set(Response.Q_FIRST_BYTE_TIME, String.valueOf(firstByteTime));
+
+      fetchSuccess = true;
+    } finally {
+      if (connection != null) {
+        connectionPool.release(connection, reusable, getKeepAliveTimeout());
+      }
+
+      if (http.useProxyPool() && proxy != null) {
+        // give back the proxy resource with the result, this is essential important!
+        http.proxyPool().release(proxy, fetchSuccess, System.currentTimeMillis() - startTime);
+      }
+    }
+  }
+
+  /**
+   * Open a new connection, the TLS session of the host is resumed if it's cached
+   * by the shared socket factory
+   * */
+  private HttpConnectionPool.Connection connect(Scheme scheme, String sockHost, int sockPort, String poolKey) throws IOException {
+    long startTime = System.currentTimeMillis();
+
+    Socket socket = new Socket(); // create the socket
+    try {
+      socket.setSoTimeout(http.getTimeout());
+
+      // the address is resolved once per TTL, not once per fetch
+      InetSocketAddress sockAddr = DnsCache.getInstance(http.getConf()).createSocketAddress(sockHost, sockPort);
       // API notes : Connects this socket to the server with a specified timeout
       // value.
       // A timeout of zero is interpreted as an infinite timeout.
@@ -141,9 +234,7 @@ public class HttpResponse implements Response {
       socket.connect(sockAddr, http.getTimeout());
 
       if (scheme == Scheme.HTTPS) {
-        SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory
-            .getDefault();
-        SSLSocket sslsocket = (SSLSocket) factory.createSocket(socket,
+        SSLSocket sslsocket = (SSLSocket) SSL_SOCKET_FACTORY.createSocket(socket,
             sockHost, sockPort, true);
         sslsocket.setUseClientMode(true);
 
@@ -166,128 +257,144 @@ public class HttpResponse implements Response {
         socket = sslsocket;
       }
 
-      conf = http.getConf();
-      if (sockAddr != null
-          && conf.getBoolean("store.ip.address", false) == true) {
-        String ipString = sockAddr.getAddress().getHostAddress(); // get the ip
-                                                                  // address
-        page.getMetadata().put(new Utf8("_ip_"),
-            ByteBuffer.wrap(ipString.getBytes()));
-      }
-
-      // make request
-      OutputStream req = socket.getOutputStream();
+      return http.getConnectionPool().newConnection(poolKey, socket, Http.BUFFER_SIZE,
+          System.currentTimeMillis() - startTime);
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
 
-      StringBuffer reqStr = new StringBuffer("GET ");
-      if (http.useProxy()) {
-        reqStr.append(url.getProtocol() + "://" + host + portString + path);
-      } else {
-        reqStr.append(path);
-      }
+  private void writeRequest(OutputStream req, WebPage page, String host, String portString, String path,
+      boolean keepAlive) throws IOException {
+    StringBuffer reqStr = new StringBuffer("GET ");
+    if (http.useProxy()) {
+      reqStr.append(url.getProtocol() + "://" + host + portString + path);
+    } else {
+      reqStr.append(path);
+    }
 
+    // keep alive is the default of HTTP/1.1
+    if (keepAlive || http.getUseHttp11()) {
+      reqStr.append(" HTTP/1.1\r\n");
+    } else {
       reqStr.append(" HTTP/1.0\r\n");
+    }
 
-      reqStr.append("Host: ");
-      reqStr.append(host);
-      reqStr.append(portString);
-      reqStr.append("\r\n");
+    reqStr.append("Host: ");
+    reqStr.append(host);
+    reqStr.append(portString);
+    reqStr.append("\r\n");
 
-      reqStr.append("Accept-Encoding: x-gzip, gzip\r\n");
+    if (keepAlive) {
+      reqStr.append("Connection: keep-alive\r\n");
+    } else if (http.getUseHttp11()) {
+      reqStr.append("Connection: close\r\n");
+    }
 
-      reqStr.append("Accept: ");
-      reqStr.append(this.http.getAccept());
-      reqStr.append("\r\n");
+    reqStr.append("Accept-Encoding: ");
+    reqStr.append(ContentDecoder.getAcceptEncoding());
+    reqStr.append("\r\n");
 
-      String userAgent = http.getUserAgent();
-      if ((userAgent == null) || (userAgent.length() == 0)) {
-        if (Http.LOG.isErrorEnabled()) {
-          Http.LOG.error("User-agent is not set!");
-        }
-      } else {
-        reqStr.append("User-Agent: ");
-        reqStr.append(userAgent);
-        reqStr.append("\r\n");
-      }
+    reqStr.append("Accept: ");
+    reqStr.append(this.http.getAccept());
+    reqStr.append("\r\n");
 
-      // if (page.isReadable(WebPage.Field.MODIFIED_TIME.getIndex())) {
-      reqStr.append("If-Modified-Since: "
-          + HttpDateFormat.toString(page.getModifiedTime()));
-      reqStr.append("\r\n");
-      // }
+    String userAgent = http.getUserAgent();
+    if ((userAgent == null) || (userAgent.length() == 0)) {
+      if (Http.LOG.isErrorEnabled()) {
+        Http.LOG.error("User-agent is not set!");
+      }
+    } else {
+      reqStr.append("User-Agent: ");
+      reqStr.append(userAgent);
       reqStr.append("\r\n");
+    }
 
-      byte[] reqBytes = reqStr.toString().getBytes();
-
-      req.write(reqBytes);
-      req.flush();
-
-      // blocking for reading the response
-
-      // IOException - if an I/O error occurs when creating the input stream,
-      // the socket is closed,
-      // the socket is not connected, or the socket input has been shutdown
-      // using shutdownInput()
+    for (String[] header : http.getConditionalHeaders(page)) {
+      reqStr.append(header[0]);
+      reqStr.append(": ");
+      reqStr.append(header[1]);
+      reqStr.append("\r\n");
+    }
+    reqStr.append("\r\n");
 
-      PushbackInputStream in = 
-          new PushbackInputStream(new BufferedInputStream(socket.getInputStream(), Http.BUFFER_SIZE), Http.BUFFER_SIZE);
+    byte[] reqBytes = reqStr.toString().getBytes();
 
-      StringBuffer line = new StringBuffer();
+    req.write(reqBytes);
+    req.flush();
+  }
 
-      boolean haveSeenNonContinueStatus = false;
-      while (!haveSeenNonContinueStatus) {
-        // parse status code line
-        this.code = parseStatusLine(in, line);
-        // parse headers
-        parseHeaders(in, line);
-        haveSeenNonContinueStatus = code != 100; // 100 is "Continue"
-      }
+  private void readResponse(PushbackInputStream in, long startTime) throws HttpException, IOException {
+    // blocking for reading the response
 
-      String transferEncoding = getHeader(Response.TRANSFER_ENCODING);
-      if (transferEncoding != null
-          && "chunked".equalsIgnoreCase(transferEncoding.trim())) {
-        readChunkedContent(in, line);
-      } else {
-        readPlainContent(in);
-      }
+    // IOException - if an I/O error occurs when creating the input stream,
+    // the socket is closed,
+    // the socket is not connected, or the socket input has been shutdown
+    // using shutdownInput()
 
-      String contentEncoding = getHeader(Response.CONTENT_ENCODING);
-      if ("gzip".equals(contentEncoding) || "x-gzip".equals(contentEncoding)) {
-        content = http.processGzipEncoded(content, url);
-      } else {
-        if (Http.LOG.isTraceEnabled()) {
-          Http.LOG.trace("fetched " + content.length + " bytes from " + url);
-        }
-      }
+    StringBuffer line = new StringBuffer();
 
-      // add headers in metadata to row
-      if (page.getHeaders() != null) {
-        page.getHeaders().clear();
+    boolean haveSeenNonContinueStatus = false;
+    while (!haveSeenNonContinueStatus) {
+      // parse status code line
+      this.code = parseStatusLine(in, line);
+      if (firstByteTime < 0) {
+        firstByteTime = System.currentTimeMillis() - startTime;
       }
+      // parse headers
+      parseHeaders(in, line);
+      haveSeenNonContinueStatus = code != 100; // 100 is "Continue"
+    }
 
-      for (String key : headers.names()) {
-        page.getHeaders().put(new Utf8(key), new Utf8(headers.get(key)));
-      }
+    String transferEncoding = getHeader(Response.TRANSFER_ENCODING);
+    boolean chunked = transferEncoding != null && "chunked".equalsIgnoreCase(transferEncoding.trim());
+    String contentEncoding = getHeader(Response.CONTENT_ENCODING);
+    if (code == 204 || code == 304) {
+      // no content, the connection may be kept alive
+      content = new byte[0];
+      complete = true;
+    } else if (ContentDecoder.isEncoded(contentEncoding)) {
+      complete = readEncodedContent(in, line, chunked, contentEncoding);
+    } else if (chunked) {
+      complete = readChunkedContent(in, line);
+    } else {
+      complete = readPlainContent(in);
+    }
+  }
 
-      fetchSuccess = true;
-    } finally {
-      if (socket != null) {
-        socket.close();
-      }
+  /**
+   * HTTP/1.1 keeps the connection alive unless the server closes it, HTTP/1.0 only if the server asks
+   * */
+  private boolean isKeepAliveResponse() {
+    String connection = getHeader("Connection");
+    if (connection != null && connection.trim().equalsIgnoreCase("close")) {
+      return false;
+    }
 
-      if (http.useProxyPool() && proxy != null) {
-        // put back the proxy resource, this is essential important!
-        if (fetchSuccess) {
-          Http.LOG.debug("put back proxy {}", proxy.ipPort());
+    return !http10Response || (connection != null && connection.trim().equalsIgnoreCase("keep-alive"));
+  }
 
-          http.proxyPool().put(proxy);
-        } else {
-          Http.LOG.debug("retire proxy {}", proxy.ipPort());
+  /**
+   * @return milliseconds the server keeps an idle connection, from "Keep-Alive: timeout=5, max=100",
+   * or -1 if it's unknown
+   * */
+  private long getKeepAliveTimeout() {
+    String keepAlive = getHeader("Keep-Alive");
+    if (keepAlive == null) {
+      return -1;
+    }
 
-          // the proxy may be usable later
-          http.proxyPool().retire(proxy);
-        }
+    for (String param : keepAlive.split(",")) {
+      param = param.trim();
+      if (param.startsWith("timeout=")) {
+        long timeout = NumberUtils.toLong(param.substring("timeout=".length()).trim(), -1);
+        // close it a bit earlier than the server
+        return timeout < 0 ? -1 : Math.max(0, timeout * 1000 - 500);
       }
     }
+
+    return -1;
   }
 
   /*
@@ -320,137 +427,197 @@ public class HttpResponse implements Response {
    * -------------------------
    */
 
-  private void readPlainContent(InputStream in) throws HttpException,
+  /**
+   * @return true if the content is read completely, false if it's truncated or the length is unknown
+   * */
+  private boolean readPlainContent(InputStream in) throws HttpException,
       IOException {
 
-    int contentLength = Integer.MAX_VALUE; // get content length
-    String contentLengthString = headers.get(Response.CONTENT_LENGTH);
-    if (contentLengthString != null) {
-      contentLengthString = contentLengthString.trim();
-      try {
-        if (!contentLengthString.isEmpty())
-          contentLength = Integer.parseInt(contentLengthString);
-      } catch (NumberFormatException e) {
-        throw new HttpException("bad content length: " + contentLengthString);
-      }
-    }
+    int declaredLength = getContentLength();
+    int contentLength = declaredLength >= 0 ? declaredLength : Integer.MAX_VALUE;
     if (http.getMaxContent() >= 0 && contentLength > http.getMaxContent()) // limit
                                                                            // download
                                                                            // size
       contentLength = http.getMaxContent();
 
-    ByteArrayOutputStream out = new ByteArrayOutputStream(Http.BUFFER_SIZE);
-    byte[] bytes = new byte[Http.BUFFER_SIZE];
-    int length = 0;
-    // read content
-    int i = in.read(bytes);
-    while (i != -1) {
-      out.write(bytes, 0, i);
-      length += i;
-      if (length >= contentLength) {
-        break;
+    if (declaredLength >= 0 && contentLength <= MAX_PREALLOCATED_CONTENT) {
+      // the size is known, read into the final array directly
+      content = new byte[contentLength];
+      int length = 0;
+      int i = 0;
+      while (length < contentLength && (i = in.read(content, length, contentLength - length)) != -1) {
+        length += i;
       }
-      if ((length + Http.BUFFER_SIZE) > contentLength) {
-        // reading next chunk may hit contentLength,
-        // must limit number of bytes read
-        i = in.read(bytes, 0, (contentLength - length));
-      } else {
-        i = in.read(bytes);
+
+      if (length < contentLength) {
+        content = Arrays.copyOf(content, length);
       }
+
+      return length == declaredLength;
+    }
+
+    // the size is unknown or large, read into pooled buffers, the limit is checked on every read
+    ContentBuffer buffer = new ContentBuffer(BufferPool.getShared(), contentLength);
+    try {
+      buffer.readFrom(in);
+      content = buffer.toByteArray();
+    } finally {
+      buffer.release();
+    }
+
+    return content.length == declaredLength;
+  }
+
+  /**
+   * @return the Content-Length, or -1 if it's unknown
+   * */
+  private int getContentLength() throws HttpException {
+    String contentLengthString = headers.get(Response.CONTENT_LENGTH);
+    if (contentLengthString == null || contentLengthString.trim().isEmpty()) {
+      return -1;
+    }
+
+    try {
+      return Integer.parseInt(contentLengthString.trim());
+    } catch (NumberFormatException e) {
+      throw new HttpException("bad content length: " + contentLengthString);
+    }
+  }
+
+  /**
+   * Decode the content while it's read, http.content.limit applies to the
+   * decoded content, the rest of the body is not read once the limit is reached
+   *
+   * @return true if the body is read completely
+   * */
+  private boolean readEncodedContent(PushbackInputStream in, StringBuffer line, boolean chunked,
+      String contentEncoding) throws HttpException, IOException {
+    int declaredLength = chunked ? -1 : getContentLength();
+    InputStream body = chunked ? new ChunkedInputStream(in, line) : new PlainInputStream(in, declaredLength);
+
+    InputStream decoded = ContentDecoder.decode(body, contentEncoding);
+    ContentBuffer buffer = new ContentBuffer(BufferPool.getShared(), http.getMaxContent());
+    try {
+      boolean ended = ContentDecoder.readBestEffort(decoded, buffer);
+      content = buffer.toByteArray();
+
+      // what's left after the decoded content is small, a gzip trailer for example
+      return ended && (chunked || declaredLength >= 0) && drain(body);
+    } finally {
+      decoded.close();
+      buffer.release();
+    }
+  }
+
+  /**
+   * Read the rest of the body, at most a buffer
+   *
+   * @return true if the end of the body is reached
+   * */
+  private static boolean drain(InputStream body) throws IOException {
+    byte[] buffer = BufferPool.getShared().acquire();
+    try {
+      int total = 0;
+      int n;
+      while ((n = body.read(buffer)) != -1) {
+        total += n;
+        if (total >= buffer.length) {
+          return false;
+        }
+      }
+      return true;
+    } finally {
+      BufferPool.getShared().release(buffer);
     }
-    content = out.toByteArray();
   }
 
   /**
    * 
    * @param in
    * @param line
+   * @return true if all chunks are read
    * @throws HttpException
    * @throws IOException
    */
-  @SuppressWarnings("unused")
-  private void readChunkedContent(PushbackInputStream in, StringBuffer line)
+  private boolean readChunkedContent(PushbackInputStream in, StringBuffer line)
       throws HttpException, IOException {
     boolean doneChunks = false;
-    int contentBytesRead = 0;
-    byte[] bytes = new byte[Http.BUFFER_SIZE];
-    ByteArrayOutputStream out = new ByteArrayOutputStream(Http.BUFFER_SIZE);
+    ContentBuffer buffer = new ContentBuffer(BufferPool.getShared(), http.getMaxContent());
 
-    while (!doneChunks) {
-      if (Http.LOG.isTraceEnabled()) {
-        Http.LOG.trace("Http: starting chunk");
-      }
+    try {
+      while (!doneChunks) {
+        if (Http.LOG.isTraceEnabled()) {
+          Http.LOG.trace("Http: starting chunk");
+        }
 
-      readLine(in, line, false);
+        readLine(in, line, false);
 
-      String chunkLenStr;
-      // if (LOG.isTraceEnabled()) { LOG.trace("chunk-header: '" + line + "'");
-      // }
+        String chunkLenStr;
+        // if (LOG.isTraceEnabled()) { LOG.trace("chunk-header: '" + line + "'");
+        // }
 
-      int pos = line.indexOf(";");
-      if (pos < 0) {
-        chunkLenStr = line.toString();
-      } else {
-        chunkLenStr = line.substring(0, pos);
-        // if (LOG.isTraceEnabled()) { LOG.trace("got chunk-ext: " +
-        // line.substring(pos+1)); }
-      }
-      chunkLenStr = chunkLenStr.trim();
-      int chunkLen;
-      try {
-        chunkLen = Integer.parseInt(chunkLenStr, 16);
-      } catch (NumberFormatException e) {
-        throw new HttpException("bad chunk length: " + line.toString());
-      }
+        int pos = line.indexOf(";");
+        if (pos < 0) {
+          chunkLenStr = line.toString();
+        } else {
+          chunkLenStr = line.substring(0, pos);
+          // if (LOG.isTraceEnabled()) { LOG.trace("got chunk-ext: " +
+          // line.substring(pos+1)); }
+        }
+        chunkLenStr = chunkLenStr.trim();
+        int chunkLen;
+        try {
+          chunkLen = Integer.parseInt(chunkLenStr, 16);
+        } catch (NumberFormatException e) {
+          throw new HttpException("bad chunk length: " + line.toString());
+        }
 
-      if (chunkLen == 0) {
-        doneChunks = true;
-        break;
-      }
+        if (chunkLen == 0) {
+          doneChunks = true;
+          break;
+        }
 
-      if (http.getMaxContent() >= 0
-          && (contentBytesRead + chunkLen) > http.getMaxContent())
-        chunkLen = http.getMaxContent() - contentBytesRead;
+        // read one chunk
+        int chunkBytesRead = 0;
+        while (chunkBytesRead < chunkLen) {
+          int len = buffer.readFrom(in, chunkLen - chunkBytesRead);
 
-      // read one chunk
-      int chunkBytesRead = 0;
-      while (chunkBytesRead < chunkLen) {
+          if (len == -1)
+            throw new HttpException("chunk eof after " + buffer.size()
+                + " bytes in successful chunks" + " and " + chunkBytesRead
+                + " in current chunk");
 
-        int toRead = (chunkLen - chunkBytesRead) < Http.BUFFER_SIZE ? (chunkLen - chunkBytesRead)
-            : Http.BUFFER_SIZE;
-        int len = in.read(bytes, 0, toRead);
+          if (len == 0) {
+            // http.content.limit is reached, the rest is dropped
+            break;
+          }
 
-        if (len == -1)
-          throw new HttpException("chunk eof after " + contentBytesRead
-              + " bytes in successful chunks" + " and " + chunkBytesRead
-              + " in current chunk");
+          chunkBytesRead += len;
+        }
 
-        // DANGER!!! Will printed GZIPed stuff right to your
-        // terminal!
-        // if (LOG.isTraceEnabled()) { LOG.trace("read: " + new String(bytes, 0,
-        // len)); }
+        if (buffer.isFull()) {
+          break;
+        }
 
-        out.write(bytes, 0, len);
-        chunkBytesRead += len;
+        readLine(in, line, false);
       }
 
-      readLine(in, line, false);
+      content = buffer.toByteArray();
+    } finally {
+      buffer.release();
     }
 
-    if (!doneChunks) {
-      if (contentBytesRead != http.getMaxContent())
-        throw new HttpException("chunk eof: !doneChunk && didn't max out");
-      return;
+    if (doneChunks) {
+      parseHeaders(in, line);
     }
 
-    content = out.toByteArray();
-    parseHeaders(in, line);
-
+    return doneChunks;
   }
 
   private int parseStatusLine(PushbackInputStream in, StringBuffer line)
       throws IOException, HttpException {
     readLine(in, line, false);
+    http10Response = line.indexOf("HTTP/1.0") == 0;
 
     int codeStart = line.indexOf(" ");
     int codeEnd = line.indexOf(" ", codeStart + 1);
@@ -565,4 +732,105 @@ public class HttpResponse implements Response {
     return value;
   }
 
+  /**
+   * The body of a response with a Content-Length, or up to the end of the
+   * stream if the length is unknown
+   * */
+  private static class PlainInputStream extends InputStream {
+    private final InputStream in;
+    private long remaining;
+
+    PlainInputStream(InputStream in, long length) {
+      this.in = in;
+      this.remaining = length < 0 ? Long.MAX_VALUE : length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+
+      int n = in.read(b, off, (int) Math.min(len, remaining));
+      if (n > 0) {
+        remaining -= n;
+      }
+      return n;
+    }
+  }
+
+  /**
+   * The body of a chunked response, the chunk headers are read as the body is
+   * read, and the trailer headers after the last chunk
+   * */
+  private class ChunkedInputStream extends InputStream {
+    private final PushbackInputStream in;
+    private final StringBuffer line;
+    private int remaining = 0;
+    private boolean doneChunks = false;
+
+    ChunkedInputStream(PushbackInputStream in, StringBuffer line) {
+      this.in = in;
+      this.line = line;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining == 0 && !nextChunk()) {
+        return -1;
+      }
+
+      int n = in.read(b, off, Math.min(len, remaining));
+      if (n == -1) {
+        throw new EOFException("chunk eof, " + remaining + " bytes missing in current chunk");
+      }
+
+      remaining -= n;
+      if (remaining == 0) {
+        // the line break after the chunk
+        readLine(in, line, false);
+      }
+
+      return n;
+    }
+
+    private boolean nextChunk() throws IOException {
+      if (doneChunks) {
+        return false;
+      }
+
+      readLine(in, line, false);
+      int pos = line.indexOf(";");
+      String chunkLenStr = (pos < 0 ? line.toString() : line.substring(0, pos)).trim();
+      try {
+        remaining = Integer.parseInt(chunkLenStr, 16);
+      } catch (NumberFormatException e) {
+        throw new IOException("bad chunk length: " + line.toString());
+      }
+
+      if (remaining == 0) {
+        doneChunks = true;
+        try {
+          parseHeaders(in, line);
+        } catch (HttpException e) {
+          throw new IOException(e);
+        }
+        return false;
+      }
+
+      return true;
+    }
+  }
 }
@@ -0,0 +1,288 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for the HTTP/2 support of protocol-http, against a stub server
+ * which answers every request with its path after a short delay
+ */
+public class TestHttp2 {
+
+  private ServerSocket server;
+  private final AtomicInteger connections = new AtomicInteger(0);
+  private final AtomicInteger activeStreams = new AtomicInteger(0);
+  private final AtomicInteger maxActiveStreams = new AtomicInteger(0);
+
+  @Before
+  public void setUp() throws IOException {
+    server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.close();
+  }
+
+  @Test
+  public void testHpackDecoder() throws IOException {
+    // RFC 7541, C.3 and C.4, requests with and without Huffman coding
+    Hpack.Decoder decoder = new Hpack.Decoder(4096);
+    assertHeaders(decoder.decode(toBytes("828684410f7777772e6578616d706c652e636f6d"), 0, 20),
+        ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+    assertHeaders(decoder.decode(toBytes("828684be58086e6f2d6361636865"), 0, 14),
+        ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+        "cache-control", "no-cache");
+    assertEquals(110, decoder.getTableSize());
+
+    decoder = new Hpack.Decoder(4096);
+    assertHeaders(decoder.decode(toBytes("828684418cf1e3c2e5f23a6ba0ab90f4ff"), 0, 17),
+        ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+
+    // the encoder does not index, the header blocks can be decoded in any order
+    List<String[]> headers = new ArrayList<String[]>();
+    headers.add(new String[] { ":status", "200" });
+    headers.add(new String[] { "content-type", "text/html" });
+    headers.add(new String[] { "x-long-header", new String(new char[300]).replace('\0', 'a') });
+    byte[] block = Hpack.encode(headers);
+    List<String[]> decoded = new Hpack.Decoder(4096).decode(block, 0, block.length);
+    assertEquals(3, decoded.size());
+    assertEquals(300, decoded.get(2)[1].length());
+  }
+
+  @Test
+  public void testMultiplexing() throws Exception {
+    startServer(2);
+
+    Socket socket = new Socket(server.getInetAddress(), server.getLocalPort());
+    final Http2Connection connection = new Http2Connection("http://localhost", socket, 4, 0);
+    connection.start();
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<String>> responses = new ArrayList<Future<String>>();
+    for (int i = 0; i < 8; i++) {
+      final String path = "/page" + i;
+      responses.add(executor.submit(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          Http2Connection.Stream stream = connection.newStream(request(path), -1, 5000);
+          stream.await(5000);
+          assertEquals(200, stream.getStatus());
+          return new String(stream.getContent());
+        }
+      }));
+    }
+
+    for (int i = 0; i < 8; i++) {
+      assertEquals("/page" + i, responses.get(i).get());
+    }
+    executor.shutdown();
+
+    // all requests share one connection, at most two are in flight as the server asks
+    assertEquals(1, connections.get());
+    assertEquals(8, connection.getRequests());
+    assertEquals(2, connection.getMaxConcurrentStreams());
+    assertTrue(maxActiveStreams.get() <= 2);
+
+    connection.close();
+  }
+
+  @Test
+  public void testTruncate() throws Exception {
+    startServer(100);
+
+    Socket socket = new Socket(server.getInetAddress(), server.getLocalPort());
+    Http2Connection connection = new Http2Connection("http://localhost", socket, 1, 0);
+    connection.start();
+
+    Http2Connection.Stream stream = connection.newStream(request("/truncated"), 5, 5000);
+    stream.await(5000);
+    assertEquals("/trun", new String(stream.getContent()));
+
+    // the connection can be used after the stream is cancelled
+    stream = connection.newStream(request("/next"), -1, 5000);
+    stream.await(5000);
+    assertEquals("/next", new String(stream.getContent()));
+    assertEquals(0, connection.getActiveStreams());
+
+    connection.close();
+  }
+
+  @Test
+  public void testNoStreamsAllowed() throws Exception {
+    startServer(0);
+
+    Socket socket = new Socket(server.getInetAddress(), server.getLocalPort());
+    Http2Connection connection = new Http2Connection("http://localhost", socket, 4, 0);
+    connection.start();
+
+    // the requests sent before the settings arrive are served, then the requests fail at once
+    long startTime = System.currentTimeMillis();
+    boolean unsupported = false;
+    for (int i = 0; i < 100 && !unsupported; i++) {
+      try {
+        connection.newStream(request("/page" + i), -1, 5000).await(5000);
+      } catch (Http2Connection.UnsupportedException e) {
+        unsupported = true;
+      }
+    }
+    assertTrue(unsupported);
+    assertTrue(System.currentTimeMillis() - startTime < 5000);
+    assertFalse(connection.isUsable(Long.MAX_VALUE));
+
+    connection.close();
+  }
+
+  private static List<String[]> request(String path) {
+    List<String[]> headers = new ArrayList<String[]>();
+    headers.add(new String[] { ":method", "GET" });
+    headers.add(new String[] { ":scheme", "http" });
+    headers.add(new String[] { ":authority", "localhost" });
+    headers.add(new String[] { ":path", path });
+    return headers;
+  }
+
+  private void startServer(final int maxStreams) {
+    Thread acceptor = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            final Socket socket = server.accept();
+            connections.incrementAndGet();
+            new Thread() {
+              @Override
+              public void run() {
+                try {
+                  serve(socket, maxStreams);
+                } catch (IOException ignored) {
+                }
+              }
+            }.start();
+          }
+        } catch (IOException ignored) {
+        }
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  private void serve(Socket socket, int maxStreams) throws IOException {
+    DataInputStream in = new DataInputStream(socket.getInputStream());
+    final OutputStream out = socket.getOutputStream();
+    in.readFully(new byte[24]);
+
+    writeFrame(out, Http2Connection.SETTINGS, 0, 0,
+        new byte[] { 0, Http2Connection.SETTINGS_MAX_CONCURRENT_STREAMS, 0, 0, 0, (byte) maxStreams });
+
+    Hpack.Decoder decoder = new Hpack.Decoder(4096);
+    byte[] header = new byte[9];
+    while (true) {
+      in.readFully(header);
+      int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+      final int streamId = ((header[5] & 0x7f) << 24) | ((header[6] & 0xff) << 16) | ((header[7] & 0xff) << 8)
+          | (header[8] & 0xff);
+      byte[] payload = new byte[length];
+      in.readFully(payload);
+
+      if (header[3] != Http2Connection.HEADERS) {
+        continue;
+      }
+
+      String path = null;
+      for (String[] h : decoder.decode(payload, 0, length)) {
+        if (":path".equals(h[0])) {
+          path = h[1];
+        }
+      }
+
+      int active = activeStreams.incrementAndGet();
+      synchronized (maxActiveStreams) {
+        maxActiveStreams.set(Math.max(maxActiveStreams.get(), active));
+      }
+
+      final String body = path;
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            Thread.sleep(20);
+            List<String[]> headers = new ArrayList<String[]>();
+            headers.add(new String[] { ":status", "200" });
+            headers.add(new String[] { "content-type", "text/plain" });
+            synchronized (out) {
+              activeStreams.decrementAndGet();
+              writeFrame(out, Http2Connection.HEADERS, Http2Connection.FLAG_END_HEADERS, streamId,
+                  Hpack.encode(headers));
+              writeFrame(out, Http2Connection.DATA, Http2Connection.FLAG_END_STREAM, streamId, body.getBytes());
+            }
+          } catch (Exception ignored) {
+          }
+        }
+      }.start();
+    }
+  }
+
+  private static void writeFrame(OutputStream out, int type, int flags, int streamId, byte[] payload)
+      throws IOException {
+    synchronized (out) {
+      out.write(new byte[] { (byte) (payload.length >>> 16), (byte) (payload.length >>> 8), (byte) payload.length,
+          (byte) type, (byte) flags, (byte) (streamId >>> 24), (byte) (streamId >>> 16), (byte) (streamId >>> 8),
+          (byte) streamId });
+      out.write(payload);
+      out.flush();
+    }
+  }
+
+  private static void assertHeaders(List<String[]> headers, String... expected) {
+    assertEquals(expected.length / 2, headers.size());
+    for (int i = 0; i < headers.size(); i++) {
+      assertEquals(expected[2 * i], headers.get(i)[0]);
+      assertEquals(expected[2 * i + 1], headers.get(i)[1]);
+    }
+  }
+
+  private static byte[] toBytes(String hex) {
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+    }
+    return bytes;
+  }
+}
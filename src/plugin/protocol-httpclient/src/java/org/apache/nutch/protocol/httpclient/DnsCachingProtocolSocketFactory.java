@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.httpclient;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.apache.nutch.net.DnsCache;
+
+/**
+ * Creates plain sockets to the address resolved by the shared {@link DnsCache},
+ * so the http client does not resolve the host for every connection.
+ */
+public class DnsCachingProtocolSocketFactory implements ProtocolSocketFactory {
+
+  private final DnsCache dnsCache;
+
+  public DnsCachingProtocolSocketFactory(DnsCache dnsCache) {
+    this.dnsCache = dnsCache;
+  }
+
+  public Socket createSocket(String host, int port, InetAddress localAddress, int localPort)
+      throws IOException, UnknownHostException {
+    return new Socket(dnsCache.resolve(host), port, localAddress, localPort);
+  }
+
+  public Socket createSocket(String host, int port, InetAddress localAddress, int localPort,
+      HttpConnectionParams params) throws IOException, UnknownHostException, ConnectTimeoutException {
+    if (params == null) {
+      throw new IllegalArgumentException("Parameters may not be null");
+    }
+
+    InetSocketAddress remoteAddress = dnsCache.createSocketAddress(host, port);
+    Socket socket = new Socket();
+    socket.bind(new InetSocketAddress(localAddress, localPort));
+    socket.connect(remoteAddress, params.getConnectionTimeout());
+    return socket;
+  }
+
+  public Socket createSocket(String host, int port) throws IOException, UnknownHostException {
+    return new Socket(dnsCache.resolve(host), port);
+  }
+
+  /**
+   * All instances are the same, required by {@link org.apache.commons.httpclient.protocol.Protocol}
+   * */
+  @Override
+  public boolean equals(Object obj) {
+    return obj != null && obj.getClass().equals(getClass());
+  }
+
+  @Override
+  public int hashCode() {
+    return getClass().hashCode();
+  }
+}
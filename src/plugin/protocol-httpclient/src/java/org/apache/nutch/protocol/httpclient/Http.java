@@ -51,10 +51,12 @@ import org.apache.commons.httpclient.protocol.SSLProtocolSocketFactory;
 // Nutch imports
 import org.apache.nutch.storage.WebPage;
 import org.apache.nutch.storage.WebPage.Field;
+import org.apache.nutch.net.DnsCache;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.ProtocolException;
 import org.apache.nutch.protocol.http.api.HttpBase;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.ContentDecoder;
 import org.apache.nutch.util.NutchConfiguration;
 
 /**
@@ -183,6 +185,10 @@ public class Http extends HttpBase {
     Protocol https = new Protocol("https", factory, 443);
     Protocol.registerProtocol("https", https);
 
+    // Resolve the hosts of plain http connections with the shared DNS cache.
+    Protocol http = new Protocol("http", new DnsCachingProtocolSocketFactory(DnsCache.getInstance(conf)), 80);
+    Protocol.registerProtocol("http", http);
+
     HttpConnectionManagerParams params = connectionManager.getParams();
     params.setConnectionTimeout(timeout);
     params.setSoTimeout(timeout);
@@ -214,7 +220,7 @@ public class Http extends HttpBase {
             "Accept",
             "text/html,application/xml;q=0.9,application/xhtml+xml,text/xml;q=0.9,text/plain;q=0.8,image/png,*/*;q=0.5"));
     // accept gzipped content
-    headers.add(new Header("Accept-Encoding", "x-gzip, gzip, deflate"));
+    headers.add(new Header("Accept-Encoding", ContentDecoder.getAcceptEncoding()));
     hostConf.getParams().setParameter("http.default-headers", headers);
 
     // HTTP proxy server details
@@ -23,7 +23,6 @@ import java.io.InputStream;
 import java.net.URL;
 
 // HTTP Client imports
-import org.apache.avro.util.Utf8;
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpVersion;
 import org.apache.commons.httpclient.cookie.CookiePolicy;
@@ -34,10 +33,13 @@ import org.apache.commons.httpclient.HttpException;
 // Nutch imports
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.SpellCheckedMetadata;
-import org.apache.nutch.net.protocols.HttpDateFormat;
+import org.apache.nutch.net.protocols.ConditionalGet;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.http.api.HttpBase;
 import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.BufferPool;
+import org.apache.nutch.util.ContentBuffer;
+import org.apache.nutch.util.ContentDecoder;
 
 /**
  * An HTTP response.
@@ -75,9 +77,8 @@ public class HttpResponse implements Response {
     GetMethod get = new GetMethod(url.toString());
     get.setFollowRedirects(followRedirects);
     get.setDoAuthentication(true);
-    if (page.getModifiedTime() > 0) {
-      get.setRequestHeader("If-Modified-Since",
-          HttpDateFormat.toString(page.getModifiedTime()));
+    for (String[] header : http.getConditionalHeaders(page)) {
+      get.setRequestHeader(header[0], header[1]);
     }
 
     // Set HTTP parameters
@@ -121,18 +122,24 @@ public class HttpResponse implements Response {
       // always read content. Sometimes content is useful to find a cause
       // for error.
       InputStream in = get.getResponseBodyAsStream();
+      String contentEncoding = headers.get(Response.CONTENT_ENCODING);
       try {
-        byte[] buffer = new byte[HttpBase.BUFFER_SIZE];
-        int bufferFilled = 0;
-        int totalRead = 0;
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        while ((bufferFilled = in.read(buffer, 0, buffer.length)) != -1
-            && totalRead + bufferFilled <= contentLength) {
-          totalRead += bufferFilled;
-          out.write(buffer, 0, bufferFilled);
+        if (in != null && ContentDecoder.isEncoded(contentEncoding)) {
+          // decoded while it's read, the limit applies to the decoded content
+          content = readDecoded(in, contentEncoding, http.getMaxContent());
+        } else {
+          byte[] buffer = new byte[HttpBase.BUFFER_SIZE];
+          int bufferFilled = 0;
+          int totalRead = 0;
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          while ((bufferFilled = in.read(buffer, 0, buffer.length)) != -1
+              && totalRead + bufferFilled <= contentLength) {
+            totalRead += bufferFilled;
+            out.write(buffer, 0, bufferFilled);
+          }
+
+          content = out.toByteArray();
         }
-
-        content = out.toByteArray();
       } catch (Exception e) {
         if (code == 200)
           throw new IOException(e.toString());
@@ -155,30 +162,13 @@ public class HttpResponse implements Response {
         if (getHeader(Response.LOCATION) != null)
           fetchTrace.append("; Location: " + getHeader(Response.LOCATION));
       }
-      // Extract gzip, x-gzip and deflate content
-      if (content != null) {
-        // check if we have to uncompress it
-        String contentEncoding = headers.get(Response.CONTENT_ENCODING);
-        if (contentEncoding != null && Http.LOG.isTraceEnabled())
-          fetchTrace.append("; Content-Encoding: " + contentEncoding);
-        if ("gzip".equals(contentEncoding) || "x-gzip".equals(contentEncoding)) {
-          content = http.processGzipEncoded(content, url);
-          if (Http.LOG.isTraceEnabled())
-            fetchTrace.append("; extracted to " + content.length + " bytes");
-        } else if ("deflate".equals(contentEncoding)) {
-          content = http.processDeflateEncoded(content, url);
-          if (Http.LOG.isTraceEnabled())
-            fetchTrace.append("; extracted to " + content.length + " bytes");
-        }
+      // gzip, x-gzip and deflate content is extracted while it's read
+      if (content != null && contentEncoding != null && Http.LOG.isTraceEnabled()) {
+        fetchTrace.append("; Content-Encoding: " + contentEncoding);
       }
 
       // add headers in metadata to row
-      if (page.getHeaders() != null) {
-        page.getHeaders().clear();
-      }
-      for (String key : headers.names()) {
-        page.getHeaders().put(new Utf8(key), new Utf8(headers.get(key)));
-      }
+      ConditionalGet.storeHeaders(page, code, headers);
 
       // Logger trace message
       if (Http.LOG.isTraceEnabled()) {
@@ -189,6 +179,18 @@ public class HttpResponse implements Response {
     }
   }
 
+  private static byte[] readDecoded(InputStream in, String contentEncoding, int limit) throws IOException {
+    InputStream decoded = ContentDecoder.decode(in, contentEncoding);
+    ContentBuffer buffer = new ContentBuffer(BufferPool.getShared(), limit);
+    try {
+      ContentDecoder.readBestEffort(decoded, buffer);
+      return buffer.toByteArray();
+    } finally {
+      decoded.close();
+      buffer.release();
+    }
+  }
+
   /*
    * ------------------------- * <implementation:Response> *
    * -------------------------
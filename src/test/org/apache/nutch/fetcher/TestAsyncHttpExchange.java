@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.fetcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.fetcher.data.FetchItem;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.MimeUtil;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Unit tests for the incremental response parser of AsyncHttpExchange. */
+public class TestAsyncHttpExchange {
+
+  private Configuration conf;
+  private MimeUtil mimeTypes;
+
+  @Before
+  public void setUp() {
+    conf = NutchConfiguration.create();
+    mimeTypes = new MimeUtil(conf);
+  }
+
+  @Test
+  public void testContentLengthInPieces() throws Exception {
+    AsyncHttpExchange exchange = newExchange(-1);
+    String response = "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\nContent-Length: 11\r\n\r\nhello world";
+
+    // feed the response byte by byte
+    byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+    for (int i = 0; i < bytes.length - 1; i++) {
+      assertFalse(exchange.onData(ByteBuffer.wrap(bytes, i, 1)));
+    }
+    assertTrue(exchange.onData(ByteBuffer.wrap(bytes, bytes.length - 1, 1)));
+
+    ProtocolOutput output = exchange.toProtocolOutput(mimeTypes);
+    assertEquals(ProtocolStatusCodes.SUCCESS, (int) output.getStatus().getCode());
+    assertEquals("hello world", new String(output.getContent().getContent(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testChunked() throws Exception {
+    AsyncHttpExchange exchange = newExchange(-1);
+    assertFalse(feed(exchange, "HTTP/1.1 100 Continue\r\n\r\n"
+        + "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n"));
+    assertTrue(feed(exchange, "6; ext=1\r\n world\r\n0\r\n\r\n"));
+
+    ProtocolOutput output = exchange.toProtocolOutput(mimeTypes);
+    assertEquals("hello world", new String(output.getContent().getContent(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testTruncatedAndUntilEof() throws Exception {
+    AsyncHttpExchange exchange = newExchange(5);
+    assertTrue(feed(exchange, "HTTP/1.0 200 OK\r\nContent-Type: text/plain\r\n\r\nhello world"));
+    assertEquals("hello", new String(exchange.toProtocolOutput(mimeTypes).getContent().getContent(),
+        StandardCharsets.UTF_8));
+
+    exchange = newExchange(-1);
+    assertFalse(feed(exchange, "HTTP/1.0 200 OK\r\nContent-Type: text/plain\r\n\r\nhello"));
+    assertTrue(exchange.onEof());
+    assertEquals("hello", new String(exchange.toProtocolOutput(mimeTypes).getContent().getContent(),
+        StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testNotFound() throws Exception {
+    AsyncHttpExchange exchange = newExchange(-1);
+    assertTrue(feed(exchange, "HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n"));
+    assertEquals(ProtocolStatusCodes.NOTFOUND, (int) exchange.toProtocolOutput(mimeTypes).getStatus().getCode());
+  }
+
+  private AsyncHttpExchange newExchange(int maxContent) {
+    FetchItem item = FetchItem.create(0, "http://www.example.com/index.html", WebPage.newBuilder().build(),
+        "byHost");
+    return new AsyncHttpExchange(item, maxContent);
+  }
+
+  private boolean feed(AsyncHttpExchange exchange, String data) throws Exception {
+    return exchange.onData(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)));
+  }
+}
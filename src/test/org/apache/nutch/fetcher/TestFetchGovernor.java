@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.fetcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Unit tests for FetchGovernor. */
+public class TestFetchGovernor {
+
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    conf = NutchConfiguration.create();
+    conf.setLong("fetcher.net.bandwidth.m", -1);
+    conf.setInt("fetcher.governor.initial.pending", 10);
+    conf.setInt("fetcher.governor.min.pending", 2);
+    conf.setInt("fetcher.governor.increase.step", 5);
+  }
+
+  @Test
+  public void testIncreaseAndDecrease() {
+    FetchGovernor governor = new FetchGovernor(conf, 100);
+    assertEquals(10, governor.getPendingLimit());
+
+    // no demand, no change
+    governor.finish(1000, 100);
+    governor.adjust();
+    assertEquals(10, governor.getPendingLimit());
+
+    // slow start doubles the limit
+    assertFalse(governor.acceptPending(10));
+    governor.finish(1000, 100);
+    governor.adjust();
+    assertEquals(20, governor.getPendingLimit());
+
+    // latency is too high, cut down
+    governor.finish(1000, 1000);
+    governor.adjust();
+    assertEquals(15, governor.getPendingLimit());
+
+    // additive increase after that
+    assertFalse(governor.acceptPending(15));
+    governor.finish(1000, 100);
+    governor.adjust();
+    assertEquals(20, governor.getPendingLimit());
+
+    // never exceeds the bounds
+    for (int i = 0; i < 100; i++) {
+      governor.acceptPending(governor.getPendingLimit());
+      governor.finish(1000, 100);
+      governor.adjust();
+    }
+    assertEquals(100, governor.getPendingLimit());
+
+    for (int i = 0; i < 100; i++) {
+      governor.finish(1000, 100000);
+      governor.adjust();
+    }
+    assertEquals(2, governor.getPendingLimit());
+  }
+
+  @Test
+  public void testBandwidth() throws Exception {
+    conf.setLong("fetcher.net.bandwidth.m", 1);
+    FetchGovernor governor = new FetchGovernor(conf, 100);
+    assertEquals(0, governor.getBandwidthDelay());
+
+    // two seconds of bandwidth, about one second in debt
+    governor.finish(2 * 1024 * 1024, 100);
+    long delay = governor.getBandwidthDelay();
+    assertTrue("delay " + delay, delay > 500 && delay <= 1000);
+    assertEquals(1, governor.getBandwidthThrottles());
+
+    // the link is saturated, the limit does not grow
+    governor.acceptPending(10);
+    governor.adjust();
+    assertEquals(10, governor.getPendingLimit());
+  }
+}
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.fetcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/** Unit tests for FetchTaskExecutor. */
+public class TestFetchTaskExecutor {
+
+  @Test
+  public void testBoundedConcurrency() throws Exception {
+    FetchTaskExecutor executor = new FetchTaskExecutor("TestExecutor", 50, FetchTaskExecutor.DEFAULT_STACK_SIZE);
+    final AtomicInteger running = new AtomicInteger(0);
+    final AtomicInteger maxRunning = new AtomicInteger(0);
+    final AtomicInteger finished = new AtomicInteger(0);
+
+    for (int i = 0; i < 500; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          int n = running.incrementAndGet();
+          synchronized (maxRunning) {
+            maxRunning.set(Math.max(maxRunning.get(), n));
+          }
+
+          try {
+            Thread.sleep(5);
+          } catch (InterruptedException ignored) {}
+
+          running.decrementAndGet();
+          finished.incrementAndGet();
+        }
+      });
+    }
+
+    assertTrue(executor.shutdown(10000));
+    assertEquals(500, finished.get());
+    assertTrue(maxRunning.get() <= 50);
+    assertTrue(executor.getPeakInFlightCount() <= 50);
+    assertEquals(0, executor.getInFlightCount());
+  }
+
+  @Test
+  public void testFailedTaskReleasesPermit() throws Exception {
+    FetchTaskExecutor executor = new FetchTaskExecutor("TestExecutor", 1, 0);
+    for (int i = 0; i < 3; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          throw new IllegalStateException("expected");
+        }
+      });
+    }
+
+    assertTrue(executor.shutdown(10000));
+    assertEquals(0, executor.getInFlightCount());
+  }
+}
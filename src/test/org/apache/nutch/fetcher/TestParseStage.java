@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.fetcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.util.Utf8;
+import org.apache.nutch.storage.WebPage;
+import org.junit.Test;
+
+public class TestParseStage {
+
+  /**
+   * Parses by setting the title, writes into a map
+   * */
+  private static class StubParseStage extends ParseStage {
+    final Map<String, WebPage> written = new ConcurrentHashMap<String, WebPage>();
+    final CountDownLatch parsing = new CountDownLatch(1);
+    volatile CountDownLatch blocker = new CountDownLatch(0);
+
+    StubParseStage(int threads, int queueSize) {
+      super(null, null, threads, queueSize);
+    }
+
+    @Override
+    protected void parse(String key, WebPage page) {
+      parsing.countDown();
+      try {
+        blocker.await();
+      } catch (InterruptedException ignored) {
+      }
+
+      if (key.startsWith("fail")) {
+        throw new IllegalStateException(key);
+      }
+      page.setTitle(new Utf8("parsed " + key));
+    }
+
+    @Override
+    protected void write(String key, WebPage page) {
+      written.put(key, page);
+    }
+  }
+
+  @Test
+  public void testParseAndWrite() throws InterruptedException {
+    StubParseStage stage = new StubParseStage(4, 10);
+    stage.start();
+
+    for (int i = 0; i < 100; i++) {
+      assertTrue(stage.put("page" + i, newPage(), i % 2 == 0));
+    }
+    assertTrue(stage.put("fail", newPage(), false));
+    stage.close();
+
+    assertEquals(101, stage.written.size());
+    assertEquals(100, stage.getParsed());
+    assertEquals(1, stage.getErrors());
+    assertEquals("parsed page1", stage.written.get("page1").getTitle().toString());
+    assertEquals(0, stage.written.get("page0").getContent().remaining());
+    assertEquals(4, stage.written.get("page1").getContent().remaining());
+    // a page which fails to parse is written still
+    assertEquals(null, stage.written.get("fail").getTitle());
+
+    // the caller parses and writes the pages after the stage is closed
+    assertFalse(stage.put("late", newPage(), false));
+    assertEquals(1, stage.getRejected());
+  }
+
+  @Test
+  public void testCloseWaitsForPut() throws Exception {
+    final StubParseStage stage = new StubParseStage(1, 1);
+    stage.blocker = new CountDownLatch(1);
+    stage.start();
+
+    stage.put("page0", newPage(), false);
+    assertTrue(stage.parsing.await(10, TimeUnit.SECONDS));
+    stage.put("page1", newPage(), false);
+
+    // a fetch thread waits for the full queue while the stage is closed
+    Thread fetchThread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          stage.put("page2", newPage(), false);
+        } catch (InterruptedException ignored) {
+        }
+      }
+    };
+    fetchThread.start();
+    Thread.sleep(100);
+
+    Thread closeThread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          stage.close();
+        } catch (InterruptedException ignored) {
+        }
+      }
+    };
+    closeThread.start();
+    Thread.sleep(100);
+
+    stage.blocker.countDown();
+    fetchThread.join(10000);
+    closeThread.join(10000);
+
+    // every page put is written, the later ones are rejected
+    assertEquals(3, stage.written.size());
+    assertFalse(stage.put("late", newPage(), false));
+  }
+
+  @Test
+  public void testBackpressure() throws InterruptedException {
+    final StubParseStage stage = new StubParseStage(1, 2);
+    stage.blocker = new CountDownLatch(1);
+    stage.start();
+
+    // the parse thread takes the first page, the queue takes two more
+    stage.put("page0", newPage(), false);
+    assertTrue(stage.parsing.await(10, TimeUnit.SECONDS));
+    stage.put("page1", newPage(), false);
+    stage.put("page2", newPage(), false);
+
+    final CountDownLatch put = new CountDownLatch(1);
+    Thread fetchThread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          stage.put("page3", newPage(), false);
+          put.countDown();
+        } catch (InterruptedException ignored) {
+        }
+      }
+    };
+    fetchThread.start();
+
+    // the fetch thread waits until the parse thread goes on
+    assertFalse(put.await(200, TimeUnit.MILLISECONDS));
+    stage.blocker.countDown();
+    assertTrue(put.await(10, TimeUnit.SECONDS));
+    fetchThread.join();
+
+    stage.close();
+    assertEquals(4, stage.written.size());
+    assertEquals(1, stage.getWaits());
+    assertTrue(stage.getWaitTime() >= 150);
+  }
+
+  private static WebPage newPage() {
+    WebPage page = WebPage.newBuilder().build();
+    page.setContent(ByteBuffer.wrap("page".getBytes()));
+    return page;
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.fetcher.data;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.fetcher.data.FetchQueueStats.ErrorClass;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Unit tests for CrawlDelayPolicy. */
+public class TestCrawlDelayPolicy {
+
+  private CrawlDelayPolicy policy;
+  private FetchItemQueue queue;
+
+  @Before
+  public void setUp() {
+    Configuration conf = NutchConfiguration.create();
+    conf.setBoolean("fetcher.server.delay.adaptive.shrink", true);
+    conf.setInt("fetcher.server.delay.adaptive.fast.window", 2);
+    conf.setFloat("fetcher.server.delay.adaptive.shrink.factor", 0.5f);
+    conf.setFloat("fetcher.server.delay.adaptive.min", 0.3f);
+    conf.setFloat("fetcher.server.delay.adaptive.max", 5.0f);
+    policy = new CrawlDelayPolicy(conf);
+    queue = new FetchItemQueue(conf, "http://a.com", 1, 1000, 0, 60000);
+  }
+
+  @Test
+  public void testShrinkForFastHosts() {
+    queue.adaptCrawlDelay(policy, 100, null);
+    assertEquals(1000, queue.getCrawlDelay());
+    queue.adaptCrawlDelay(policy, 100, null);
+    assertEquals(500, queue.getCrawlDelay());
+
+    // a slow fetch or an error restarts the window
+    queue.adaptCrawlDelay(policy, 100, null);
+    queue.adaptCrawlDelay(policy, 3000, null);
+    queue.adaptCrawlDelay(policy, 100, null);
+    assertEquals(500, queue.getCrawlDelay());
+    queue.adaptCrawlDelay(policy, 100, ErrorClass.serverError);
+    queue.adaptCrawlDelay(policy, 100, null);
+    assertEquals(500, queue.getCrawlDelay());
+
+    // never below the minimum
+    for (int i = 0; i < 10; i++) {
+      queue.adaptCrawlDelay(policy, 100, null);
+    }
+    assertEquals(300, queue.getCrawlDelay());
+  }
+
+  @Test
+  public void testNoShrinkByDefault() {
+    CrawlDelayPolicy polite = new CrawlDelayPolicy(NutchConfiguration.create());
+    for (int i = 0; i < 20; i++) {
+      queue.adaptCrawlDelay(polite, 100, null);
+    }
+    assertEquals(1000, queue.getCrawlDelay());
+
+    // backs off and recovers to the configured delay only
+    queue.adaptCrawlDelay(polite, 100, ErrorClass.throttled);
+    assertEquals(2000, queue.getCrawlDelay());
+    for (int i = 0; i < 20; i++) {
+      queue.adaptCrawlDelay(polite, 100, null);
+    }
+    assertEquals(1000, queue.getCrawlDelay());
+  }
+
+  @Test
+  public void testBackoff() {
+    queue.adaptCrawlDelay(policy, 100, ErrorClass.throttled);
+    assertEquals(2000, queue.getCrawlDelay());
+    queue.adaptCrawlDelay(policy, 10000, ErrorClass.timeout);
+    assertEquals(4000, queue.getCrawlDelay());
+    queue.adaptCrawlDelay(policy, 100, ErrorClass.throttled);
+    assertEquals(5000, queue.getCrawlDelay());
+
+    // recover to the configured delay
+    for (int i = 0; i < 10; i++) {
+      queue.adaptCrawlDelay(policy, 3000, null);
+    }
+    assertEquals(1000, queue.getCrawlDelay());
+  }
+
+  @Test
+  public void testBackoffFromZeroDelay() {
+    FetchItemQueue fast = new FetchItemQueue(NutchConfiguration.create(), "http://b.com", 1, 0, 0, 60000);
+    fast.adaptCrawlDelay(policy, 100, ErrorClass.throttled);
+    assertEquals(2 * CrawlDelayPolicy.MIN_BACKOFF_DELAY, fast.getCrawlDelay());
+  }
+}
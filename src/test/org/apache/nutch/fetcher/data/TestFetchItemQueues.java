@@ -0,0 +1,282 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.fetcher.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Unit tests for FetchItemQueues. */
+public class TestFetchItemQueues {
+
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    conf = NutchConfiguration.create();
+    conf.set("fetcher.fetch.mode", "native");
+    conf.set("fetcher.queue.mode", FetchItemQueues.QUEUE_MODE_HOST);
+    conf.setInt("fetcher.threads.per.queue", 1);
+    conf.setFloat("fetcher.server.delay", 0.2f);
+  }
+
+  @Test
+  public void testOneItemPerQueueAtATime() throws Exception {
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    for (int i = 0; i < 3; i++) {
+      queues.produceFetchItem(0, "http://a.com/" + i, WebPage.newBuilder().build());
+      queues.produceFetchItem(0, "http://b.com/" + i, WebPage.newBuilder().build());
+    }
+    assertEquals(6, queues.getReadyItemCount());
+    assertEquals(2, queues.getQueueCount());
+
+    FetchItem first = queues.consumeFetchItem();
+    FetchItem second = queues.consumeFetchItem();
+    assertNotNull(first);
+    assertNotNull(second);
+    assertTrue(!first.getQueueID().equals(second.getQueueID()));
+
+    // both hosts are busy
+    assertNull(queues.consumeFetchItem());
+    assertEquals(4, queues.getReadyItemCount());
+    assertEquals(2, queues.getPendingItemCount());
+
+    // host is blocked by crawl delay after the fetch
+    queues.finishFetchItem(first);
+    assertNull(queues.consumeFetchItem());
+    assertEquals(1, queues.getPendingItemCount());
+
+    Thread.sleep(300);
+    FetchItem third = queues.consumeFetchItem();
+    assertNotNull(third);
+    assertEquals(first.getQueueID(), third.getQueueID());
+  }
+
+  @Test
+  public void testFinishAsap() throws Exception {
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    queues.produceFetchItem(0, "http://a.com/1", WebPage.newBuilder().build());
+    queues.produceFetchItem(0, "http://a.com/2", WebPage.newBuilder().build());
+
+    FetchItem item = queues.consumeFetchItem();
+    queues.finishFetchAsap(item);
+    assertNotNull(queues.consumeFetchItem());
+  }
+
+  @Test
+  public void testEmptyQueuesAreReaped() throws Exception {
+    conf.setFloat("fetcher.server.delay", 0.0f);
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    queues.produceFetchItem(0, "http://a.com/1", WebPage.newBuilder().build());
+
+    FetchItem item = queues.consumeFetchItem();
+    queues.finishFetchItem(item);
+    assertEquals(1, queues.getQueueCount());
+
+    assertNull(queues.consumeFetchItem());
+    assertEquals(0, queues.getQueueCount());
+
+    // a reaped queue is created again on demand
+    queues.produceFetchItem(0, "http://a.com/2", WebPage.newBuilder().build());
+    assertNotNull(queues.consumeFetchItem());
+  }
+
+  @Test
+  public void testReviewPendingFetchItems() throws Exception {
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    queues.produceFetchItem(0, "http://a.com/1", WebPage.newBuilder().build());
+
+    FetchItem item = queues.consumeFetchItem();
+    assertEquals(item, queues.getPendingFetchItem(item.getQueueID(), item.getItemID()));
+
+    queues.reviewPendingFetchItems(true);
+    assertEquals(1, queues.getReadyItemCount());
+    assertEquals(0, queues.getPendingItemCount());
+    assertEquals(item, queues.consumeFetchItem());
+  }
+
+  @Test
+  public void testConsumeWaitsForProducer() throws Exception {
+    final FetchItemQueues queues = new FetchItemQueues(conf);
+    assertNull(queues.consumeFetchItem(50));
+
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException ignored) {}
+        queues.produceFetchItem(0, "http://a.com/1", WebPage.newBuilder().build());
+      }
+    };
+    producer.start();
+
+    long start = System.currentTimeMillis();
+    assertNotNull(queues.consumeFetchItem(5000));
+    long elapsed = System.currentTimeMillis() - start;
+    assertTrue("woken up after " + elapsed + "ms", elapsed < 2000);
+  }
+
+  @Test
+  public void testConsumeWaitsForCrawlDelay() throws Exception {
+    conf.setFloat("fetcher.server.delay", 0.3f);
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    queues.produceFetchItem(0, "http://a.com/1", WebPage.newBuilder().build());
+    queues.produceFetchItem(0, "http://a.com/2", WebPage.newBuilder().build());
+
+    queues.finishFetchItem(queues.consumeFetchItem());
+
+    long start = System.currentTimeMillis();
+    assertNotNull(queues.consumeFetchItem(5000));
+    long elapsed = System.currentTimeMillis() - start;
+    assertTrue("waited " + elapsed + "ms", elapsed >= 250 && elapsed < 2000);
+  }
+
+  @Test
+  public void testAwaitFeedCapacity() throws Exception {
+    final FetchItemQueues queues = new FetchItemQueues(conf);
+    queues.produceFetchItem(0, "http://a.com/1", WebPage.newBuilder().build());
+    final FetchItem item = queues.consumeFetchItem();
+
+    assertTrue(!queues.awaitFeedCapacity(1, 50));
+
+    Thread finisher = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException ignored) {}
+        queues.finishFetchItem(item);
+      }
+    };
+    finisher.start();
+
+    long start = System.currentTimeMillis();
+    assertTrue(queues.awaitFeedCapacity(1, 5000));
+    assertTrue(System.currentTimeMillis() - start < 2000);
+  }
+
+  @Test
+  public void testQueueStats() throws Exception {
+    conf.setFloat("fetcher.server.delay", 0.0f);
+    // a timeout backs off, and the queue would not be reaped in time
+    conf.setBoolean("fetcher.server.delay.adaptive", false);
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    queues.produceFetchItem(0, "http://a.com/1", WebPage.newBuilder().build());
+    queues.produceFetchItem(0, "http://b.com/1", WebPage.newBuilder().build());
+
+    FetchItem a = queues.consumeFetchItem();
+    FetchItem b = queues.consumeFetchItem();
+    queues.recordFetch(a.getQueueID(), 10, 20, 100, 1000, null);
+    queues.recordFetch(b.getQueueID(), 10, 2000, 3000, 0, FetchQueueStats.ErrorClass.timeout);
+
+    Map<String, FetchQueueStats> slowest = queues.getSlowestQueueStats(1);
+    assertEquals(1, slowest.size());
+    assertEquals(b.getQueueID(), slowest.keySet().iterator().next());
+
+    // stats of the reaped queues are kept
+    queues.finishFetchItem(a);
+    queues.finishFetchItem(b);
+    assertNull(queues.consumeFetchItem());
+    assertEquals(0, queues.getQueueCount());
+
+    FetchQueueStats total = queues.getTotalStats();
+    assertEquals(2, total.getPages());
+    assertEquals(1000, total.getBytes());
+    assertEquals(1, total.getErrors(FetchQueueStats.ErrorClass.timeout));
+    assertEquals(3000, total.getTotalTime().getMax());
+  }
+
+  @Test
+  public void testEvictSlowQueues() throws Exception {
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    for (int i = 0; i < 5; i++) {
+      queues.produceFetchItem(0, "http://a.com/" + i, WebPage.newBuilder().build());
+    }
+    queues.produceFetchItem(0, "http://b.com/1", WebPage.newBuilder().build());
+
+    FetchItem fetching = queues.consumeFetchItem();
+    assertNotNull(fetching);
+
+    // 4 or 5 ready items take at least 800ms with a delay of 200ms
+    List<FetchItem> evicted = queues.evictSlowQueues(500);
+    int expected = fetching.getQueueID().equals("http://a.com") ? 4 : 5;
+    assertEquals(expected, evicted.size());
+    for (FetchItem item : evicted) {
+      assertEquals("http://a.com", item.getQueueID());
+    }
+    assertEquals(6 - 1 - expected, queues.getReadyItemCount());
+    assertEquals(1, queues.getPendingItemCount());
+  }
+
+  @Test
+  public void testConcurrentConsume() throws Exception {
+    conf.setFloat("fetcher.server.delay", 0.0f);
+    final FetchItemQueues queues = new FetchItemQueues(conf);
+    final int hosts = 50;
+    final int itemsPerHost = 20;
+    for (int i = 0; i < itemsPerHost; i++) {
+      for (int h = 0; h < hosts; h++) {
+        queues.produceFetchItem(0, "http://host" + h + ".com/" + i, WebPage.newBuilder().build());
+      }
+    }
+
+    final Set<String> fetched = new HashSet<String>();
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          while (queues.getReadyItemCount() > 0 || queues.getPendingItemCount() > 0) {
+            FetchItem item = queues.consumeFetchItem();
+            if (item == null) {
+              Thread.yield();
+              continue;
+            }
+
+            synchronized (fetched) {
+              fetched.add(item.getUrl());
+            }
+            queues.finishFetchItem(item);
+          }
+        }
+      };
+      threads[t].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join(10000);
+    }
+
+    assertEquals(hosts * itemsPerHost, fetched.size());
+    assertEquals(0, queues.getReadyItemCount());
+    assertEquals(0, queues.getPendingItemCount());
+  }
+}
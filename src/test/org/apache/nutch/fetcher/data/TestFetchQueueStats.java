@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.fetcher.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.nutch.fetcher.data.FetchQueueStats.ErrorClass;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.protocol.ProtocolStatusUtils;
+import org.junit.Test;
+
+public class TestFetchQueueStats {
+
+  @Test
+  public void testClassify() {
+    assertEquals(ErrorClass.throttled, FetchQueueStats.classifyMessage("Http code=429, url=http://h/"));
+    assertEquals(ErrorClass.throttled, FetchQueueStats.classifyMessage("Http code=503, url=http://h/"));
+    assertEquals(ErrorClass.serverError, FetchQueueStats.classifyMessage("Http code=500, url=http://h/?code=429"));
+    assertEquals(ErrorClass.clientError, FetchQueueStats.classifyMessage("Http code=403, url=http://h/timeout"));
+
+    // the cause of a failure after the retries
+    assertEquals(ErrorClass.timeout, FetchQueueStats.classifyMessage(
+        "failed to fetch, java.net.SocketTimeoutException: Read timed out : http://h/"));
+    assertEquals(ErrorClass.connection, FetchQueueStats.classifyMessage(
+        "failed to fetch, java.net.SocketException: Connection reset : http://h/"));
+    assertEquals(ErrorClass.connection, FetchQueueStats.classifyMessage("failed to fetch : http://h/timeout"));
+    assertEquals(ErrorClass.other, FetchQueueStats.classifyMessage("refused, url=http://connect.h/code=500"));
+
+    assertNull(FetchQueueStats.classify(ProtocolStatusUtils.STATUS_SUCCESS));
+    assertEquals(ErrorClass.clientError, FetchQueueStats.classify(ProtocolStatusUtils.STATUS_NOTFOUND));
+    assertEquals(ErrorClass.serverError, FetchQueueStats.classify(
+        ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.EXCEPTION, "Http code=502, url=http://h/")));
+  }
+}
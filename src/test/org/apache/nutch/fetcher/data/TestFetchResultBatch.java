@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.fetcher.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.nutch.metadata.HttpHeaders;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.apache.nutch.util.ContentDecoder;
+import org.junit.Test;
+
+/** Unit tests for FetchResultBatch. */
+public class TestFetchResultBatch {
+
+  private static final int RESULTS = 100;
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    FetchResultBatch.Reader reader = new FetchResultBatch.Reader(
+        new ByteArrayInputStream(newBatch(RESULTS)), 1024 * 1024);
+
+    for (int i = 0; i < RESULTS; i++) {
+      FetchResult result = reader.next();
+      assertEquals(7, result.getJobId());
+      assertEquals(i, result.getItemId());
+      assertEquals("http://example.com/" + i, result.getUrl());
+      assertEquals(200, result.getStatusCode());
+      assertEquals("text/html", result.getHeader(HttpHeaders.CONTENT_TYPE));
+      assertEquals(2, result.getHeaders().getValues("Set-Cookie").length);
+      assertArrayEquals(newContent(i), result.getContent());
+    }
+
+    assertNull(reader.next());
+    assertNull(reader.next());
+  }
+
+  @Test
+  public void testGzip() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+    gzip.write(newBatch(RESULTS));
+    gzip.close();
+
+    InputStream in = ContentDecoder.decode(new ByteArrayInputStream(bytes.toByteArray()), "gzip");
+    try {
+      FetchResultBatch.Reader reader = new FetchResultBatch.Reader(in, 1024 * 1024);
+      int count = 0;
+      while (reader.next() != null) {
+        ++count;
+      }
+      assertEquals(RESULTS, count);
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testTruncated() throws IOException {
+    byte[] batch = newBatch(RESULTS);
+    FetchResultBatch.Reader reader = new FetchResultBatch.Reader(
+        new ByteArrayInputStream(Arrays.copyOf(batch, batch.length / 2)), 1024 * 1024);
+
+    int count = 0;
+    try {
+      while (reader.next() != null) {
+        ++count;
+      }
+    } catch (EOFException e) {
+      // the results before the truncation are read
+      assertTrue(count > 0 && count < RESULTS);
+      return;
+    }
+
+    throw new AssertionError("truncated batch is read");
+  }
+
+  @Test(expected = IOException.class)
+  public void testContentLimit() throws IOException {
+    FetchResultBatch.Reader reader = new FetchResultBatch.Reader(new ByteArrayInputStream(newBatch(1)), 10);
+    reader.next();
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotBatch() throws IOException {
+    new FetchResultBatch.Reader(new ByteArrayInputStream(newContent(0)), 1024 * 1024);
+  }
+
+  private static byte[] newBatch(int count) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FetchResultBatch.Writer writer = new FetchResultBatch.Writer(out);
+
+    for (int i = 0; i < count; i++) {
+      Metadata headers = new SpellCheckedMetadata();
+      headers.add(HttpHeaders.Q_JOB_ID, "7");
+      headers.add(HttpHeaders.Q_QUEUE_ID, "example.com");
+      headers.add(HttpHeaders.Q_ITEM_ID, String.valueOf(i));
+      headers.add(HttpHeaders.Q_URL, "http://example.com/" + i);
+      headers.add(HttpHeaders.Q_STATUS_CODE, "200");
+      headers.add(HttpHeaders.CONTENT_TYPE, "text/html");
+      headers.add("Set-Cookie", "a=1");
+      headers.add("Set-Cookie", "b=2");
+      writer.write(new FetchResult(headers, newContent(i)));
+    }
+
+    writer.finish();
+    return out.toByteArray();
+  }
+
+  private static byte[] newContent(int i) {
+    StringBuilder sb = new StringBuilder("<html><body>");
+    for (int j = 0; j < 100; j++) {
+      sb.append("<p>page ").append(i).append(" paragraph ").append(j).append("</p>\n");
+    }
+    return sb.append("</body></html>").toString().getBytes();
+  }
+}
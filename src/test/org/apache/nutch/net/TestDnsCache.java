@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Test;
+
+public class TestDnsCache {
+
+  /**
+   * Resolves host names like "10.0.0.1.test" without the network, counting the lookups
+   * */
+  private static class StubDnsCache extends DnsCache {
+    final AtomicInteger lookups = new AtomicInteger(0);
+    volatile long lookupDelay = 0;
+
+    StubDnsCache(long ttl, long negativeTtl) {
+      super(1000, ttl, negativeTtl, 2);
+    }
+
+    @Override
+    protected InetAddress lookup(String host) throws UnknownHostException {
+      lookups.incrementAndGet();
+
+      if (lookupDelay > 0) {
+        try {
+          Thread.sleep(lookupDelay);
+        } catch (InterruptedException ignored) {}
+      }
+
+      if (!host.endsWith(".test")) {
+        throw new UnknownHostException(host);
+      }
+
+      return InetAddress.getByName(host.substring(0, host.length() - ".test".length()));
+    }
+  }
+
+  @Test
+  public void testResolveIsCached() throws Exception {
+    StubDnsCache cache = new StubDnsCache(60, 60);
+
+    InetAddress address = cache.resolve("10.0.0.1.test");
+    assertEquals("10.0.0.1", address.getHostAddress());
+    assertEquals(address, cache.resolve("10.0.0.1.TEST"));
+    assertEquals(address, cache.getIfPresent("10.0.0.1.test"));
+
+    assertEquals(1, cache.lookups.get());
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getHits());
+    assertEquals(8080, cache.createSocketAddress("10.0.0.1.test", 8080).getPort());
+  }
+
+  @Test
+  public void testFailedLookupIsCached() throws Exception {
+    StubDnsCache cache = new StubDnsCache(60, 60);
+
+    for (int i = 0; i < 3; i++) {
+      try {
+        cache.resolve("unknown.host");
+        fail("UnknownHostException expected");
+      } catch (UnknownHostException expected) {
+      }
+    }
+
+    assertEquals(1, cache.lookups.get());
+    assertEquals(1, cache.getFailures());
+    assertNull(cache.getIfPresent("unknown.host"));
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    StubDnsCache cache = new StubDnsCache(0, 0);
+
+    cache.resolve("10.0.0.2.test");
+    Thread.sleep(5);
+    cache.resolve("10.0.0.2.test");
+
+    assertEquals(2, cache.lookups.get());
+    assertEquals(0, cache.getHits());
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    StubDnsCache cache = new StubDnsCache(60, 60);
+
+    cache.prefetch("10.0.0.3.test");
+    for (int i = 0; i < 100 && cache.getIfPresent("10.0.0.3.test") == null; i++) {
+      Thread.sleep(10);
+    }
+
+    assertNotNull(cache.getIfPresent("10.0.0.3.test"));
+    assertEquals(1, cache.getPrefetches());
+
+    // cached hosts are not prefetched again
+    cache.prefetch("10.0.0.3.test");
+    assertEquals(1, cache.getPrefetches());
+    assertEquals(1, cache.lookups.get());
+  }
+
+  @Test
+  public void testConcurrentLookupsResolveOnce() throws Exception {
+    final StubDnsCache cache = new StubDnsCache(60, 60);
+    cache.lookupDelay = 100;
+
+    int threadCount = 10;
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threadCount);
+    final AtomicInteger resolved = new AtomicInteger(0);
+    for (int i = 0; i < threadCount; i++) {
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            if (cache.resolve("10.0.0.4.test") != null) {
+              resolved.incrementAndGet();
+            }
+          } catch (Exception ignored) {
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+
+    start.countDown();
+    done.await();
+
+    assertEquals(threadCount, resolved.get());
+    assertEquals(1, cache.lookups.get());
+  }
+
+  @Test
+  public void testInstance() {
+    Configuration conf = NutchConfiguration.create();
+    DnsCache cache = DnsCache.getInstance(conf);
+    assertSame(cache, DnsCache.getInstance(new Configuration(conf)));
+
+    // a job with other settings has a cache of its own
+    Configuration other = new Configuration(conf);
+    other.setLong("dns.cache.ttl.secs", 1);
+    assertNotSame(cache, DnsCache.getInstance(other));
+  }
+}
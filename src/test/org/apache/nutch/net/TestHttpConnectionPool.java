@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.net.HttpConnectionPool.Connection;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestHttpConnectionPool {
+
+  private ServerSocket server;
+  private final List<Socket> accepted = new ArrayList<Socket>();
+  private String key;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    key = HttpConnectionPool.getKey("http", "LocalHost", server.getLocalPort());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    for (Socket socket : accepted) {
+      socket.close();
+    }
+    server.close();
+  }
+
+  private Connection connect(HttpConnectionPool pool) throws IOException {
+    Socket socket = new Socket(server.getInetAddress(), server.getLocalPort());
+    accepted.add(server.accept());
+    return pool.newConnection(key, socket, 1024, 50);
+  }
+
+  @Test
+  public void testReuse() throws IOException {
+    HttpConnectionPool pool = new HttpConnectionPool(true, 2, 10, 10, 100);
+    assertEquals("http://localhost:" + server.getLocalPort(), key);
+    assertNull(pool.acquire(key));
+
+    Connection connection = connect(pool);
+    assertFalse(connection.isReused());
+    pool.release(connection, true, -1);
+    assertEquals(1, pool.getIdleCount());
+
+    Connection reused = pool.acquire(key);
+    assertSame(connection, reused);
+    assertTrue(reused.isReused());
+    assertEquals(0, pool.getIdleCount());
+    assertNull(pool.acquire(key));
+
+    assertEquals(1, pool.getCreatedCount());
+    assertEquals(1, pool.getReusedCount());
+    assertEquals(50, pool.getReuseRate());
+    assertEquals(50, pool.getHandshakeTimeSaved());
+  }
+
+  @Test
+  public void testNotReusable() throws IOException {
+    HttpConnectionPool pool = new HttpConnectionPool(true, 2, 10, 10, 100);
+
+    Connection connection = connect(pool);
+    pool.release(connection, false, -1);
+    assertTrue(connection.getSocket().isClosed());
+    assertNull(pool.acquire(key));
+
+    // a disabled pool closes every connection
+    HttpConnectionPool disabled = new HttpConnectionPool(false, 2, 10, 10, 100);
+    connection = connect(disabled);
+    disabled.release(connection, true, -1);
+    assertTrue(connection.getSocket().isClosed());
+    assertNull(disabled.acquire(key));
+  }
+
+  @Test
+  public void testBounds() throws IOException {
+    HttpConnectionPool pool = new HttpConnectionPool(true, 2, 10, 10, 2);
+
+    List<Connection> connections = new ArrayList<Connection>();
+    for (int i = 0; i < 3; i++) {
+      connections.add(connect(pool));
+    }
+    for (Connection connection : connections) {
+      pool.release(connection, true, -1);
+    }
+
+    // at most two idle connections per host
+    assertEquals(2, pool.getIdleCount());
+    assertTrue(connections.get(2).getSocket().isClosed());
+
+    // a connection is closed after two requests
+    Connection connection = pool.acquire(key);
+    assertEquals(2, connection.getRequests());
+    pool.release(connection, true, -1);
+    assertTrue(connection.getSocket().isClosed());
+    assertEquals(1, pool.getIdleCount());
+
+    pool.closeIdle();
+    assertEquals(0, pool.getIdleCount());
+    assertTrue(connections.get(0).getSocket().isClosed());
+  }
+
+  @Test
+  public void testKeepAliveTimeout() throws Exception {
+    HttpConnectionPool pool = new HttpConnectionPool(true, 2, 10, 10, 100);
+
+    // the server keeps the connection for 50 milliseconds
+    Connection connection = connect(pool);
+    pool.release(connection, true, 50);
+    assertEquals(1, pool.getIdleCount());
+    Thread.sleep(100);
+
+    assertNull(pool.acquire(key));
+    assertTrue(connection.getSocket().isClosed());
+    assertEquals(1, pool.getEvictedCount());
+  }
+
+  @Test
+  public void testInstance() {
+    Configuration conf = NutchConfiguration.create();
+    HttpConnectionPool pool = HttpConnectionPool.getInstance(conf);
+    assertSame(pool, HttpConnectionPool.getInstance(new Configuration(conf)));
+
+    // a job with other settings has a pool of its own
+    Configuration other = new Configuration(conf);
+    other.setInt("http.keep.alive.max.per.host", 1);
+    assertNotSame(pool, HttpConnectionPool.getInstance(other));
+  }
+}
@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+/** Unit tests for RegexRuleMatcher. */
+public class TestRegexRuleMatcher {
+
+  private static final String SAMPLES = System.getProperty("test.data", ".");
+
+  private static final String RULES = "-^(file|ftp|mailto):\n"
+      + "-\\.(gif|GIF|jpg|JPG|png|PNG)$\n"
+      + "-[?*!@=]\n"
+      + "-.*(/[^/]+)/[^/]+\\1/[^/]+\\1/\n"
+      + "+^http://([a-z0-9]*\\.)*tmall.com/(.+)prop(.+)\n"
+      + "-^http://([a-z0-9]*\\.)*tmall.com/\n"
+      + "+^https?://(www\\.)?example\\.(com|org)/a+b{2,}c?d\n"
+      + "+^http://([a-z0-9]*\\.)*jd.com/\n"
+      + "-(?i)\\.PDF$\n"
+      + "+\\Qhttp://quoted.com/\\E\n"
+      + "+^http://apache\\.org/[0-9]+/\n"
+      + "-.\n";
+
+  @Test
+  public void testRequirements() {
+    assertRequirements("^(file|ftp|mailto):", "[[file, ftp, mailto]]");
+    assertRequirements("\\.(gif|GIF|jpg)$", "[[gif, GIF, jpg]]");
+    assertRequirements("^http://([a-z0-9]*\\.)*tmall.com/(.+)prop(.+)",
+        "[[http://], [tmall], [com/], [prop]]");
+    assertRequirements("^https?://(www\\.)?example\\.(com|org)/a+b{2,}c?d",
+        "[[http], [://], [example.], [com, org], [/a]]");
+    assertRequirements(".*(/[^/]+)/[^/]+\\1/[^/]+\\1/", "[]");
+    assertRequirements("abc|def", "[]");
+    assertRequirements("(abc|)def", "[[def]]");
+    assertRequirements("ab(?=x)cd", "[[ab]]");
+    assertRequirements("ab\\x41cd", "[[ab]]");
+    assertRequirements("(?:abc)\\d+xy", "[[abc], [xy]]");
+    assertRequirements("a{0,3}bc", "[[bc]]");
+    assertRequirements("x[]a]yz", "[]");
+    assertRequirements(".", "[]");
+    assertEquals(0, RegexRuleMatcher.getRequirements(Pattern.compile("abc", Pattern.CASE_INSENSITIVE)).size());
+    assertEquals(0, RegexRuleMatcher.getRequirements(null).size());
+  }
+
+  @Test
+  public void testFirstMatch() throws IOException {
+    RegexURLFilter filter = new RegexURLFilter(RULES);
+    List<RegexRule> rules = readRules(RULES);
+    RegexRuleMatcher matcher = new RegexRuleMatcher(rules);
+
+    assertFirstMatch(matcher, rules, "ftp://apache.org/", 0);
+    assertFirstMatch(matcher, rules, "http://www.tmall.com/a.jpg", 1);
+    assertFirstMatch(matcher, rules, "http://www.tmall.com/list?a=b", 2);
+    assertFirstMatch(matcher, rules, "http://www.tmall.com/a/b/a/b/a/", 3);
+    assertFirstMatch(matcher, rules, "http://www.tmall.com/list/prop/1", 4);
+    assertFirstMatch(matcher, rules, "http://www.tmall.com/list", 5);
+    assertFirstMatch(matcher, rules, "https://example.org/abbd", 6);
+    assertFirstMatch(matcher, rules, "https://example.org/abd", 11);
+    assertFirstMatch(matcher, rules, "http://jd.com/a.pdf", 7);
+    assertFirstMatch(matcher, rules, "http://a.cn/a.pdf", 8);
+    assertFirstMatch(matcher, rules, "http://quoted.com/", 9);
+    assertFirstMatch(matcher, rules, "http://apache.org/2015/", 10);
+    assertFirstMatch(matcher, rules, "", -1);
+
+    assertEquals("http://jd.com/", filter.filter("http://jd.com/"));
+    assertEquals(null, filter.filter("http://tmall.com/"));
+  }
+
+  @Test
+  public void testSampleRules() throws IOException {
+    Configuration conf = new Configuration();
+    for (String name : new String[] { "regex-urlfilter.top100.txt", "regex-urlfilter.txt" }) {
+      Reader reader = conf.getConfResourceAsReader(name);
+      if (reader != null) {
+        assertSameMatches(IOUtils.toString(reader), generateUrls(IOUtils.toString(conf.getConfResourceAsReader(name))));
+      }
+    }
+
+    for (String name : new String[] { "Benchmarks", "IntranetCrawling", "WholeWebCrawling" }) {
+      String rules = IOUtils.toString(new InputStreamReader(
+          new FileInputStream(SAMPLES + "/" + name + ".rules")));
+      List<String> urls = new ArrayList<String>();
+      for (String line : IOUtils.readLines(new FileInputStream(SAMPLES + "/" + name + ".urls"))) {
+        if (line.length() > 1) {
+          urls.add(line.substring(1));
+        }
+      }
+      assertSameMatches(rules, urls);
+    }
+  }
+
+  private static void assertSameMatches(String rules, List<String> urls) throws IOException {
+    List<RegexRule> ruleList = readRules(rules);
+    RegexRuleMatcher matcher = new RegexRuleMatcher(ruleList);
+    for (String url : urls) {
+      assertEquals(url, sequentialMatch(ruleList, url), matcher.firstMatch(url));
+    }
+  }
+
+  private static void assertFirstMatch(RegexRuleMatcher matcher, List<RegexRule> rules, String url, int expected) {
+    RegexRule rule = matcher.firstMatch(url);
+    assertEquals(url, expected, rule == null ? -1 : rules.indexOf(rule));
+    assertEquals(url, sequentialMatch(rules, url), rule);
+  }
+
+  private static RegexRule sequentialMatch(List<RegexRule> rules, String url) {
+    for (RegexRule rule : rules) {
+      if (rule.match(url)) {
+        return rule;
+      }
+    }
+    return null;
+  }
+
+  private static void assertRequirements(String regex, String expected) {
+    assertEquals(regex, expected, RegexRuleMatcher.getRequirements(Pattern.compile(regex)).toString());
+  }
+
+  private static List<RegexRule> readRules(String rules) {
+    List<RegexRule> result = new ArrayList<RegexRule>();
+    for (String line : rules.split("\n")) {
+      if (line.startsWith("+") || line.startsWith("-")) {
+        final Pattern pattern = Pattern.compile(line.substring(1));
+        result.add(new RegexRule(line.charAt(0) == '+', line.substring(1)) {
+          @Override
+          protected boolean match(String url) {
+            return pattern.matcher(url).find();
+          }
+
+          @Override
+          protected Pattern getPattern() {
+            return pattern;
+          }
+        });
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Urls made of the words of the rules
+   * */
+  private static List<String> generateUrls(String rules) {
+    List<String> words = new ArrayList<String>(Arrays.asList("http://", "https://", "ftp://", "www.", ".com",
+        "/", "?", "=", ".jpg", ".GIF", "a", "1"));
+    for (String word : rules.split("[^a-zA-Z0-9.]+")) {
+      if (word.length() > 1) {
+        words.add(word);
+      }
+    }
+
+    Random random = new Random(0);
+    List<String> urls = new ArrayList<String>();
+    for (int i = 0; i < 20000; i++) {
+      StringBuilder sb = new StringBuilder(random.nextBoolean() ? "http://" : "");
+      int length = 1 + random.nextInt(8);
+      for (int j = 0; j < length; j++) {
+        sb.append(words.get(random.nextInt(words.size())));
+      }
+      urls.add(sb.toString());
+    }
+    return urls;
+  }
+}
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.MalformedURLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+public class TestURLFilterCache {
+
+  /**
+   * Normalizes by lower casing, appending the scope, rejects "null", accepts
+   * http urls, counting the normalizations and the filters
+   * */
+  private static class StubURLFilterCache extends URLFilterCache {
+    final AtomicInteger normalized = new AtomicInteger(0);
+    final AtomicInteger filtered = new AtomicInteger(0);
+
+    StubURLFilterCache(long maxSize) {
+      super(new Configuration(), maxSize);
+    }
+
+    @Override
+    protected String normalize(String url, String scope) throws MalformedURLException {
+      normalized.incrementAndGet();
+      if (url.equals("null")) {
+        return null;
+      }
+      if (url.startsWith("bad")) {
+        throw new MalformedURLException(url);
+      }
+      return url.toLowerCase() + "#" + scope;
+    }
+
+    @Override
+    protected String filter(String url) throws URLFilterException {
+      filtered.incrementAndGet();
+      if (url.startsWith("error")) {
+        throw new URLFilterException(url);
+      }
+      return url.startsWith("http:") ? url : null;
+    }
+  }
+
+  @Test
+  public void testCache() {
+    StubURLFilterCache cache = new StubURLFilterCache(100);
+
+    assertEquals("http://a.com/#outlink", cache.normalizeAndFilter("HTTP://A.com/", URLNormalizers.SCOPE_OUTLINK));
+    assertEquals("http://a.com/#outlink", cache.normalizeAndFilter("HTTP://A.com/", URLNormalizers.SCOPE_OUTLINK));
+    assertEquals(1, cache.normalized.get());
+    assertEquals(1, cache.filtered.get());
+
+    // another scope is another entry, no scope is not normalized
+    assertEquals("http://a.com/#fetcher", cache.normalizeAndFilter("HTTP://A.com/", URLNormalizers.SCOPE_FETCHER));
+    assertNull(cache.normalizeAndFilter("HTTP://A.com/", null));
+    assertEquals("http://a.com/", cache.normalizeAndFilter("http://a.com/", null));
+    assertEquals(2, cache.normalized.get());
+
+    // rejected urls are cached too
+    assertEquals(URLFilterCache.Status.FILTERED, cache.getEntry("ftp://a.com/", "outlink").getStatus());
+    assertEquals(URLFilterCache.Status.FILTERED, cache.getEntry("ftp://a.com/", "outlink").getStatus());
+    assertEquals(URLFilterCache.Status.NORMALIZED_TO_NULL, cache.getEntry("null", "outlink").getStatus());
+    assertEquals(URLFilterCache.Status.NORMALIZED_TO_NULL, cache.getEntry("null", "outlink").getStatus());
+    assertEquals(URLFilterCache.Status.MALFORMED, cache.getEntry("bad", "outlink").getStatus());
+    assertEquals(URLFilterCache.Status.MALFORMED, cache.getEntry("bad", "outlink").getStatus());
+    assertEquals(5, cache.normalized.get());
+
+    // but not the failed filters
+    assertEquals(URLFilterCache.Status.FILTER_ERROR, cache.getEntry("error", "outlink").getStatus());
+    assertEquals(URLFilterCache.Status.FILTER_ERROR, cache.getEntry("error", "outlink").getStatus());
+    assertEquals(7, cache.normalized.get());
+
+    assertEquals(4, cache.getHits());
+    assertEquals(9, cache.getMisses());
+    assertEquals(30, cache.getHitRate());
+    assertEquals(7, cache.size());
+  }
+
+  @Test
+  public void testDisabled() {
+    StubURLFilterCache cache = new StubURLFilterCache(0);
+
+    assertEquals("http://a.com/#outlink", cache.normalizeAndFilter("http://a.com/", URLNormalizers.SCOPE_OUTLINK));
+    assertEquals("http://a.com/#outlink", cache.normalizeAndFilter("http://a.com/", URLNormalizers.SCOPE_OUTLINK));
+    assertEquals(2, cache.normalized.get());
+    assertEquals(0, cache.getHits());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testSharedByConfiguration() {
+    Configuration conf = new Configuration();
+    assertSame(URLFilterCache.get(conf), URLFilterCache.get(conf));
+    assertNotSame(URLFilterCache.get(conf), URLFilterCache.get(new Configuration()));
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net.protocols;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.text.ParseException;
+import java.util.List;
+
+import org.apache.avro.util.Utf8;
+import org.apache.nutch.metadata.HttpHeaders;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.apache.nutch.storage.WebPage;
+import org.junit.Test;
+
+public class TestConditionalGet {
+
+  private static final String LAST_MODIFIED = "Tue, 15 Nov 1994 12:45:26 GMT";
+
+  @Test
+  public void testNotFetched() {
+    WebPage page = WebPage.newBuilder().build();
+    assertTrue(ConditionalGet.getHeaders(page).isEmpty());
+  }
+
+  @Test
+  public void testStoredHeaders() {
+    WebPage page = WebPage.newBuilder().build();
+    page.setModifiedTime(1000L);
+    // HTTP/2 header names are stored in lower case
+    page.getHeaders().put(new Utf8("etag"), new Utf8("W/\"abc\""));
+    page.getHeaders().put(new Utf8("Last-Modified"), new Utf8(LAST_MODIFIED));
+
+    List<String[]> headers = ConditionalGet.getHeaders(page);
+    assertEquals(2, headers.size());
+    assertEquals(HttpHeaders.IF_NONE_MATCH, headers.get(0)[0]);
+    assertEquals("W/\"abc\"", headers.get(0)[1]);
+    assertEquals(HttpHeaders.IF_MODIFIED_SINCE, headers.get(1)[0]);
+    assertEquals(LAST_MODIFIED, headers.get(1)[1]);
+  }
+
+  @Test
+  public void testModifiedTime() throws ParseException {
+    WebPage page = WebPage.newBuilder().build();
+    page.setModifiedTime(HttpDateFormat.toLong(LAST_MODIFIED));
+
+    assertNull(ConditionalGet.getIfNoneMatch(page));
+    assertEquals(LAST_MODIFIED, ConditionalGet.getIfModifiedSince(page));
+  }
+
+  @Test
+  public void testStoreHeaders() {
+    WebPage page = WebPage.newBuilder().build();
+
+    Metadata headers = new SpellCheckedMetadata();
+    headers.add("content-type", "text/html");
+    headers.add("etag", "\"v1\"");
+    ConditionalGet.storeHeaders(page, 200, headers);
+    assertEquals(2, page.getHeaders().size());
+
+    // a 304 updates the validators, the headers of the content are kept
+    headers = new SpellCheckedMetadata();
+    headers.add("ETag", "\"v2\"");
+    ConditionalGet.storeHeaders(page, 304, headers);
+    assertEquals(2, page.getHeaders().size());
+    assertEquals("\"v2\"", ConditionalGet.getIfNoneMatch(page));
+    assertEquals("text/html", page.getHeaders().get(new Utf8(HttpHeaders.CONTENT_TYPE)).toString());
+
+    // other responses replace them
+    headers = new SpellCheckedMetadata();
+    headers.add("Content-Type", "text/plain");
+    ConditionalGet.storeHeaders(page, 200, headers);
+    assertEquals(1, page.getHeaders().size());
+    assertNull(ConditionalGet.getIfNoneMatch(page));
+  }
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Unit tests for ProxyPool, without network. */
+public class TestProxyPool {
+
+  private final Set<String> reachable = new HashSet<String>();
+
+  private ProxyPool pool;
+
+  @Before
+  public void setUp() {
+    Configuration conf = new Configuration();
+    conf.setInt("http.proxy.pool.max.inflight", 2);
+    conf.setInt("http.proxy.pool.max.failures", 2);
+
+    pool = new ProxyPool(conf) {
+      @Override
+      protected boolean check(ProxyEntry proxy) {
+        boolean available = reachable.contains(proxy.ipPort());
+        proxy.record(available, 10);
+        return available;
+      }
+    };
+  }
+
+  @Test
+  public void testNonBlocking() {
+    assertNull(pool.poll("a.com"));
+
+    ProxyEntry proxy = new ProxyEntry("10.0.0.1", 8080);
+    pool.put(proxy);
+    assertNotNull(pool.poll("a.com"));
+    assertNotNull(pool.poll("b.com"));
+    // both slots are taken
+    assertNull(pool.poll("c.com"));
+
+    pool.release(proxy, true, 100);
+    assertEquals(proxy, pool.poll("c.com"));
+    assertEquals(2, proxy.inflight());
+  }
+
+  @Test
+  public void testScore() {
+    ProxyEntry slow = new ProxyEntry("10.0.0.1", 8080);
+    ProxyEntry fast = new ProxyEntry("10.0.0.2", 8080);
+    pool.put(slow);
+    pool.put(fast);
+
+    for (int i = 0; i < 5; i++) {
+      slow.tryAcquire(2);
+      pool.release(slow, true, 3000);
+      fast.tryAcquire(2);
+      pool.release(fast, true, 100);
+    }
+    assertTrue(fast.score() > slow.score());
+    assertEquals(fast, pool.poll(null));
+
+    // a busy proxy is less attractive
+    assertEquals(fast, pool.poll(null));
+    assertEquals(slow, pool.poll(null));
+  }
+
+  @Test
+  public void testSticky() {
+    ProxyEntry first = new ProxyEntry("10.0.0.1", 8080);
+    ProxyEntry second = new ProxyEntry("10.0.0.2", 8080);
+    pool.put(first);
+    pool.put(second);
+
+    ProxyEntry proxy = pool.poll("a.com");
+    ProxyEntry other = proxy.equals(first) ? second : first;
+    pool.release(proxy, true, 10);
+
+    // the other proxy scores better now, a.com sticks to its proxy anyway
+    for (int i = 0; i < 5; i++) {
+      proxy.tryAcquire(2);
+      pool.release(proxy, true, 2000);
+    }
+    assertEquals(proxy, pool.poll("a.com"));
+    assertEquals(other, pool.poll("b.com"));
+    pool.release(proxy, true, 10);
+
+    // the proxy fails and is retired, a.com moves to the other one
+    assertEquals(proxy, pool.poll("a.com"));
+    pool.release(proxy, false, 10);
+    assertEquals(proxy, pool.poll("a.com"));
+    pool.release(proxy, false, 10);
+    assertFalse(pool.contains(proxy));
+    assertEquals(1, pool.retiredSize());
+    assertEquals(other, pool.poll("a.com"));
+  }
+
+  @Test
+  public void testHealthCheck() {
+    ProxyEntry proxy = new ProxyEntry("10.0.0.1", 8080);
+    pool.retire(proxy);
+    assertEquals(0, pool.size());
+
+    pool.checkHealth();
+    assertEquals(0, pool.size());
+    assertEquals(1, pool.retiredSize());
+
+    reachable.add(proxy.ipPort());
+    pool.checkHealth();
+    assertTrue(pool.contains(proxy));
+    assertEquals(0, pool.retiredSize());
+    assertEquals(2L, pool.getMetrics().get(0).get("requests"));
+  }
+}
@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.storage.WebPage;
+import org.junit.Test;
+
+/** Unit tests for ParseExecutor. */
+public class TestParseExecutor {
+
+  private static final String SLOW_TYPE = "application/x-slow";
+
+  /**
+   * Parses by url: "ok" succeeds, "fail" throws, "slow" runs until it's
+   * cancelled and "stuck" ignores the cancellation until it's released
+   * */
+  private static class StubParser implements Parser {
+    volatile boolean released = false;
+
+    @Override
+    public Parse getParse(String url, WebPage page) {
+      if (url.equals("fail")) {
+        throw new IllegalStateException("fail");
+      }
+
+      if (url.equals("slow")) {
+        while (!ParseExecutor.isCancelled()) {
+          Thread.yield();
+        }
+        return ParseStatusUtils.getEmptyParse(new ParseException("cancelled"), null);
+      } else if (url.equals("stuck")) {
+        while (!released) {
+          try {
+            Thread.sleep(10);
+          } catch (InterruptedException ignored) {
+          }
+        }
+      }
+
+      return new Parse(url, url, new Outlink[0], ParseStatusUtils.STATUS_SUCCESS);
+    }
+
+    @Override
+    public Collection<WebPage.Field> getFields() {
+      return null;
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+    }
+
+    @Override
+    public Configuration getConf() {
+      return null;
+    }
+  }
+
+  @Test
+  public void testParse() {
+    ParseExecutor executor = new ParseExecutor(2, 3, 600);
+    StubParser parser = new StubParser();
+
+    Parse parse = executor.parse(parser, "ok", new WebPage(), "text/html", 10);
+    assertNotNull(parse);
+    assertEquals("ok", parse.getText());
+    assertNull(executor.parse(parser, "fail", new WebPage(), "text/html", 10));
+    // without a timeout the parse runs in the current thread
+    assertNotNull(executor.parse(parser, "ok", new WebPage(), "text/html", -1));
+
+    ParseExecutor.ParserStats stats = executor.getParserStats().get(StubParser.class.getName());
+    assertEquals(3, stats.getParses());
+    assertEquals(1, stats.getFailures());
+    assertEquals(0, stats.getTimeouts());
+    assertFalse(ParseExecutor.isCancelled());
+  }
+
+  @Test
+  public void testSnapshot() {
+    ParseExecutor executor = new ParseExecutor(2, 3, 600);
+    StubParser parser = new StubParser();
+
+    assertNotNull(executor.parse(parser, "ok", new WebPage(), "text/html", 10));
+    ParseExecutor.Snapshot snapshot = executor.snapshot();
+    String name = StubParser.class.getName().substring(StubParser.class.getName().lastIndexOf('.') + 1);
+    assertFalse(executor.toMap(snapshot).containsKey(name + "Parses"));
+
+    assertNotNull(executor.parse(parser, "ok", new WebPage(), "text/html", 10));
+    assertNull(executor.parse(parser, "fail", new WebPage(), "text/html", 10));
+    assertEquals(2L, executor.toMap(snapshot).get(name + "Parses"));
+    assertEquals(1L, executor.toMap(snapshot).get(name + "Failures"));
+    assertEquals(3L, executor.toMap().get(name + "Parses"));
+  }
+
+  @Test
+  public void testInstance() {
+    Configuration conf = new Configuration();
+    conf.setInt("parser.threads", 2);
+    ParseExecutor executor = ParseExecutor.getInstance(conf);
+    assertTrue(executor == ParseExecutor.getInstance(conf));
+
+    // configured otherwise, an executor of its own, the first one is still used
+    Configuration otherConf = new Configuration(conf);
+    otherConf.setInt("parser.threads", 3);
+    ParseExecutor other = ParseExecutor.getInstance(otherConf);
+    assertFalse(executor == other);
+    assertEquals(3, other.getThreads());
+    assertTrue(executor == ParseExecutor.getInstance(conf));
+    assertNotNull(executor.parse(new StubParser(), "ok", new WebPage(), "text/html", 10));
+    assertNotNull(other.parse(new StubParser(), "ok", new WebPage(), "text/html", 10));
+  }
+
+  @Test
+  public void testQuarantine() throws InterruptedException {
+    ParseExecutor executor = new ParseExecutor(2, 2, 600);
+    StubParser parser = new StubParser();
+
+    assertNull(executor.parse(parser, "slow", new WebPage(), SLOW_TYPE, 1));
+    // a successful parse resets the timeouts in a row
+    assertNotNull(executor.parse(parser, "ok", new WebPage(), SLOW_TYPE, 1));
+    assertNull(executor.parse(parser, "slow", new WebPage(), SLOW_TYPE, 1));
+    assertFalse(executor.isQuarantined(SLOW_TYPE));
+
+    assertNull(executor.parse(parser, "slow", new WebPage(), SLOW_TYPE, 1));
+    assertTrue(executor.isQuarantined(SLOW_TYPE));
+    assertFalse(executor.isQuarantined("text/html"));
+    assertEquals(3, executor.getParserStats().get(StubParser.class.getName()).getTimeouts());
+
+    // the slow parser stops when it's cancelled, the threads are not replaced
+    waitForRunaways(executor, 0);
+  }
+
+  @Test
+  public void testRunaway() throws InterruptedException {
+    ParseExecutor executor = new ParseExecutor(1, 0, 600);
+    StubParser parser = new StubParser();
+
+    assertNull(executor.parse(parser, "stuck", new WebPage(), SLOW_TYPE, 1));
+    assertEquals(1, executor.getRunaways());
+    assertFalse(executor.isQuarantined(SLOW_TYPE));
+
+    // the only thread is stuck, but it's replaced
+    assertNotNull(executor.parse(parser, "ok", new WebPage(), "text/html", 1));
+
+    parser.released = true;
+    waitForRunaways(executor, 0);
+    assertNotNull(executor.parse(parser, "ok", new WebPage(), "text/html", 1));
+  }
+
+  private static void waitForRunaways(ParseExecutor executor, int runaways) throws InterruptedException {
+    for (int i = 0; i < 100 && executor.getRunaways() != runaways; i++) {
+      Thread.sleep(50);
+    }
+    assertEquals(runaways, executor.getRunaways());
+  }
+}
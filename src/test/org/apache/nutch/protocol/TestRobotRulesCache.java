@@ -0,0 +1,212 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.RobotRulesCache.RobotsFile;
+import org.apache.nutch.storage.Host;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Test;
+
+import crawlercommons.robots.BaseRobotRules;
+
+public class TestRobotRulesCache {
+
+  private static final String KEY = "http:example.com:80";
+
+  /**
+   * Counts the loads, sleeping a while to let concurrent misses meet
+   * */
+  private static class CountingLoader implements Callable<BaseRobotRules> {
+    final AtomicInteger loads = new AtomicInteger(0);
+    final BaseRobotRules rules;
+    final long delay;
+
+    CountingLoader(BaseRobotRules rules, long delay) {
+      this.rules = rules;
+      this.delay = delay;
+    }
+
+    @Override
+    public BaseRobotRules call() throws Exception {
+      loads.incrementAndGet();
+      Thread.sleep(delay);
+      return rules;
+    }
+  }
+
+  /**
+   * Keeps the hosts in memory instead of the host table
+   * */
+  private static class MemoryRobotRulesCache extends RobotRulesCache {
+    final Map<String, Host> hosts = new HashMap<String, Host>();
+
+    MemoryRobotRulesCache(long ttl) {
+      super(100, ttl, 1, null);
+    }
+
+    @Override
+    protected Host getHost(String hostname) throws IOException {
+      return hosts.get(hostname);
+    }
+
+    @Override
+    protected void putHost(String hostname, Host host) throws IOException {
+      hosts.put(hostname, host);
+    }
+  }
+
+  @Test
+  public void testCache() {
+    RobotRulesCache cache = new RobotRulesCache(100, 60, 1, null);
+    CountingLoader loader = new CountingLoader(RobotRulesParser.FORBID_ALL_RULES, 0);
+
+    assertNull(cache.getIfPresent(KEY));
+    assertSame(RobotRulesParser.FORBID_ALL_RULES, cache.get(KEY, loader));
+    assertSame(RobotRulesParser.FORBID_ALL_RULES, cache.get(KEY, loader));
+    assertSame(RobotRulesParser.FORBID_ALL_RULES, cache.getIfPresent(KEY));
+
+    assertEquals(1, loader.loads.get());
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void testCacheKey() throws Exception {
+    // all urls of a host share the rules, they are prefetched and checked with the same key
+    assertEquals(KEY, RobotRulesCache.getCacheKey(new URL("http://Example.COM/a/b.html")));
+    assertEquals(KEY, RobotRulesCache.getCacheKey(new URL("http://example.com:80/robots.txt")));
+    assertEquals("https:example.com:443", RobotRulesCache.getCacheKey(new URL("https://example.com/")));
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    RobotRulesCache cache = new RobotRulesCache(100, 60, 0, null);
+    CountingLoader loader = new CountingLoader(RobotRulesParser.EMPTY_RULES, 0);
+
+    // the rules of a failed fetch expire after the error ttl
+    cache.putTransient(KEY, RobotRulesParser.EMPTY_RULES);
+    Thread.sleep(5);
+    assertNull(cache.getIfPresent(KEY));
+
+    cache.get(KEY, loader);
+    cache.get(KEY, loader);
+    assertEquals(1, loader.loads.get());
+
+    // the cache is bounded
+    RobotRulesCache small = new RobotRulesCache(2, 60, 60, null);
+    for (int i = 0; i < 10; i++) {
+      small.put("http:host" + i + ":80", RobotRulesParser.EMPTY_RULES);
+    }
+    assertEquals(2, small.size());
+  }
+
+  @Test
+  public void testFailedLoad() {
+    RobotRulesCache cache = new RobotRulesCache(100, 60, 60, null);
+
+    BaseRobotRules rules = cache.get(KEY, new Callable<BaseRobotRules>() {
+      @Override
+      public BaseRobotRules call() throws Exception {
+        throw new IOException("connection refused");
+      }
+    });
+
+    assertNull(rules);
+    assertNull(cache.getIfPresent(KEY));
+  }
+
+  @Test
+  public void testSingleLoad() throws Exception {
+    final RobotRulesCache cache = new RobotRulesCache(100, 60, 60, null);
+    final CountingLoader loader = new CountingLoader(RobotRulesParser.EMPTY_RULES, 100);
+
+    int threadCount = 10;
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threadCount);
+    final AtomicInteger loaded = new AtomicInteger(0);
+    for (int i = 0; i < threadCount; i++) {
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            if (cache.get(KEY, loader) == RobotRulesParser.EMPTY_RULES) {
+              loaded.incrementAndGet();
+            }
+          } catch (InterruptedException ignored) {
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+
+    start.countDown();
+    done.await();
+
+    assertEquals(threadCount, loaded.get());
+    assertEquals(1, loader.loads.get());
+  }
+
+  @Test
+  public void testHostDb() throws Exception {
+    MemoryRobotRulesCache cache = new MemoryRobotRulesCache(60);
+    byte[] content = "User-agent: *\nDisallow: /a\n".getBytes();
+
+    assertNull(cache.loadFile(KEY));
+    cache.saveFile(KEY, new RobotsFile(200, "text/plain", content, System.currentTimeMillis()));
+    assertEquals(1, cache.hosts.size());
+
+    RobotsFile file = cache.loadFile(KEY);
+    assertEquals(200, file.getCode());
+    assertEquals("text/plain", file.getContentType());
+    assertArrayEquals(content, file.getContent());
+    assertEquals(1, cache.getHostDbLoads());
+
+    // an old file is fetched again
+    cache.saveFile(KEY, new RobotsFile(200, "text/plain", content, System.currentTimeMillis() - 61 * 1000));
+    assertNull(cache.loadFile(KEY));
+  }
+
+  @Test
+  public void testInstance() {
+    Configuration conf = NutchConfiguration.create();
+    RobotRulesCache cache = RobotRulesCache.getInstance(conf);
+    assertSame(cache, RobotRulesCache.getInstance(new Configuration(conf)));
+
+    // a job with other settings has a cache of its own
+    Configuration other = new Configuration(conf);
+    other.setLong("robots.cache.ttl.secs", 1);
+    assertNotSame(cache, RobotRulesCache.getInstance(other));
+  }
+}
@@ -0,0 +1,245 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools.arc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.nutch.crawl.CrawlStatus;
+import org.apache.nutch.metadata.HttpHeaders;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.GZIPUtils;
+import org.junit.Test;
+
+/** Unit tests for ArchiveReader, WarcWriter and the status of imported pages. */
+public class TestArchiveReader {
+
+  private static final int PAGES = 10;
+
+  private static final long DATE = 1420070400000L; // 2015-01-01T00:00:00Z
+
+  @Test
+  public void testWarcRoundTrip() throws IOException {
+    ArchiveReader reader = new ArchiveReader(new ByteArrayInputStream(newWarc(PAGES)), -1);
+
+    for (int i = 0; i < PAGES; i++) {
+      ArchiveRecord record = reader.next();
+      assertEquals("http://example.com/" + i, record.getUrl());
+      assertEquals(DATE + i * 1000, record.getDate());
+      assertEquals(200, record.getHttpCode());
+      assertEquals("text/html", record.getContentType());
+      assertArrayEquals(newContent(i), record.getContent());
+      assertFalse(record.isTruncated());
+
+      // the content is written decoded
+      Metadata headers = record.getHeaders();
+      assertNull(headers.get(HttpHeaders.CONTENT_ENCODING));
+      assertNull(headers.get("Q-Connect-Time"));
+      assertEquals(String.valueOf(newContent(i).length), headers.get(HttpHeaders.CONTENT_LENGTH));
+      assertEquals(2, headers.getValues("Set-Cookie").length);
+    }
+
+    assertNull(reader.next());
+    assertEquals(PAGES, reader.getRecords());
+    // the warcinfo record
+    assertEquals(1, reader.getSkippedRecords());
+  }
+
+  @Test
+  public void testEncodedWarc() throws IOException {
+    byte[] content = newContent(1);
+    byte[] gzipped = GZIPUtils.zip(content);
+
+    // the gzipped content in two chunks
+    int half = gzipped.length / 2;
+    ByteArrayOutputStream chunked = new ByteArrayOutputStream();
+    chunked.write((Integer.toHexString(half) + ";ext=1\r\n").getBytes(StandardCharsets.ISO_8859_1));
+    chunked.write(gzipped, 0, half);
+    chunked.write(("\r\n" + Integer.toHexString(gzipped.length - half) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+    chunked.write(gzipped, half, gzipped.length - half);
+    chunked.write("\r\n0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+
+    ByteArrayOutputStream block = new ByteArrayOutputStream();
+    block.write(("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=utf-8\r\n"
+        + "Transfer-Encoding: chunked\r\nContent-Encoding: gzip\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+    chunked.writeTo(block);
+
+    ByteArrayOutputStream warc = new ByteArrayOutputStream();
+    writeWarcRecord(warc, "request", "application/http; msgtype=request",
+        "GET / HTTP/1.1\r\nHost: example.com\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+    writeWarcRecord(warc, "response", "application/http; msgtype=response", block.toByteArray());
+    writeWarcRecord(warc, "resource", "text/plain", "plain text".getBytes(StandardCharsets.ISO_8859_1));
+
+    ArchiveReader reader = new ArchiveReader(new ByteArrayInputStream(warc.toByteArray()), -1);
+
+    ArchiveRecord record = reader.next();
+    assertEquals("text/html; charset=utf-8", record.getContentType());
+    assertArrayEquals(content, record.getContent());
+    assertNull(record.getHeaders().get(HttpHeaders.TRANSFER_ENCODING));
+    assertNull(record.getHeaders().get(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(String.valueOf(content.length), record.getHeaders().get(HttpHeaders.CONTENT_LENGTH));
+
+    record = reader.next();
+    assertEquals(ArchiveRecord.NO_HTTP_CODE, record.getHttpCode());
+    assertEquals("text/plain", record.getContentType());
+    assertEquals("plain text", new String(record.getContent(), StandardCharsets.ISO_8859_1));
+
+    assertNull(reader.next());
+    assertEquals(1, reader.getSkippedRecords());
+  }
+
+  @Test
+  public void testArc() throws IOException {
+    String version = "1 0 InternetArchive\nURL IP-address Archive-date Content-type Archive-length\n";
+    String page = "HTTP/1.0 404 Not Found\r\nContent-Type: text/html\r\n\r\n<html>not found</html>";
+
+    StringBuilder arc = new StringBuilder();
+    arc.append("filedesc://test.arc 0.0.0.0 20150101000000 text/plain ").append(version.length()).append("\n");
+    arc.append(version).append("\n");
+    arc.append("http://example.com/missing 127.0.0.1 20150101000001 text/html ").append(page.length()).append("\n");
+    arc.append(page).append("\n");
+
+    // compressed record by record
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (String member : arc.toString().split("(?<=\n)(?=http://)")) {
+      bytes.write(GZIPUtils.zip(member.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    ArchiveReader reader = new ArchiveReader(new ByteArrayInputStream(bytes.toByteArray()), -1);
+    ArchiveRecord record = reader.next();
+    assertEquals("http://example.com/missing", record.getUrl());
+    assertEquals("127.0.0.1", record.getIp());
+    assertEquals(DATE + 1000, record.getDate());
+    assertEquals(404, record.getHttpCode());
+    assertEquals("<html>not found</html>", new String(record.getContent(), StandardCharsets.ISO_8859_1));
+    assertNull(reader.next());
+  }
+
+  @Test
+  public void testContentLimit() throws IOException {
+    ArchiveReader reader = new ArchiveReader(new ByteArrayInputStream(newWarc(2)), 100);
+
+    // the rest of the content is skipped, the next record is read
+    for (int i = 0; i < 2; i++) {
+      ArchiveRecord record = reader.next();
+      assertTrue(record.isTruncated());
+      assertArrayEquals(Arrays.copyOf(newContent(i), 100), record.getContent());
+    }
+    assertNull(reader.next());
+  }
+
+  @Test
+  public void testTruncated() throws IOException {
+    ByteArrayOutputStream warc = new ByteArrayOutputStream();
+    writeWarcRecord(warc, "resource", "text/plain", newContent(0));
+    byte[] bytes = warc.toByteArray();
+
+    ArchiveReader reader = new ArchiveReader(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length / 2)), -1);
+    try {
+      reader.next();
+    } catch (EOFException e) {
+      return;
+    }
+    throw new AssertionError("truncated record is read");
+  }
+
+  @Test
+  public void testStatus() {
+    assertEquals(CrawlStatus.STATUS_FETCHED, setStatus(200, null).getStatus().byteValue());
+    assertEquals(CrawlStatus.STATUS_FETCHED, setStatus(ArchiveRecord.NO_HTTP_CODE, null).getStatus().byteValue());
+    assertEquals(CrawlStatus.STATUS_NOTMODIFIED, setStatus(304, null).getStatus().byteValue());
+    assertEquals(CrawlStatus.STATUS_GONE, setStatus(404, null).getStatus().byteValue());
+    assertEquals(CrawlStatus.STATUS_RETRY, setStatus(503, null).getStatus().byteValue());
+
+    WebPage page = setStatus(301, "http://example.com/moved");
+    assertEquals(CrawlStatus.STATUS_REDIR_PERM, page.getStatus().byteValue());
+    assertEquals(ProtocolStatusCodes.MOVED, page.getProtocolStatus().getCode().intValue());
+    assertEquals("http://example.com/moved", page.getProtocolStatus().getArgs().get(0).toString());
+
+    page = setStatus(302, "http://example.com/moved");
+    assertEquals(CrawlStatus.STATUS_REDIR_TEMP, page.getStatus().byteValue());
+
+    // a relative location is resolved against the url
+    page = setStatus(302, "/a/b?c=d");
+    assertEquals("http://example.com/a/b?c=d", page.getProtocolStatus().getArgs().get(0).toString());
+  }
+
+  private static WebPage setStatus(int code, String location) {
+    Metadata headers = new SpellCheckedMetadata();
+    if (location != null) {
+      headers.add(HttpHeaders.LOCATION, location);
+    }
+    ArchiveRecord record = new ArchiveRecord("http://example.com/", DATE, null, "text/html",
+        code, headers, new byte[0], false);
+
+    WebPage page = WebPage.newBuilder().build();
+    ArchiveImporterJob.ArchiveMapper.setStatus(page, record);
+    return page;
+  }
+
+  private static byte[] newWarc(int count) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WarcWriter writer = new WarcWriter(out);
+    writer.writeInfo("test.warc.gz", "test");
+
+    for (int i = 0; i < count; i++) {
+      Metadata headers = new SpellCheckedMetadata();
+      headers.add(HttpHeaders.CONTENT_TYPE, "text/html");
+      headers.add(HttpHeaders.CONTENT_ENCODING, "gzip");
+      headers.add(HttpHeaders.CONTENT_LENGTH, "12");
+      headers.add("Q-Connect-Time", "10");
+      headers.add("Set-Cookie", "a=1");
+      headers.add("Set-Cookie", "b=2");
+      writer.writeResponse("http://example.com/" + i, DATE + i * 1000, 200, headers, newContent(i));
+    }
+
+    writer.close();
+    assertEquals(count + 1, writer.getRecords());
+    return out.toByteArray();
+  }
+
+  private static void writeWarcRecord(ByteArrayOutputStream out, String type, String contentType, byte[] block)
+      throws IOException {
+    String header = "WARC/1.0\r\nWARC-Type: " + type + "\r\nWARC-Target-URI: http://example.com/\r\n"
+        + "WARC-Date: 2015-01-01T00:00:00Z\r\nContent-Type: " + contentType + "\r\n"
+        + "Content-Length: " + block.length + "\r\n\r\n";
+    out.write(header.getBytes(StandardCharsets.ISO_8859_1));
+    out.write(block);
+    out.write("\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  private static byte[] newContent(int i) {
+    StringBuilder sb = new StringBuilder("<html><body>");
+    for (int j = 0; j < 100; j++) {
+      sb.append("<p>page ").append(i).append(" paragraph ").append(j).append("</p>\n");
+    }
+    return sb.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/** Unit tests for ContentBuffer and BufferPool. */
+public class TestContentBuffer {
+
+  @Test
+  public void testReadAcrossBuffers() throws Exception {
+    BufferPool pool = new BufferPool(100, 10);
+    byte[] data = new byte[1050];
+    new Random(0).nextBytes(data);
+
+    ContentBuffer buffer = new ContentBuffer(pool, -1);
+    assertEquals(1050, buffer.readFrom(new ByteArrayInputStream(data)));
+    assertArrayEquals(data, buffer.toByteArray());
+
+    buffer.release();
+    assertEquals(10, pool.getPooledCount());
+    assertEquals(11, pool.getMisses());
+
+    // the buffers are reused
+    buffer = new ContentBuffer(pool, -1);
+    buffer.readFrom(new ByteArrayInputStream(data));
+    assertEquals(10, pool.getHits());
+    buffer.release();
+  }
+
+  @Test
+  public void testLimit() throws Exception {
+    BufferPool pool = new BufferPool(100, 10);
+    byte[] data = new byte[1000];
+    new Random(0).nextBytes(data);
+
+    ContentBuffer buffer = new ContentBuffer(pool, 250);
+    ByteArrayInputStream in = new ByteArrayInputStream(data);
+    assertEquals(250, buffer.readFrom(in));
+    assertTrue(buffer.isFull());
+    assertEquals(0, buffer.readFrom(in, 10));
+
+    // the rest is not read
+    assertEquals(750, in.available());
+    assertArrayEquals(Arrays.copyOf(data, 250), buffer.toByteArray());
+    buffer.release();
+  }
+
+  @Test
+  public void testReadAtMost() throws Exception {
+    BufferPool pool = new BufferPool(100, 10);
+    ContentBuffer buffer = new ContentBuffer(pool, -1);
+    ByteArrayInputStream in = new ByteArrayInputStream(new byte[30]);
+
+    assertEquals(20, buffer.readFrom(in, 20));
+    assertEquals(10, buffer.readFrom(in, 20));
+    assertEquals(-1, buffer.readFrom(in, 20));
+    assertEquals(30, buffer.size());
+    buffer.release();
+  }
+}
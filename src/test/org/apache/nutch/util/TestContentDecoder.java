@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipException;
+
+import org.junit.Test;
+
+/** Unit tests for ContentDecoder. */
+public class TestContentDecoder {
+
+  private final byte[] page = newPage(100 * 1024);
+
+  @Test
+  public void testGzip() throws IOException {
+    byte[] gzipped = GZIPUtils.zip(page);
+    assertArrayEquals(page, ContentDecoder.decode(gzipped, "gzip", -1));
+    assertArrayEquals(page, ContentDecoder.decode(gzipped, " X-GZIP ", -1));
+
+    // the limit applies to the decoded content
+    assertArrayEquals(Arrays.copyOf(page, 1000), ContentDecoder.decode(gzipped, "gzip", 1000));
+
+    // truncated content is decoded as far as possible
+    byte[] truncated = ContentDecoder.decode(Arrays.copyOf(gzipped, gzipped.length / 2), "gzip", -1);
+    assertTrue(truncated.length > 0);
+    assertArrayEquals(Arrays.copyOf(page, truncated.length), truncated);
+  }
+
+  @Test
+  public void testGzipHeader() throws IOException {
+    byte[] gzipped = GZIPUtils.zip(page);
+    // set FNAME and FEXTRA, put the name and the extra field behind the fixed header
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(gzipped, 0, 3);
+    out.write(8 | 4);
+    out.write(gzipped, 4, 6);
+    out.write(new byte[] { 2, 0, 'x', 'y' });
+    out.write("page.html".getBytes());
+    out.write(0);
+    out.write(gzipped, 10, gzipped.length - 10);
+
+    assertArrayEquals(page, ContentDecoder.decode(out.toByteArray(), "gzip", -1));
+  }
+
+  @Test(expected = ZipException.class)
+  public void testNotGzip() throws IOException {
+    ContentDecoder.decode(page, "gzip", -1);
+  }
+
+  @Test
+  public void testDeflate() throws IOException {
+    // zlib wrapped, as HTTP says
+    ByteArrayOutputStream zlib = new ByteArrayOutputStream();
+    DeflaterOutputStream out = new DeflaterOutputStream(zlib);
+    out.write(page);
+    out.close();
+    assertArrayEquals(page, ContentDecoder.decode(zlib.toByteArray(), "deflate", -1));
+
+    // raw, as many servers do
+    assertArrayEquals(page, ContentDecoder.decode(rawDeflate(page), "deflate", -1));
+  }
+
+  @Test
+  public void testIdentity() throws IOException {
+    assertFalse(ContentDecoder.isEncoded(null));
+    assertFalse(ContentDecoder.isEncoded("identity"));
+    assertFalse(ContentDecoder.isEncoded("compress"));
+    assertEquals(ContentDecoder.isBrotliSupported(), ContentDecoder.isEncoded("br"));
+
+    InputStream in = new ByteArrayInputStream(page);
+    assertTrue(in == ContentDecoder.decode(in, "identity"));
+  }
+
+  @Test
+  public void testStreaming() throws IOException {
+    byte[] page = newPage(1024 * 1024);
+    byte[] gzipped = GZIPUtils.zip(page);
+    ByteArrayInputStream in = new ByteArrayInputStream(gzipped);
+
+    // reading stops at the limit, the rest of the encoded content is not read
+    InputStream decoded = ContentDecoder.decode(in, "gzip");
+    ContentBuffer buffer = new ContentBuffer(new BufferPool(1024, 8), 10);
+    try {
+      assertFalse(ContentDecoder.readBestEffort(decoded, buffer));
+      assertArrayEquals(Arrays.copyOf(page, 10), buffer.toByteArray());
+      assertTrue(in.available() > 0);
+    } finally {
+      decoded.close();
+      buffer.release();
+    }
+
+    // the inflater is given back and used again
+    int pooled = ContentDecoder.getPooledInflaters();
+    assertTrue(pooled > 0);
+    decoded = ContentDecoder.decode(new ByteArrayInputStream(gzipped), "gzip");
+    assertEquals(pooled - 1, ContentDecoder.getPooledInflaters());
+    decoded.close();
+    assertEquals(pooled, ContentDecoder.getPooledInflaters());
+  }
+
+  private static byte[] rawDeflate(byte[] data) throws IOException {
+    ByteArrayOutputStream raw = new ByteArrayOutputStream();
+    DeflaterOutputStream out = new DeflaterOutputStream(raw, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    out.write(data);
+    out.close();
+    return raw.toByteArray();
+  }
+
+  private static byte[] newPage(int size) {
+    StringBuilder sb = new StringBuilder("<html><body>");
+    Random random = new Random(0);
+    while (sb.length() < size) {
+      sb.append("<p>paragraph ").append(random.nextInt(1000)).append("</p>\n");
+    }
+    return Arrays.copyOf(sb.toString().getBytes(), size);
+  }
+}
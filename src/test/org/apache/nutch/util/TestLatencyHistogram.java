@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Unit tests for LatencyHistogram. */
+public class TestLatencyHistogram {
+
+  @Test
+  public void testBuckets() {
+    long last = -1;
+    for (long v = 0; v < 100000; v++) {
+      int index = LatencyHistogram.indexOf(v);
+      assertTrue(index >= last && index <= last + 1);
+      last = index;
+
+      // the bucket value is close to the recorded value
+      long value = LatencyHistogram.valueOf(index);
+      assertTrue(v + " -> " + value, Math.abs(value - v) <= v / 4);
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+
+    assertEquals(1000, histogram.getCount());
+    assertEquals(500, histogram.getMean());
+    assertEquals(1000, histogram.getMax());
+    assertTrue(Math.abs(histogram.getPercentile(50) - 500) <= 125);
+    assertTrue(Math.abs(histogram.getPercentile(99) - 990) <= 250);
+    assertTrue(histogram.getPercentile(100) <= 1000);
+
+    LatencyHistogram other = new LatencyHistogram();
+    other.record(Long.MAX_VALUE);
+    histogram.add(other);
+    assertEquals(1001, histogram.getCount());
+    assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+
+    // the values since a copy
+    LatencyHistogram copy = histogram.copy();
+    for (int i = 0; i < 10; i++) {
+      histogram.record(2000);
+    }
+    LatencyHistogram since = histogram.copy();
+    since.subtract(copy);
+    assertEquals(10, since.getCount());
+    assertEquals(2000, since.getMean());
+    assertTrue(Math.abs(since.getPercentile(50) - 2000) <= 500);
+  }
+}
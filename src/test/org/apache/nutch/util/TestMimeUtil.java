@@ -114,6 +114,54 @@ public class TestMimeUtil extends TestCase {
     }
   }
 
+  /** the magic of a container format is detected with the whole content */
+  public void testMagicPrefix() throws IOException {
+    Configuration conf = NutchConfiguration.create();
+    conf.setInt("mime.type.magic.length", 1024);
+    MimeUtil mimeUtil = new MimeUtil(conf);
+
+    for (String[] testPage : binaryFiles) {
+      byte[] bytes = Files.toByteArray(new File(sampleDir, testPage[1]));
+      assertTrue(bytes.length > 1024);
+      assertEquals(testPage[0], mimeUtil.autoResolveContentType("", urlPrefix + testPage[1], bytes));
+    }
+
+    // a page which starts like html is html, whatever follows
+    StringBuilder page = new StringBuilder(textBasedFormats[1][3]);
+    while (page.length() < 4096) {
+      page.append("\0\1\2%PDF-1.4");
+    }
+    assertEquals("text/html", mimeUtil.autoResolveContentType("", urlPrefix,
+        page.toString().getBytes(defaultCharset)));
+  }
+
+  /** a type is cached after the content confirmed it a few times in a row */
+  public void testCache() {
+    Configuration conf = NutchConfiguration.create();
+    conf.setInt("mime.type.cache.confidence", 2);
+    MimeUtil mimeUtil = new MimeUtil(conf);
+
+    String url = "http://cache.example.com/page.html?id=";
+    byte[] html = textBasedFormats[0][3].getBytes(defaultCharset);
+    byte[] pdf = "%PDF-1.4\n%\u00e2\u00e3\n1 0 obj\n".getBytes(defaultCharset);
+
+    long hits = MimeUtil.getDetectionStats()[1];
+    assertEquals("text/html", mimeUtil.autoResolveContentType("text/html", url + 1, html));
+    // the content changes the type, it's not cached
+    assertEquals("application/pdf", mimeUtil.autoResolveContentType("text/html", url + 2, pdf));
+    assertEquals("text/html", mimeUtil.autoResolveContentType("text/html", url + 3, html));
+    assertEquals("text/html", mimeUtil.autoResolveContentType("text/html", url + 4, html));
+    assertEquals(hits, MimeUtil.getDetectionStats()[1]);
+
+    assertEquals("text/html", mimeUtil.autoResolveContentType("text/html; charset=utf-8", url + 5, html));
+    assertEquals(hits + 1, MimeUtil.getDetectionStats()[1]);
+
+    // another host, extension or header is another entry
+    assertEquals("application/pdf", mimeUtil.autoResolveContentType("text/html", "http://other.example.com/page.html", pdf));
+    assertEquals("application/pdf", mimeUtil.autoResolveContentType("text/html", "http://cache.example.com/page.htm", pdf));
+    assertEquals(hits + 1, MimeUtil.getDetectionStats()[1]);
+  }
+
   /** test binary file formats (real files) */
   public void testBinaryFiles() throws IOException {
     for (String[] testPage : binaryFiles) {